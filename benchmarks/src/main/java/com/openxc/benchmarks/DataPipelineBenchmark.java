@@ -0,0 +1,86 @@
+package com.openxc.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openxc.DataPipeline;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.sinks.VehicleDataSink;
+
+/**
+ * Throughput of {@link DataPipeline#receive(VehicleMessage)}, which caches
+ * keyed messages and hands every message to each sink, and of receiving the
+ * same messages in batches like a BytestreamDataSource does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataPipelineBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+    private static final int BATCH_SIZE = 32;
+
+    @Param({"1", "4"})
+    public int sinkCount;
+
+    private DataPipeline mPipeline;
+    private List<VehicleMessage> mMessages;
+    private int mIndex;
+    private int mBatchIndex;
+
+    private static class CountingSink implements VehicleDataSink {
+        long mCount;
+
+        @Override
+        public void receive(VehicleMessage message) {
+            mCount++;
+        }
+
+        @Override
+        public void stop() { }
+    }
+
+    @Setup
+    public void setup() {
+        mMessages = SampleMessages.mixed(MESSAGE_COUNT, 42);
+        mPipeline = new DataPipeline();
+        for(int i = 0; i < sinkCount; i++) {
+            mPipeline.addSink(new CountingSink());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPipeline.stop();
+    }
+
+    @Benchmark
+    public void receive() {
+        mIndex = (mIndex + 1) % MESSAGE_COUNT;
+        mPipeline.receive(mMessages.get(mIndex));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void receiveBatch() {
+        mBatchIndex = (mBatchIndex + BATCH_SIZE) % MESSAGE_COUNT;
+        mPipeline.receive(mMessages.subList(mBatchIndex,
+                    mBatchIndex + BATCH_SIZE));
+    }
+}
@@ -0,0 +1,57 @@
+package com.openxc.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openxc.messages.UnrecognizedMessageTypeException;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.JsonFormatter;
+
+/**
+ * Throughput of serializing and deserializing single JSON messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonFormatterBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    private List<VehicleMessage> mMessages;
+    private String[] mSerialized;
+    private int mIndex;
+
+    @Setup
+    public void setup() {
+        mMessages = SampleMessages.mixed(MESSAGE_COUNT, 42);
+        mSerialized = new String[MESSAGE_COUNT];
+        for(int i = 0; i < MESSAGE_COUNT; i++) {
+            mSerialized[i] = JsonFormatter.serialize(mMessages.get(i));
+        }
+    }
+
+    @Benchmark
+    public String serialize() {
+        mIndex = (mIndex + 1) % MESSAGE_COUNT;
+        return JsonFormatter.serialize(mMessages.get(mIndex));
+    }
+
+    @Benchmark
+    public VehicleMessage deserialize() throws UnrecognizedMessageTypeException {
+        mIndex = (mIndex + 1) % MESSAGE_COUNT;
+        return JsonFormatter.deserialize(mSerialized[mIndex]);
+    }
+}
@@ -0,0 +1,54 @@
+package com.openxc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openxc.NoValueException;
+import com.openxc.measurements.BaseMeasurement;
+import com.openxc.measurements.Measurement;
+import com.openxc.measurements.TurnSignalStatus;
+import com.openxc.measurements.UnrecognizedMeasurementTypeException;
+import com.openxc.measurements.VehicleDoorStatus;
+import com.openxc.measurements.VehicleSpeed;
+import com.openxc.messages.SimpleVehicleMessage;
+
+/**
+ * Throughput of converting simple messages to measurements, which
+ * MessageListenerSink does for every message with a measurement listener.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeasurementBenchmark {
+    private SimpleVehicleMessage[] mMessages;
+    private int mIndex;
+
+    @Setup
+    public void setup() {
+        mMessages = new SimpleVehicleMessage[] {
+            new VehicleSpeed(42.0).toVehicleMessage(),
+            new TurnSignalStatus(
+                    TurnSignalStatus.TurnSignalPosition.LEFT).toVehicleMessage(),
+            new VehicleDoorStatus("driver", true).toVehicleMessage()
+        };
+    }
+
+    @Benchmark
+    public Measurement fromMessage() throws NoValueException,
+            UnrecognizedMeasurementTypeException {
+        mIndex = (mIndex + 1) % mMessages.length;
+        return BaseMeasurement.getMeasurementFromMessage(mMessages[mIndex]);
+    }
+}
@@ -0,0 +1,99 @@
+package com.openxc.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openxc.measurements.EngineSpeed;
+import com.openxc.measurements.Measurement;
+import com.openxc.measurements.VehicleSpeed;
+import com.openxc.messages.ExactKeyMatcher;
+import com.openxc.messages.NamedVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.sinks.MessageListenerSink;
+
+/**
+ * Throughput of dispatching a message to the listeners registered with a
+ * {@link MessageListenerSink}, on the sink's own notification thread.
+ *
+ * The benchmark calls propagateMessage directly, so it measures the listener
+ * lookup and measurement conversion without the queue in front of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageListenerSinkBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    // Number of extra signals with one exact-key listener each, like a
+    // dashboard that registers one listener per signal.
+    @Param({"10", "200"})
+    public int listenerCount;
+
+    private DirectDispatchSink mSink;
+    private List<VehicleMessage> mMessages;
+    private int mIndex;
+    private long mReceived;
+
+    private static class DirectDispatchSink extends MessageListenerSink {
+        void dispatch(VehicleMessage message) {
+            propagateMessage(message);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        mMessages = SampleMessages.mixed(MESSAGE_COUNT, 42);
+        mSink = new DirectDispatchSink();
+
+        VehicleMessage.Listener messageListener = new VehicleMessage.Listener() {
+            @Override
+            public void receive(VehicleMessage message) {
+                mReceived++;
+            }
+        };
+        for(int i = 0; i < listenerCount; i++) {
+            mSink.register(ExactKeyMatcher.buildExactMatcher(
+                        new NamedVehicleMessage("signal_" + i)),
+                    messageListener);
+        }
+        mSink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage("vehicle_speed")),
+                messageListener);
+
+        Measurement.Listener measurementListener = new Measurement.Listener() {
+            @Override
+            public void receive(Measurement measurement) {
+                mReceived++;
+            }
+        };
+        mSink.register(VehicleSpeed.class, measurementListener);
+        mSink.register(EngineSpeed.class, measurementListener);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSink.stop();
+    }
+
+    @Benchmark
+    public long propagateMessage() {
+        mIndex = (mIndex + 1) % MESSAGE_COUNT;
+        mSink.dispatch(mMessages.get(mIndex));
+        return mReceived;
+    }
+}
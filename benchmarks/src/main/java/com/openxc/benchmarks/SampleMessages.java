@@ -0,0 +1,101 @@
+package com.openxc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.openxc.messages.CanMessage;
+import com.openxc.messages.DiagnosticResponse;
+import com.openxc.messages.EventedSimpleVehicleMessage;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+
+/**
+ * Builds a message mix that resembles what a vehicle interface sends while
+ * driving: mostly numeric signals, some boolean and state signals, a few
+ * evented signals, raw CAN frames and the occasional diagnostic response.
+ */
+public class SampleMessages {
+    private static final String[] NUMERIC_SIGNALS = new String[] {
+        "vehicle_speed", "engine_speed", "accelerator_pedal_position",
+        "steering_wheel_angle", "torque_at_transmission", "fuel_level",
+        "fuel_consumed_since_restart", "odometer", "latitude", "longitude"
+    };
+
+    private static final String[] BOOLEAN_SIGNALS = new String[] {
+        "brake_pedal_status", "parking_brake_status", "headlamp_status",
+        "high_beam_status", "windshield_wiper_status"
+    };
+
+    private static final String[] GEARS = new String[] {
+        "neutral", "first", "second", "third", "fourth", "fifth", "reverse"
+    };
+
+    private static final String[] DOORS = new String[] {
+        "driver", "passenger", "rear_left", "rear_right"
+    };
+
+    private SampleMessages() { }
+
+    /**
+     * Build a mixed list of timestamped messages.
+     *
+     * @param count the number of messages to build.
+     * @param seed seed for the random values, so runs are repeatable.
+     */
+    public static List<VehicleMessage> mixed(int count, long seed) {
+        Random random = new Random(seed);
+        List<VehicleMessage> messages = new ArrayList<>(count);
+        long timestamp = 1332432977835L;
+        for(int i = 0; i < count; i++) {
+            VehicleMessage message;
+            int kind = random.nextInt(100);
+            if(kind < 60) {
+                message = SimpleVehicleMessage.numeric(
+                        NUMERIC_SIGNALS[random.nextInt(NUMERIC_SIGNALS.length)],
+                        random.nextDouble() * 100);
+            } else if(kind < 70) {
+                message = new SimpleVehicleMessage(
+                        BOOLEAN_SIGNALS[random.nextInt(BOOLEAN_SIGNALS.length)],
+                        random.nextBoolean());
+            } else if(kind < 75) {
+                message = new SimpleVehicleMessage("transmission_gear_position",
+                        GEARS[random.nextInt(GEARS.length)]);
+            } else if(kind < 78) {
+                message = new EventedSimpleVehicleMessage("door_status",
+                        DOORS[random.nextInt(DOORS.length)],
+                        random.nextBoolean());
+            } else if(kind < 95) {
+                byte[] data = new byte[8];
+                random.nextBytes(data);
+                message = new CanMessage(1 + random.nextInt(2),
+                        0x100 + random.nextInt(0x400), data);
+            } else {
+                byte[] payload = new byte[4];
+                random.nextBytes(payload);
+                message = new DiagnosticResponse(1, 0x7e8, 1,
+                        random.nextInt(0x40), payload, null,
+                        random.nextDouble() * 100);
+            }
+            timestamp += random.nextInt(5);
+            message.setTimestamp(timestamp);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Split a byte stream into chunks the size of a single read from a vehicle
+     * interface, ignoring message boundaries like a real transport would.
+     */
+    public static List<byte[]> chunk(byte[] stream, int chunkSize) {
+        List<byte[]> chunks = new ArrayList<>();
+        for(int offset = 0; offset < stream.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, stream.length - offset);
+            byte[] chunk = new byte[length];
+            System.arraycopy(stream, offset, chunk, 0, length);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+}
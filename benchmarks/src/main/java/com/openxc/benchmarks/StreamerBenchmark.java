@@ -0,0 +1,82 @@
+package com.openxc.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.openxc.messages.SerializationException;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.streamers.BinaryStreamer;
+import com.openxc.messages.streamers.JsonStreamer;
+import com.openxc.messages.streamers.VehicleMessageStreamer;
+
+/**
+ * Throughput of framing and parsing a message stream the way the bytestream
+ * data sources do: receive one chunk per read, then parse every complete
+ * message out of the buffer.
+ *
+ * Scores are in messages per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamerBenchmark {
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    // The bytestream sources read 512 bytes at a time.
+    @Param({"512"})
+    public int chunkSize;
+
+    private List<byte[]> mChunks;
+
+    @Setup
+    public void setup() throws SerializationException {
+        VehicleMessageStreamer streamer = newStreamer();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for(VehicleMessage message : SampleMessages.mixed(MESSAGE_COUNT, 42)) {
+            byte[] serialized = streamer.serializeForStream(message);
+            stream.write(serialized, 0, serialized.length);
+        }
+        mChunks = SampleMessages.chunk(stream.toByteArray(), chunkSize);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void receiveAndParse(Blackhole blackhole) {
+        VehicleMessageStreamer streamer = newStreamer();
+        for(byte[] chunk : mChunks) {
+            streamer.receive(chunk, chunk.length);
+            VehicleMessage message;
+            while((message = streamer.parseNextMessage()) != null) {
+                blackhole.consume(message);
+            }
+        }
+    }
+
+    private VehicleMessageStreamer newStreamer() {
+        if("json".equals(format)) {
+            return new JsonStreamer();
+        }
+        return new BinaryStreamer();
+    }
+}
@@ -4,10 +4,12 @@ import android.content.Context;
 import android.preference.Preference;
 import android.util.Log;
 
+import com.openxc.DataPipeline;
 import com.openxc.sinks.DataSinkException;
 import com.openxc.sinks.FileRecorderSink;
 import com.openxc.sinks.VehicleDataSink;
 import com.openxc.util.AndroidFileOpener;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
 import com.openxcplatform.enabler.R;
 
 /**
@@ -58,7 +60,10 @@ public class FileRecordingPreferenceManager extends VehiclePreferenceManager {
                     String file_threshold_minutes = getPreferenceString(R.string.file_threshold_minutes);
                     mFileRecorder = new FileRecorderSink(
                             new AndroidFileOpener(directory), getContext(), directory, device_id, file_threshold_minutes);
-                    getVehicleManager().addSink(mFileRecorder);
+                    // Recorded data must not be lost, so wait for the sink rather
+                    // than dropping messages if it falls behind
+                    getVehicleManager().addAsynchronousSink(mFileRecorder,
+                            DataPipeline.DEFAULT_LANE_CAPACITY, OverflowPolicy.BLOCK);
                 }
             } else {
                 Log.d(TAG, "No recording base directory set (" + directory +
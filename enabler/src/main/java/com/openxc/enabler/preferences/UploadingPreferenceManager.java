@@ -4,9 +4,11 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.openxc.DataPipeline;
 import com.openxc.sinks.DataSinkException;
 import com.openxc.sinks.UploaderSink;
 import com.openxc.sinks.VehicleDataSink;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
 import com.openxcplatform.enabler.R;
 
 /**
@@ -69,7 +71,10 @@ public class UploadingPreferenceManager extends VehiclePreferenceManager {
                     Log.w(TAG, "Unable to add uploader sink", e);
                     return;
                 }
-                getVehicleManager().addSink(mUploader);
+                // Uploaded data must not be lost, so wait for the sink rather
+                // than dropping messages if it falls behind
+                getVehicleManager().addAsynchronousSink(mUploader,
+                        DataPipeline.DEFAULT_LANE_CAPACITY, OverflowPolicy.BLOCK);
             }
         } else {
             stopUploading();
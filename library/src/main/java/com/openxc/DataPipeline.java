@@ -1,10 +1,14 @@
 package com.openxc;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.util.Log;
 
@@ -14,8 +18,11 @@ import com.openxc.messages.MessageKey;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.sinks.DataSinkException;
 import com.openxc.sinks.VehicleDataSink;
+import com.openxc.sources.BatchSourceCallback;
 import com.openxc.sources.SourceCallback;
 import com.openxc.sources.VehicleDataSource;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+import com.openxc.util.TimeSeries;
 
 /**
  * A pipeline that ferries data from VehicleDataSources to VehicleDataSinks.
@@ -26,19 +33,39 @@ import com.openxc.sources.VehicleDataSource;
  * values arrive. The DataPipeline then passes this value on to all currently
  * registered data sinks.
  *
+ * Sinks are called directly from the source's thread unless they are added
+ * with {@link #addAsynchronousSink(VehicleDataSink)}, which gives the sink its
+ * own queue and thread. Use that for sinks that do I/O, like recording to a
+ * file or uploading, so a slow sink can never hold up reading from the vehicle
+ * interface.
+ *
+ * The pipeline keeps the last message received for each key, and can also
+ * keep a window of the recent values of some signals - see
+ * {@link #enableHistory(MessageKey, int)}.
+ *
  * The Pipeline can have an optional Operator, which implements a few callbacks
  * to check the status of the pipeline - e.g. if some source in the pipeline is
  * active.
  */
-public class DataPipeline implements SourceCallback {
+public class DataPipeline implements BatchSourceCallback {
     private static final String TAG = "DataPipeline";
+    public static final int DEFAULT_LANE_CAPACITY = 1024;
+    public static final OverflowPolicy DEFAULT_LANE_OVERFLOW_POLICY =
+            OverflowPolicy.BLOCK;
 
     private Operator mOperator;
-    private int mMessagesReceived = 0;
-    private Map<MessageKey, KeyedMessage> mKeyedMessages =
+    private final AtomicLong mMessagesReceived = new AtomicLong();
+    private final Map<MessageKey, KeyedMessage> mKeyedMessages =
             new ConcurrentHashMap<>();
+    // Batches being stored, and a count of the ones already stored, so getAll
+    // can tell if a batch changed the messages while it read them without
+    // receive having to take a lock.
+    private final AtomicInteger mBatchesStoring = new AtomicInteger();
+    private final AtomicLong mBatchesStored = new AtomicLong();
     private CopyOnWriteArrayList<VehicleDataSink> mSinks =
             new CopyOnWriteArrayList<>();
+    private Map<VehicleDataSink, SinkLane> mLanes = new ConcurrentHashMap<>();
+    private SignalHistory mHistory = new SignalHistory();
     private CopyOnWriteArrayList<VehicleDataSource> mSources =
             new CopyOnWriteArrayList<>();
 
@@ -73,23 +100,116 @@ public class DataPipeline implements SourceCallback {
         if(message instanceof KeyedMessage) {
             KeyedMessage keyedMessage = message.asKeyedMessage();
             mKeyedMessages.put(keyedMessage.getKey(), keyedMessage);
+            if(!mHistory.isEmpty()) {
+                mHistory.record(keyedMessage);
+            }
         }
 
-        List<VehicleDataSink> deadSinks = new ArrayList<>();
+        List<VehicleDataSink> deadSinks = null;
+        boolean hasLanes = !mLanes.isEmpty();
         for (VehicleDataSink sink : mSinks) {
+            if(hasLanes) {
+                SinkLane lane = mLanes.get(sink);
+                if(lane != null) {
+                    lane.offer(message);
+                    continue;
+                }
+            }
+
             try {
                 sink.receive(message);
             } catch (DataSinkException e) {
                 Log.w(TAG, this.getClass().getName() + ": The sink " +
                         sink + " exploded when we sent a new message " +
                         "-- removing it from the pipeline: " + e);
+                if(deadSinks == null) {
+                    deadSinks = new ArrayList<>();
+                }
                 deadSinks.add(sink);
             }
         }
 
-        mMessagesReceived++;
-        for(VehicleDataSink sink : deadSinks) {
-            removeSink(sink);
+        mMessagesReceived.incrementAndGet();
+        if(deadSinks != null) {
+            for(VehicleDataSink sink : deadSinks) {
+                removeSink(sink);
+            }
+        }
+    }
+
+    /**
+     * Accept a batch of new values from a data source and send them out to all
+     * registered sinks, in order.
+     *
+     * This is the same as calling {@link #receive(VehicleMessage)} for each
+     * message, but only walks the list of sinks once per batch. A sink that
+     * throws a DataSinkException doesn't receive the rest of the batch and is
+     * removed from the list of sinks.
+     */
+    @Override
+    public void receive(List<VehicleMessage> messages) {
+        // Mark the batch as being stored, so getAll never returns only part
+        // of it
+        mBatchesStoring.incrementAndGet();
+        try {
+            for(VehicleMessage message : messages) {
+                if(message instanceof KeyedMessage) {
+                    KeyedMessage keyedMessage = message.asKeyedMessage();
+                    mKeyedMessages.put(keyedMessage.getKey(), keyedMessage);
+                }
+            }
+        } finally {
+            mBatchesStored.incrementAndGet();
+            mBatchesStoring.decrementAndGet();
+        }
+
+        int count = 0;
+        boolean recordHistory = !mHistory.isEmpty();
+        for(VehicleMessage message : messages) {
+            if(recordHistory && message instanceof KeyedMessage) {
+                mHistory.record(message.asKeyedMessage());
+            }
+            if(message != null) {
+                count++;
+            }
+        }
+
+        if(count == 0) {
+            return;
+        }
+
+        List<VehicleDataSink> deadSinks = null;
+        boolean hasLanes = !mLanes.isEmpty();
+        for(VehicleDataSink sink : mSinks) {
+            SinkLane lane = hasLanes ? mLanes.get(sink) : null;
+            try {
+                for(VehicleMessage message : messages) {
+                    if(message == null) {
+                        continue;
+                    }
+
+                    if(lane != null) {
+                        lane.offer(message);
+                    } else {
+                        sink.receive(message);
+                    }
+                }
+            } catch(DataSinkException e) {
+                Log.w(TAG, this.getClass().getName() + ": The sink " +
+                        sink + " exploded when we sent a new message " +
+                        "-- removing it from the pipeline: " + e);
+                if(deadSinks == null) {
+                    deadSinks = new ArrayList<>();
+                }
+                deadSinks.add(sink);
+            }
+        }
+
+        mMessagesReceived.addAndGet(count);
+        if(deadSinks != null) {
+            for(VehicleDataSink sink : deadSinks) {
+                removeSink(sink);
+            }
         }
     }
 
@@ -101,18 +221,72 @@ public class DataPipeline implements SourceCallback {
         return sink;
     }
 
+    /**
+     * Add a new sink to the pipeline that receives messages on its own thread,
+     * using the default queue capacity and overflow policy - no messages are
+     * dropped, but if the sink falls more than a queue behind, the source
+     * waits for it.
+     */
+    public VehicleDataSink addAsynchronousSink(VehicleDataSink sink) {
+        return addAsynchronousSink(sink, DEFAULT_LANE_CAPACITY,
+                DEFAULT_LANE_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Add a new sink to the pipeline that receives messages on its own thread.
+     *
+     * Messages are queued for the sink instead of being passed to it on the
+     * source's thread. If the sink falls behind by more than the queue
+     * capacity, the overflow policy decides what happens:
+     * {@link OverflowPolicy#BLOCK} holds up the source and every other sink
+     * until this one catches up, while {@link OverflowPolicy#DROP_OLDEST}
+     * keeps the source going by dropping messages, counted in the lane's
+     * "dropped" metric. Only use a dropping policy for sinks that can lose
+     * data.
+     *
+     * @param queueCapacity the maximum number of messages waiting for the
+     *      sink.
+     * @param overflowPolicy what to do with new messages when the queue is
+     *      full.
+     */
+    public VehicleDataSink addAsynchronousSink(VehicleDataSink sink,
+            int queueCapacity, OverflowPolicy overflowPolicy) {
+        SinkLane lane = new SinkLane(sink, queueCapacity, overflowPolicy,
+                this);
+        SinkLane previous = mLanes.put(sink, lane);
+        if(previous != null) {
+            previous.stop();
+        }
+        if(!mSinks.contains(sink)) {
+            mSinks.add(sink);
+        }
+        return sink;
+    }
+
+    /**
+     * Return the queue and delivery statistics for a sink added with
+     * {@link #addAsynchronousSink(VehicleDataSink)}.
+     *
+     * @return the sink's lane, or null if the sink is called directly.
+     */
+    public SinkLane getLane(VehicleDataSink sink) {
+        return mLanes.get(sink);
+    }
+
     /**
      * Remove a previously added sink from the pipeline.
      *
      * Once removed, the sink will no longer receive any new messages from
      * the pipeline's sources. The sink's {@link VehicleDataSink#stop()} method
-     * is also called.
+     * is also called - for a sink with its own lane, only after the messages
+     * already queued for it are delivered.
      *
      * @param sink if the value is null, it is ignored.
      */
     public void removeSink(VehicleDataSink sink) {
         if(sink != null) {
             mSinks.remove(sink);
+            stopLane(sink);
             sink.stop();
         }
     }
@@ -179,11 +353,19 @@ public class DataPipeline implements SourceCallback {
      */
     public void clearSinks() {
         for (VehicleDataSink mSink : mSinks) {
+            stopLane(mSink);
             (mSink).stop();
         }
         mSinks.clear();
     }
 
+    private void stopLane(VehicleDataSink sink) {
+        SinkLane lane = mLanes.remove(sink);
+        if(lane != null) {
+            lane.stop();
+        }
+    }
+
     /**
      * Return the last received value for the keyed message if known.
      *
@@ -195,11 +377,105 @@ public class DataPipeline implements SourceCallback {
         return mKeyedMessages.get(key);
     }
 
+    /**
+     * Return the last received values for several keyed messages at once.
+     *
+     * The values are never from different sides of a batch received from a
+     * source. If a batch is stored while they're being read, they're read
+     * again.
+     *
+     * @param keys the keys of the messages to retrieve.
+     * @return the last message received with each key - keys that haven't
+     *      been received are left out.
+     */
+    public Map<MessageKey, KeyedMessage> getAll(Collection<MessageKey> keys) {
+        Map<MessageKey, KeyedMessage> messages = new HashMap<>();
+        while(true) {
+            long stored = mBatchesStored.get();
+            if(mBatchesStoring.get() == 0) {
+                for(MessageKey key : keys) {
+                    KeyedMessage message = key != null ?
+                            mKeyedMessages.get(key) : null;
+                    if(message != null) {
+                        messages.put(key, message);
+                    }
+                }
+
+                if(mBatchesStoring.get() == 0 &&
+                        mBatchesStored.get() == stored) {
+                    return messages;
+                }
+                messages.clear();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Start keeping the recent values of a signal, so they can be read with
+     * {@link #getHistory(MessageKey, long, long)}.
+     *
+     * @param key the key of the signal's messages.
+     * @param capacity the number of values to keep - if history is already
+     *      enabled for the signal, the larger capacity is used.
+     * @throws IllegalArgumentException if the capacity is less than 1 or
+     *      more than {@link SignalHistory#MAXIMUM_CAPACITY}.
+     */
+    public void enableHistory(MessageKey key, int capacity) {
+        mHistory.enable(key, capacity);
+    }
+
+    /**
+     * Start keeping the recent values of a signal for an owner, e.g. an app's
+     * listener, until the owner disables or releases it.
+     *
+     * @see SignalHistory#enable(Object, MessageKey, int)
+     */
+    public void enableHistory(Object owner, MessageKey key, int capacity) {
+        mHistory.enable(owner, key, capacity);
+    }
+
+    /**
+     * Stop keeping the recent values of a signal.
+     */
+    public void disableHistory(MessageKey key) {
+        mHistory.disable(key);
+    }
+
+    /**
+     * Stop keeping the recent values of a signal for an owner - they're still
+     * kept if another owner enabled them.
+     */
+    public void disableHistory(Object owner, MessageKey key) {
+        mHistory.disable(owner, key);
+    }
+
+    /**
+     * Stop keeping the recent values of every signal for an owner.
+     */
+    public void releaseHistory(Object owner) {
+        mHistory.release(owner);
+    }
+
+    /**
+     * Return the recent values of a signal in a range of time.
+     *
+     * @param key the key of the signal's messages.
+     * @param startTime the earliest timestamp to return, inclusive.
+     * @param endTime the latest timestamp to return, inclusive.
+     * @return the values in the range, oldest first - empty if history isn't
+     *      enabled for the signal.
+     */
+    public TimeSeries getHistory(MessageKey key, long startTime,
+            long endTime) {
+        return mHistory.get(key, startTime, endTime);
+    }
+
     /**
      * @return number of messages received since instantiation.
      */
     public int getMessageCount() {
-        return mMessagesReceived;
+        return (int) mMessagesReceived.get();
     }
 
     public boolean isActive() {
@@ -256,7 +532,9 @@ public class DataPipeline implements SourceCallback {
         return MoreObjects.toStringHelper(this)
             .add("sources", mSources)
             .add("sinks", mSinks)
+            .add("lanes", mLanes.values())
             .add("numKeyedMessageTypes", mKeyedMessages.size())
+            .add("history", mHistory)
             .toString();
     }
 }
@@ -0,0 +1,316 @@
+package com.openxc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.MoreObjects;
+import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.util.TimeSeries;
+
+/**
+ * The recent numeric values of some signals, for reading a window of a
+ * signal's history instead of buffering every update.
+ *
+ * History is opt-in per signal - each signal enabled with
+ * {@link #enable(MessageKey, int)} gets a ring buffer that holds a fixed
+ * number of its latest values, overwriting the oldest. The buffers are
+ * primitive arrays of timestamps and values, so recording a value doesn't
+ * allocate.
+ *
+ * Each signal's history is kept for as long as any owner (e.g. an app's
+ * listener) has it enabled, with the largest capacity any of them asked for.
+ * The total capacity of every signal is limited to
+ * {@link #MAXIMUM_TOTAL_CAPACITY} values.
+ *
+ * Only messages with a numeric or boolean value are recorded. Values are
+ * expected to arrive in order - if a signal's timestamp goes backwards (e.g.
+ * a trace file restarting), its earlier history is dropped.
+ */
+public class SignalHistory {
+    public static final int MAXIMUM_CAPACITY = 100000;
+    public static final int MAXIMUM_TOTAL_CAPACITY = 250000;
+
+    private Map<MessageKey, Ring> mRings = new ConcurrentHashMap<>();
+    // The capacity each owner asked for, for each signal. Only used while
+    // holding the lock on this object.
+    private final Map<MessageKey, Map<Object, Integer>> mCapacities =
+            new HashMap<>();
+    private int mTotalCapacity;
+
+    /**
+     * Start keeping the history of a signal, owned by this object.
+     *
+     * @see #enable(Object, MessageKey, int)
+     */
+    public void enable(MessageKey key, int capacity) {
+        enable(this, key, capacity);
+    }
+
+    /**
+     * Start keeping the history of a signal for an owner.
+     *
+     * If the signal's history is already enabled, it keeps the largest
+     * capacity any owner asked for and the values already recorded. Enabling
+     * it again for the same owner doesn't add another reference.
+     *
+     * @param owner what the history is kept for, released with
+     *      {@link #disable(Object, MessageKey)} or {@link #release(Object)}.
+     * @param key the key of the signal's messages.
+     * @param capacity the number of values to keep.
+     * @throws IllegalArgumentException if the capacity is less than 1 or
+     *      more than {@link #MAXIMUM_CAPACITY}.
+     * @throws IllegalStateException if keeping more values would take the
+     *      history of every signal over {@link #MAXIMUM_TOTAL_CAPACITY}.
+     */
+    public synchronized void enable(Object owner, MessageKey key,
+            int capacity) {
+        if(capacity < 1 || capacity > MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("History capacity must be " +
+                    "between 1 and " + MAXIMUM_CAPACITY + ", not " + capacity);
+        }
+
+        Map<Object, Integer> capacities = mCapacities.get(key);
+        if(capacities == null) {
+            capacities = new HashMap<>();
+        }
+        Integer existing = capacities.get(owner);
+        if(existing != null && existing >= capacity) {
+            return;
+        }
+
+        Ring ring = mRings.get(key);
+        int current = ring != null ? ring.getCapacity() : 0;
+        if(capacity > current &&
+                mTotalCapacity + capacity - current > MAXIMUM_TOTAL_CAPACITY) {
+            throw new IllegalStateException("Unable to keep " + capacity +
+                    " values of " + key + ", " + mTotalCapacity + " of " +
+                    MAXIMUM_TOTAL_CAPACITY + " are already in use");
+        }
+
+        capacities.put(owner, capacity);
+        mCapacities.put(key, capacities);
+        if(ring == null) {
+            mRings.put(key, new Ring(capacity));
+            mTotalCapacity += capacity;
+        } else if(capacity > current) {
+            ring.resize(capacity);
+            mTotalCapacity += capacity - current;
+        }
+    }
+
+    /**
+     * Stop keeping the history of a signal for every owner, and drop what was
+     * recorded.
+     */
+    public synchronized void disable(MessageKey key) {
+        mCapacities.remove(key);
+        Ring ring = mRings.remove(key);
+        if(ring != null) {
+            mTotalCapacity -= ring.getCapacity();
+        }
+    }
+
+    /**
+     * Stop keeping the history of a signal for an owner.
+     *
+     * The history is dropped once no owner has it enabled, and otherwise
+     * shrinks to the largest capacity the remaining owners asked for, keeping
+     * the newest values.
+     */
+    public synchronized void disable(Object owner, MessageKey key) {
+        Map<Object, Integer> capacities = mCapacities.get(key);
+        if(capacities == null || capacities.remove(owner) == null) {
+            return;
+        }
+
+        if(capacities.isEmpty()) {
+            disable(key);
+            return;
+        }
+
+        Ring ring = mRings.get(key);
+        int capacity = Collections.max(capacities.values());
+        int current = ring.getCapacity();
+        if(capacity < current) {
+            ring.resize(capacity);
+            mTotalCapacity -= current - capacity;
+        }
+    }
+
+    /**
+     * Stop keeping the history of every signal for an owner, e.g. when the app
+     * that enabled it goes away.
+     */
+    public synchronized void release(Object owner) {
+        for(MessageKey key : new ArrayList<>(mCapacities.keySet())) {
+            disable(owner, key);
+        }
+    }
+
+    /**
+     * @return the number of values kept for every signal together.
+     */
+    public synchronized int getTotalCapacity() {
+        return mTotalCapacity;
+    }
+
+    public boolean isEnabled(MessageKey key) {
+        return mRings.containsKey(key);
+    }
+
+    public boolean isEmpty() {
+        return mRings.isEmpty();
+    }
+
+    /**
+     * Record the value of a message, if history is enabled for its key.
+     */
+    public void record(KeyedMessage message) {
+        Ring ring = mRings.get(message.getKey());
+        if(ring != null && message instanceof SimpleVehicleMessage) {
+            SimpleVehicleMessage simpleMessage = (SimpleVehicleMessage) message;
+            double number;
+            if(simpleMessage.isNumeric()) {
+                number = simpleMessage.getNumericValue();
+            } else if(simpleMessage.getValue() instanceof Boolean) {
+                number = simpleMessage.getValueAsBoolean() ? 1 : 0;
+            } else {
+                return;
+            }
+
+            Long timestamp = message.getTimestamp();
+            ring.add(timestamp != null ? timestamp :
+                    System.currentTimeMillis(), number);
+        }
+    }
+
+    /**
+     * Return the recorded values of a signal in a range of time.
+     *
+     * @param key the key of the signal's messages.
+     * @param startTime the earliest timestamp to return, inclusive.
+     * @param endTime the latest timestamp to return, inclusive.
+     * @return the values in the range, oldest first - empty if history isn't
+     *      enabled for the signal.
+     */
+    public TimeSeries get(MessageKey key, long startTime, long endTime) {
+        Ring ring = mRings.get(key);
+        if(ring == null) {
+            return new TimeSeries();
+        }
+        return ring.get(startTime, endTime);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("signals", mRings.keySet())
+            .add("totalCapacity", mTotalCapacity)
+            .toString();
+    }
+
+    private static class Ring {
+        private long[] mTimestamps;
+        private double[] mValues;
+        private int mStart;
+        private int mSize;
+
+        Ring(int capacity) {
+            mTimestamps = new long[capacity];
+            mValues = new double[capacity];
+        }
+
+        synchronized void add(long timestamp, double value) {
+            if(mSize > 0 && timestamp < timestampAt(mSize - 1)) {
+                mStart = 0;
+                mSize = 0;
+            }
+
+            int capacity = mTimestamps.length;
+            int index = (mStart + mSize) % capacity;
+            mTimestamps[index] = timestamp;
+            mValues[index] = value;
+            if(mSize < capacity) {
+                mSize++;
+            } else {
+                mStart = (mStart + 1) % capacity;
+            }
+        }
+
+        synchronized int getCapacity() {
+            return mTimestamps.length;
+        }
+
+        /**
+         * Change the number of values kept, dropping the oldest if there are
+         * too many.
+         */
+        synchronized void resize(int capacity) {
+            if(capacity != mTimestamps.length) {
+                int count = Math.min(mSize, capacity);
+                long[] timestamps = new long[capacity];
+                double[] values = new double[capacity];
+                copy(mSize - count, count, timestamps, values, 0);
+                mTimestamps = timestamps;
+                mValues = values;
+                mStart = 0;
+                mSize = count;
+            }
+        }
+
+        synchronized TimeSeries get(long startTime, long endTime) {
+            int first = search(startTime, false);
+            int last = Math.max(first, search(endTime, true));
+            long[] timestamps = new long[last - first];
+            double[] values = new double[last - first];
+            copy(first, last - first, timestamps, values, 0);
+            return new TimeSeries(timestamps, values);
+        }
+
+        private long timestampAt(int index) {
+            return mTimestamps[(mStart + index) % mTimestamps.length];
+        }
+
+        /**
+         * @return the index of the oldest value with a timestamp later than
+         *      (or if not exclusive, equal to) the given one, or the number of
+         *      values if there isn't one.
+         */
+        private int search(long timestamp, boolean exclusive) {
+            int low = 0;
+            int high = mSize;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                long middleTimestamp = timestampAt(middle);
+                if(middleTimestamp < timestamp ||
+                        (exclusive && middleTimestamp == timestamp)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Copy values out of the ring, in at most two pieces.
+         */
+        private void copy(int from, int count, long[] timestamps,
+                double[] values, int offset) {
+            int capacity = mTimestamps.length;
+            int start = (mStart + from) % capacity;
+            int first = Math.min(count, capacity - start);
+            System.arraycopy(mTimestamps, start, timestamps, offset, first);
+            System.arraycopy(mValues, start, values, offset, first);
+            System.arraycopy(mTimestamps, 0, timestamps, offset + first,
+                    count - first);
+            System.arraycopy(mValues, 0, values, offset + first,
+                    count - first);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.openxc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+import com.google.common.base.MoreObjects;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.sinks.DataSinkException;
+import com.openxc.sinks.VehicleDataSink;
+import com.openxc.util.BoundedQueue;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+import com.openxc.util.MetricsRegistry;
+
+/**
+ * A queue and worker thread that deliver messages from a {@link DataPipeline}
+ * to one sink, so a slow sink doesn't hold up the source that produced the
+ * messages or the other sinks.
+ *
+ * Lanes are created by
+ * {@link DataPipeline#addAsynchronousSink(VehicleDataSink, int, OverflowPolicy)}
+ * and expose how far behind their sink is.
+ */
+public class SinkLane {
+    private final static String TAG = "SinkLane";
+    private final static int MAX_BATCH_SIZE = 64;
+    private final static long IDLE_POLL_INTERVAL_MS = 1000;
+    private final static long STOP_TIMEOUT_MS = 5000;
+
+    private final VehicleDataSink mSink;
+    private final DataPipeline mPipeline;
+    private final BoundedQueue<QueuedMessage> mQueue;
+    private final DeliveryThread mDeliveryThread;
+    private final AtomicLong mDelivered = new AtomicLong();
+    private volatile long mLagNanos;
+    private volatile long mMaxLagNanos;
+    private final String mMetricsPrefix;
+    private final MetricsRegistry.Gauge mQueueDepthGauge =
+            new MetricsRegistry.Gauge() {
+        @Override
+        public long getValue() {
+            return getQueueDepth();
+        }
+    };
+    private final MetricsRegistry.Gauge mDroppedGauge =
+            new MetricsRegistry.Gauge() {
+        @Override
+        public long getValue() {
+            return getDroppedCount();
+        }
+    };
+    private final MetricsRegistry.Gauge mLagGauge =
+            new MetricsRegistry.Gauge() {
+        @Override
+        public long getValue() {
+            return getLagMillis();
+        }
+    };
+
+    private static class QueuedMessage {
+        final VehicleMessage mMessage;
+        final long mQueuedAt;
+
+        QueuedMessage(VehicleMessage message, long queuedAt) {
+            mMessage = message;
+            mQueuedAt = queuedAt;
+        }
+    }
+
+    SinkLane(VehicleDataSink sink, int queueCapacity,
+            OverflowPolicy overflowPolicy, DataPipeline pipeline) {
+        mSink = sink;
+        mPipeline = pipeline;
+        mQueue = new BoundedQueue<>(queueCapacity, overflowPolicy);
+        mMetricsPrefix = MetricsRegistry.getInstanceName("lane", sink);
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.addGauge(mMetricsPrefix + ".queue_depth", mQueueDepthGauge);
+        metrics.addGauge(mMetricsPrefix + ".dropped", mDroppedGauge);
+        metrics.addGauge(mMetricsPrefix + ".lag_ms", mLagGauge);
+        mDeliveryThread = new DeliveryThread();
+        mDeliveryThread.start();
+    }
+
+    /**
+     * Queue a message for the sink, applying the lane's overflow policy if
+     * the sink has fallen too far behind.
+     */
+    void offer(VehicleMessage message) {
+        QueuedMessage queued = new QueuedMessage(message, System.nanoTime());
+        if(Thread.currentThread() == mDeliveryThread) {
+            // A sink sending messages back into the pipeline can't wait for
+            // its own lane
+            mQueue.offerWithoutWaiting(queued);
+        } else {
+            mQueue.offer(queued);
+        }
+    }
+
+    /**
+     * Stop accepting messages and wait for the ones already queued to be
+     * delivered, so the sink can be stopped safely afterwards.
+     *
+     * If the sink doesn't catch up within a few seconds the rest of the
+     * queue is discarded. When called from the lane's own thread, e.g.
+     * because the sink failed, nothing more is delivered.
+     */
+    void stop() {
+        mQueue.close();
+        if(Thread.currentThread() == mDeliveryThread) {
+            mDeliveryThread.abort();
+        } else {
+            try {
+                mDeliveryThread.join(STOP_TIMEOUT_MS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if(mDeliveryThread.isAlive()) {
+                Log.w(TAG, "Sink " + mSink + " didn't catch up within " +
+                        STOP_TIMEOUT_MS + "ms, discarding " +
+                        getQueueDepth() + " queued messages");
+                mDeliveryThread.abort();
+            }
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.removeGauge(mMetricsPrefix + ".queue_depth", mQueueDepthGauge);
+        metrics.removeGauge(mMetricsPrefix + ".dropped", mDroppedGauge);
+        metrics.removeGauge(mMetricsPrefix + ".lag_ms", mLagGauge);
+    }
+
+    public VehicleDataSink getSink() {
+        return mSink;
+    }
+
+    /**
+     * @return the number of messages waiting to be delivered to the sink.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return the total number of messages that were never delivered to the
+     *      sink because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mQueue.getDroppedCount();
+    }
+
+    /**
+     * @return the total number of messages delivered to the sink.
+     */
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    /**
+     * @return how long, in milliseconds, the most recently delivered message
+     *      waited in the queue.
+     */
+    public long getLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mLagNanos);
+    }
+
+    /**
+     * @return the longest time, in milliseconds, any message waited in the
+     *      queue.
+     */
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxLagNanos);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("sink", mSink)
+            .add("queueDepth", getQueueDepth())
+            .add("dropped", getDroppedCount())
+            .add("delivered", getDeliveredCount())
+            .add("lagMillis", getLagMillis())
+            .add("maxLagMillis", getMaxLagMillis())
+            .toString();
+    }
+
+    private void deliver(QueuedMessage queued) {
+        long lag = System.nanoTime() - queued.mQueuedAt;
+        mLagNanos = lag;
+        if(lag > mMaxLagNanos) {
+            mMaxLagNanos = lag;
+        }
+
+        try {
+            mSink.receive(queued.mMessage);
+            mDelivered.incrementAndGet();
+        } catch(DataSinkException e) {
+            Log.w(TAG, "The sink " + mSink + " exploded when we sent a " +
+                    "new message -- removing it from the pipeline: " + e);
+            mPipeline.removeSink(mSink);
+        } catch(RuntimeException e) {
+            Log.w(TAG, "Unable to deliver message to " + mSink, e);
+        }
+    }
+
+    /**
+     * Delivers queued messages until the queue is closed and empty, or until
+     * aborted.
+     */
+    private class DeliveryThread extends Thread {
+        private volatile boolean mAborted = false;
+
+        DeliveryThread() {
+            super("SinkLane-" + mSink.getClass().getSimpleName());
+        }
+
+        public void abort() {
+            mAborted = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            List<QueuedMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            while(!mAborted) {
+                if(mQueue.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+                    if(mQueue.isClosed()) {
+                        break;
+                    }
+                    try {
+                        mQueue.awaitNotEmpty(IDLE_POLL_INTERVAL_MS,
+                                TimeUnit.MILLISECONDS);
+                    } catch(InterruptedException e) {
+                        break;
+                    }
+                    continue;
+                }
+
+                for(QueuedMessage queued : batch) {
+                    if(mAborted) {
+                        break;
+                    }
+                    deliver(queued);
+                }
+                batch.clear();
+            }
+            Log.d(TAG, "Stopped delivering messages to " + mSink);
+        }
+    }
+}
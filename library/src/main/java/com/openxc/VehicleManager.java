@@ -1,5 +1,14 @@
 package com.openxc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -10,6 +19,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.BadParcelableException;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.RemoteException;
@@ -28,17 +38,25 @@ import com.openxc.messages.DiagnosticRequest;
 import com.openxc.messages.ExactKeyMatcher;
 import com.openxc.messages.KeyMatcher;
 import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageFilter;
 import com.openxc.messages.MessageKey;
+import com.openxc.messages.SubscriptionOptions;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.VehicleMessageBatch;
 import com.openxc.remote.VehicleService;
 import com.openxc.remote.VehicleServiceException;
 import com.openxc.remote.VehicleServiceInterface;
 import com.openxc.remote.ViConnectionListener;
+import com.openxc.sinks.LastValueCacheSink;
 import com.openxc.sinks.MessageListenerSink;
 import com.openxc.sinks.UserSink;
 import com.openxc.sinks.VehicleDataSink;
 import com.openxc.sources.RemoteListenerSource;
 import com.openxc.sources.VehicleDataSource;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+import com.openxc.util.MetricsRegistry;
+import com.openxc.util.MetricsSnapshot;
+import com.openxc.util.TimeSeries;
 
 /**
  * The VehicleManager is an in-process Android service and the primary entry
@@ -51,7 +69,9 @@ import com.openxc.sources.VehicleDataSource;
  * Synchronous measurements are obtained by passing the type of the desired
  * measurement to the {@link #get(Class)} method. Asynchronous measurements are
  * obtained by defining a Measurement.Listener or VehicleMessage.Listener object
- * and passing it to the service via the addListener method.
+ * and passing it to the service via the addListener method. Apps that read the
+ * same values often (e.g. on every frame) can keep a local copy of them with
+ * {@link #enableLocalCache(Collection, long, TimeUnit)}.
  *
  * There are three major components in the VehicleManager:
  * {@link com.openxc.sources.VehicleDataSource},
@@ -93,6 +113,7 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
     private final static String TAG = "VehicleManager";
     private Lock mRemoteBoundLock = new ReentrantLock();
     private Condition mRemoteBoundCondition = mRemoteBoundLock.newCondition();
+    private final Object mFilterLock = new Object();
     private IBinder mBinder = new VehicleBinder();
 
     // The mRemoteOriginPipeline in this class must only have 1 source - the
@@ -113,6 +134,14 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
     private RemoteListenerSource mRemoteSource;
     private MessageListenerSink mNotifier = new MessageListenerSink();
     private UserSink mUserSink;
+    private volatile LastValueCacheSink mCache;
+    // Sinks added by the app, which need every message
+    private final Set<VehicleDataSink> mUserSinks =
+            Collections.newSetFromMap(
+                    new ConcurrentHashMap<VehicleDataSink, Boolean>());
+    // The history enabled by this app, enabled again after reconnecting
+    private final Map<MessageKey, Integer> mHistoryCapacities =
+            new ConcurrentHashMap<>();
 
     /**
      * Binder to connect IBinder in a ServiceConnection with the VehicleManager.
@@ -139,6 +168,12 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
         Log.i(TAG, "Service starting");
 
         mRemoteOriginPipeline.addSink(mNotifier);
+        mNotifier.setFilterListener(new MessageListenerSink.FilterListener() {
+            @Override
+            public void onFilterChanged() {
+                updateMessageFilter();
+            }
+        });
 
         bindRemote();
     }
@@ -220,6 +255,15 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
      * @see BaseMeasurement
      */
     public VehicleMessage get(MessageKey key) throws NoValueException {
+        LastValueCacheSink cache = mCache;
+        if(cache != null) {
+            VehicleMessage message = cache.get(key);
+            if(message != null) {
+                return message;
+            }
+            trackInCache(cache, Arrays.asList(key));
+        }
+
         if(mRemoteService == null) {
             Log.w(TAG, "Not connected to the VehicleService -- " +
                     "throwing a NoValueException");
@@ -227,17 +271,232 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
         }
 
         try {
+            long requestedNanos = System.nanoTime();
             VehicleMessage message = mRemoteService.get(key);
             if(message == null) {
                 throw new NoValueException();
             }
+            if(cache != null) {
+                cache.update(key, message, requestedNanos);
+            }
             return message;
-        } catch(RemoteException | ClassCastException e) {
+        } catch(RemoteException | ClassCastException |
+                BadParcelableException e) {
             Log.w(TAG, "Unable to get value from remote vehicle service", e);
             throw new NoValueException();
         }
     }
 
+    /**
+     * Retrieve the most current values of several keyed messages with a
+     * single call to the VehicleService, instead of one call per key.
+     *
+     * @param keys The keys of the requested messages.
+     * @return the most current message for each key - keys that haven't had
+     *      a value yet are left out.
+     * @throws VehicleServiceException if not connected to the VehicleService.
+     */
+    public Map<MessageKey, VehicleMessage> getAll(Collection<MessageKey> keys)
+            throws VehicleServiceException {
+        LastValueCacheSink cache = mCache;
+        if(cache == null) {
+            return getAllFromRemote(keys, null);
+        }
+
+        Map<MessageKey, VehicleMessage> result = new HashMap<>();
+        List<MessageKey> misses = new ArrayList<>();
+        for(MessageKey key : keys) {
+            VehicleMessage message = cache.get(key);
+            if(message != null) {
+                result.put(key, message);
+            } else {
+                misses.add(key);
+            }
+        }
+
+        if(!misses.isEmpty()) {
+            trackInCache(cache, misses);
+            result.putAll(getAllFromRemote(misses, cache));
+        }
+        return result;
+    }
+
+    private Map<MessageKey, VehicleMessage> getAllFromRemote(
+            Collection<MessageKey> keys, LastValueCacheSink cache)
+            throws VehicleServiceException {
+        VehicleServiceInterface service = mRemoteService;
+        if(service == null) {
+            throw new VehicleServiceException("Unable to retrieve values");
+        }
+
+        List<MessageKey> requested = new ArrayList<>(keys);
+        VehicleMessageBatch batch;
+        long requestedNanos = System.nanoTime();
+        try {
+            batch = service.getAll(requested);
+        } catch(RemoteException | ClassCastException |
+                BadParcelableException e) {
+            throw new VehicleServiceException("Unable to retrieve values", e);
+        }
+
+        Map<MessageKey, VehicleMessage> result = new HashMap<>();
+        if(batch == null) {
+            return result;
+        }
+
+        List<VehicleMessage> messages = batch.getMessages();
+        for(int i = 0; i < requested.size() && i < messages.size(); i++) {
+            VehicleMessage message = messages.get(i);
+            if(message != null) {
+                result.put(requested.get(i), message);
+                if(cache != null) {
+                    cache.update(requested.get(i), message, requestedNanos);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the most current values of several measurements with a single
+     * call to the VehicleService.
+     *
+     * @param measurementTypes The classes of the requested Measurements
+     *      (e.g. VehicleSpeed.class)
+     * @return an instance of each requested Measurement - measurements that
+     *      haven't had a value yet are left out.
+     * @throws UnrecognizedMeasurementTypeException if passed a measurementType
+     *      that does not extend Measurement
+     * @throws VehicleServiceException if not connected to the VehicleService.
+     * @see #getAll(Collection)
+     */
+    public Map<Class<? extends Measurement>, Measurement> getAllMeasurements(
+            Collection<? extends Class<? extends Measurement>> measurementTypes)
+            throws UnrecognizedMeasurementTypeException,
+            VehicleServiceException {
+        Map<MessageKey, Class<? extends Measurement>> types = new HashMap<>();
+        for(Class<? extends Measurement> measurementType : measurementTypes) {
+            types.put(BaseMeasurement.getKeyForMeasurement(measurementType),
+                    measurementType);
+        }
+
+        Map<Class<? extends Measurement>, Measurement> measurements =
+                new HashMap<>();
+        for(Map.Entry<MessageKey, VehicleMessage> entry :
+                getAll(types.keySet()).entrySet()) {
+            Class<? extends Measurement> measurementType =
+                    types.get(entry.getKey());
+            try {
+                measurements.put(measurementType,
+                        BaseMeasurement.getMeasurementFromMessage(
+                            measurementType,
+                            entry.getValue().asSimpleMessage()));
+            } catch(NoValueException | ClassCastException e) {
+                Log.w(TAG, "Unable to build " + measurementType +
+                        " from " + entry.getValue(), e);
+            }
+        }
+        return measurements;
+    }
+
+    /**
+     * Answer {@link #get(MessageKey)} and {@link #getAll(Collection)} from an
+     * in-process copy of the latest values, instead of asking the
+     * VehicleService every time.
+     *
+     * The first time a key is read it's fetched from the VehicleService, and
+     * from then on the VehicleService sends every update of it to this app to
+     * keep the copy current. Values are copied again with a single call when
+     * the VehicleService reconnects. Calling this again adds the keys and
+     * changes the maximum age.
+     *
+     * @param keys keys to copy right away with a single call, so the first
+     *      reads of them don't have to wait for the VehicleService.
+     * @param maxAge how long a value can go without an update before it's
+     *      fetched from the VehicleService again, or 0 for no limit.
+     * @param unit the unit of the maximum age.
+     */
+    public void enableLocalCache(Collection<MessageKey> keys, long maxAge,
+            TimeUnit unit) {
+        LastValueCacheSink cache;
+        synchronized(this) {
+            cache = mCache;
+            if(cache == null) {
+                Log.i(TAG, "Enabling the local cache of values");
+                cache = new LastValueCacheSink(maxAge, unit);
+                mRemoteOriginPipeline.addSink(cache);
+                mCache = cache;
+            } else {
+                cache.setMaxAge(maxAge, unit);
+            }
+        }
+
+        cache.track(keys);
+        updateMessageFilter();
+        syncCache(cache, keys);
+    }
+
+    /**
+     * Enable the local cache with no limit on the age of values.
+     *
+     * @see #enableLocalCache(Collection, long, TimeUnit)
+     */
+    public void enableLocalCache(Collection<MessageKey> keys) {
+        enableLocalCache(keys, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop keeping a local copy of the latest values, and read every value
+     * from the VehicleService again.
+     */
+    public void disableLocalCache() {
+        LastValueCacheSink cache;
+        synchronized(this) {
+            cache = mCache;
+            mCache = null;
+        }
+
+        if(cache != null) {
+            Log.i(TAG, "Disabling the local cache of values");
+            mRemoteOriginPipeline.removeSink(cache);
+            updateMessageFilter();
+        }
+    }
+
+    /**
+     * @return how long ago the locally cached value of a key was last
+     *      updated, or -1 if the local cache is disabled or has no value for
+     *      the key.
+     */
+    public long getLocalCacheAge(MessageKey key, TimeUnit unit) {
+        LastValueCacheSink cache = mCache;
+        return cache != null ? cache.getAge(key, unit) : -1;
+    }
+
+    private void trackInCache(LastValueCacheSink cache,
+            Collection<MessageKey> keys) {
+        if(cache.track(keys)) {
+            updateMessageFilter();
+        }
+    }
+
+    /**
+     * Copy the current values of some keys into the local cache with a
+     * single call to the VehicleService.
+     */
+    private void syncCache(LastValueCacheSink cache,
+            Collection<MessageKey> keys) {
+        if(keys.isEmpty() || mRemoteService == null) {
+            return;
+        }
+
+        try {
+            getAllFromRemote(keys, cache);
+        } catch(VehicleServiceException e) {
+            Log.w(TAG, "Unable to fill the local cache", e);
+        }
+    }
+
     /**
      * Send a message to the vehicle through the active
      * {@link com.openxc.interfaces.VehicleInterface} without waiting for
@@ -305,6 +564,7 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
         // receiving the first response
         mNotifier.register(ExactKeyMatcher.buildExactMatcher(message.getKey()),
                 listener, false);
+        updateMessageFilter();
         send(message);
     }
 
@@ -342,8 +602,27 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
      */
     public void addListener(Class<? extends Measurement> measurementType,
             Measurement.Listener listener) {
+        addListener(measurementType, listener, null);
+    }
+
+    /**
+     * Register to receive asynchronous updates for a specific Measurement
+     * type, limiting how often the listener is called.
+     *
+     * The options are also sent to the VehicleService, so it can skip sending
+     * updates that no listener in this app needs.
+     *
+     * @param measurementType The class of the Measurement
+     *      (e.g. VehicleSpeed.class) the listener was listening for
+     * @param listener An listener instance to receive the callback.
+     * @param options The maximum rate, send-on-change deadband and
+     *      coalescing to apply, or null to receive every update.
+     */
+    public void addListener(Class<? extends Measurement> measurementType,
+            Measurement.Listener listener, SubscriptionOptions options) {
         Log.i(TAG, "Adding listener " + listener + " for " + measurementType);
-        mNotifier.register(measurementType, listener);
+        mNotifier.register(measurementType, listener, options);
+        updateMessageFilter();
     }
 
     /**
@@ -366,6 +645,7 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
             VehicleMessage.Listener listener) {
         Log.i(TAG, "Adding listener " + listener + " for " + messageType);
         mNotifier.register(messageType, listener);
+        updateMessageFilter();
     }
 
     /**
@@ -394,6 +674,20 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
         addListener(ExactKeyMatcher.buildExactMatcher(key), listener);
     }
 
+    /**
+     * Register to receive a callback when a message with the given key is
+     * received, limiting how often the listener is called.
+     *
+     * @param key The key you want to receive updates.
+     * @param listener An listener instance to receive the callback.
+     * @param options The maximum rate, send-on-change deadband and
+     *      coalescing to apply, or null to receive every update.
+     */
+    public void addListener(MessageKey key, VehicleMessage.Listener listener,
+            SubscriptionOptions options) {
+        addListener(ExactKeyMatcher.buildExactMatcher(key), listener, options);
+    }
+
     /**
      * Register to receive a callback when a message with key matching the given
      * KeyMatcher is received.
@@ -401,12 +695,36 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
      * This function can be used to set up a wildcard listener, or one that
      * receives a wider range of responses than just a 1 to 1 match of keys.
      *
+     * The VehicleService only sends this app the messages its listeners need
+     * if every matcher is an ExactKeyMatcher or a PartialKeyMatcher - any
+     * other matcher means it has to send every message.
+     *
      * @param matcher A KeyMatcher implement the desired filtering logic.
      * @param listener An listener instance to receive the callback.
      */
     public void addListener(KeyMatcher matcher, VehicleMessage.Listener listener) {
+        addListener(matcher, listener, null);
+    }
+
+    /**
+     * Register to receive a callback when a message with key matching the given
+     * KeyMatcher is received, limiting how often the listener is called for
+     * each matching key.
+     *
+     * The VehicleService only applies the options before sending messages to
+     * this app for ExactKeyMatcher listeners - for others they are applied in
+     * this app.
+     *
+     * @param matcher A KeyMatcher implement the desired filtering logic.
+     * @param listener An listener instance to receive the callback.
+     * @param options The maximum rate, send-on-change deadband and
+     *      coalescing to apply, or null to receive every update.
+     */
+    public void addListener(KeyMatcher matcher, VehicleMessage.Listener listener,
+            SubscriptionOptions options) {
         Log.i(TAG, "Adding listener " + listener + " to " + matcher);
-        mNotifier.register(matcher, listener);
+        mNotifier.register(matcher, listener, options);
+        updateMessageFilter();
     }
 
     /**
@@ -424,6 +742,7 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
             Measurement.Listener listener) {
         Log.i(TAG, "Removing listener " + listener + " for " + measurementType);
         mNotifier.unregister(measurementType, listener);
+        updateMessageFilter();
     }
 
     /**
@@ -438,6 +757,7 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
     public void removeListener(Class<? extends VehicleMessage> messageType,
             VehicleMessage.Listener listener) {
         mNotifier.unregister(messageType, listener);
+        updateMessageFilter();
     }
 
     /**
@@ -462,6 +782,7 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
     public void removeListener(KeyMatcher matcher,
             VehicleMessage.Listener listener) {
         mNotifier.unregister(matcher, listener);
+        updateMessageFilter();
     }
 
     /**
@@ -516,7 +837,41 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
      */
     public void addSink(VehicleDataSink sink) {
         Log.i(TAG, "Adding data sink " + sink);
+        mUserSinks.add(sink);
         mRemoteOriginPipeline.addSink(sink);
+        updateMessageFilter();
+    }
+
+    /**
+     * Add a new data sink to the vehicle service that receives measurements on
+     * its own thread.
+     *
+     * Prefer this to {@link #addSink(VehicleDataSink)} for sinks that do I/O,
+     * like recording to a file or uploading, so short stalls don't delay
+     * delivering measurements to listeners. No messages are dropped - if the
+     * sink falls a whole queue behind, delivery waits for it to catch up.
+     *
+     * @param sink an instance of a VehicleDataSink
+     */
+    public void addAsynchronousSink(VehicleDataSink sink) {
+        addAsynchronousSink(sink, DataPipeline.DEFAULT_LANE_CAPACITY,
+                DataPipeline.DEFAULT_LANE_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Add a new data sink that receives measurements on its own thread, with
+     * its own queue capacity and overflow policy.
+     *
+     * @see DataPipeline#addAsynchronousSink(VehicleDataSink, int,
+     *      OverflowPolicy)
+     */
+    public void addAsynchronousSink(VehicleDataSink sink, int queueCapacity,
+            OverflowPolicy overflowPolicy) {
+        Log.i(TAG, "Adding asynchronous data sink " + sink);
+        mUserSinks.add(sink);
+        mRemoteOriginPipeline.addAsynchronousSink(sink, queueCapacity,
+                overflowPolicy);
+        updateMessageFilter();
     }
 
     /**
@@ -525,6 +880,8 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
     public void removeSink(VehicleDataSink sink) {
         if(sink != null) {
             mRemoteOriginPipeline.removeSink(sink);
+            mUserSinks.remove(sink);
+            updateMessageFilter();
             sink.stop();
         }
     }
@@ -740,6 +1097,159 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
         }
     }
 
+    /**
+     * Start keeping the recent values of a signal in the VehicleService, so
+     * they can be read with {@link #getHistory(MessageKey, long, long)}
+     * instead of buffering updates in the app.
+     *
+     * The history is shared by every app using the VehicleService, and is
+     * kept until every app that enabled it calls
+     * {@link #disableHistory(MessageKey)} or unbinds.
+     *
+     * @param key the key of the signal's messages.
+     * @param capacity the number of values to keep - if history is already
+     *      enabled for the signal, the largest capacity is used.
+     * @throws IllegalArgumentException if the capacity is less than 1 or
+     *      more than {@link SignalHistory#MAXIMUM_CAPACITY}.
+     * @throws IllegalStateException if the VehicleService is already keeping
+     *      {@link SignalHistory#MAXIMUM_TOTAL_CAPACITY} values.
+     * @throws VehicleServiceException if not connected to the VehicleService.
+     */
+    public void enableHistory(MessageKey key, int capacity)
+            throws VehicleServiceException {
+        RemoteListenerSource source = mRemoteSource;
+        if(source == null) {
+            throw new VehicleServiceException(
+                    "Unable to enable history of " + key);
+        }
+
+        try {
+            source.enableHistory(key, capacity);
+        } catch(RemoteException e) {
+            throw new VehicleServiceException(
+                    "Unable to enable history of " + key, e);
+        }
+
+        synchronized(mHistoryCapacities) {
+            Integer existing = mHistoryCapacities.get(key);
+            if(existing == null || existing < capacity) {
+                mHistoryCapacities.put(key, capacity);
+            }
+        }
+    }
+
+    /**
+     * Start keeping the recent values of a measurement in the
+     * VehicleService.
+     *
+     * @see #enableHistory(MessageKey, int)
+     */
+    public void enableHistory(Class<? extends Measurement> measurementType,
+            int capacity) throws VehicleServiceException,
+            UnrecognizedMeasurementTypeException {
+        enableHistory(BaseMeasurement.getKeyForMeasurement(measurementType),
+                capacity);
+    }
+
+    /**
+     * Stop keeping the recent values of a signal for this app. They're still
+     * kept if another app enabled them.
+     *
+     * @throws VehicleServiceException if not connected to the VehicleService.
+     */
+    public void disableHistory(MessageKey key)
+            throws VehicleServiceException {
+        mHistoryCapacities.remove(key);
+        RemoteListenerSource source = mRemoteSource;
+        if(source == null) {
+            throw new VehicleServiceException(
+                    "Unable to disable history of " + key);
+        }
+
+        try {
+            source.disableHistory(key);
+        } catch(RemoteException e) {
+            throw new VehicleServiceException(
+                    "Unable to disable history of " + key, e);
+        }
+    }
+
+    /**
+     * Stop keeping the recent values of a measurement for this app.
+     *
+     * @see #disableHistory(MessageKey)
+     */
+    public void disableHistory(Class<? extends Measurement> measurementType)
+            throws VehicleServiceException,
+            UnrecognizedMeasurementTypeException {
+        disableHistory(BaseMeasurement.getKeyForMeasurement(measurementType));
+    }
+
+    /**
+     * Retrieve the recent values of a signal in a range of time.
+     *
+     * @param key the key of the signal's messages.
+     * @param startTime the earliest timestamp to return, inclusive, in
+     *      milliseconds since the UNIX epoch.
+     * @param endTime the latest timestamp to return, inclusive.
+     * @return the values in the range, oldest first - empty if history isn't
+     *      enabled for the signal.
+     * @throws VehicleServiceException if not connected to the VehicleService.
+     */
+    public TimeSeries getHistory(MessageKey key, long startTime, long endTime)
+            throws VehicleServiceException {
+        if(mRemoteService == null) {
+            throw new VehicleServiceException(
+                    "Unable to retrieve history of " + key);
+        }
+
+        try {
+            return mRemoteService.getHistory(key, startTime, endTime);
+        } catch(RemoteException e) {
+            throw new VehicleServiceException(
+                    "Unable to retrieve history of " + key, e);
+        }
+    }
+
+    /**
+     * Retrieve the recent values of a measurement in a range of time.
+     *
+     * @see #getHistory(MessageKey, long, long)
+     */
+    public TimeSeries getHistory(Class<? extends Measurement> measurementType,
+            long startTime, long endTime) throws VehicleServiceException,
+            UnrecognizedMeasurementTypeException {
+        return getHistory(BaseMeasurement.getKeyForMeasurement(
+                    measurementType), startTime, endTime);
+    }
+
+    /**
+     * Read the metrics of the VehicleService, e.g. the bytes and messages
+     * read from each source, the depth of each queue and the latency of
+     * delivering messages to apps.
+     *
+     * @throws VehicleServiceException if not connected to the VehicleService.
+     */
+    public MetricsSnapshot getMetrics() throws VehicleServiceException {
+        if(mRemoteService == null) {
+            throw new VehicleServiceException("Unable to retrieve metrics");
+        }
+
+        try {
+            return mRemoteService.getMetrics();
+        } catch(RemoteException e) {
+            throw new VehicleServiceException("Unable to retrieve metrics", e);
+        }
+    }
+
+    /**
+     * Read the metrics of this app's process, e.g. the latency of
+     * delivering messages to its listeners.
+     */
+    public MetricsSnapshot getLocalMetrics() {
+        return MetricsRegistry.getDefault().snapshot();
+    }
+
     /**
      * Return the connection status of the selected VI.
      *
@@ -826,6 +1336,13 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
 
             mRemoteSource = new RemoteListenerSource(mRemoteService);
             mRemoteOriginPipeline.addSource(mRemoteSource);
+            updateMessageFilter();
+
+            LastValueCacheSink cache = mCache;
+            if(cache != null) {
+                syncCache(cache, cache.getKeys());
+            }
+            restoreHistory();
 
             mUserSink = new UserSink(mRemoteService);
             mUserOriginPipeline.addSink(mUserSink);
@@ -840,11 +1357,57 @@ public class VehicleManager extends Service implements DataPipeline.Operator {
             Log.w(TAG, "VehicleService disconnected unexpectedly");
             mRemoteService = null;
             mRemoteOriginPipeline.removeSource(mRemoteSource);
+
+            LastValueCacheSink cache = mCache;
+            if(cache != null) {
+                cache.clear();
+            }
             mUserOriginPipeline.removeSink(mUserSink);
             bindRemote();
         }
     };
 
+    /**
+     * Tell the VehicleService which messages the listeners and the local
+     * cache in this app need, so it doesn't send the rest. If the app added
+     * its own sinks they get every message, so nothing is filtered.
+     */
+    private void updateMessageFilter() {
+        // Listeners can be added and removed from several threads at once, so
+        // computing and sending the filter are done together - otherwise a
+        // filter computed before the latest change could be sent after it.
+        synchronized(mFilterLock) {
+            RemoteListenerSource source = mRemoteSource;
+            if(source != null) {
+                LastValueCacheSink cache = mCache;
+                MessageFilter filter = null;
+                if(mUserSinks.isEmpty()) {
+                    filter = mNotifier.getFilter();
+                    if(filter != null && cache != null) {
+                        filter = filter.withKeys(cache.getKeys());
+                    }
+                }
+                source.setMessageFilter(filter);
+            }
+        }
+    }
+
+    /**
+     * The VehicleService releases an app's history when it disconnects, so
+     * enable it again for the new listener.
+     */
+    private void restoreHistory() {
+        for(Map.Entry<MessageKey, Integer> entry :
+                mHistoryCapacities.entrySet()) {
+            try {
+                mRemoteSource.enableHistory(entry.getKey(), entry.getValue());
+            } catch(RemoteException | RuntimeException e) {
+                Log.w(TAG, "Unable to enable history of " + entry.getKey() +
+                        " again", e);
+            }
+        }
+    }
+
     private void bindRemote() {
         Log.i(TAG, "Binding to VehicleService");
         Intent intent = new Intent(VehicleService.class.getName());
@@ -45,6 +45,9 @@ public class BluetoothVehicleInterface extends BytestreamDataSource
         implements VehicleInterface {
     private static final String TAG = "BluetoothVehicleInterface";
     public static final String DEVICE_NAME_PREFIX = "OpenXC-VI-";
+    // RFCOMM frames carry at most about 1KB, so a bigger first read rarely
+    // gets more data.
+    private static final int READ_BUFFER_SIZE = 1024;
 
     private DeviceManager mDeviceManager;
     private Thread mAcceptThread;
@@ -429,6 +432,11 @@ public class BluetoothVehicleInterface extends BytestreamDataSource
         }
     }
 
+    @Override
+    protected int getReadBufferSize() {
+        return READ_BUFFER_SIZE;
+    }
+
     @Override
     protected String getTag() {
         return TAG;
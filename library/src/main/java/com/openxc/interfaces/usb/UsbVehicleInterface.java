@@ -45,6 +45,10 @@ public class UsbVehicleInterface extends BytestreamDataSource
         implements VehicleInterface {
     private static final String TAG = "UsbVehicleInterface";
     private static final int ENDPOINT_COUNT = 2;
+    // A whole number of packets at both full-speed (64 byte) and high-speed
+    // (512 byte) bulk packet sizes, so one transfer can pick up everything
+    // the VI has buffered instead of a packet at a time.
+    private static final int READ_BUFFER_SIZE = 4096;
 
     public static final String ACTION_USB_PERMISSION =
             "com.ford.openxc.USB_PERMISSION";
@@ -205,6 +209,11 @@ public class UsbVehicleInterface extends BytestreamDataSource
         return bytesRead;
     }
 
+    @Override
+    protected int getReadBufferSize() {
+        return READ_BUFFER_SIZE;
+    }
+
     @Override
     protected String getTag() {
         return TAG;
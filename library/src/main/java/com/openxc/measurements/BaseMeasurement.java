@@ -2,10 +2,9 @@ package com.openxc.measurements;
 
 import com.google.common.base.Objects;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.Context;
 import android.util.Log;
@@ -13,7 +12,6 @@ import android.util.Log;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.openxc.NoValueException;
-import com.openxc.messages.EventedSimpleVehicleMessage;
 import com.openxc.messages.MessageKey;
 import com.openxc.messages.NamedVehicleMessage;
 import com.openxc.messages.SimpleVehicleMessage;
@@ -48,30 +46,136 @@ public abstract class BaseMeasurement<TheUnit extends Unit>
             sCachedPrettyNames = new HashMap<>();
     private static BiMap<String, Class<? extends Measurement>>
             sMeasurementIdToClass;
+    private static Map<Class<? extends Measurement>, MeasurementFactory>
+            sFactories = new ConcurrentHashMap<>();
 
     static {
         sMeasurementIdToClass = HashBiMap.create();
+        // Built-in measurements are constructed directly instead of looking up
+        // their constructors through reflection for every message.
         try {
-            cacheMeasurementId(AcceleratorPedalPosition.class);
-            cacheMeasurementId(BrakePedalStatus.class);
-            cacheMeasurementId(EngineSpeed.class);
-            cacheMeasurementId(FuelConsumed.class);
-            cacheMeasurementId(FuelLevel.class);
-            cacheMeasurementId(HeadlampStatus.class);
-            cacheMeasurementId(HighBeamStatus.class);
-            cacheMeasurementId(IgnitionStatus.class);
-            cacheMeasurementId(Latitude.class);
-            cacheMeasurementId(Longitude.class);
-            cacheMeasurementId(Odometer.class);
-            cacheMeasurementId(ParkingBrakeStatus.class);
-            cacheMeasurementId(SteeringWheelAngle.class);
-            cacheMeasurementId(TorqueAtTransmission.class);
-            cacheMeasurementId(TransmissionGearPosition.class);
-            cacheMeasurementId(TurnSignalStatus.class);
-            cacheMeasurementId(VehicleButtonEvent.class);
-            cacheMeasurementId(VehicleDoorStatus.class);
-            cacheMeasurementId(VehicleSpeed.class);
-            cacheMeasurementId(WindshieldWiperStatus.class);
+            registerFactory(AcceleratorPedalPosition.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new AcceleratorPedalPosition((Number) message.getValue());
+                }
+            });
+            registerFactory(BrakePedalStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new BrakePedalStatus((Boolean) message.getValue());
+                }
+            });
+            registerFactory(EngineSpeed.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new EngineSpeed((Number) message.getValue());
+                }
+            });
+            registerFactory(FuelConsumed.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new FuelConsumed((Number) message.getValue());
+                }
+            });
+            registerFactory(FuelLevel.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new FuelLevel((Number) message.getValue());
+                }
+            });
+            registerFactory(HeadlampStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new HeadlampStatus((Boolean) message.getValue());
+                }
+            });
+            registerFactory(HighBeamStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new HighBeamStatus((Boolean) message.getValue());
+                }
+            });
+            registerFactory(IgnitionStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new IgnitionStatus((String) message.getValue());
+                }
+            });
+            registerFactory(Latitude.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new Latitude((Number) message.getValue());
+                }
+            });
+            registerFactory(Longitude.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new Longitude((Number) message.getValue());
+                }
+            });
+            registerFactory(Odometer.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new Odometer((Number) message.getValue());
+                }
+            });
+            registerFactory(ParkingBrakeStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new ParkingBrakeStatus((Boolean) message.getValue());
+                }
+            });
+            registerFactory(SteeringWheelAngle.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new SteeringWheelAngle((Number) message.getValue());
+                }
+            });
+            registerFactory(TorqueAtTransmission.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new TorqueAtTransmission((Number) message.getValue());
+                }
+            });
+            registerFactory(TransmissionGearPosition.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new TransmissionGearPosition((String) message.getValue());
+                }
+            });
+            registerFactory(TurnSignalStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new TurnSignalStatus((String) message.getValue());
+                }
+            });
+            registerFactory(VehicleButtonEvent.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new VehicleButtonEvent((String) message.getValue(),
+                        (String) message.asEventedMessage().getEvent());
+                }
+            });
+            registerFactory(VehicleDoorStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new VehicleDoorStatus((String) message.getValue(),
+                        (Boolean) message.asEventedMessage().getEvent());
+                }
+            });
+            registerFactory(VehicleSpeed.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new VehicleSpeed((Number) message.getValue());
+                }
+            });
+            registerFactory(WindshieldWiperStatus.class, new MeasurementFactory() {
+                @Override
+                public Measurement create(SimpleVehicleMessage message) {
+                    return new WindshieldWiperStatus((Boolean) message.getValue());
+                }
+            });
         } catch(UnrecognizedMeasurementTypeException e) { }
     }
 
@@ -183,6 +287,23 @@ public abstract class BaseMeasurement<TheUnit extends Unit>
         }
     }
 
+    /**
+     * Register the factory used to build measurements of a type from incoming
+     * messages, instead of finding and calling its constructor through
+     * reflection.
+     *
+     * @param measurementType the measurement class, which must have a public
+     *      static ID field.
+     * @param factory builds a new measurement from a message's value.
+     */
+    public static void registerFactory(
+            Class<? extends Measurement> measurementType,
+            MeasurementFactory factory)
+            throws UnrecognizedMeasurementTypeException {
+        cacheMeasurementId(measurementType);
+        sFactories.put(measurementType, factory);
+    }
+
     public static MessageKey getKeyForMeasurement(
             Class<? extends Measurement> measurementType)
             throws UnrecognizedMeasurementTypeException {
@@ -219,76 +340,29 @@ public abstract class BaseMeasurement<TheUnit extends Unit>
             Class<? extends Measurement> measurementType,
             SimpleVehicleMessage message)
                 throws UnrecognizedMeasurementTypeException, NoValueException {
-        Constructor<? extends Measurement> constructor;
         if(message == null) {
             throw new NoValueException();
         }
 
-        try {
-            Measurement measurement;
-            SimpleVehicleMessage simpleMessage = message.asSimpleMessage();
-            Class<?> valueClass = simpleMessage.getValue().getClass();
-            if(valueClass == Double.class || valueClass == Integer.class) {
-                valueClass = Number.class;
-            }
-
-            if(message instanceof EventedSimpleVehicleMessage) {
-                EventedSimpleVehicleMessage eventedMessage =
-                        message.asEventedMessage();
-
-                Class<?> eventClass = eventedMessage.getEvent().getClass();
-                if(eventClass == Double.class || eventClass == Integer.class) {
-                    eventClass = Number.class;
-                }
-
-                try {
-                    constructor = measurementType.getConstructor(
-                            valueClass, eventClass);
-                } catch(NoSuchMethodException e) {
-                    throw new UnrecognizedMeasurementTypeException(
-                            measurementType +
-                            " doesn't have the expected constructor, " +
-                           measurementType + "(" +
-                           valueClass + ", " + eventClass + ")");
-                }
-
-                measurement = constructor.newInstance(
-                        eventedMessage.getValue(),
-                        eventedMessage.getEvent());
-            } else {
-                try {
-                    constructor = measurementType.getConstructor(valueClass);
-                } catch(NoSuchMethodException e) {
-                    throw new UnrecognizedMeasurementTypeException(
-                            measurementType +
-                            " doesn't have the expected constructor, " +
-                           measurementType + "(" +
-                           valueClass + ")");
-                }
-
-                measurement = constructor.newInstance(
-                        simpleMessage.getValue());
-            }
+        MeasurementFactory factory = sFactories.get(measurementType);
+        if(factory == null) {
+            factory = new ReflectiveMeasurementFactory(measurementType);
+            sFactories.put(measurementType, factory);
+        }
 
-            if (simpleMessage.getTimestamp() != null) {
-                measurement.setTimestamp(simpleMessage.getTimestamp());
-            }
-            // https://github.com/openxc/openxc-android/issues/185
-            return measurement;
-        } catch(InstantiationException e) {
-            throw new UnrecognizedMeasurementTypeException(
-                    measurementType + " is abstract", e);
-        } catch(IllegalAccessException e) {
-            throw new UnrecognizedMeasurementTypeException(
-                    measurementType + " has a private constructor", e);
-        } catch(IllegalArgumentException e) {
-            throw new UnrecognizedMeasurementTypeException(
-                    measurementType + " has unexpected arguments", e);
-        } catch(InvocationTargetException e) {
+        Measurement measurement;
+        try {
+            measurement = factory.create(message);
+        } catch(RuntimeException e) {
             throw new UnrecognizedMeasurementTypeException(
-                    measurementType + "'s constructor threw an exception",
-                    e);
+                    measurementType + " can't be built from " + message, e);
+        }
+
+        if(message.getTimestamp() != null) {
+            measurement.setTimestamp(message.getTimestamp());
         }
+        // https://github.com/openxc/openxc-android/issues/185
+        return measurement;
     }
 
     @Override
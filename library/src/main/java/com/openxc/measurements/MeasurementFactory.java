@@ -0,0 +1,24 @@
+package com.openxc.measurements;
+
+import com.openxc.messages.SimpleVehicleMessage;
+
+/**
+ * A MeasurementFactory builds one type of {@link Measurement} from the value
+ * (and event, for evented measurements) of a message.
+ *
+ * Factories are looked up by measurement class when converting incoming
+ * messages - see
+ * {@link BaseMeasurement#registerFactory(Class, MeasurementFactory)}.
+ */
+public interface MeasurementFactory {
+    /**
+     * Build a new measurement from the message's value. The timestamp is
+     * copied over by the caller.
+     *
+     * A factory may throw a RuntimeException such as ClassCastException if
+     * the message's value isn't of the type it expects, which is reported to
+     * the caller as an {@link UnrecognizedMeasurementTypeException}.
+     */
+    public Measurement create(SimpleVehicleMessage message)
+            throws UnrecognizedMeasurementTypeException;
+}
@@ -0,0 +1,89 @@
+package com.openxc.measurements;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.openxc.messages.EventedSimpleVehicleMessage;
+import com.openxc.messages.SimpleVehicleMessage;
+
+/**
+ * Builds measurements by calling the measurement class' constructor that takes
+ * the message's value (and event) types.
+ *
+ * This is the fallback for measurement classes that don't have a
+ * {@link MeasurementFactory} registered. Each constructor is looked up once
+ * per combination of argument types and then reused.
+ */
+class ReflectiveMeasurementFactory implements MeasurementFactory {
+    private final Class<? extends Measurement> mMeasurementType;
+    private final Map<List<Class<?>>, Constructor<? extends Measurement>>
+            mConstructors = new ConcurrentHashMap<>();
+
+    ReflectiveMeasurementFactory(Class<? extends Measurement> measurementType) {
+        mMeasurementType = measurementType;
+    }
+
+    @Override
+    public Measurement create(SimpleVehicleMessage message)
+            throws UnrecognizedMeasurementTypeException {
+        Object[] arguments;
+        if(message instanceof EventedSimpleVehicleMessage) {
+            arguments = new Object[] {message.getValue(),
+                message.asEventedMessage().getEvent()};
+        } else {
+            arguments = new Object[] {message.getValue()};
+        }
+
+        Class<?>[] argumentTypes = new Class<?>[arguments.length];
+        for(int i = 0; i < arguments.length; i++) {
+            argumentTypes[i] = parameterType(arguments[i].getClass());
+        }
+
+        try {
+            return getConstructor(argumentTypes).newInstance(arguments);
+        } catch(InstantiationException e) {
+            throw new UnrecognizedMeasurementTypeException(
+                    mMeasurementType + " is abstract", e);
+        } catch(IllegalAccessException e) {
+            throw new UnrecognizedMeasurementTypeException(
+                    mMeasurementType + " has a private constructor", e);
+        } catch(IllegalArgumentException e) {
+            throw new UnrecognizedMeasurementTypeException(
+                    mMeasurementType + " has unexpected arguments", e);
+        } catch(InvocationTargetException e) {
+            throw new UnrecognizedMeasurementTypeException(
+                    mMeasurementType + "'s constructor threw an exception",
+                    e);
+        }
+    }
+
+    private Constructor<? extends Measurement> getConstructor(
+            Class<?>[] argumentTypes)
+            throws UnrecognizedMeasurementTypeException {
+        List<Class<?>> key = Arrays.asList(argumentTypes);
+        Constructor<? extends Measurement> constructor = mConstructors.get(key);
+        if(constructor == null) {
+            try {
+                constructor = mMeasurementType.getConstructor(argumentTypes);
+            } catch(NoSuchMethodException e) {
+                throw new UnrecognizedMeasurementTypeException(
+                        mMeasurementType +
+                        " doesn't have the expected constructor, " +
+                        mMeasurementType + key);
+            }
+            mConstructors.put(key, constructor);
+        }
+        return constructor;
+    }
+
+    private static Class<?> parameterType(Class<?> valueClass) {
+        if(valueClass == Double.class || valueClass == Integer.class) {
+            return Number.class;
+        }
+        return valueClass;
+    }
+}
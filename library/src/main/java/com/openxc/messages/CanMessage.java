@@ -1,7 +1,6 @@
 package com.openxc.messages;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -61,10 +60,7 @@ public class CanMessage extends KeyedMessage {
     @Override
     public MessageKey getKey() {
         if(super.getKey() == null) {
-            HashMap<String, Object> key = new HashMap<>();
-            key.put(BUS_KEY, getBusId());
-            key.put(ID_KEY, getId());
-            setKey(new MessageKey(key));
+            setKey(MessageKey.intern(BUS_KEY, getBusId(), ID_KEY, getId()));
         }
         return super.getKey();
     }
@@ -130,7 +126,25 @@ public class CanMessage extends KeyedMessage {
         in.readByteArray(mData);
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        out.writeInt(getBusId());
+        out.writeInt(getId());
+        out.writeByteArray(getData());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mBusId = in.readInt();
+        mId = in.readInt();
+        in.readByteArray(mData);
+    }
+
     protected CanMessage(Parcel in) {
         readFromParcel(in);
     }
+
+    protected CanMessage() { }
 }
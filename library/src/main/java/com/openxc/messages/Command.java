@@ -3,7 +3,6 @@ package com.openxc.messages;
 import com.google.common.base.Objects;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -74,9 +73,7 @@ public class Command extends KeyedMessage {
     @Override
     public MessageKey getKey() {
         if(super.getKey() == null) {
-            HashMap<String, Object> key = new HashMap<>();
-            key.put(COMMAND_KEY, getCommand());
-            setKey(new MessageKey(key));
+            setKey(MessageKey.intern(COMMAND_KEY, getCommand()));
         }
         return super.getKey();
     }
@@ -125,6 +122,29 @@ public class Command extends KeyedMessage {
         mDiagnosticRequest = in.readParcelable(DiagnosticRequest.class.getClassLoader());
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        writeEnum(out, getCommand());
+        out.writeString(getAction());
+        if(getDiagnosticRequest() != null) {
+            out.writeInt(1);
+            writeCompact(out, getDiagnosticRequest());
+        } else {
+            out.writeInt(0);
+        }
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mCommand = readEnum(in, CommandType.class);
+        mAction = in.readString();
+        if(in.readInt() == 1) {
+            mDiagnosticRequest = (DiagnosticRequest) CREATOR.createFromParcel(in);
+        }
+    }
+
     protected Command(Parcel in) {
         readFromParcel(in);
     }
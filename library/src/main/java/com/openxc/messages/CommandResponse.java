@@ -3,7 +3,6 @@ package com.openxc.messages;
 import com.google.common.base.Objects;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -92,9 +91,7 @@ public class CommandResponse extends KeyedMessage {
     @Override
     public MessageKey getKey() {
         if(super.getKey() == null) {
-            HashMap<String, Object> key = new HashMap<>();
-            key.put(Command.COMMAND_KEY, getCommand());
-            setKey(new MessageKey(key));
+            setKey(MessageKey.intern(Command.COMMAND_KEY, getCommand()));
         }
         return super.getKey();
     }
@@ -119,6 +116,22 @@ public class CommandResponse extends KeyedMessage {
         mMessage = in.readString();
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        writeEnum(out, getCommand());
+        out.writeInt(getStatus() ? 1 : 0);
+        out.writeString(getMessage());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mCommand = readEnum(in, CommandType.class);
+        mStatus = in.readInt() == 1;
+        mMessage = in.readString();
+    }
+
     protected CommandResponse(Parcel in) {
         readFromParcel(in);
     }
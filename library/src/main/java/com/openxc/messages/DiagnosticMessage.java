@@ -1,7 +1,6 @@
 package com.openxc.messages;
 
 import java.util.Arrays;
-import java.util.HashMap;
 
 import android.os.Parcel;
 
@@ -101,12 +100,9 @@ public abstract class DiagnosticMessage extends KeyedMessage {
     @Override
     public MessageKey getKey() {
         if(super.getKey() == null) {
-            HashMap<String, Object> key = new HashMap<>();
-            key.put(CanMessage.BUS_KEY, getBusId());
-            key.put(CanMessage.ID_KEY, getId());
-            key.put(MODE_KEY, getMode());
-            key.put(PID_KEY, getPid());
-            setKey(new MessageKey(key));
+            setKey(MessageKey.intern(CanMessage.BUS_KEY, getBusId(),
+                        CanMessage.ID_KEY, getId(), MODE_KEY, getMode(),
+                        PID_KEY, getPid()));
         }
         return super.getKey();
     }
@@ -156,5 +152,29 @@ public abstract class DiagnosticMessage extends KeyedMessage {
         }
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        out.writeInt(getBusId());
+        out.writeInt(getId());
+        out.writeInt(getMode());
+        out.writeValue(getPid());
+        out.writeByteArray(getPayload());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mBusId = in.readInt();
+        mId = in.readInt();
+        mMode = in.readInt();
+        mPid = (Integer) in.readValue(Integer.class.getClassLoader());
+
+        byte[] payload = in.createByteArray();
+        if(payload != null && payload.length > 0) {
+            mPayload = payload;
+        }
+    }
+
     protected DiagnosticMessage() { }
 }
@@ -127,6 +127,22 @@ public class DiagnosticRequest extends DiagnosticMessage {
         mName = in.readString();
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        out.writeValue(mMultipleResponses);
+        out.writeValue(getFrequency());
+        out.writeString(getName());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mMultipleResponses = (Boolean) in.readValue(Boolean.class.getClassLoader());
+        mFrequency = (Double) in.readValue(Double.class.getClassLoader());
+        mName = in.readString();
+    }
+
     protected DiagnosticRequest(Parcel in) {
         readFromParcel(in);
     }
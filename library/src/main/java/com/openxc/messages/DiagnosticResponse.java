@@ -57,6 +57,16 @@ public class DiagnosticResponse extends DiagnosticMessage {
         mValue = value;
     }
 
+    /**
+     * Set the success flag reported by the vehicle interface.
+     *
+     * This is only carried along for serialization - use
+     * {@link #isSuccessful()} to check the outcome of the request.
+     */
+    public void setSuccess(boolean success) {
+        mSuccess = success;
+    }
+
     public boolean isSuccessful() {
         return mNegativeResponseCode == NegativeResponseCode.NONE;
     }
@@ -205,6 +215,20 @@ public class DiagnosticResponse extends DiagnosticMessage {
         mNegativeResponseCode = (NegativeResponseCode) in.readSerializable();
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        out.writeValue(getValue());
+        writeEnum(out, getNegativeResponseCode());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mValue = (Double) in.readValue(Double.class.getClassLoader());
+        mNegativeResponseCode = readEnum(in, NegativeResponseCode.class);
+    }
+
     protected DiagnosticResponse(Parcel in) {
         readFromParcel(in);
     }
@@ -89,6 +89,18 @@ public class EventedSimpleVehicleMessage extends SimpleVehicleMessage {
         mEvent = in.readValue(null);
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        out.writeValue(getEvent());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mEvent = in.readValue(null);
+    }
+
     protected EventedSimpleVehicleMessage(Parcel in) {
         readFromParcel(in);
     }
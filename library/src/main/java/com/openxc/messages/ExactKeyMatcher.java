@@ -5,6 +5,10 @@ import com.google.common.base.Objects;
 /**
  * A helper base class for a KeyMatcher that matches exactly one key, e.g.
  * receiving the response for a command.
+ *
+ * Listeners registered with an ExactKeyMatcher may be looked up by the value
+ * of {@link #getKey()} instead of calling {@link #matches(MessageKey)}, so a
+ * subclass must only match messages with a key equal to that one.
  */
 public abstract class ExactKeyMatcher extends KeyMatcher {
     public abstract MessageKey getKey();
@@ -0,0 +1,239 @@
+package com.openxc.messages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * A description of the messages an app wants to receive from a remote
+ * {@link com.openxc.remote.VehicleService}, so the service only sends those.
+ *
+ * A message matches the filter if any of these is true:
+ *
+ * - its key is one of the exact keys,
+ * - its key contains all of the parts of one of the partial keys (see
+ *   {@link PartialKeyMatcher}),
+ * - its class is one of the message types.
+ *
+ * A filter can also have {@link SubscriptionOptions} for some of its exact
+ * keys, to skip updates of those signals the app doesn't need. They only
+ * apply to messages that don't also match a partial key or message type.
+ *
+ * Filters are immutable.
+ */
+public class MessageFilter implements Parcelable {
+    private final Set<MessageKey> mKeys;
+    private final Set<MessageKey> mPartialKeys;
+    private final Set<String> mMessageTypes;
+    private final Map<MessageKey, SubscriptionOptions> mOptions;
+
+    /**
+     * @param keys the exact keys of messages to receive.
+     * @param partialKeys the parts of keys of messages to receive.
+     * @param messageTypes the VehicleMessage subclasses to receive, matched
+     *      by exact class.
+     */
+    public MessageFilter(Collection<MessageKey> keys,
+            Collection<MessageKey> partialKeys,
+            Collection<Class<? extends VehicleMessage>> messageTypes) {
+        this(keys, partialKeys, messageTypes,
+                Collections.<MessageKey, SubscriptionOptions>emptyMap());
+    }
+
+    /**
+     * @param options the options for some of the exact keys.
+     */
+    public MessageFilter(Collection<MessageKey> keys,
+            Collection<MessageKey> partialKeys,
+            Collection<Class<? extends VehicleMessage>> messageTypes,
+            Map<MessageKey, SubscriptionOptions> options) {
+        this(keys, partialKeys, getClassNames(messageTypes), options);
+    }
+
+    private MessageFilter(Collection<MessageKey> keys,
+            Collection<MessageKey> partialKeys, Set<String> messageTypes,
+            Map<MessageKey, SubscriptionOptions> options) {
+        mKeys = Collections.unmodifiableSet(new HashSet<>(keys));
+        mPartialKeys = Collections.unmodifiableSet(new HashSet<>(partialKeys));
+        mMessageTypes = Collections.unmodifiableSet(messageTypes);
+        mOptions = Collections.unmodifiableMap(new HashMap<>(options));
+    }
+
+    /**
+     * Return true if the message should be sent to the app that asked for
+     * this filter.
+     */
+    public boolean matches(VehicleMessage message) {
+        if(!mMessageTypes.isEmpty() &&
+                mMessageTypes.contains(message.getClass().getName())) {
+            return true;
+        }
+
+        if(message instanceof KeyedMessage) {
+            MessageKey key = ((KeyedMessage) message).getKey();
+            if(mKeys.contains(key)) {
+                return true;
+            }
+
+            for(MessageKey partialKey : mPartialKeys) {
+                if(key.containsAll(partialKey)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the options for a message that matches this filter.
+     *
+     * @return the options for the message's key, or null if every message
+     *      with that key should be sent.
+     */
+    public SubscriptionOptions getOptions(VehicleMessage message) {
+        if(mOptions.isEmpty() || !(message instanceof KeyedMessage)) {
+            return null;
+        }
+
+        MessageKey key = ((KeyedMessage) message).getKey();
+        SubscriptionOptions options = mOptions.get(key);
+        if(options == null || mMessageTypes.contains(
+                    message.getClass().getName())) {
+            return null;
+        }
+
+        for(MessageKey partialKey : mPartialKeys) {
+            if(key.containsAll(partialKey)) {
+                return null;
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Return a copy of this filter that also matches every message with some
+     * exact keys, e.g. to add the signals an app reads to the ones it
+     * listens for.
+     *
+     * The added keys have no options, since every update is needed.
+     */
+    public MessageFilter withKeys(Collection<MessageKey> keys) {
+        Set<MessageKey> allKeys = new HashSet<>(mKeys);
+        allKeys.addAll(keys);
+        Map<MessageKey, SubscriptionOptions> options = new HashMap<>(mOptions);
+        options.keySet().removeAll(keys);
+        return new MessageFilter(allKeys, mPartialKeys,
+                new HashSet<>(mMessageTypes), options);
+    }
+
+    public Map<MessageKey, SubscriptionOptions> getOptions() {
+        return mOptions;
+    }
+
+    public Set<MessageKey> getKeys() {
+        return mKeys;
+    }
+
+    public Set<MessageKey> getPartialKeys() {
+        return mPartialKeys;
+    }
+
+    /**
+     * @return the class names of the message types in the filter.
+     */
+    public Set<String> getMessageTypes() {
+        return mMessageTypes;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+
+        if(!(obj instanceof MessageFilter)) {
+            return false;
+        }
+
+        final MessageFilter other = (MessageFilter) obj;
+        return mKeys.equals(other.mKeys) &&
+                mPartialKeys.equals(other.mPartialKeys) &&
+                mMessageTypes.equals(other.mMessageTypes) &&
+                mOptions.equals(other.mOptions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(mKeys, mPartialKeys, mMessageTypes, mOptions);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("keys", mKeys)
+            .add("partialKeys", mPartialKeys)
+            .add("messageTypes", mMessageTypes)
+            .add("options", mOptions)
+            .toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeTypedList(new ArrayList<>(mKeys));
+        out.writeTypedList(new ArrayList<>(mPartialKeys));
+        out.writeStringList(new ArrayList<>(mMessageTypes));
+        out.writeTypedList(new ArrayList<>(mOptions.keySet()));
+        out.writeTypedList(new ArrayList<>(mOptions.values()));
+    }
+
+    public static final Parcelable.Creator<MessageFilter> CREATOR =
+            new Parcelable.Creator<MessageFilter>() {
+        @Override
+        public MessageFilter createFromParcel(Parcel in) {
+            List<MessageKey> keys = in.createTypedArrayList(MessageKey.CREATOR);
+            List<MessageKey> partialKeys = in.createTypedArrayList(
+                    MessageKey.CREATOR);
+            List<String> messageTypes = in.createStringArrayList();
+            List<MessageKey> optionKeys = in.createTypedArrayList(
+                    MessageKey.CREATOR);
+            List<SubscriptionOptions> optionValues = in.createTypedArrayList(
+                    SubscriptionOptions.CREATOR);
+            Map<MessageKey, SubscriptionOptions> options = new HashMap<>();
+            for(int i = 0; i < optionKeys.size(); i++) {
+                options.put(optionKeys.get(i), optionValues.get(i));
+            }
+            return new MessageFilter(keys, partialKeys,
+                    new HashSet<>(messageTypes), options);
+        }
+
+        @Override
+        public MessageFilter[] newArray(int size) {
+            return new MessageFilter[size];
+        }
+    };
+
+    private static Set<String> getClassNames(
+            Collection<Class<? extends VehicleMessage>> messageTypes) {
+        Set<String> names = new HashSet<>();
+        for(Class<? extends VehicleMessage> messageType : messageTypes) {
+            names.add(messageType.getName());
+        }
+        return names;
+    }
+}
@@ -1,27 +1,86 @@
 package com.openxc.messages;
 
-import com.google.common.base.Objects;
-
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.google.common.base.MoreObjects;
+
 /**
  * A MessageKey is an identifying key for a VehicleMessage.
  *
- * The key is a simple map of string names to arbitrary objects.
+ * The key is a simple map of string names to arbitrary objects. Keys are
+ * immutable and two keys are equal if their maps are equal.
  *
  * This is used to filter incoming messages to send them to the proper
  * listeners.
+ *
+ * The built-in message types share a single key instance for each unique
+ * combination of parts (e.g. each signal name or CAN bus and ID), so getting
+ * the key of an incoming message doesn't build a new map every time.
  */
 public class MessageKey implements Parcelable {
-    private Map<String, Object> mParts = new HashMap<>();
-    private int mHashCode;
+    // Keys built from the data received are interned, so put a limit on how
+    // many are kept around in case a vehicle interface sends garbage.
+    private static final int MAX_INTERNED_KEYS = 4096;
+    private static final ConcurrentMap<List<Object>, MessageKey> sInternedKeys =
+            new ConcurrentHashMap<>();
+
+    private final Map<String, Object> mParts;
+    private final int mHashCode;
 
     public MessageKey(Map<String, Object> parts) {
-        mParts = parts;
+        mParts = Collections.unmodifiableMap(new HashMap<>(parts));
+        mHashCode = mParts.hashCode();
+    }
+
+    /**
+     * Return the shared key with the given parts, creating it the first time
+     * it's requested.
+     *
+     * @param namesAndValues alternating part names and values, e.g.
+     *      ("bus", 1, "id", 42).
+     */
+    static MessageKey intern(Object... namesAndValues) {
+        List<Object> identity = Arrays.asList(namesAndValues);
+        MessageKey key = sInternedKeys.get(identity);
+        if(key == null) {
+            Map<String, Object> parts = new HashMap<>();
+            for(int i = 0; i < namesAndValues.length; i += 2) {
+                parts.put((String) namesAndValues[i], namesAndValues[i + 1]);
+            }
+            key = new MessageKey(parts);
+
+            if(sInternedKeys.size() < MAX_INTERNED_KEYS) {
+                MessageKey existing = sInternedKeys.putIfAbsent(identity, key);
+                if(existing != null) {
+                    key = existing;
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return an unmodifiable view of the parts of this key.
+     */
+    public Map<String, Object> getParts() {
+        return mParts;
+    }
+
+    /**
+     * @return true if this key has all of the parts of the other key, with
+     *      equal values.
+     */
+    public boolean containsAll(MessageKey other) {
+        return mParts.entrySet().containsAll(other.mParts.entrySet());
     }
 
     @Override
@@ -31,37 +90,40 @@ public class MessageKey implements Parcelable {
 
     @Override
     public boolean equals(Object obj) {
-        if(obj == null) {
+        if(this == obj) {
+            return true;
+        }
+
+        if(!(obj instanceof MessageKey)) {
             return false;
         }
 
-        // Take advantage of the fact that we likely already calculated and
-        // cached the hash code and use that for the equality comparison.
-        return hashCode() == obj.hashCode();
+        final MessageKey other = (MessageKey) obj;
+        return mHashCode == other.mHashCode && mParts.equals(other.mParts);
     }
 
     @Override
     public int hashCode() {
-        if(mHashCode == 0) {
-            mHashCode = Objects.hashCode(mParts);
-        }
         return mHashCode;
     }
 
     @Override
-    public void writeToParcel(Parcel out, int flags) {
-        out.writeMap(mParts);
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("parts", mParts)
+            .toString();
     }
 
-    protected void readFromParcel(Parcel in) {
-        in.readMap(mParts, null);
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeMap(mParts);
     }
 
     public static final Parcelable.Creator<MessageKey> CREATOR =
             new Parcelable.Creator<MessageKey>() {
         @Override
         public MessageKey createFromParcel(Parcel in) {
-            return new MessageKey(in);
+            return new MessageKey(readParts(in));
         }
 
         @Override
@@ -70,7 +132,9 @@ public class MessageKey implements Parcelable {
         }
     };
 
-    private MessageKey(Parcel in) {
-        readFromParcel(in);
+    private static Map<String, Object> readParts(Parcel in) {
+        Map<String, Object> parts = new HashMap<>();
+        in.readMap(parts, MessageKey.class.getClassLoader());
+        return parts;
     }
 }
@@ -1,7 +1,6 @@
 package com.openxc.messages;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -59,9 +58,7 @@ public class NamedVehicleMessage extends KeyedMessage {
     @Override
     public MessageKey getKey() {
         if(super.getKey() == null) {
-            HashMap<String, Object> key = new HashMap<>();
-            key.put(NAME_KEY, getName());
-            setKey(new MessageKey(key));
+            setKey(MessageKey.intern(NAME_KEY, getName()));
         }
         return super.getKey();
     }
@@ -91,6 +88,18 @@ public class NamedVehicleMessage extends KeyedMessage {
         mName = in.readString();
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        out.writeString(getName());
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        mName = in.readString();
+    }
+
     protected NamedVehicleMessage(Parcel in) {
         readFromParcel(in);
     }
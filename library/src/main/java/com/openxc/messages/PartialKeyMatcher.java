@@ -0,0 +1,44 @@
+package com.openxc.messages;
+
+import com.google.common.base.Objects;
+
+/**
+ * A helper base class for a KeyMatcher that matches every key containing some
+ * parts, e.g. all CAN messages on one bus or all diagnostic responses from one
+ * ECU.
+ *
+ * Unlike other matchers, this can be described to a remote
+ * {@link com.openxc.remote.VehicleService} with a {@link MessageFilter}, so
+ * messages it doesn't match are never sent to the app. A subclass must only
+ * match keys that contain all of {@link #getParts()}.
+ */
+public abstract class PartialKeyMatcher extends KeyMatcher {
+    public abstract MessageKey getParts();
+
+    public static PartialKeyMatcher buildPartialMatcher(final MessageKey parts) {
+        return new PartialKeyMatcher() {
+            private MessageKey mParts = parts;
+
+            @Override
+            public boolean matches(MessageKey other) {
+                return other.containsAll(mParts);
+            }
+
+            @Override
+            public MessageKey getParts() {
+                return mParts;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PartialKeyMatcher &&
+                getParts().equals(((PartialKeyMatcher) obj).getParts());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getParts());
+    }
+}
@@ -12,17 +12,28 @@ import com.google.gson.annotations.SerializedName;
 /**
  * The SimpleVehicleMessage is a simple vehicle message as defined by the OpenXC
  * message format - it has a name and a value field.
+ *
+ * Most signals are numeric, so a message created with
+ * {@link #numeric(String, double)} keeps its value unboxed - read it with
+ * {@link #getNumericValue()}. It's only boxed if something asks for the value
+ * as an object, e.g. with {@link #getValue()}.
  */
 public class SimpleVehicleMessage extends NamedVehicleMessage {
     protected static final String VALUE_KEY = "value";
 
+    private static final int PARCEL_VALUE_OBJECT = 0;
+    private static final int PARCEL_VALUE_NUMERIC = 1;
+
     private static final String[] sRequiredFieldsValues = new String[] {
             NAME_KEY, VALUE_KEY };
     private static final Set<String> sRequiredFields = new HashSet<>(
             Arrays.asList(sRequiredFieldsValues));
 
+    // For a numeric message, this is only set once the value is boxed.
     @SerializedName(VALUE_KEY)
     private Object mValue;
+    private transient double mNumericValue;
+    private transient boolean mNumeric;
 
     public SimpleVehicleMessage(Long timestamp, String name, Object value) {
         super(timestamp, name);
@@ -33,20 +44,55 @@ public class SimpleVehicleMessage extends NamedVehicleMessage {
         this(null, name, value);
     }
 
+    /**
+     * Create a message with a numeric value that isn't boxed.
+     *
+     * This isn't a constructor overload so that the other constructors keep
+     * the type of an integer value instead of widening it to a double.
+     */
+    public static SimpleVehicleMessage numeric(String name, double value) {
+        SimpleVehicleMessage message = new SimpleVehicleMessage(name, null);
+        message.mNumericValue = value;
+        message.mNumeric = true;
+        return message;
+    }
+
     public Object getValue() {
+        if(mNumeric && mValue == null) {
+            mValue = mNumericValue;
+        }
         return mValue;
     }
 
+    /**
+     * @return true if the message's value is a number.
+     */
+    public boolean isNumeric() {
+        return mNumeric || mValue instanceof Number;
+    }
+
+    /**
+     * Return the value of a numeric message without boxing it.
+     *
+     * @throws ClassCastException if the value isn't a number.
+     */
+    public double getNumericValue() {
+        if(mNumeric) {
+            return mNumericValue;
+        }
+        return ((Number) mValue).doubleValue();
+    }
+
     public Number getValueAsNumber() {
-        return (Number) mValue;
+        return (Number) getValue();
     }
 
     public String getValueAsString() {
-        return (String) mValue;
+        return (String) getValue();
     }
 
     public Boolean getValueAsBoolean() {
-        return (Boolean) mValue;
+        return (Boolean) getValue();
     }
 
     public static boolean containsRequiredFields(Set<String> fields) {
@@ -60,7 +106,10 @@ public class SimpleVehicleMessage extends NamedVehicleMessage {
         }
 
         final SimpleVehicleMessage other = (SimpleVehicleMessage) obj;
-        return mValue.equals(other.mValue);
+        if(mNumeric && other.mNumeric) {
+            return Double.compare(mNumericValue, other.mNumericValue) == 0;
+        }
+        return getValue().equals(other.getValue());
     }
 
     @Override
@@ -85,6 +134,29 @@ public class SimpleVehicleMessage extends NamedVehicleMessage {
         mValue = in.readValue(null);
     }
 
+    @Override
+    protected void writeCompactToParcel(Parcel out) {
+        super.writeCompactToParcel(out);
+        if(mNumeric) {
+            out.writeInt(PARCEL_VALUE_NUMERIC);
+            out.writeDouble(mNumericValue);
+        } else {
+            out.writeInt(PARCEL_VALUE_OBJECT);
+            out.writeValue(mValue);
+        }
+    }
+
+    @Override
+    protected void readCompactFromParcel(Parcel in) {
+        super.readCompactFromParcel(in);
+        if(in.readInt() == PARCEL_VALUE_NUMERIC) {
+            mNumericValue = in.readDouble();
+            mNumeric = true;
+        } else {
+            mValue = in.readValue(null);
+        }
+    }
+
     protected SimpleVehicleMessage(Parcel in) {
         readFromParcel(in);
     }
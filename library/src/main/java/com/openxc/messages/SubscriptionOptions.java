@@ -0,0 +1,189 @@
+package com.openxc.messages;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * Options that reduce how many updates of a signal a listener receives.
+ *
+ * Many listeners only need a few updates a second of a signal the vehicle
+ * interface sends much more often. The options are applied to each signal
+ * (each unique message key) separately, before the listener is called:
+ *
+ * - a maximum rate, so updates closer together than the minimum interval are
+ *   skipped,
+ * - send-on-change, so an update is skipped unless its value differs from the
+ *   last one delivered by more than a deadband,
+ * - latest-value-wins, so if several updates of a signal are waiting to be
+ *   delivered at once, only the newest one is.
+ *
+ * Times come from the message timestamps. Sources stamp messages with the
+ * time they're received, and a trace being played back is stamped with the
+ * time of playback rather than the recorded time, so a trace played faster
+ * than real time delivers more updates than the live data did. If a signal's
+ * timestamp goes backwards, e.g. because the clock was changed, the next
+ * update is always delivered.
+ *
+ * Options are immutable - the with* methods return a copy.
+ */
+public class SubscriptionOptions implements Parcelable {
+    private final long mMinIntervalMillis;
+    private final boolean mOnChange;
+    private final double mDeadband;
+    private final boolean mLatestValueWins;
+
+    /**
+     * Create options that don't skip any updates.
+     */
+    public SubscriptionOptions() {
+        this(0, false, 0, false);
+    }
+
+    private SubscriptionOptions(long minIntervalMillis, boolean onChange,
+            double deadband, boolean latestValueWins) {
+        mMinIntervalMillis = minIntervalMillis;
+        mOnChange = onChange;
+        mDeadband = deadband;
+        mLatestValueWins = latestValueWins;
+    }
+
+    /**
+     * @param maxRateHz the most updates per second to deliver for each signal.
+     */
+    public SubscriptionOptions withMaxRate(double maxRateHz) {
+        if(maxRateHz <= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum rate must be positive, not " + maxRateHz);
+        }
+        return new SubscriptionOptions(Math.round(1000 / maxRateHz),
+                mOnChange, mDeadband, mLatestValueWins);
+    }
+
+    /**
+     * Only deliver an update if its value changed.
+     *
+     * @param deadband how much a numeric value has to change from the last
+     *      one delivered before it's delivered again. Use 0 to deliver any
+     *      change. Other values are delivered whenever they aren't equal.
+     */
+    public SubscriptionOptions withOnChange(double deadband) {
+        if(deadband < 0) {
+            throw new IllegalArgumentException(
+                    "Deadband must not be negative, not " + deadband);
+        }
+        return new SubscriptionOptions(mMinIntervalMillis, true, deadband,
+                mLatestValueWins);
+    }
+
+    /**
+     * Skip the older updates of a signal when several are waiting to be
+     * delivered.
+     */
+    public SubscriptionOptions withLatestValueWins() {
+        return new SubscriptionOptions(mMinIntervalMillis, mOnChange,
+                mDeadband, true);
+    }
+
+    /**
+     * @return the shortest time between two updates of a signal, or 0 if the
+     *      rate isn't limited.
+     */
+    public long getMinIntervalMillis() {
+        return mMinIntervalMillis;
+    }
+
+    public boolean isOnChange() {
+        return mOnChange;
+    }
+
+    public double getDeadband() {
+        return mDeadband;
+    }
+
+    public boolean isLatestValueWins() {
+        return mLatestValueWins;
+    }
+
+    /**
+     * Return options that deliver every update either of two sets of options
+     * would, for a signal with listeners using both.
+     *
+     * @return the combined options, or null if either is null - meaning no
+     *      updates can be skipped.
+     */
+    public static SubscriptionOptions loosest(SubscriptionOptions first,
+            SubscriptionOptions second) {
+        if(first == null || second == null) {
+            return null;
+        }
+
+        return new SubscriptionOptions(
+                Math.min(first.mMinIntervalMillis, second.mMinIntervalMillis),
+                first.mOnChange && second.mOnChange,
+                Math.min(first.mDeadband, second.mDeadband),
+                first.mLatestValueWins && second.mLatestValueWins);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+
+        if(!(obj instanceof SubscriptionOptions)) {
+            return false;
+        }
+
+        final SubscriptionOptions other = (SubscriptionOptions) obj;
+        return mMinIntervalMillis == other.mMinIntervalMillis &&
+                mOnChange == other.mOnChange &&
+                Double.compare(mDeadband, other.mDeadband) == 0 &&
+                mLatestValueWins == other.mLatestValueWins;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(mMinIntervalMillis, mOnChange, mDeadband,
+                mLatestValueWins);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("minIntervalMillis", mMinIntervalMillis)
+            .add("onChange", mOnChange)
+            .add("deadband", mDeadband)
+            .add("latestValueWins", mLatestValueWins)
+            .toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeLong(mMinIntervalMillis);
+        out.writeInt(mOnChange ? 1 : 0);
+        out.writeDouble(mDeadband);
+        out.writeInt(mLatestValueWins ? 1 : 0);
+    }
+
+    public static final Parcelable.Creator<SubscriptionOptions> CREATOR =
+            new Parcelable.Creator<SubscriptionOptions>() {
+        @Override
+        public SubscriptionOptions createFromParcel(Parcel in) {
+            return new SubscriptionOptions(in.readLong(), in.readInt() != 0,
+                    in.readDouble(), in.readInt() != 0);
+        }
+
+        @Override
+        public SubscriptionOptions[] newArray(int size) {
+            return new SubscriptionOptions[size];
+        }
+    };
+}
@@ -7,7 +7,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
@@ -22,11 +24,47 @@ import com.google.gson.annotations.SerializedName;
  *
  * This base class implements Parcelable, so it can be sent over an AIDL
  * interface, i.e. between the singleton VehicleService and the VehicleManager
- * instance in each app's process.
+ * instance in each app's process. A single message is written with its class
+ * name so any version of the library can read it. Batches use a compact layout
+ * with a small type tag for the built-in message types instead, which is read
+ * back without reflection - see {@link #writeCompact(Parcel, VehicleMessage)}.
  */
 public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
     private static final String TAG = "VehicleMessage";
 
+    private static final int PARCEL_TYPE_VEHICLE_MESSAGE = 1;
+    private static final int PARCEL_TYPE_NAMED = 2;
+    private static final int PARCEL_TYPE_SIMPLE = 3;
+    private static final int PARCEL_TYPE_EVENTED = 4;
+    private static final int PARCEL_TYPE_CAN = 5;
+    private static final int PARCEL_TYPE_DIAGNOSTIC_REQUEST = 6;
+    private static final int PARCEL_TYPE_DIAGNOSTIC_RESPONSE = 7;
+    private static final int PARCEL_TYPE_COMMAND = 8;
+    private static final int PARCEL_TYPE_COMMAND_RESPONSE = 9;
+
+    private static final int PARCEL_HAS_TIMESTAMP = 1;
+    private static final int PARCEL_HAS_EXTRAS = 1 << 1;
+
+    private static final Map<Class<? extends VehicleMessage>, Integer>
+            sParcelTypes = new HashMap<>();
+    private static final Map<String, Constructor<? extends VehicleMessage>>
+            sParcelConstructors = new ConcurrentHashMap<>();
+
+    static {
+        sParcelTypes.put(VehicleMessage.class, PARCEL_TYPE_VEHICLE_MESSAGE);
+        sParcelTypes.put(NamedVehicleMessage.class, PARCEL_TYPE_NAMED);
+        sParcelTypes.put(SimpleVehicleMessage.class, PARCEL_TYPE_SIMPLE);
+        sParcelTypes.put(EventedSimpleVehicleMessage.class,
+                PARCEL_TYPE_EVENTED);
+        sParcelTypes.put(CanMessage.class, PARCEL_TYPE_CAN);
+        sParcelTypes.put(DiagnosticRequest.class,
+                PARCEL_TYPE_DIAGNOSTIC_REQUEST);
+        sParcelTypes.put(DiagnosticResponse.class,
+                PARCEL_TYPE_DIAGNOSTIC_RESPONSE);
+        sParcelTypes.put(Command.class, PARCEL_TYPE_COMMAND);
+        sParcelTypes.put(CommandResponse.class, PARCEL_TYPE_COMMAND_RESPONSE);
+    }
+
     public interface Listener {
         /* Public: Receive an incoming VehicleMessage.
          */
@@ -47,6 +85,8 @@ public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
     private Double mTimestampSeconds;
 
     private transient Long mTimestamp;
+    // When the message was read in this process, from System.nanoTime()
+    private transient long mReceivedNanos;
 
     @SerializedName(EXTRAS_KEY)
     private Map<String, Object> mExtras;
@@ -94,6 +134,20 @@ public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
         }
     }
 
+    /**
+     * Override the timestamp of the message with floating point seconds,
+     * keeping any precision finer than a millisecond when it's serialized
+     * again.
+     *
+     * @param timestampSeconds seconds since the UNIX epoch.
+     */
+    public void setTimestampSeconds(Double timestampSeconds) {
+        if(timestampSeconds != null) {
+            mTimestampSeconds = timestampSeconds;
+            mTimestamp = Double.valueOf(timestampSeconds * 1000).longValue();
+        }
+    }
+
     /**
      * @return true if the message has a valid timestamp.
      */
@@ -142,6 +196,22 @@ public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
         mTimestampSeconds = null;
     }
 
+    /**
+     * Record that the message was just read from a source, to measure how
+     * long it takes to reach listeners. This isn't serialized or parceled.
+     */
+    public void markReceived() {
+        mReceivedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return when the message was read from a source in this process, from
+     *      {@link System#nanoTime()}, or 0 if it wasn't.
+     */
+    public long getReceivedNanos() {
+        return mReceivedNanos;
+    }
+
     public void timestamp() {
         if(!isTimestamped()) {
             mTimestamp = System.currentTimeMillis();
@@ -212,6 +282,15 @@ public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
                 Objects.equal(mExtras, other.mExtras);
     }
 
+    /**
+     * Write the message in the layout every version of the library can read:
+     * the class name, then each field as a generic value.
+     *
+     * This is what AIDL uses for a single message, so apps built against
+     * older versions of the library can still talk to the VehicleService.
+     * Batches of messages use the compact layout instead - see
+     * {@link #writeCompact(Parcel, VehicleMessage)}.
+     */
     @Override
     public void writeToParcel(Parcel out, int flags) {
         out.writeString(getClass().getName());
@@ -228,18 +307,149 @@ public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
                 HashMap.class.getClassLoader());
     }
 
+    /**
+     * Write the fields of the message in the compact layout, which only the
+     * built-in message types have.
+     */
+    protected void writeCompactToParcel(Parcel out) {
+        Long timestamp = getTimestamp();
+        out.writeInt((timestamp != null ? PARCEL_HAS_TIMESTAMP : 0) |
+                (mExtras != null ? PARCEL_HAS_EXTRAS : 0));
+        if(timestamp != null) {
+            out.writeLong(timestamp);
+        }
+        if(mExtras != null) {
+            out.writeMap(mExtras);
+        }
+    }
+
+    protected void readCompactFromParcel(Parcel in) {
+        int contents = in.readInt();
+        if((contents & PARCEL_HAS_TIMESTAMP) != 0) {
+            setTimestamp(in.readLong());
+        }
+        if((contents & PARCEL_HAS_EXTRAS) != 0) {
+            mExtras = new HashMap<>();
+            in.readMap(mExtras, VehicleMessage.class.getClassLoader());
+        }
+    }
+
+    /**
+     * Write a message with a small type tag and its fields in the compact
+     * layout, instead of the class name and generic values. Messages of
+     * types from outside of this library are written as usual.
+     *
+     * Only apps that registered for batches of messages can read this
+     * layout, so it must not be used for a single message on the AIDL
+     * interface. {@link #CREATOR} reads both layouts.
+     */
+    public static void writeCompact(Parcel out, VehicleMessage message) {
+        Integer type = sParcelTypes.get(message.getClass());
+        if(type == null) {
+            message.writeToParcel(out, 0);
+            return;
+        }
+
+        // A null in place of the class name marks the compact layout
+        out.writeString(null);
+        out.writeInt(type);
+        message.writeCompactToParcel(out);
+    }
+
     public static final Parcelable.Creator<VehicleMessage> CREATOR =
             new Parcelable.Creator<VehicleMessage>() {
         @Override
         public VehicleMessage createFromParcel(Parcel in) {
             String messageClassName = in.readString();
-            Constructor<? extends VehicleMessage> constructor;
-            Class<? extends VehicleMessage> messageClass = null;
-            try {
+            if(messageClassName != null) {
+                return createFromClassName(messageClassName, in);
+            }
+
+            VehicleMessage message = createForType(in.readInt());
+            message.readCompactFromParcel(in);
+            return message;
+        }
+
+        @Override
+        public VehicleMessage[] newArray(int size) {
+            return new VehicleMessage[size];
+        }
+    };
+
+    private static VehicleMessage createForType(int type) {
+        switch(type) {
+        case PARCEL_TYPE_VEHICLE_MESSAGE:
+            return new VehicleMessage();
+        case PARCEL_TYPE_NAMED:
+            return new NamedVehicleMessage();
+        case PARCEL_TYPE_SIMPLE:
+            return new SimpleVehicleMessage();
+        case PARCEL_TYPE_EVENTED:
+            return new EventedSimpleVehicleMessage();
+        case PARCEL_TYPE_CAN:
+            return new CanMessage();
+        case PARCEL_TYPE_DIAGNOSTIC_REQUEST:
+            return new DiagnosticRequest();
+        case PARCEL_TYPE_DIAGNOSTIC_RESPONSE:
+            return new DiagnosticResponse();
+        case PARCEL_TYPE_COMMAND:
+            return new Command();
+        case PARCEL_TYPE_COMMAND_RESPONSE:
+            return new CommandResponse();
+        default:
+            // The rest of the message can't be skipped without knowing its
+            // type, so anything after it in the Parcel would be garbage
+            throw new BadParcelableException(
+                    "Unrecognized message type " + type);
+        }
+    }
+
+    /**
+     * Write an enum constant to a Parcel by name, so reordering or adding
+     * constants doesn't change what a message reads as on the other side.
+     */
+    static void writeEnum(Parcel out, Enum<?> value) {
+        out.writeString(value != null ? value.name() : null);
+    }
+
+    /**
+     * Read an enum constant written with {@link #writeEnum(Parcel, Enum)}.
+     *
+     * @throws BadParcelableException if the name isn't one of the enum's
+     *      constants, e.g. because the other side has a newer version.
+     */
+    static <E extends Enum<E>> E readEnum(Parcel in, Class<E> enumClass) {
+        String name = in.readString();
+        if(name == null) {
+            return null;
+        }
+
+        try {
+            return Enum.valueOf(enumClass, name);
+        } catch(IllegalArgumentException e) {
+            throw new BadParcelableException("Unrecognized " +
+                    enumClass.getSimpleName() + " " + name);
+        }
+    }
+
+    /**
+     * Read a message written with its class name, using the class's Parcel
+     * constructor.
+     *
+     * @throws BadParcelableException if the class can't be found or created,
+     *      since the rest of the message can't be skipped.
+     */
+    private static VehicleMessage createFromClassName(String messageClassName,
+            Parcel in) {
+        try {
+            Constructor<? extends VehicleMessage> constructor =
+                    sParcelConstructors.get(messageClassName);
+            if(constructor == null) {
+                Class<? extends VehicleMessage> messageClass;
                 try {
                     messageClass = Class.forName(messageClassName).asSubclass(
                             VehicleMessage.class);
-                } catch(ClassNotFoundException e) {
+                } catch(ClassNotFoundException | ClassCastException e) {
                     throw new UnrecognizedMessageTypeException(
                             "Unrecognized message class: " + messageClassName);
                 }
@@ -248,29 +458,27 @@ public class VehicleMessage implements Parcelable, Comparable<VehicleMessage> {
                     // Must use getDeclaredConstructor because it's a protected
                     // constructor. That's OK since we are the parent class and
                     // should have access, we're not breaking abstraction.
-                    constructor = messageClass.getDeclaredConstructor(Parcel.class);
+                    constructor = messageClass.getDeclaredConstructor(
+                            Parcel.class);
                 } catch(NoSuchMethodException e) {
                     throw new UnrecognizedMessageTypeException(messageClass +
                             " doesn't have the expected constructor", e);
                 }
-
-                return constructor.newInstance(in);
-            } catch(InstantiationException|IllegalAccessException
-                    |InvocationTargetException
-                    |UnrecognizedMessageTypeException e) {
-                Log.e(TAG, "Unable to unparcel a " + messageClass, e);
-                return new VehicleMessage();
+                constructor.setAccessible(true);
+                sParcelConstructors.put(messageClassName, constructor);
             }
-        }
 
-        @Override
-        public VehicleMessage[] newArray(int size) {
-            return new VehicleMessage[size];
+            return constructor.newInstance(in);
+        } catch(InstantiationException|IllegalAccessException
+                |InvocationTargetException
+                |UnrecognizedMessageTypeException e) {
+            Log.e(TAG, "Unable to unparcel a " + messageClassName, e);
+            throw new BadParcelableException(e);
         }
-    };
+    }
 
-    // This must be protected so that we can call it using reflection from this
-    // class. Kind of weird, but it works.
+    // This must be protected so that subclasses outside of this package can
+    // be created using reflection from this class.
     protected VehicleMessage(Parcel in) {
         readFromParcel(in);
     }
@@ -0,0 +1,88 @@
+package com.openxc.messages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A list of messages passed between the VehicleService and an app in one
+ * Binder call, written in the compact layout of
+ * {@link VehicleMessage#writeCompact(Parcel, VehicleMessage)}.
+ *
+ * Only apps using a version of the library that registered for batches can
+ * read the compact layout, which is why it isn't used for a single
+ * VehicleMessage. The list may have null entries, e.g. for keys that don't
+ * have a value yet.
+ */
+public class VehicleMessageBatch implements Parcelable {
+    private final List<VehicleMessage> mMessages;
+
+    public VehicleMessageBatch(List<VehicleMessage> messages) {
+        mMessages = messages;
+    }
+
+    /**
+     * @return the messages in the batch - don't modify the list.
+     */
+    public List<VehicleMessage> getMessages() {
+        return mMessages;
+    }
+
+    public int size() {
+        return mMessages.size();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("size", size())
+            .toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeInt(mMessages.size());
+        for(VehicleMessage message : mMessages) {
+            if(message != null) {
+                out.writeInt(1);
+                VehicleMessage.writeCompact(out, message);
+            } else {
+                out.writeInt(0);
+            }
+        }
+    }
+
+    public static final Parcelable.Creator<VehicleMessageBatch> CREATOR =
+            new Parcelable.Creator<VehicleMessageBatch>() {
+        @Override
+        public VehicleMessageBatch createFromParcel(Parcel in) {
+            int size = in.readInt();
+            if(size < 0) {
+                return new VehicleMessageBatch(
+                        Collections.<VehicleMessage>emptyList());
+            }
+
+            List<VehicleMessage> messages = new ArrayList<>(size);
+            for(int i = 0; i < size; i++) {
+                messages.add(in.readInt() == 1 ?
+                        VehicleMessage.CREATOR.createFromParcel(in) : null);
+            }
+            return new VehicleMessageBatch(messages);
+        }
+
+        @Override
+        public VehicleMessageBatch[] newArray(int size) {
+            return new VehicleMessageBatch[size];
+        }
+    };
+}
@@ -28,6 +28,23 @@ public class BinaryFormatter {
         return BinaryDeserializer.deserialize(data);
     }
 
+    /**
+     * Deserialize a single vehicle message from a region of a byte array.
+     *
+     * The bytes are parsed in place, without being copied out of the array.
+     *
+     * @param data The array containing a protobuf-encoded vehicle message.
+     * @param offset The index of the first byte of the message.
+     * @param length The number of bytes in the message.
+     * @throws UnrecognizedMessageTypeException if a message could not be
+     *  deserialized.
+     * @return the deserialized VehicleMessage
+     */
+    public static VehicleMessage deserialize(byte[] data, int offset,
+            int length) throws UnrecognizedMessageTypeException {
+        return BinaryDeserializer.deserialize(data, offset, length);
+    }
+
     /**
      * Serialize a VehicleMessage into a byte array.
      *
@@ -1,40 +1,30 @@
 package com.openxc.messages.formatters;
 
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.math.BigDecimal;
 import java.lang.reflect.Type;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
 import com.google.gson.JsonSerializer;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
-import com.openxc.messages.CanMessage;
-import com.openxc.messages.Command;
-import com.openxc.messages.CommandResponse;
-import com.openxc.messages.DiagnosticResponse;
-import com.openxc.messages.EventedSimpleVehicleMessage;
-import com.openxc.messages.NamedVehicleMessage;
-import com.openxc.messages.SimpleVehicleMessage;
 import com.openxc.messages.UnrecognizedMessageTypeException;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.json.JsonDeserializer;
 
 /**
  * A formatter for serializing and deserializing JSON OpenXC messages.
  */
 public class JsonFormatter {
     private static Gson sGson = new Gson();
+    private static JsonDeserializer sDeserializer;
 
     static {
         GsonBuilder builder = new GsonBuilder();
         builder.registerTypeAdapterFactory(new LowercaseEnumTypeAdapterFactory());
+        builder.registerTypeAdapterFactory(new NumericValueTypeAdapterFactory());
         builder.registerTypeAdapter(byte[].class, new ByteAdapter());
         builder.registerTypeAdapter(Double.class,  new JsonSerializer<Double>() {
             @Override
@@ -44,6 +34,7 @@ public class JsonFormatter {
             }
         });
         sGson = builder.create();
+        sDeserializer = new JsonDeserializer(sGson);
     }
 
     /**
@@ -79,41 +70,6 @@ public class JsonFormatter {
      */
     public static VehicleMessage deserialize(String data)
             throws UnrecognizedMessageTypeException {
-        JsonObject root;
-        try {
-            JsonParser parser = new JsonParser();
-            root = parser.parse(data).getAsJsonObject();
-        } catch(JsonSyntaxException | IllegalStateException e) {
-            throw new UnrecognizedMessageTypeException(
-                    "Unable to parse JSON from \"" + data + "\": " + e);
-        }
-
-        Set<String> fields = new HashSet<>();
-        for(Map.Entry<String, JsonElement> entry : root.entrySet()) {
-            fields.add(entry.getKey());
-        }
-
-        VehicleMessage message;
-        if(CanMessage.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, CanMessage.class);
-        } else if(DiagnosticResponse.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, DiagnosticResponse.class);
-        } else if(Command.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, Command.class);
-        } else if(CommandResponse.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, CommandResponse.class);
-        } else if(EventedSimpleVehicleMessage.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, EventedSimpleVehicleMessage.class);
-        } else if(SimpleVehicleMessage.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, SimpleVehicleMessage.class);
-        } else if(NamedVehicleMessage.containsRequiredFields(fields)) {
-            message = sGson.fromJson(root, NamedVehicleMessage.class);
-        } else if(fields.contains(VehicleMessage.EXTRAS_KEY)) {
-            message = sGson.fromJson(root, VehicleMessage.class);
-        } else {
-            throw new UnrecognizedMessageTypeException(
-                    "Unrecognized combination of fields: " + fields);
-        }
-        return message;
+        return sDeserializer.deserialize(data);
     }
 }
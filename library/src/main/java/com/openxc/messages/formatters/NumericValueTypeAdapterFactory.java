@@ -0,0 +1,42 @@
+package com.openxc.messages.formatters;
+
+import java.io.IOException;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.openxc.messages.SimpleVehicleMessage;
+
+/**
+ * Box the value of a numeric SimpleVehicleMessage before Gson serializes its
+ * fields, since the unboxed value isn't a field Gson knows about.
+ *
+ * Register this with any Gson instance used to serialize vehicle messages.
+ */
+public class NumericValueTypeAdapterFactory implements TypeAdapterFactory {
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if(!SimpleVehicleMessage.class.isAssignableFrom(type.getRawType())) {
+            return null;
+        }
+
+        final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+        return new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                if(value != null) {
+                    ((SimpleVehicleMessage) value).getValue();
+                }
+                delegate.write(out, value);
+            }
+
+            @Override
+            public T read(JsonReader reader) throws IOException {
+                return delegate.read(reader);
+            }
+        };
+    }
+}
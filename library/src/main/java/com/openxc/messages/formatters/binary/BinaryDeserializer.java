@@ -5,6 +5,7 @@ import java.io.InputStream;
 
 import android.util.Log;
 
+import com.google.protobuf.CodedInputStream;
 import com.openxc.BinaryMessages;
 import com.openxc.messages.CanMessage;
 import com.openxc.messages.Command;
@@ -37,6 +38,23 @@ public class BinaryDeserializer {
         return result;
     }
 
+    public static VehicleMessage deserialize(byte[] data, int offset,
+            int length) throws UnrecognizedMessageTypeException {
+        VehicleMessage result = null;
+        try {
+            BinaryMessages.VehicleMessage message =
+                BinaryMessages.VehicleMessage.parseFrom(
+                        CodedInputStream.newInstance(data, offset, length));
+
+            if(message != null) {
+                result = deserialize(message);
+            }
+        } catch(IOException e) {
+            Log.w(TAG, "Unable to deserialize from binary buffer", e);
+        }
+        return result;
+    }
+
     private static NamedVehicleMessage deserializeNamedMessage(
             BinaryMessages.VehicleMessage binaryMessage) throws UnrecognizedMessageTypeException {
         BinaryMessages.SimpleMessage simpleMessage =
@@ -49,9 +67,14 @@ public class BinaryDeserializer {
                     "Binary message is missing name");
         }
 
-        Object value = null;
         BinaryMessages.DynamicField field =
             simpleMessage.getValue();
+        if(field.hasNumericValue() && !simpleMessage.hasEvent()) {
+            // Most messages are simple and numeric, so don't box the value
+            return SimpleVehicleMessage.numeric(name, field.getNumericValue());
+        }
+
+        Object value = null;
         if(field.hasNumericValue()) {
             value = field.getNumericValue();
         } else if(field.hasBooleanValue()) {
@@ -219,7 +219,13 @@ public class BinarySerializer {
             SimpleVehicleMessage message) {
         BinaryMessages.SimpleMessage.Builder messageBuilder =
                 startBuildingSimple(builder, message);
-        messageBuilder.setValue(buildDynamicField(message.getValue()));
+        if(message.isNumeric()) {
+            messageBuilder.setValue(BinaryMessages.DynamicField.newBuilder()
+                    .setType(BinaryMessages.DynamicField.Type.NUM)
+                    .setNumericValue(message.getNumericValue()));
+        } else {
+            messageBuilder.setValue(buildDynamicField(message.getValue()));
+        }
         builder.setSimpleMessage(messageBuilder);
     }
 
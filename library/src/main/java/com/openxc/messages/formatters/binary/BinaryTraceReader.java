@@ -0,0 +1,333 @@
+package com.openxc.messages.formatters.binary;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.protobuf.CodedInputStream;
+import com.openxc.messages.UnrecognizedMessageTypeException;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.util.ByteBufferInputStream;
+
+/**
+ * Read vehicle messages back from a binary trace written by
+ * {@link BinaryTraceWriter}.
+ *
+ * Traces read from a stream can only be played from start to end. Trace files
+ * are memory-mapped instead of read through a stream, and can also
+ * {@link #seek(long)} to a timestamp using the index at the end of the file,
+ * if the trace was closed properly.
+ */
+public class BinaryTraceReader implements Closeable {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final ByteBuffer mMapped;
+    private final List<long[]> mIndex;
+    private final Inflater mInflater = new Inflater();
+    private DataInputStream mInput;
+    private byte[] mCompressed = new byte[0];
+    private byte[] mBlock = new byte[0];
+    private CodedInputStream mCodedBlock;
+    private long mLastTimestamp;
+    private VehicleMessage mPending;
+
+    /**
+     * Read a trace from a stream, starting at the beginning.
+     *
+     * @throws IOException if the stream doesn't start with a binary trace
+     *      header.
+     */
+    public BinaryTraceReader(InputStream input) throws IOException {
+        mMapped = null;
+        mIndex = null;
+        mInput = new DataInputStream(new BufferedInputStream(input,
+                    READ_BUFFER_SIZE));
+        readHeader();
+    }
+
+    /**
+     * Map a trace file into memory, loading its index so it can be seeked.
+     *
+     * @throws IOException if the file can't be mapped (e.g. it's larger than
+     *      2GB) or isn't a binary trace.
+     */
+    public BinaryTraceReader(File file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * Read a trace that's already in memory (e.g. a mapped file), loading its
+     * index so it can be seeked.
+     *
+     * @param buffer the whole trace, from position 0 to the buffer's limit.
+     * @throws IOException if the buffer doesn't hold a binary trace.
+     */
+    public BinaryTraceReader(ByteBuffer buffer) throws IOException {
+        mMapped = buffer;
+        mMapped.position(0);
+        mIndex = readIndex(mMapped);
+        mInput = new DataInputStream(new ByteBufferInputStream(mMapped));
+        readHeader();
+    }
+
+    /**
+     * Map a whole file into memory for reading.
+     *
+     * @throws IOException if the file can't be mapped, e.g. if it's larger
+     *      than 2GB.
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            // The mapping stays valid after the file is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Return true if the first bytes of a file are the header of a binary
+     * trace.
+     */
+    public static boolean isBinaryTrace(byte[] header, int length) {
+        return length >= BinaryTraceWriter.MAGIC.length &&
+                Arrays.equals(BinaryTraceWriter.MAGIC, Arrays.copyOf(header,
+                        BinaryTraceWriter.MAGIC.length));
+    }
+
+    /**
+     * @return the number of bytes needed to check the header with
+     *      {@link #isBinaryTrace(byte[], int)}.
+     */
+    public static int getHeaderLength() {
+        return BinaryTraceWriter.MAGIC.length;
+    }
+
+    /**
+     * @return true if the trace has an index, so {@link #seek(long)} will
+     *      work.
+     */
+    public boolean isSeekable() {
+        return mIndex != null;
+    }
+
+    /**
+     * Return the next message in the trace, with the timestamp it was recorded
+     * with. Messages that can't be decoded are skipped.
+     *
+     * @return the message, or null at the end of the trace.
+     * @throws IOException if the trace couldn't be read or is corrupt.
+     */
+    public VehicleMessage next() throws IOException {
+        if(mPending != null) {
+            VehicleMessage pending = mPending;
+            mPending = null;
+            return pending;
+        }
+
+        while(true) {
+            if(mCodedBlock == null || mCodedBlock.isAtEnd()) {
+                if(!readBlock()) {
+                    return null;
+                }
+                continue;
+            }
+
+            mLastTimestamp += mCodedBlock.readSInt64();
+            int length = mCodedBlock.readRawVarint32();
+            int offset = mCodedBlock.getTotalBytesRead();
+            mCodedBlock.skipRawBytes(length);
+
+            VehicleMessage message;
+            try {
+                message = BinaryDeserializer.deserialize(mBlock, offset,
+                        length);
+            } catch(UnrecognizedMessageTypeException e) {
+                continue;
+            }
+
+            if(message != null) {
+                message.setTimestamp(mLastTimestamp);
+                return message;
+            }
+        }
+    }
+
+    /**
+     * Move to the first message recorded at or after a time, decompressing
+     * only the block that contains it.
+     *
+     * @param timestamp the time in milliseconds since the epoch.
+     * @return false if the trace has no index, in which case the position
+     *      didn't change.
+     */
+    public boolean seek(long timestamp) throws IOException {
+        if(mIndex == null) {
+            return false;
+        }
+
+        // Blocks are in the order they were written, which is nearly always
+        // timestamp order - start from the last one that begins at or before
+        // the time.
+        int low = 0;
+        int high = mIndex.size() - 1;
+        int block = 0;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(mIndex.get(middle)[0] <= timestamp) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        long offset = mIndex.isEmpty() ? BinaryTraceWriter.MAGIC.length + 1 :
+                mIndex.get(block)[1];
+        mMapped.position((int) offset);
+        mCodedBlock = null;
+        mPending = null;
+
+        VehicleMessage message;
+        while((message = next()) != null) {
+            if(message.getTimestamp() >= timestamp) {
+                mPending = message;
+                break;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mInput.close();
+    }
+
+    private void readHeader() throws IOException {
+        byte[] header = new byte[BinaryTraceWriter.MAGIC.length + 1];
+        try {
+            mInput.readFully(header);
+        } catch(EOFException e) {
+            throw new IOException("Too short to be a binary trace", e);
+        }
+
+        if(!isBinaryTrace(header, header.length)) {
+            throw new IOException("Not a binary trace");
+        }
+
+        if(header[header.length - 1] != BinaryTraceWriter.VERSION) {
+            throw new IOException("Unsupported binary trace version " +
+                    header[header.length - 1]);
+        }
+    }
+
+    /**
+     * Read and decompress the next block of messages.
+     *
+     * @return false at the end of the trace.
+     */
+    private boolean readBlock() throws IOException {
+        int rawLength;
+        try {
+            int section = mInput.read();
+            if(section == -1 || section == BinaryTraceWriter.INDEX_SECTION) {
+                return false;
+            } else if(section != BinaryTraceWriter.BLOCK_SECTION) {
+                throw new IOException("Corrupt binary trace - unknown " +
+                        "section type " + section);
+            }
+
+            rawLength = mInput.readInt();
+            int compressedLength = mInput.readInt();
+            if(rawLength < 0 || compressedLength < 0) {
+                throw new IOException("Corrupt binary trace - bad block length");
+            }
+
+            if(mCompressed.length < compressedLength) {
+                mCompressed = new byte[compressedLength];
+            }
+            mInput.readFully(mCompressed, 0, compressedLength);
+
+            if(mBlock.length < rawLength) {
+                mBlock = new byte[rawLength];
+            }
+            mInflater.reset();
+            mInflater.setInput(mCompressed, 0, compressedLength);
+            int inflated = 0;
+            while(inflated < rawLength && !mInflater.finished()) {
+                int count = mInflater.inflate(mBlock, inflated,
+                        rawLength - inflated);
+                if(count == 0 && mInflater.needsInput()) {
+                    break;
+                }
+                inflated += count;
+            }
+            if(inflated != rawLength) {
+                throw new IOException("Corrupt binary trace - block was " +
+                        inflated + " bytes instead of " + rawLength);
+            }
+        } catch(EOFException e) {
+            // The recording was cut off in the middle of a block
+            return false;
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt binary trace block", e);
+        }
+
+        mCodedBlock = CodedInputStream.newInstance(mBlock, 0, rawLength);
+        mLastTimestamp = 0;
+        return true;
+    }
+
+    /**
+     * @return the block index at the end of the file, or null if the trace
+     *      wasn't closed properly.
+     */
+    private static List<long[]> readIndex(ByteBuffer buffer) {
+        int size = buffer.limit();
+        if(size < BinaryTraceWriter.MAGIC.length + 1 +
+                BinaryTraceWriter.FOOTER_LENGTH) {
+            return null;
+        }
+
+        int footer = size - BinaryTraceWriter.FOOTER_LENGTH;
+        long indexOffset = buffer.getLong(footer);
+        if(buffer.getInt(footer + 8) != BinaryTraceWriter.FOOTER_MAGIC ||
+                indexOffset < 0 || indexOffset > footer - 5) {
+            return null;
+        }
+
+        int position = (int) indexOffset;
+        int count = buffer.getInt(position + 1);
+        if(buffer.get(position) != BinaryTraceWriter.INDEX_SECTION ||
+                count < 0 || position + 5 + count * 16L != footer) {
+            return null;
+        }
+
+        List<long[]> index = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int entry = position + 5 + i * 16;
+            index.add(new long[] {buffer.getLong(entry),
+                    buffer.getLong(entry + 8)});
+        }
+        return index;
+    }
+}
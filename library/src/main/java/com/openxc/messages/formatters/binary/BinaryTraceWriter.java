@@ -0,0 +1,181 @@
+package com.openxc.messages.formatters.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.openxc.messages.SerializationException;
+import com.openxc.messages.VehicleMessage;
+
+/**
+ * Write vehicle messages to a compact binary trace file.
+ *
+ * A binary trace starts with a short header, followed by blocks of messages
+ * that are each compressed with Deflate. Inside a block, every message is
+ * stored as its change in timestamp from the previous one (a signed varint)
+ * followed by the length and bytes of its protobuf encoding - the same
+ * encoding the vehicle interface uses for its binary output.
+ *
+ * When the writer is closed it adds an index with the first timestamp and file
+ * offset of each block, so {@link BinaryTraceReader} can seek to a time without
+ * decompressing the blocks before it. A trace that was never closed (e.g. the
+ * app crashed) has no index but can still be played back from the start.
+ *
+ * Message extras aren't part of the protobuf format, so they aren't recorded.
+ */
+public class BinaryTraceWriter implements Closeable {
+    static final byte[] MAGIC = {'O', 'X', 'C', 'B'};
+    static final byte VERSION = 1;
+    static final byte BLOCK_SECTION = 1;
+    static final byte INDEX_SECTION = 2;
+    static final int FOOTER_MAGIC = 0x4f584349; // "OXCI"
+    // A long index offset followed by the footer magic
+    static final int FOOTER_LENGTH = 12;
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final DataOutputStream mOutput;
+    private final int mBlockSize;
+    private final BlockBuffer mBlock = new BlockBuffer();
+    private final CodedOutputStream mCodedBlock =
+            CodedOutputStream.newInstance(mBlock);
+    private final ByteArrayOutputStream mCompressed =
+            new ByteArrayOutputStream();
+    private final Deflater mDeflater = new Deflater();
+    private final List<long[]> mIndex = new ArrayList<>();
+    private long mOffset;
+    private long mLastTimestamp;
+    private long mBlockFirstTimestamp;
+    private int mBlockMessageCount;
+    private boolean mClosed = false;
+
+    /**
+     * A byte array stream that can be compressed without copying it.
+     */
+    private static class BlockBuffer extends ByteArrayOutputStream {
+        BlockBuffer() {
+            super(DEFAULT_BLOCK_SIZE + 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    public BinaryTraceWriter(OutputStream output) throws IOException {
+        this(output, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize the number of uncompressed bytes of messages to collect
+     *      before compressing them as a block. Larger blocks compress better
+     *      but make the index more sparse.
+     */
+    public BinaryTraceWriter(OutputStream output, int blockSize)
+            throws IOException {
+        mOutput = new DataOutputStream(output);
+        mBlockSize = blockSize;
+        mOutput.write(MAGIC);
+        mOutput.writeByte(VERSION);
+        mOffset = MAGIC.length + 1;
+    }
+
+    /**
+     * Add a message to the trace. Messages without a timestamp are recorded
+     * with the current time.
+     *
+     * @throws SerializationException if the message can't be encoded as a
+     *      protobuf. Nothing is written in that case.
+     */
+    public synchronized void write(VehicleMessage message)
+            throws IOException, SerializationException {
+        if(mClosed) {
+            throw new IOException("Trace writer is closed");
+        }
+
+        MessageLite encoded = BinarySerializer.preSerialize(message);
+        long timestamp = message.isTimestamped() ? message.getTimestamp()
+                : System.currentTimeMillis();
+        if(mBlockMessageCount == 0) {
+            mBlockFirstTimestamp = timestamp;
+            mLastTimestamp = 0;
+        }
+
+        mCodedBlock.writeSInt64NoTag(timestamp - mLastTimestamp);
+        mCodedBlock.writeRawVarint32(encoded.getSerializedSize());
+        encoded.writeTo(mCodedBlock);
+        mLastTimestamp = timestamp;
+        mBlockMessageCount++;
+
+        mCodedBlock.flush();
+        if(mBlock.size() >= mBlockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Compress and write any messages waiting for the current block to fill
+     * up, then flush the output stream.
+     */
+    public synchronized void flush() throws IOException {
+        writeBlock();
+        mOutput.flush();
+    }
+
+    /**
+     * Write the last block and the index, and close the output stream.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(mClosed) {
+            return;
+        }
+
+        try {
+            writeBlock();
+            long indexOffset = mOffset;
+            mOutput.writeByte(INDEX_SECTION);
+            mOutput.writeInt(mIndex.size());
+            for(long[] entry : mIndex) {
+                mOutput.writeLong(entry[0]);
+                mOutput.writeLong(entry[1]);
+            }
+            mOutput.writeLong(indexOffset);
+            mOutput.writeInt(FOOTER_MAGIC);
+        } finally {
+            mClosed = true;
+            mDeflater.end();
+            mOutput.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if(mBlockMessageCount == 0) {
+            return;
+        }
+
+        mCompressed.reset();
+        mDeflater.reset();
+        DeflaterOutputStream deflated = new DeflaterOutputStream(mCompressed,
+                mDeflater);
+        deflated.write(mBlock.getBuffer(), 0, mBlock.size());
+        deflated.finish();
+
+        mIndex.add(new long[] {mBlockFirstTimestamp, mOffset});
+        mOutput.writeByte(BLOCK_SECTION);
+        mOutput.writeInt(mBlock.size());
+        mOutput.writeInt(mCompressed.size());
+        mCompressed.writeTo(mOutput);
+        mOffset += 9 + mCompressed.size();
+
+        mBlock.reset();
+        mBlockMessageCount = 0;
+    }
+}
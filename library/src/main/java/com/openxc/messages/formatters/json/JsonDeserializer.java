@@ -0,0 +1,373 @@
+package com.openxc.messages.formatters.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.openxc.messages.CanMessage;
+import com.openxc.messages.Command;
+import com.openxc.messages.Command.CommandType;
+import com.openxc.messages.CommandResponse;
+import com.openxc.messages.DiagnosticRequest;
+import com.openxc.messages.DiagnosticResponse;
+import com.openxc.messages.DiagnosticResponse.NegativeResponseCode;
+import com.openxc.messages.EventedSimpleVehicleMessage;
+import com.openxc.messages.NamedVehicleMessage;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.UnrecognizedMessageTypeException;
+import com.openxc.messages.VehicleMessage;
+
+/**
+ * A single-pass decoder for JSON-formatted vehicle messages.
+ *
+ * The message is read field by field with a streaming JsonReader. Each known
+ * field is decoded with the same Gson type adapters the JsonFormatter uses for
+ * serialization, and the set of fields seen so far picks the VehicleMessage
+ * subclass, using the same precedence as the containsRequiredFields checks of
+ * each message type. No intermediate JSON tree is built.
+ *
+ * Instances are stateless and safe to share between threads.
+ */
+public class JsonDeserializer {
+    private static final String TIMESTAMP_KEY = "timestamp";
+    private static final String EXTRAS_KEY = VehicleMessage.EXTRAS_KEY;
+    private static final String NAME_KEY = "name";
+    private static final String VALUE_KEY = "value";
+    private static final String EVENT_KEY = "event";
+    private static final String BUS_KEY = "bus";
+    private static final String ID_KEY = "id";
+    private static final String DATA_KEY = "data";
+    private static final String MODE_KEY = "mode";
+    private static final String PID_KEY = "pid";
+    private static final String PAYLOAD_KEY = "payload";
+    private static final String SUCCESS_KEY = "success";
+    private static final String NEGATIVE_RESPONSE_CODE_KEY =
+            "negative_response_code";
+    private static final String COMMAND_KEY = "command";
+    private static final String ACTION_KEY = "action";
+    private static final String DIAGNOSTIC_REQUEST_KEY = "request";
+    private static final String COMMAND_RESPONSE_KEY = "command_response";
+    private static final String STATUS_KEY = "status";
+    private static final String MESSAGE_KEY = "message";
+
+    // One bit per top-level field, used to pick the message type.
+    private static final int EXTRAS = 1;
+    private static final int NAME = 1 << 1;
+    private static final int VALUE = 1 << 2;
+    private static final int EVENT = 1 << 3;
+    private static final int BUS = 1 << 4;
+    private static final int ID = 1 << 5;
+    private static final int DATA = 1 << 6;
+    private static final int MODE = 1 << 7;
+    private static final int SUCCESS = 1 << 8;
+    private static final int NEGATIVE_RESPONSE_CODE = 1 << 9;
+    private static final int COMMAND = 1 << 10;
+    private static final int COMMAND_RESPONSE = 1 << 11;
+    private static final int STATUS = 1 << 12;
+
+    private static final int CAN_MESSAGE_FIELDS = BUS | ID | DATA;
+    private static final int DIAGNOSTIC_RESPONSE_FIELDS =
+            BUS | ID | MODE | SUCCESS;
+    private static final int COMMAND_FIELDS = COMMAND;
+    private static final int COMMAND_RESPONSE_FIELDS =
+            COMMAND_RESPONSE | STATUS;
+    private static final int EVENTED_MESSAGE_FIELDS = NAME | VALUE | EVENT;
+    private static final int SIMPLE_MESSAGE_FIELDS = NAME | VALUE;
+    private static final int NAMED_MESSAGE_FIELDS = NAME;
+
+    private final TypeAdapter<Object> mObjectAdapter;
+    private final TypeAdapter<Map<String, Object>> mExtrasAdapter;
+    private final TypeAdapter<String> mStringAdapter;
+    private final TypeAdapter<Double> mDoubleAdapter;
+    private final TypeAdapter<Integer> mIntegerAdapter;
+    private final TypeAdapter<Boolean> mBooleanAdapter;
+    private final TypeAdapter<byte[]> mBytesAdapter;
+    private final TypeAdapter<CommandType> mCommandTypeAdapter;
+    private final TypeAdapter<NegativeResponseCode> mResponseCodeAdapter;
+    private final TypeAdapter<JsonElement> mElementAdapter;
+    private final TypeAdapter<DiagnosticRequest> mDiagnosticRequestAdapter;
+
+    /**
+     * The fields read from a single JSON message, before we know which type of
+     * message it is.
+     */
+    private static class MessageFields {
+        int present;
+        Double timestamp;
+        Map<String, Object> extras;
+        String name;
+        // A numeric value is kept unboxed, the most common case
+        boolean numeric;
+        double numericValue;
+        Object value;
+        Object event;
+        Integer bus;
+        Integer id;
+        byte[] data;
+        Integer mode;
+        Integer pid;
+        byte[] payload;
+        Boolean success;
+        NegativeResponseCode negativeResponseCode;
+        CommandType command;
+        String action;
+        JsonElement request;
+        CommandType commandResponse;
+        Boolean status;
+        String message;
+
+        boolean contains(int required) {
+            return (present & required) == required;
+        }
+    }
+
+    /**
+     * @param gson the Gson instance used for serialization, so any custom type
+     *      adapters (e.g. for enums and byte arrays) are used symmetrically.
+     */
+    public JsonDeserializer(Gson gson) {
+        mObjectAdapter = gson.getAdapter(Object.class);
+        mExtrasAdapter = gson.getAdapter(
+                new TypeToken<Map<String, Object>>() {});
+        mStringAdapter = gson.getAdapter(String.class);
+        mDoubleAdapter = gson.getAdapter(Double.class);
+        mIntegerAdapter = gson.getAdapter(Integer.class);
+        mBooleanAdapter = gson.getAdapter(Boolean.class);
+        mBytesAdapter = gson.getAdapter(byte[].class);
+        mCommandTypeAdapter = gson.getAdapter(CommandType.class);
+        mResponseCodeAdapter = gson.getAdapter(NegativeResponseCode.class);
+        mElementAdapter = gson.getAdapter(JsonElement.class);
+        mDiagnosticRequestAdapter = gson.getAdapter(DiagnosticRequest.class);
+    }
+
+    /**
+     * Deserialize a single vehicle message from a JSON string.
+     *
+     * @param data a String containing the JSON serialized vehicle message.
+     * @throws UnrecognizedMessageTypeException if the string isn't a JSON
+     *      object, a field has the wrong type or the fields don't match any
+     *      known message type.
+     * @return the deserialized VehicleMessage.
+     */
+    public VehicleMessage deserialize(String data)
+            throws UnrecognizedMessageTypeException {
+        JsonReader reader = new JsonReader(new StringReader(data));
+        reader.setLenient(true);
+        MessageFields fields;
+        try {
+            fields = readFields(reader);
+            if(reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new UnrecognizedMessageTypeException(
+                        "Unexpected data after JSON object in \"" + data +
+                        "\"");
+            }
+        } catch(IOException | IllegalStateException | JsonParseException
+                | NumberFormatException e) {
+            throw new UnrecognizedMessageTypeException(
+                    "Unable to parse JSON from \"" + data + "\": " + e);
+        }
+
+        VehicleMessage message;
+        try {
+            message = buildMessage(fields);
+        } catch(JsonParseException | NumberFormatException e) {
+            throw new UnrecognizedMessageTypeException(
+                    "Invalid field in JSON message \"" + data + "\": " + e);
+        }
+
+        if(message == null) {
+            throw new UnrecognizedMessageTypeException(
+                    "Unrecognized combination of fields in \"" + data + "\"");
+        }
+        return message;
+    }
+
+    private MessageFields readFields(JsonReader reader) throws IOException {
+        MessageFields fields = new MessageFields();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            switch(name) {
+                case TIMESTAMP_KEY:
+                    fields.timestamp = mDoubleAdapter.read(reader);
+                    break;
+                case EXTRAS_KEY:
+                    fields.present |= EXTRAS;
+                    fields.extras = mExtrasAdapter.read(reader);
+                    break;
+                case NAME_KEY:
+                    fields.present |= NAME;
+                    fields.name = mStringAdapter.read(reader);
+                    break;
+                case VALUE_KEY:
+                    // The value is numeric for a diagnostic response but can
+                    // be anything for a simple message, so leave it loosely
+                    // typed until we know which one this is.
+                    fields.present |= VALUE;
+                    if(reader.peek() == JsonToken.NUMBER) {
+                        fields.numeric = true;
+                        fields.numericValue = reader.nextDouble();
+                    } else {
+                        fields.value = mObjectAdapter.read(reader);
+                    }
+                    break;
+                case EVENT_KEY:
+                    fields.present |= EVENT;
+                    fields.event = mObjectAdapter.read(reader);
+                    break;
+                case BUS_KEY:
+                    fields.present |= BUS;
+                    fields.bus = mIntegerAdapter.read(reader);
+                    break;
+                case ID_KEY:
+                    fields.present |= ID;
+                    fields.id = mIntegerAdapter.read(reader);
+                    break;
+                case DATA_KEY:
+                    fields.present |= DATA;
+                    fields.data = mBytesAdapter.read(reader);
+                    break;
+                case MODE_KEY:
+                    fields.present |= MODE;
+                    fields.mode = mIntegerAdapter.read(reader);
+                    break;
+                case PID_KEY:
+                    fields.pid = mIntegerAdapter.read(reader);
+                    break;
+                case PAYLOAD_KEY:
+                    fields.payload = mBytesAdapter.read(reader);
+                    break;
+                case SUCCESS_KEY:
+                    fields.present |= SUCCESS;
+                    fields.success = mBooleanAdapter.read(reader);
+                    break;
+                case NEGATIVE_RESPONSE_CODE_KEY:
+                    fields.present |= NEGATIVE_RESPONSE_CODE;
+                    fields.negativeResponseCode =
+                            mResponseCodeAdapter.read(reader);
+                    break;
+                case COMMAND_KEY:
+                    fields.present |= COMMAND;
+                    fields.command = mCommandTypeAdapter.read(reader);
+                    break;
+                case ACTION_KEY:
+                    fields.action = mStringAdapter.read(reader);
+                    break;
+                case DIAGNOSTIC_REQUEST_KEY:
+                    // Only commands carry a nested request, which is rare
+                    // enough that it's decoded later from a small tree.
+                    fields.request = mElementAdapter.read(reader);
+                    break;
+                case COMMAND_RESPONSE_KEY:
+                    fields.present |= COMMAND_RESPONSE;
+                    fields.commandResponse = mCommandTypeAdapter.read(reader);
+                    break;
+                case STATUS_KEY:
+                    fields.present |= STATUS;
+                    fields.status = mBooleanAdapter.read(reader);
+                    break;
+                case MESSAGE_KEY:
+                    fields.message = mStringAdapter.read(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private VehicleMessage buildMessage(MessageFields fields)
+            throws UnrecognizedMessageTypeException {
+        VehicleMessage message;
+        if(fields.contains(CAN_MESSAGE_FIELDS)) {
+            message = buildCanMessage(fields);
+        } else if(fields.contains(DIAGNOSTIC_RESPONSE_FIELDS)) {
+            message = buildDiagnosticResponse(fields);
+        } else if(fields.contains(COMMAND_FIELDS)) {
+            message = buildCommand(fields);
+        } else if(fields.contains(COMMAND_RESPONSE_FIELDS)) {
+            message = new CommandResponse(fields.commandResponse,
+                    unbox(fields.status), fields.message);
+        } else if(fields.contains(EVENTED_MESSAGE_FIELDS)) {
+            message = new EventedSimpleVehicleMessage(fields.name,
+                    fields.numeric ? fields.numericValue : fields.value,
+                    fields.event);
+        } else if(fields.contains(SIMPLE_MESSAGE_FIELDS)) {
+            if(fields.numeric) {
+                message = SimpleVehicleMessage.numeric(fields.name,
+                        fields.numericValue);
+            } else {
+                message = new SimpleVehicleMessage(fields.name, fields.value);
+            }
+        } else if(fields.contains(NAMED_MESSAGE_FIELDS)) {
+            message = new NamedVehicleMessage(fields.name);
+        } else if(fields.contains(EXTRAS)) {
+            message = new VehicleMessage();
+        } else {
+            return null;
+        }
+
+        message.setTimestampSeconds(fields.timestamp);
+        message.setExtras(fields.extras);
+        return message;
+    }
+
+    private static CanMessage buildCanMessage(MessageFields fields)
+            throws UnrecognizedMessageTypeException {
+        if(fields.data != null && fields.data.length > 8) {
+            throw new UnrecognizedMessageTypeException(
+                    "CAN message payload is longer than 8 bytes");
+        }
+        return new CanMessage(unbox(fields.bus), unbox(fields.id),
+                fields.data);
+    }
+
+    private DiagnosticResponse buildDiagnosticResponse(MessageFields fields) {
+        DiagnosticResponse response = new DiagnosticResponse(
+                unbox(fields.bus), unbox(fields.id), unbox(fields.mode));
+        if(fields.pid != null) {
+            response.setPid(fields.pid);
+        }
+        response.setPayload(fields.payload);
+        response.setSuccess(unbox(fields.success));
+        if(fields.numeric) {
+            response.setValue(fields.numericValue);
+        } else if(fields.value != null) {
+            // Round trip through a tree to get Gson's usual number coercion,
+            // e.g. for a numeric value sent as a string.
+            response.setValue(mDoubleAdapter.fromJsonTree(
+                        mObjectAdapter.toJsonTree(fields.value)));
+        }
+        if(fields.contains(NEGATIVE_RESPONSE_CODE)) {
+            response.setNegativeResponseCode(fields.negativeResponseCode);
+        }
+        return response;
+    }
+
+    private Command buildCommand(MessageFields fields) {
+        if(fields.command == CommandType.DIAGNOSTIC_REQUEST
+                && fields.request != null && !fields.request.isJsonNull()) {
+            return new Command(
+                    mDiagnosticRequestAdapter.fromJsonTree(fields.request),
+                    fields.action);
+        }
+        return new Command(fields.command, fields.action);
+    }
+
+    private static int unbox(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static boolean unbox(Boolean value) {
+        return value == null ? false : value;
+    }
+}
@@ -1,16 +1,10 @@
 package com.openxc.messages.streamers;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-
-import org.apache.commons.io.IOUtils;
 
 import android.util.Log;
 
-import com.google.common.io.ByteStreams;
-import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.MessageLite;
 import com.openxc.messages.SerializationException;
 import com.openxc.messages.UnrecognizedMessageTypeException;
@@ -27,51 +21,60 @@ import com.openxc.messages.formatters.BinaryFormatter;
  *
  * Unlike the BinaryFormatter, the BinaryStreamer is not stateless. It maintains
  * an internal buffer of bytes so that if partial messages is received it can
- * eventually receive an parse the entire thing.
+ * eventually receive an parse the entire thing. Complete messages are parsed
+ * directly out of that buffer, without copying them.
  */
 public class BinaryStreamer extends VehicleMessageStreamer {
     private static String TAG = "BinaryStreamer";
+    // A 32-bit varint never takes more than 5 bytes on the wire.
+    private static final int MAX_VARINT32_BYTES = 5;
 
-    private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    private ByteStreamBuffer mBuffer = new ByteStreamBuffer();
 
     @Override
     public VehicleMessage parseNextMessage() {
-        // TODO we could move this to a separate thread and use a
-        // piped input stream, where it would block on the
-        // bytestream until more data was available - but that might
-        // be messy rather than this approach, which is just
-        // inefficient
-        InputStream input = new ByteArrayInputStream(mBuffer.toByteArray());
         VehicleMessage message = null;
-        int bytesRemaining = mBuffer.size();
         while(message == null) {
-            try {
-                int firstByte = input.read();
-                bytesRemaining -= 1;
-                if (firstByte == -1) {
-                    return null;
-                }
+            byte[] data = mBuffer.array();
+            int position = mBuffer.position();
+            int limit = mBuffer.limit();
 
-                int size = CodedInputStream.readRawVarint32(firstByte, input);
-                if(size > 0 && bytesRemaining >= size) {
-                    message = BinaryFormatter.deserialize(
-                            ByteStreams.limit(input, size));
-                } else {
-                    break;
-                }
-            } catch(IOException e) {
-                Log.e(TAG, "Unexpected errror copying buffers");
-            } catch(UnrecognizedMessageTypeException e) {
-                Log.w(TAG, "Deserialized protobuf had was unrecognized message type", e);
+            // Decode the varint length prefix in place, stopping if we don't
+            // have all of it yet.
+            int size = 0;
+            int prefixLength = 0;
+            boolean complete = false;
+            while(!complete && prefixLength < MAX_VARINT32_BYTES
+                    && position + prefixLength < limit) {
+                byte b = data[position + prefixLength];
+                size |= (b & 0x7f) << (7 * prefixLength);
+                prefixLength++;
+                complete = (b & 0x80) == 0;
+            }
+
+            if(!complete && prefixLength < MAX_VARINT32_BYTES) {
+                break;
+            } else if(!complete || size < 0) {
+                Log.w(TAG, "Dropping byte from malformed length prefix");
+                countParseError();
+                mBuffer.consume(1);
+                continue;
+            }
+
+            if(mBuffer.size() - prefixLength < size) {
+                break;
             }
-        }
 
-        if(message != null) {
-            mBuffer = new ByteArrayOutputStream();
             try {
-                IOUtils.copy(input, mBuffer);
-            } catch(IOException e) {
-                Log.e(TAG, "Unexpected error copying buffers");
+                if(size > 0) {
+                    message = BinaryFormatter.deserialize(data,
+                            position + prefixLength, size);
+                }
+            } catch(UnrecognizedMessageTypeException e) {
+                Log.w(TAG, "Deserialized protobuf had was unrecognized message type", e);
+                countParseError();
+            } finally {
+                mBuffer.consume(prefixLength + size);
             }
         }
         return message;
@@ -94,6 +97,6 @@ public class BinaryStreamer extends VehicleMessageStreamer {
     @Override
     public void receive(byte[] bytes, int length) {
         super.receive(bytes, length);
-        mBuffer.write(bytes, 0, length);
+        mBuffer.append(bytes, length);
     }
 }
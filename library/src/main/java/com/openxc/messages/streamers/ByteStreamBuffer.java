@@ -0,0 +1,134 @@
+package com.openxc.messages.streamers;
+
+/**
+ * A growable byte buffer that accumulates raw bytes from a vehicle interface
+ * until the streamers can pull complete messages out of it.
+ *
+ * Unread bytes always live in one contiguous region of the backing array, so a
+ * streamer can parse a complete frame directly from {@link #array()} without
+ * copying it out first. Consuming a frame only moves the read position; the
+ * unread bytes are shifted back to the front of the array at most once per
+ * {@link #append(byte[], int)} call and only when there isn't room for the new
+ * bytes at the end. That keeps the cost of framing linear in the number of
+ * bytes received, no matter how many messages arrive in a single read.
+ *
+ * {@link #indexOf(byte)} remembers how far it has already searched, so a large
+ * frame arriving in many small reads is only scanned once.
+ *
+ * This class is not thread safe - each streamer owns its own buffer.
+ */
+class ByteStreamBuffer {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+    // The number of unread bytes known not to contain mScannedValue
+    private int mScanned;
+    private byte mScannedValue;
+
+    public ByteStreamBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ByteStreamBuffer(int initialCapacity) {
+        mBuffer = new byte[Math.max(initialCapacity, 1)];
+    }
+
+    /**
+     * Copy bytes onto the end of the buffer, growing it if necessary.
+     *
+     * @param bytes the source array.
+     * @param length the number of bytes to copy from the start of the array.
+     */
+    public void append(byte[] bytes, int length) {
+        if(length <= 0) {
+            return;
+        }
+
+        int remaining = size();
+        if(remaining == 0) {
+            mPosition = 0;
+            mLimit = 0;
+        }
+
+        if(mLimit + length > mBuffer.length) {
+            byte[] target = mBuffer;
+            if(remaining + length > mBuffer.length) {
+                target = new byte[Math.max(mBuffer.length * 2,
+                            remaining + length)];
+            }
+            System.arraycopy(mBuffer, mPosition, target, 0, remaining);
+            mBuffer = target;
+            mPosition = 0;
+            mLimit = remaining;
+        }
+
+        System.arraycopy(bytes, 0, mBuffer, mLimit, length);
+        mLimit += length;
+    }
+
+    /**
+     * @return the backing array. Unread data starts at {@link #position()} and
+     *      ends before {@link #limit()}. The array may be replaced by the next
+     *      call to {@link #append(byte[], int)}, so don't hold on to it.
+     */
+    public byte[] array() {
+        return mBuffer;
+    }
+
+    /**
+     * @return the index in the backing array of the first unread byte.
+     */
+    public int position() {
+        return mPosition;
+    }
+
+    /**
+     * @return the index in the backing array one past the last unread byte.
+     */
+    public int limit() {
+        return mLimit;
+    }
+
+    /**
+     * @return the number of unread bytes in the buffer.
+     */
+    public int size() {
+        return mLimit - mPosition;
+    }
+
+    /**
+     * Mark bytes as read so they are dropped from the buffer.
+     *
+     * @param count the number of bytes to consume, capped at the number of
+     *      unread bytes.
+     */
+    public void consume(int count) {
+        count = Math.min(Math.max(count, 0), size());
+        mPosition += count;
+        mScanned = Math.max(mScanned - count, 0);
+    }
+
+    /**
+     * Find the first occurrence of a byte in the unread part of the buffer.
+     *
+     * @param value the byte to look for.
+     * @return the index in the backing array of the byte, or -1 if not found.
+     */
+    public int indexOf(byte value) {
+        if(value != mScannedValue) {
+            mScannedValue = value;
+            mScanned = 0;
+        }
+
+        for(int i = mPosition + mScanned; i < mLimit; i++) {
+            if(mBuffer[i] == value) {
+                mScanned = i - mPosition;
+                return i;
+            }
+        }
+        mScanned = size();
+        return -1;
+    }
+}
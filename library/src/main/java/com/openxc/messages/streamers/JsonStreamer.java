@@ -3,6 +3,7 @@ package com.openxc.messages.streamers;
 import android.util.Log;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
 import com.openxc.messages.UnrecognizedMessageTypeException;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.messages.formatters.JsonFormatter;
@@ -21,8 +22,9 @@ import com.openxc.messages.formatters.JsonFormatter;
 public class JsonStreamer extends VehicleMessageStreamer {
     private static String TAG = "JsonStreamer";
     private final static String DELIMITER = "\u0000";
+    private final static byte DELIMITER_BYTE = 0;
 
-    private StringBuffer mBuffer = new StringBuffer();
+    private ByteStreamBuffer mBuffer = new ByteStreamBuffer();
 
     /**
      * Return true if the buffer *most likely* contains JSON (as opposed to a
@@ -39,6 +41,22 @@ public class JsonStreamer extends VehicleMessageStreamer {
             .matchesAllOf(buffer);
     }
 
+    /**
+     * Return true if the first length bytes *most likely* contain JSON (as
+     * opposed to a protobuf), using the same rules as
+     * {@link #containsJson(String)} without decoding the bytes.
+     */
+    public static boolean containsJson(byte[] bytes, int length) {
+        for(int i = 0; i < length; i++) {
+            int b = bytes[i] & 0xff;
+            // Only printable ASCII and the \u0000 delimiter
+            if(b != DELIMITER_BYTE && (b < 0x20 || b >= 0x7f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public VehicleMessage parseNextMessage() {
         String line = readToDelimiter();
@@ -47,6 +65,7 @@ public class JsonStreamer extends VehicleMessageStreamer {
                 return JsonFormatter.deserialize(line);
             } catch(UnrecognizedMessageTypeException e) {
                 Log.w(TAG, "Unable to deserialize JSON", e);
+                countParseError();
             }
         }
         return null;
@@ -55,11 +74,9 @@ public class JsonStreamer extends VehicleMessageStreamer {
     @Override
     public void receive(byte[] bytes, int length) {
         super.receive(bytes, length);
-        // Creating a new String object for each message causes the
-        // GC to go a little crazy, but I don't see another obvious way
-        // of converting the byte[] to something the StringBuilder can
-        // accept (either char[] or String). See #151.
-        mBuffer.append(new String(bytes, 0, length));
+        // Keep the raw bytes and only decode a message once we've found its
+        // delimiter, instead of creating a String for every chunk (#151).
+        mBuffer.append(bytes, length);
     }
 
     @Override
@@ -78,10 +95,16 @@ public class JsonStreamer extends VehicleMessageStreamer {
     private String readToDelimiter() {
         String line = null;
         while(line == null || line.isEmpty()) {
-            int delimiterIndex = mBuffer.indexOf(DELIMITER);
+            int delimiterIndex = mBuffer.indexOf(DELIMITER_BYTE);
             if(delimiterIndex != -1) {
-                line = mBuffer.substring(0, delimiterIndex);
-                mBuffer.delete(0, delimiterIndex + 1);
+                int start = mBuffer.position();
+                if(delimiterIndex == start) {
+                    mBuffer.consume(1);
+                    continue;
+                }
+                line = new String(mBuffer.array(), start,
+                        delimiterIndex - start, Charsets.UTF_8);
+                mBuffer.consume(delimiterIndex - start + 1);
             } else {
                 line = null;
                 break;
@@ -3,10 +3,11 @@ package com.openxc.messages.streamers;
 import com.openxc.messages.SerializationException;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.sources.SourceLogger;
+import com.openxc.util.MetricsRegistry;
 
 /**
  * A base class for VehicleMessage streamers that defines the interface and
- * handles counting the amount of data received.
+ * handles counting the amount of data received and the parse errors.
  */
 public abstract class VehicleMessageStreamer {
     /**
@@ -33,6 +34,10 @@ public abstract class VehicleMessageStreamer {
     private double mBytesReceived = 0;
     private double mLastLoggedTransferStatsAtByte = 0;
     private long mLastLoggedStatsTime = System.nanoTime();
+    private final MetricsRegistry.Counter mParseErrors =
+            MetricsRegistry.getDefault().counter("streamer." +
+                    MetricsRegistry.getComponentName(getClass()) +
+                    ".parse_errors");
 
     /**
      * Add additional bytes to the buffer from the data source.
@@ -46,6 +51,13 @@ public abstract class VehicleMessageStreamer {
         logTransferStats();
     }
 
+    /**
+     * Count data that couldn't be parsed into a message.
+     */
+    protected void countParseError() {
+        mParseErrors.increment();
+    }
+
     private void logTransferStats() {
         if(mBytesReceived > mLastLoggedTransferStatsAtByte +
                 STATS_LOG_FREQUENCY_KB * 1024) {
@@ -1,5 +1,11 @@
 package com.openxc.remote;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
@@ -15,8 +21,11 @@ import com.openxc.interfaces.VehicleInterfaceDescriptor;
 import com.openxc.interfaces.VehicleInterfaceException;
 import com.openxc.interfaces.VehicleInterfaceFactory;
 import com.openxc.interfaces.bluetooth.BluetoothVehicleInterface;
+import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageFilter;
 import com.openxc.messages.MessageKey;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.VehicleMessageBatch;
 import com.openxc.sinks.DataSinkException;
 import com.openxc.sinks.RemoteCallbackSink;
 import com.openxc.sources.ApplicationSource;
@@ -24,6 +33,9 @@ import com.openxc.sources.DataSourceException;
 import com.openxc.sources.NativeLocationSource;
 import com.openxc.sources.VehicleDataSource;
 import com.openxc.sources.WakeLockManager;
+import com.openxc.util.MetricsRegistry;
+import com.openxc.util.MetricsSnapshot;
+import com.openxc.util.TimeSeries;
 
 import com.openxcplatform.R;
 
@@ -68,6 +80,16 @@ public class VehicleService extends Service implements DataPipeline.Operator {
     private boolean mUserPipelineActive;
     private final RemoteCallbackList<ViConnectionListener> mViConnectionListeners =
             new RemoteCallbackList<>();
+    // Listeners that enabled the history of a signal, so it can be released
+    // if their app dies without disabling it.
+    private final RemoteCallbackList<VehicleServiceListener> mHistoryOwners =
+            new RemoteCallbackList<VehicleServiceListener>() {
+        @Override
+        public void onCallbackDied(VehicleServiceListener listener) {
+            Log.i(TAG, "Releasing history of dead listener " + listener);
+            mPipeline.releaseHistory(listener.asBinder());
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -100,6 +122,20 @@ public class VehicleService extends Service implements DataPipeline.Operator {
         return mBinder;
     }
 
+    /**
+     * Write the pipeline and the current metrics, for
+     * "adb shell dumpsys activity service VehicleService".
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Pipeline: " + mPipeline);
+        synchronized(this) {
+            writer.println("Vehicle interface: " + mVehicleInterface);
+        }
+        writer.println("Metrics:");
+        MetricsRegistry.getDefault().snapshot().dump(writer);
+    }
+
     private void moveToForeground() {
         if(!mForeground) {
             Log.i(TAG, "Moving service to foreground.");
@@ -158,6 +194,17 @@ public class VehicleService extends Service implements DataPipeline.Operator {
                 return mPipeline.get(key);
             }
 
+            @Override
+            public VehicleMessageBatch getAll(List<MessageKey> keys) {
+                Map<MessageKey, KeyedMessage> messages =
+                        mPipeline.getAll(keys);
+                List<VehicleMessage> result = new ArrayList<>(keys.size());
+                for(MessageKey key : keys) {
+                    result.add(messages.get(key));
+                }
+                return new VehicleMessageBatch(result);
+            }
+
             @Override
             public boolean send(VehicleMessage command) {
                 command.untimestamp();
@@ -191,10 +238,59 @@ public class VehicleService extends Service implements DataPipeline.Operator {
                 mNotifier.register(listener);
             }
 
+            @Override
+            public boolean registerForBatches(VehicleServiceListener listener) {
+                Log.i(TAG, "Adding batch listener " + listener);
+                mNotifier.register(listener, true);
+                return true;
+            }
+
+            @Override
+            public void setMessageFilter(VehicleServiceListener listener,
+                    MessageFilter filter) {
+                Log.i(TAG, "Setting filter for listener " + listener + " to " +
+                        filter);
+                mNotifier.setFilter(listener, filter);
+            }
+
+            @Override
+            public void enableHistory(VehicleServiceListener listener,
+                    MessageKey key, int capacity) {
+                Log.i(TAG, "Keeping the last " + capacity + " values of " +
+                        key + " for listener " + listener);
+                mPipeline.enableHistory(listener.asBinder(), key, capacity);
+                if(!mHistoryOwners.register(listener)) {
+                    // The listener died before it could be watched
+                    mPipeline.releaseHistory(listener.asBinder());
+                }
+            }
+
+            @Override
+            public void disableHistory(VehicleServiceListener listener,
+                    MessageKey key) {
+                Log.i(TAG, "No longer keeping the values of " + key +
+                        " for listener " + listener);
+                mPipeline.disableHistory(listener.asBinder(), key);
+            }
+
+            @Override
+            public TimeSeries getHistory(MessageKey key, long startTime,
+                    long endTime) {
+                return mPipeline.getHistory(key, startTime, endTime);
+            }
+
+            @Override
+            public MetricsSnapshot getMetrics() {
+                return MetricsRegistry.getDefault().snapshot();
+            }
+
             @Override
             public void unregister(VehicleServiceListener listener) {
                 Log.i(TAG, "Removing listener " + listener);
                 mNotifier.unregister(listener);
+                if(mHistoryOwners.unregister(listener)) {
+                    mPipeline.releaseHistory(listener.asBinder());
+                }
             }
 
             @Override
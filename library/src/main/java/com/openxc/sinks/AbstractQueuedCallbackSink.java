@@ -1,7 +1,8 @@
 package com.openxc.sinks;
 
-import java.util.Iterator;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -9,6 +10,10 @@ import java.util.concurrent.locks.ReentrantLock;
 import android.util.Log;
 
 import com.openxc.messages.VehicleMessage;
+import com.openxc.util.BoundedQueue;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+import com.openxc.util.LatencyHistogram;
+import com.openxc.util.MetricsRegistry;
 
 /**
  * Functionality to notify multiple clients asynchronously of new measurements.
@@ -17,56 +22,179 @@ import com.openxc.messages.VehicleMessage;
  * listeners that want to be notified of updates asynchronously. Subclasses need
  * only to implement the {@link #propagateMessage(VehicleMessage)}
  * to add the actual logic for looping over the list of receivers and send them
- * new values.
+ * new values. Subclasses that can send several messages at once can also
+ * override {@link #propagateMessages(List)}.
  *
  * New measurements are queued up and propagated to receivers in a separate
- * thread, to avoid blocking the original sender of the data.
+ * thread, to avoid blocking the original sender of the data. The queue is
+ * bounded - by default, if the receivers fall too far behind the sender waits
+ * for room, so every message is still delivered. Subclasses can opt in to
+ * dropping messages instead with {@link OverflowPolicy#DROP_OLDEST}, so the
+ * receivers always get the most recent data. The number of dropped messages
+ * is available from {@link #getDroppedCount()} and the "sink.*.dropped"
+ * metric.
  */
 public abstract class AbstractQueuedCallbackSink implements VehicleDataSink {
     private final static String TAG = "AbstractQueuedCallbackSink";
+    public final static int DEFAULT_QUEUE_CAPACITY = 4096;
+    public final static OverflowPolicy DEFAULT_OVERFLOW_POLICY =
+            OverflowPolicy.BLOCK;
+    private final static int MAX_BATCH_SIZE = 64;
+    private final static long IDLE_POLL_INTERVAL_MS = 1000;
 
     private NotificationThread mNotificationThread = new NotificationThread();
-    private Lock mNotificationsLock = new ReentrantLock();
-    private Condition mNotificationsChanged = mNotificationsLock.newCondition();
-    private CopyOnWriteArrayList<VehicleMessage> mNotifications =
-            new CopyOnWriteArrayList<>();
+    private final BoundedQueue<VehicleMessage> mNotifications;
+    private Lock mIdleLock = new ReentrantLock();
+    private Condition mIdle = mIdleLock.newCondition();
+    private volatile boolean mDelivering = false;
+    private final String mMetricsPrefix =
+            MetricsRegistry.getInstanceName("sink", this);
+    private final MetricsRegistry.Gauge mQueueDepthGauge =
+            new MetricsRegistry.Gauge() {
+        @Override
+        public long getValue() {
+            return getQueueDepth();
+        }
+    };
+    private final MetricsRegistry.Gauge mDroppedGauge =
+            new MetricsRegistry.Gauge() {
+        @Override
+        public long getValue() {
+            return getDroppedCount();
+        }
+    };
 
     public AbstractQueuedCallbackSink() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    /**
+     * @param queueCapacity the maximum number of messages waiting to be
+     *      propagated.
+     * @param overflowPolicy what to do with new messages when the queue is
+     *      full. With {@link OverflowPolicy#BLOCK}, a message a receiver
+     *      sends back into this sink from
+     *      {@link #propagateMessage(VehicleMessage)} is dropped if the queue
+     *      is full, instead of waiting on itself.
+     */
+    public AbstractQueuedCallbackSink(int queueCapacity,
+            OverflowPolicy overflowPolicy) {
+        mNotifications = new BoundedQueue<>(queueCapacity, overflowPolicy);
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.addGauge(mMetricsPrefix + ".queue_depth", mQueueDepthGauge);
+        metrics.addGauge(mMetricsPrefix + ".dropped", mDroppedGauge);
         mNotificationThread.start();
     }
 
     @Override
     public synchronized void stop() {
         mNotificationThread.done();
+        mNotifications.close();
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.removeGauge(mMetricsPrefix + ".queue_depth", mQueueDepthGauge);
+        metrics.removeGauge(mMetricsPrefix + ".dropped", mDroppedGauge);
     }
 
     @Override
     public void receive(VehicleMessage message) throws DataSinkException {
-        try {
-            mNotificationsLock.lock();
-            mNotifications.add(message);
-            mNotificationsChanged.signal();
-        } finally {
-            mNotificationsLock.unlock();
+        if(message != null) {
+            if(Thread.currentThread() == mNotificationThread) {
+                mNotifications.offerWithoutWaiting(message);
+            } else {
+                mNotifications.offer(message);
+            }
         }
     }
 
-    /* Block until the notifications queue is cleared.
+    /* Block until the notifications queue is cleared and every message taken
+     * from it has been propagated.
      */
     public void clearQueue() {
+        mIdleLock.lock();
         try {
-            mNotificationsLock.lock();
-            while(!mNotifications.isEmpty()) {
-                mNotificationsChanged.await();
+            while((!mNotifications.isEmpty() || mDelivering)
+                    && mNotificationThread.isAlive()) {
+                mIdle.await(IDLE_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
             }
         } catch(InterruptedException e) {
         } finally {
-            mNotificationsLock.unlock();
+            mIdleLock.unlock();
         }
     }
 
+    /**
+     * @return the number of messages waiting to be propagated.
+     */
+    public int getQueueDepth() {
+        return mNotifications.size();
+    }
+
+    /**
+     * @return the total number of messages that were dropped instead of
+     *      propagated because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mNotifications.getDroppedCount();
+    }
+
     abstract protected void propagateMessage(VehicleMessage message);
 
+    /**
+     * Record the time since each message was read from its source, for
+     * subclasses that measure how long delivery takes.
+     */
+    protected static void recordLatency(LatencyHistogram histogram,
+            List<VehicleMessage> messages) {
+        long now = System.nanoTime();
+        for(int i = 0; i < messages.size(); i++) {
+            long received = messages.get(i).getReceivedNanos();
+            if(received != 0) {
+                histogram.recordNanos(now - received);
+            }
+        }
+    }
+
+    /**
+     * Propagate a batch of messages taken from the queue together, in order.
+     *
+     * By default each message is passed to
+     * {@link #propagateMessage(VehicleMessage)}. The list is reused for the
+     * next batch, so it must not be kept after this returns.
+     */
+    protected void propagateMessages(List<VehicleMessage> messages) {
+        for(VehicleMessage message : messages) {
+            try {
+                propagateMessage(message);
+            } catch(RuntimeException e) {
+                Log.w(TAG, "Unable to propagate message " + message, e);
+            }
+        }
+    }
+
+    /**
+     * Return how long to wait for more messages after taking less than a full
+     * batch from the queue.
+     *
+     * Waiting lets subclasses that override {@link #propagateMessages(List)}
+     * send fewer, larger batches in exchange for some latency. The default is
+     * not to wait.
+     *
+     * @return the time to wait in milliseconds.
+     */
+    protected long getBatchWindowMillis() {
+        return 0;
+    }
+
+    private void signalIdle() {
+        mIdleLock.lock();
+        try {
+            mDelivering = false;
+            mIdle.signalAll();
+        } finally {
+            mIdleLock.unlock();
+        }
+    }
+
     private class NotificationThread extends Thread {
         private boolean mRunning = true;
 
@@ -77,43 +205,50 @@ public abstract class AbstractQueuedCallbackSink implements VehicleDataSink {
         public synchronized void done() {
             Log.d(TAG, "Stopping message notifier");
             mRunning = false;
-            // A context switch right can cause a race condition if we
-            // used take() instead of poll(): when mRunning is set to
-            // false and interrupt is called but we haven't called
-            // take() yet, so nobody is waiting. By using poll we can not be
-            // locked for more than 1s.
             interrupt();
         }
 
         @Override
         public void run() {
             Log.d(TAG, "Starting notification thread");
+            List<VehicleMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
             while(isRunning()) {
-                mNotificationsLock.lock();
-                try {
-                    if(mNotifications.isEmpty()) {
-                        mNotificationsChanged.await();
+                // Mark the batch as in progress before taking it from the
+                // queue, so clearQueue() never sees an empty queue while
+                // messages are still being delivered.
+                mDelivering = true;
+                if(mNotifications.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+                    signalIdle();
+                    try {
+                        mNotifications.awaitNotEmpty(IDLE_POLL_INTERVAL_MS,
+                                TimeUnit.MILLISECONDS);
+                    } catch(InterruptedException e) {
+                        Log.d(TAG, "Interrupted while waiting for a new " +
+                                "item for notification -- likely shutting down");
+                        break;
                     }
+                    continue;
+                }
 
-                    Iterator<VehicleMessage> it = mNotifications.iterator();
-                    CopyOnWriteArrayList<VehicleMessage> deleted =
-                            new CopyOnWriteArrayList<>(mNotifications);
-                    while(it.hasNext()) {
-                        VehicleMessage message = it.next();
-                        propagateMessage(message);
-                        deleted.add(message);
+                long window = getBatchWindowMillis();
+                if(window > 0 && batch.size() < MAX_BATCH_SIZE) {
+                    try {
+                        Thread.sleep(window);
+                    } catch(InterruptedException e) {
+                        // Stopping - propagate what we already have
                     }
-                    mNotifications.removeAll(deleted) ;
-
-                } catch(InterruptedException e) {
-                    Log.d(TAG, "Interrupted while waiting for a new " +
-                            "item for notification -- likely shutting down");
-                    break;
-                } finally {
-                    mNotificationsChanged.signal();
-                    mNotificationsLock.unlock();
+                    mNotifications.drainTo(batch,
+                            MAX_BATCH_SIZE - batch.size());
+                }
+
+                try {
+                    propagateMessages(batch);
+                } catch(RuntimeException e) {
+                    Log.w(TAG, "Unable to propagate messages", e);
                 }
+                batch.clear();
             }
+            signalIdle();
             Log.d(TAG, "Stopped notification thread");
         }
     }
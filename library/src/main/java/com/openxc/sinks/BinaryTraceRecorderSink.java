@@ -0,0 +1,126 @@
+package com.openxc.sinks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.openxc.messages.SerializationException;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.binary.BinaryTraceWriter;
+
+/**
+ * Record vehicle messages to compact binary trace files.
+ *
+ * Traces are written with {@link BinaryTraceWriter} and can be played back
+ * with {@link com.openxc.sources.trace.TraceVehicleDataSource}. They are
+ * several times smaller than the JSON traces from {@link FileRecorderSink}
+ * and much faster to parse.
+ *
+ * Like the JSON recorder, a new file is started for each trip - if no
+ * messages are received for a while, the current file is closed and the next
+ * message starts a new one.
+ */
+public class BinaryTraceRecorderSink implements VehicleDataSink {
+    private final static String TAG = "BinaryTraceRecorderSink";
+    private final static long INTER_TRIP_THRESHOLD_MS =
+            TimeUnit.MINUTES.toMillis(5);
+    public final static String FILE_EXTENSION = ".trace";
+    private static SimpleDateFormat sDateFormatter =
+            new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
+
+    private final File mDirectory;
+    private BinaryTraceWriter mWriter;
+    private File mFile;
+    private long mLastMessageReceived;
+
+    /**
+     * @param directory where to create the trace files.
+     */
+    public BinaryTraceRecorderSink(File directory) {
+        mDirectory = directory;
+    }
+
+    @Override
+    public synchronized void receive(VehicleMessage message)
+            throws DataSinkException {
+        long now = System.currentTimeMillis();
+        if(mWriter == null ||
+                now - mLastMessageReceived > INTER_TRIP_THRESHOLD_MS) {
+            Log.i(TAG, "Detected a new trip, starting a new trace file");
+            try {
+                openTimestampedFile();
+            } catch(IOException e) {
+                throw new DataSinkException(
+                        "Unable to open file for recording", e);
+            }
+        }
+
+        mLastMessageReceived = now;
+        try {
+            mWriter.write(message);
+        } catch(SerializationException e) {
+            // Not every message type has a binary encoding - skip it rather
+            // than stopping the recording
+            Log.d(TAG, "Unable to record message " + message, e);
+        } catch(IOException e) {
+            throw new DataSinkException("Unable to write message to file", e);
+        }
+    }
+
+    /**
+     * Write messages waiting to be compressed to the file, so it can be played
+     * back while recording continues.
+     */
+    public synchronized void flush() {
+        if(mWriter != null) {
+            try {
+                mWriter.flush();
+            } catch(IOException e) {
+                Log.w(TAG, "Unable to flush writer", e);
+            }
+        }
+    }
+
+    /**
+     * @return the file currently being recorded, or null if there isn't one.
+     */
+    public synchronized File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public synchronized void stop() {
+        close();
+        Log.i(TAG, "Shutting down");
+    }
+
+    private void close() {
+        if(mWriter != null) {
+            try {
+                mWriter.close();
+            } catch(IOException e) {
+                Log.w(TAG, "Unable to close output file", e);
+            }
+            mWriter = null;
+            mFile = null;
+        }
+    }
+
+    private void openTimestampedFile() throws IOException {
+        close();
+        String filename = sDateFormatter.format(new Date()) + FILE_EXTENSION;
+        mDirectory.mkdirs();
+        File file = new File(mDirectory, filename);
+        mWriter = new BinaryTraceWriter(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        mFile = file;
+        Log.i(TAG, "Opened trace file " + file + " for writing");
+    }
+}
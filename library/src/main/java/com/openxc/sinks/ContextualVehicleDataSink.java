@@ -22,5 +22,6 @@ public abstract class ContextualVehicleDataSink implements VehicleDataSink {
     public abstract void stop();
 
     @Override
-    public abstract void receive(VehicleMessage message);
+    public abstract void receive(VehicleMessage message)
+            throws DataSinkException;
 }
@@ -5,22 +5,25 @@ import android.os.Environment;
 import android.provider.Settings.Secure;
 import android.util.Log;
 
+import com.google.common.base.Charsets;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.messages.formatters.JsonFormatter;
 import com.openxc.util.FileOpener;
 
 import net.gotev.uploadservice.MultipartUploadRequest;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -36,12 +39,19 @@ import java.util.zip.ZipOutputStream;
  * The heuristic is very simple: if we haven't received any new data in a while,
  * consider the previous trip to have ended. When activity resumes, start a new
  * trip.
+ *
+ * When created with a context and directory, files are also split every few
+ * minutes and uploaded. Those files are compressed as they are written, into a
+ * zip file with a single JSON entry. Finished files are closed and uploaded
+ * on a background thread, so starting a new file doesn't hold up the
+ * messages being recorded.
  */
 public class FileRecorderSink implements VehicleDataSink {
     private final static String TAG = "FileRecorderSink";
     private final static int INTER_TRIP_THRESHOLD_MINUTES = 5;
     private final static String UPLOAD_URL = "http://doodle.isi.edu/upload/com.siliconribbon.obd_openxc";
     private final static int BUFFER_SIZE = 8192;
+    private final static int FINISH_TIMEOUT_SECONDS = 10;
     private static SimpleDateFormat sDateFormatter =
             new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
 
@@ -55,6 +65,9 @@ public class FileRecorderSink implements VehicleDataSink {
     private String mDeviceID;
     private String mAndroidID;
     private Integer mFileThresholdMinutes;
+    private boolean mStopped = false;
+    private final ExecutorService mFinishingExecutor =
+            Executors.newSingleThreadExecutor();
 
     public FileRecorderSink(FileOpener fileOpener) {
         mFileOpener = fileOpener;
@@ -76,11 +89,16 @@ public class FileRecorderSink implements VehicleDataSink {
     @Override
     public synchronized void receive(VehicleMessage message)
             throws DataSinkException {
+        if(mStopped) {
+            throw new DataSinkException("Recorder is stopped");
+        }
+
         if(mLastMessageReceived == null ||
                 Calendar.getInstance().getTimeInMillis() - mLastMessageReceived.getTimeInMillis()
                         > INTER_TRIP_THRESHOLD_MINUTES * 60 * 1000 ||
-                Calendar.getInstance().getTimeInMillis() - mLastFileOpened.getTimeInMillis()
-                        > mFileThresholdMinutes * 60 * 1000) {
+                (mFileThresholdMinutes != null &&
+                    Calendar.getInstance().getTimeInMillis() - mLastFileOpened.getTimeInMillis()
+                        > mFileThresholdMinutes * 60 * 1000)) {
             Log.i(TAG, "Detected a new trip or splitting recorded trace file");
             try {
                 mLastFileName = openTimestampedFile();
@@ -105,9 +123,23 @@ public class FileRecorderSink implements VehicleDataSink {
         }
     }
 
+    /**
+     * Stop recording, and wait for the last file to be closed.
+     */
     @Override
-    public synchronized void stop() {
-        close();
+    public void stop() {
+        synchronized(this) {
+            mStopped = true;
+            finishFile();
+        }
+
+        mFinishingExecutor.shutdown();
+        try {
+            if(!mFinishingExecutor.awaitTermination(FINISH_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS)) {
+                Log.w(TAG, "Timed out waiting for the last file to close");
+            }
+        } catch(InterruptedException e) { }
         Log.i(TAG, "Shutting down");
     }
 
@@ -121,31 +153,74 @@ public class FileRecorderSink implements VehicleDataSink {
         }
     }
 
-    private synchronized void close() {
+    /**
+     * Hand the current file to the background thread to be closed (and
+     * uploaded), so the thread delivering messages doesn't wait for it.
+     */
+    private void finishFile() {
         if(mWriter != null) {
-            try {
-                mWriter.close();
-                compressAndUpload();
-            } catch(IOException e) {
-                Log.w(TAG, "Unable to close output file", e);
-            }
+            final BufferedWriter writer = mWriter;
+            final String filename = mLastFileName;
             mWriter = null;
+            mFinishingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.close();
+                    } catch(IOException e) {
+                        Log.w(TAG, "Unable to close output file", e);
+                        return;
+                    }
+                    upload(filename);
+                }
+            });
         }
     }
 
+    private boolean isUploading() {
+        return mContext != null;
+    }
+
     private synchronized String openTimestampedFile() throws IOException {
         Calendar calendar = Calendar.getInstance();
         String filename = sDateFormatter.format(
                 calendar.getTime()) + ".json";
-        if(mWriter != null) {
-            close();
+        finishFile();
+        if(isUploading()) {
+            mWriter = openCompressedFile(filename);
+        } else {
+            mWriter = mFileOpener.openForWriting(filename);
         }
-        mWriter = mFileOpener.openForWriting(filename);
         Log.i(TAG, "Opened trace file " + filename + " for writing");
         return filename;
     }
 
-    private synchronized void uploadMultipart(final Context context, String file_path, String file_name) {
+    private String getFilePath(String filename) {
+        return Environment.getExternalStorageDirectory().getAbsolutePath() +
+                File.separator + mDirectory + File.separator + filename;
+    }
+
+    /**
+     * Open a zip file with a single entry for the trace, which is compressed
+     * as it's written.
+     */
+    private BufferedWriter openCompressedFile(String filename)
+            throws IOException {
+        File file = new File(getFilePath(filename) + ".zip");
+        file.getParentFile().mkdirs();
+        ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        try {
+            output.putNextEntry(new ZipEntry(filename));
+        } catch(IOException e) {
+            output.close();
+            throw e;
+        }
+        return new BufferedWriter(new OutputStreamWriter(output,
+                    Charsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private void uploadMultipart(final Context context, String file_path, String file_name) {
         try {
             new MultipartUploadRequest(context, UPLOAD_URL)
                     .addFileToUpload(file_path, "file", file_name)
@@ -157,49 +232,11 @@ public class FileRecorderSink implements VehicleDataSink {
         }
     }
 
-    private synchronized void compressAndUpload() {
-        if(mLastFileName != null && mContext != null){
-            Log.d(TAG, "zip and upload");
-            File externalStoragePath = Environment.getExternalStorageDirectory();
-            String mfilePath = externalStoragePath.getAbsolutePath() + File.separator + mDirectory + File.separator + mLastFileName;
-            String[] files = new String[1];
-            files[0] = mfilePath;
-            try {
-                zip(files, mfilePath + ".zip");
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            uploadMultipart(mContext, mfilePath + ".zip", mAndroidID + "_" + mDeviceID + "_" + mLastFileName + ".zip");
-        }
-    }
-
-    private static void zip(String[] files, String zipFile) throws IOException {
-        BufferedInputStream origin;
-        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
-        try {
-            byte data[] = new byte[BUFFER_SIZE];
-
-            for (String file : files) {
-                FileInputStream fi = new FileInputStream(file);
-                origin = new BufferedInputStream(fi, BUFFER_SIZE);
-                try {
-                    ZipEntry entry = new ZipEntry(file.substring(file.lastIndexOf("/") + 1));
-                    out.putNextEntry(entry);
-                    int count;
-                    while ((count = origin.read(data, 0, BUFFER_SIZE)) != -1) {
-                        out.write(data, 0, count);
-                    }
-                } finally {
-                    origin.close();
-                    File fileToDelete = new File(file);
-                    boolean deleted = fileToDelete.delete();
-                    Log.d(TAG, "Delete File " + file + ":" + String.valueOf(deleted));
-                }
-            }
-        }
-        finally {
-            out.close();
+    private void upload(String filename) {
+        if(filename != null && isUploading()) {
+            Log.d(TAG, "Uploading " + filename);
+            uploadMultipart(mContext, getFilePath(filename) + ".zip",
+                    mAndroidID + "_" + mDeviceID + "_" + filename + ".zip");
         }
     }
-
 }
@@ -0,0 +1,175 @@
+package com.openxc.sinks;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.MoreObjects;
+import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.util.MetricsRegistry;
+
+/**
+ * Keep the last value of some keyed messages in-process, so an app can read
+ * them without a call to the VehicleService.
+ *
+ * This sink is used by the {@link com.openxc.VehicleManager} when its local
+ * cache is enabled. Only the tracked keys are stored, since those are the
+ * ones the VehicleService is asked to keep sending - a value for any other
+ * key could silently go out of date. Values read from the VehicleService
+ * directly are stored with {@link #update(MessageKey, VehicleMessage, long)}.
+ *
+ * A value that hasn't been updated for longer than the maximum age is stale,
+ * and isn't returned by {@link #get(MessageKey)}.
+ */
+public class LastValueCacheSink implements VehicleDataSink {
+    private final ConcurrentMap<MessageKey, Entry> mValues =
+            new ConcurrentHashMap<>();
+    private final Set<MessageKey> mKeys = Collections.newSetFromMap(
+            new ConcurrentHashMap<MessageKey, Boolean>());
+    private volatile long mMaxAgeNanos;
+
+    private final MetricsRegistry.Counter mHits =
+            MetricsRegistry.getDefault().counter("cache.hits");
+    private final MetricsRegistry.Counter mMisses =
+            MetricsRegistry.getDefault().counter("cache.misses");
+    private final MetricsRegistry.Counter mStale =
+            MetricsRegistry.getDefault().counter("cache.stale");
+
+    private static class Entry {
+        private final VehicleMessage mMessage;
+        private final long mUpdatedNanos;
+
+        Entry(VehicleMessage message, long updatedNanos) {
+            mMessage = message;
+            mUpdatedNanos = updatedNanos;
+        }
+    }
+
+    /**
+     * @param maxAge how long a value can go without an update before it's
+     *      stale, or 0 to never treat values as stale.
+     * @param unit the unit of the maximum age.
+     */
+    public LastValueCacheSink(long maxAge, TimeUnit unit) {
+        setMaxAge(maxAge, unit);
+    }
+
+    public void setMaxAge(long maxAge, TimeUnit unit) {
+        mMaxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Start keeping the values of messages with some keys.
+     *
+     * @return true if any of the keys weren't already tracked.
+     */
+    public boolean track(Collection<MessageKey> keys) {
+        return mKeys.addAll(keys);
+    }
+
+    /**
+     * @return true if the value of the key is kept.
+     */
+    public boolean isTracked(MessageKey key) {
+        return mKeys.contains(key);
+    }
+
+    /**
+     * @return an unmodifiable view of the tracked keys.
+     */
+    public Set<MessageKey> getKeys() {
+        return Collections.unmodifiableSet(mKeys);
+    }
+
+    @Override
+    public void receive(VehicleMessage message) {
+        if(message instanceof KeyedMessage) {
+            MessageKey key = ((KeyedMessage) message).getKey();
+            if(mKeys.contains(key)) {
+                mValues.put(key, new Entry(message, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Store a value read from the VehicleService, unless a newer one was
+     * received while it was being read.
+     *
+     * @param requestedNanos the {@link System#nanoTime()} when the value was
+     *      requested.
+     */
+    public void update(MessageKey key, VehicleMessage message,
+            long requestedNanos) {
+        if(!mKeys.contains(key)) {
+            return;
+        }
+
+        Entry entry = new Entry(message, requestedNanos);
+        Entry existing = mValues.putIfAbsent(key, entry);
+        while(existing != null && existing.mUpdatedNanos < requestedNanos &&
+                !mValues.replace(key, existing, entry)) {
+            existing = mValues.putIfAbsent(key, entry);
+        }
+    }
+
+    /**
+     * @return the last message with the key, or null if there isn't one or
+     *      it's stale.
+     */
+    public VehicleMessage get(MessageKey key) {
+        Entry entry = mValues.get(key);
+        if(entry == null) {
+            mMisses.increment();
+            return null;
+        }
+
+        long maxAge = mMaxAgeNanos;
+        if(maxAge > 0 && System.nanoTime() - entry.mUpdatedNanos > maxAge) {
+            mStale.increment();
+            return null;
+        }
+        mHits.increment();
+        return entry.mMessage;
+    }
+
+    /**
+     * @return how long ago the value of the key was last updated, or -1 if
+     *      there isn't one.
+     */
+    public long getAge(MessageKey key, TimeUnit unit) {
+        Entry entry = mValues.get(key);
+        if(entry == null) {
+            return -1;
+        }
+        return unit.convert(System.nanoTime() - entry.mUpdatedNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Forget every value but keep tracking the keys, e.g. when updates stop
+     * arriving because the VehicleService disconnected.
+     */
+    public void clear() {
+        mValues.clear();
+    }
+
+    @Override
+    public void stop() {
+        mValues.clear();
+        mKeys.clear();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("trackedKeys", mKeys.size())
+            .add("values", mValues.size())
+            .add("maxAgeNanos", mMaxAgeNanos)
+            .toString();
+    }
+}
@@ -1,89 +1,277 @@
 package com.openxc.sinks;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import android.util.Log;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Table;
 import com.openxc.NoValueException;
 import com.openxc.measurements.BaseMeasurement;
 import com.openxc.measurements.Measurement;
 import com.openxc.measurements.UnrecognizedMeasurementTypeException;
+import com.openxc.messages.ExactKeyMatcher;
 import com.openxc.messages.KeyMatcher;
 import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageFilter;
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.PartialKeyMatcher;
 import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.SubscriptionOptions;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+import com.openxc.util.LatencyHistogram;
+import com.openxc.util.MetricsRegistry;
 
 /**
  * A data sink that sends new measurements of specific types to listeners.
  *
  * Applications requesting asynchronous updates for specific signals get their
  * values through this sink.
+ *
+ * Listeners registered with an {@link ExactKeyMatcher} are indexed by the
+ * matcher's key, so finding them costs the same no matter how many there are.
+ * Any other matcher is checked against every message. The listener
+ * collections are replaced with updated copies when listeners are added or
+ * removed, which is rare, so propagating a message never has to take a lock.
+ *
+ * Persistent listeners for keys and measurements can be registered with
+ * {@link SubscriptionOptions} to limit how often they are called for each
+ * signal. The options are checked before calling the listener, and messages
+ * skipped for every listener are never converted to measurements.
+ *
+ * The time from reading each message to calling its listeners is recorded in
+ * the "latency.listener_delivery" histogram of the {@link MetricsRegistry}.
+ *
+ * A {@link FilterListener} is told when one-shot listeners are dropped after
+ * receiving their message, since that can change the result of
+ * {@link #getFilter()}.
  */
 public class MessageListenerSink extends AbstractQueuedCallbackSink {
     private final static String TAG = "MessageListenerSink";
 
     // The non-persistent listeners will be removed after they receive their
     // first message.
-    private Map<KeyMatcher, MessageListenerGroup>
-            mMessageListeners = new HashMap<>();
-    private Multimap<Class<? extends Measurement>, Measurement.Listener>
-            mMeasurementTypeListeners = HashMultimap.create();
-    private Multimap<Class<? extends VehicleMessage>, VehicleMessage.Listener>
-            mMessageTypeListeners = HashMultimap.create();
-
-    private class MessageListenerGroup {
-        
-        ArrayList<VehicleMessage.Listener> mPersistentListeners = new ArrayList<>();
-        ArrayList<VehicleMessage.Listener> mListeners = new ArrayList<>();
-        
-        void add(VehicleMessage.Listener listener, boolean persist) {
-            if (persist) {
-                mPersistentListeners.add(listener);
-            } else {
-                mListeners.add(listener);
+    private volatile Map<MessageKey, MessageListenerGroup>
+            mExactKeyListeners = Collections.emptyMap();
+    private volatile List<MessageListenerGroup>
+            mMatcherListeners = Collections.emptyList();
+    private volatile ImmutableSetMultimap<Class<? extends Measurement>,
+            Measurement.Listener> mMeasurementTypeListeners =
+                    ImmutableSetMultimap.of();
+    private volatile ImmutableSetMultimap<Class<? extends VehicleMessage>,
+            VehicleMessage.Listener> mMessageTypeListeners =
+                    ImmutableSetMultimap.of();
+    private volatile ImmutableTable<Class<? extends Measurement>,
+            Measurement.Listener, MessageThrottle> mMeasurementThrottles =
+                    ImmutableTable.of();
+    private volatile boolean mLatestValueWins = false;
+    private volatile FilterListener mFilterListener;
+    // Only used from the notification thread
+    private final Set<MessageKey> mSeenKeys = new HashSet<>();
+    private final BitSet mSuperseded = new BitSet();
+    private final LatencyHistogram mLatency =
+            MetricsRegistry.getDefault().histogram(
+                    "latency.listener_delivery");
+
+    /**
+     * Called when the set of messages the listeners need shrinks without a
+     * call to unregister, e.g. when the only listener for a key was a one-shot
+     * listener that has now received its message.
+     */
+    public interface FilterListener {
+        public void onFilterChanged();
+    }
+
+    /**
+     * The listeners registered with one key matcher. Instances are never
+     * modified once they are published to the dispatch thread - changes are
+     * made by building a new group.
+     */
+    private static class MessageListenerGroup {
+        final KeyMatcher mMatcher;
+        final List<VehicleMessage.Listener> mPersistentListeners;
+        final List<VehicleMessage.Listener> mListeners;
+        final Map<VehicleMessage.Listener, MessageThrottle> mThrottles;
+
+        MessageListenerGroup(KeyMatcher matcher) {
+            this(matcher, ImmutableList.<VehicleMessage.Listener>of(),
+                    ImmutableList.<VehicleMessage.Listener>of(),
+                    ImmutableMap.<VehicleMessage.Listener, MessageThrottle>of());
+        }
+
+        private MessageListenerGroup(KeyMatcher matcher,
+                List<VehicleMessage.Listener> persistentListeners,
+                List<VehicleMessage.Listener> listeners,
+                Map<VehicleMessage.Listener, MessageThrottle> throttles) {
+            mMatcher = matcher;
+            mPersistentListeners = persistentListeners;
+            mListeners = listeners;
+            mThrottles = throttles;
+        }
+
+        MessageListenerGroup add(VehicleMessage.Listener listener,
+                boolean persist, SubscriptionOptions options) {
+            if(persist) {
+                Map<VehicleMessage.Listener, MessageThrottle> throttles =
+                        new HashMap<>(mThrottles);
+                throttles.remove(listener);
+                if(options != null) {
+                    throttles.put(listener, new MessageThrottle(options));
+                }
+                return new MessageListenerGroup(mMatcher,
+                        append(mPersistentListeners, listener), mListeners,
+                        ImmutableMap.copyOf(throttles));
             }
+            return new MessageListenerGroup(mMatcher, mPersistentListeners,
+                    append(mListeners, listener), mThrottles);
         }
-        
-        void removePersistent(VehicleMessage.Listener listener) {
-            mPersistentListeners.remove(listener);
+
+        MessageListenerGroup removePersistent(VehicleMessage.Listener listener) {
+            List<VehicleMessage.Listener> persistent =
+                    new ArrayList<>(mPersistentListeners);
+            persistent.remove(listener);
+            Map<VehicleMessage.Listener, MessageThrottle> throttles =
+                    mThrottles;
+            if(!persistent.contains(listener) &&
+                    mThrottles.containsKey(listener)) {
+                throttles = new HashMap<>(mThrottles);
+                throttles.remove(listener);
+                throttles = ImmutableMap.copyOf(throttles);
+            }
+            return new MessageListenerGroup(mMatcher,
+                    ImmutableList.copyOf(persistent), mListeners, throttles);
         }
-        
-        void receive(VehicleMessage message) {
-            for (VehicleMessage.Listener listener : mPersistentListeners) {
-                listener.receive(message);
+
+        /**
+         * Drop non-persistent listeners that have already received a message,
+         * keeping any that were added since.
+         */
+        MessageListenerGroup removeNotified(
+                List<VehicleMessage.Listener> notified) {
+            List<VehicleMessage.Listener> remaining =
+                    new ArrayList<>(mListeners);
+            for(VehicleMessage.Listener listener : notified) {
+                remaining.remove(listener);
+            }
+            return new MessageListenerGroup(mMatcher, mPersistentListeners,
+                    ImmutableList.copyOf(remaining), mThrottles);
+        }
+
+        void receive(VehicleMessage message, boolean superseded) {
+            for(VehicleMessage.Listener listener : mPersistentListeners) {
+                MessageThrottle throttle = mThrottles.isEmpty() ? null :
+                        mThrottles.get(listener);
+                if(throttle == null ||
+                        throttle.shouldDeliver(message, superseded)) {
+                    listener.receive(message);
+                }
             }
-            for (VehicleMessage.Listener listener : mListeners) {
+            for(VehicleMessage.Listener listener : mListeners) {
                 listener.receive(message);
-            }   
-            mListeners = new ArrayList<>(); //delete all non-persistent
+            }
+        }
+
+        /**
+         * @return options that deliver every message any listener in the
+         *      group needs, or null if they all have to be delivered.
+         */
+        SubscriptionOptions getLoosestOptions() {
+            if(!mListeners.isEmpty()) {
+                return null;
+            }
+
+            SubscriptionOptions loosest = null;
+            for(VehicleMessage.Listener listener : mPersistentListeners) {
+                MessageThrottle throttle = mThrottles.get(listener);
+                if(throttle == null) {
+                    return null;
+                }
+                loosest = loosest == null ? throttle.getOptions() :
+                        SubscriptionOptions.loosest(loosest,
+                                throttle.getOptions());
+            }
+            return loosest;
         }
-        
+
+        boolean isLatestValueWins() {
+            for(MessageThrottle throttle : mThrottles.values()) {
+                if(throttle.isLatestValueWins()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         boolean isEmpty() {
             return mPersistentListeners.isEmpty() && mListeners.isEmpty();
-        }   
+        }
+
+        private static List<VehicleMessage.Listener> append(
+                List<VehicleMessage.Listener> listeners,
+                VehicleMessage.Listener listener) {
+            return ImmutableList.<VehicleMessage.Listener>builder()
+                    .addAll(listeners).add(listener).build();
+        }
     }
-    
+
     public MessageListenerSink() {
         super();
     }
 
+    public MessageListenerSink(int queueCapacity,
+            OverflowPolicy overflowPolicy) {
+        super(queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * @param listener called from the notification thread when the filter
+     *      changes, or null to stop calling the last one.
+     */
+    public void setFilterListener(FilterListener listener) {
+        mFilterListener = listener;
+    }
+
     public synchronized void register(KeyMatcher matcher,
             VehicleMessage.Listener listener, boolean persist) {
-       
-        MessageListenerGroup group = mMessageListeners.get(matcher);
-        if (group == null) {
-            group = new MessageListenerGroup();
-            mMessageListeners.put(matcher, group);
+        register(matcher, listener, persist, null);
+    }
+
+    /**
+     * Register a persistent listener for messages matching a key matcher,
+     * limiting how often it's called for each signal.
+     *
+     * @param options the limits, or null to call the listener for every
+     *      matching message.
+     */
+    public synchronized void register(KeyMatcher matcher,
+            VehicleMessage.Listener listener, SubscriptionOptions options) {
+        register(matcher, listener, true, options);
+    }
+
+    private void register(KeyMatcher matcher,
+            VehicleMessage.Listener listener, boolean persist,
+            SubscriptionOptions options) {
+        MessageListenerGroup group = getGroup(matcher);
+        if(group == null) {
+            group = new MessageListenerGroup(matcher);
         }
-        
-        group.add(listener, persist);
+        putGroup(matcher, group.add(listener, persist, options));
+        updateLatestValueWins();
     }
 
     public synchronized void register(KeyMatcher matcher,
@@ -94,11 +282,28 @@ public class MessageListenerSink extends AbstractQueuedCallbackSink {
     public synchronized void register(
             Class<? extends VehicleMessage> messageType,
             VehicleMessage.Listener listener) {
-        mMessageTypeListeners.put(messageType, listener);
+        Multimap<Class<? extends VehicleMessage>, VehicleMessage.Listener>
+                listeners = HashMultimap.create(mMessageTypeListeners);
+        listeners.put(messageType, listener);
+        mMessageTypeListeners = ImmutableSetMultimap.copyOf(listeners);
     }
 
-    public void register(Class<? extends Measurement> measurementType,
+    public synchronized void register(
+            Class<? extends Measurement> measurementType,
             Measurement.Listener listener) {
+        register(measurementType, listener, null);
+    }
+
+    /**
+     * Register a listener for a measurement type, limiting how often it's
+     * called.
+     *
+     * @param options the limits, or null to call the listener for every
+     *      measurement.
+     */
+    public synchronized void register(
+            Class<? extends Measurement> measurementType,
+            Measurement.Listener listener, SubscriptionOptions options) {
         try {
             // A bit of a hack to cache this measurement's ID field so we
             // can deserialize incoming measurements of this type. Why don't we
@@ -110,97 +315,336 @@ public class MessageListenerSink extends AbstractQueuedCallbackSink {
             BaseMeasurement.getKeyForMeasurement(measurementType);
         } catch(UnrecognizedMeasurementTypeException e) { }
 
-        mMeasurementTypeListeners.put(measurementType, listener);
+        Multimap<Class<? extends Measurement>, Measurement.Listener>
+                listeners = HashMultimap.create(mMeasurementTypeListeners);
+        listeners.put(measurementType, listener);
+        mMeasurementTypeListeners = ImmutableSetMultimap.copyOf(listeners);
+        putMeasurementThrottle(measurementType, listener,
+                options != null ? new MessageThrottle(options) : null);
     }
 
     public synchronized void unregister(
             Class<? extends Measurement> measurementType,
             Measurement.Listener listener) {
-        mMeasurementTypeListeners.remove(measurementType, listener);
+        Multimap<Class<? extends Measurement>, Measurement.Listener>
+                listeners = HashMultimap.create(mMeasurementTypeListeners);
+        listeners.remove(measurementType, listener);
+        mMeasurementTypeListeners = ImmutableSetMultimap.copyOf(listeners);
+        putMeasurementThrottle(measurementType, listener, null);
     }
 
     public synchronized void unregister(
             Class<? extends VehicleMessage> messageType,
             VehicleMessage.Listener listener) {
-        mMessageTypeListeners.remove(messageType, listener);
+        Multimap<Class<? extends VehicleMessage>, VehicleMessage.Listener>
+                listeners = HashMultimap.create(mMessageTypeListeners);
+        listeners.remove(messageType, listener);
+        mMessageTypeListeners = ImmutableSetMultimap.copyOf(listeners);
     }
 
     public synchronized void unregister(KeyMatcher matcher,
             VehicleMessage.Listener listener) {
-       
-        MessageListenerGroup group = mMessageListeners.get(matcher);
-        if (group != null) {
-            group.removePersistent(listener);
-            pruneListeners(matcher);
+        MessageListenerGroup group = getGroup(matcher);
+        if(group != null) {
+            putGroup(matcher, group.removePersistent(listener));
+            updateLatestValueWins();
+        }
+    }
+
+    /**
+     * Return a filter for the messages the registered listeners can receive,
+     * so a remote service can skip sending the rest.
+     *
+     * The filter includes the loosest {@link SubscriptionOptions} of the
+     * listeners for each key, if they all have options, so the service can
+     * skip sending updates none of them would be called for.
+     *
+     * @return the filter, or null if every message is needed because a
+     *      listener was registered with a KeyMatcher that a filter can't
+     *      describe.
+     */
+    public synchronized MessageFilter getFilter() {
+        Set<MessageKey> keys = new HashSet<>(mExactKeyListeners.keySet());
+        Map<MessageKey, SubscriptionOptions> options = new HashMap<>();
+        Set<MessageKey> unlimitedKeys = new HashSet<>();
+        for(Map.Entry<MessageKey, MessageListenerGroup> entry :
+                mExactKeyListeners.entrySet()) {
+            addOptions(options, unlimitedKeys, entry.getKey(),
+                    entry.getValue().getLoosestOptions());
+        }
+
+        List<MessageKey> partialKeys = new ArrayList<>();
+        for(MessageListenerGroup group : mMatcherListeners) {
+            if(!(group.mMatcher instanceof PartialKeyMatcher)) {
+                return null;
+            }
+            partialKeys.add(((PartialKeyMatcher) group.mMatcher).getParts());
+        }
+
+        for(Class<? extends Measurement> measurementType :
+                mMeasurementTypeListeners.keySet()) {
+            MessageKey key;
+            try {
+                key = BaseMeasurement.getKeyForMeasurement(measurementType);
+            } catch(UnrecognizedMeasurementTypeException e) {
+                return null;
+            }
+            keys.add(key);
+
+            for(Measurement.Listener listener :
+                    mMeasurementTypeListeners.get(measurementType)) {
+                MessageThrottle throttle = mMeasurementThrottles.get(
+                        measurementType, listener);
+                addOptions(options, unlimitedKeys, key,
+                        throttle != null ? throttle.getOptions() : null);
+            }
+        }
+        return new MessageFilter(keys, partialKeys,
+                mMessageTypeListeners.keySet(), options);
+    }
+
+    private static void addOptions(Map<MessageKey, SubscriptionOptions> options,
+            Set<MessageKey> unlimitedKeys, MessageKey key,
+            SubscriptionOptions listenerOptions) {
+        if(listenerOptions == null) {
+            unlimitedKeys.add(key);
+            options.remove(key);
+        } else if(!unlimitedKeys.contains(key)) {
+            SubscriptionOptions existing = options.get(key);
+            options.put(key, existing == null ? listenerOptions :
+                    SubscriptionOptions.loosest(existing, listenerOptions));
         }
     }
 
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
-            .add("numMessageListeners", mMessageListeners.size())
+            .add("numMessageListeners", getNumMessageListeners())
             .add("numMessageTypeListeners", mMessageTypeListeners.size())
             .add("numPersistentMessageListeners", getNumPersistentListeners())
             .add("numMeasurementTypeListeners", mMeasurementTypeListeners.size())
+            .add("queueDepth", getQueueDepth())
+            .add("droppedMessages", getDroppedCount())
             .toString();
     }
-    
+
+    private int getNumMessageListeners() {
+        return mExactKeyListeners.size() + mMatcherListeners.size();
+    }
+
     private int getNumPersistentListeners() {
         int sum = 0;
-        for (KeyMatcher matcher : mMessageListeners.keySet()) {
-            sum += mMessageListeners.get(matcher).mPersistentListeners.size();
+        for(MessageListenerGroup group : mExactKeyListeners.values()) {
+            sum += group.mPersistentListeners.size();
+        }
+        for(MessageListenerGroup group : mMatcherListeners) {
+            sum += group.mPersistentListeners.size();
         }
-        
         return sum;
     }
-    
-    private void pruneListeners(KeyMatcher matcher) {
-        MessageListenerGroup group = mMessageListeners.get(matcher);
-        if (group != null && group.isEmpty()) {
-            mMessageListeners.remove(matcher);
+
+    private MessageListenerGroup getGroup(KeyMatcher matcher) {
+        if(matcher instanceof ExactKeyMatcher) {
+            return mExactKeyListeners.get(
+                    ((ExactKeyMatcher) matcher).getKey());
+        }
+
+        for(MessageListenerGroup group : mMatcherListeners) {
+            if(group.mMatcher.equals(matcher)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Publish a new copy of the listener collections with the matcher's group
+     * replaced, or removed if it has no more listeners. Must be called while
+     * holding the lock on this sink.
+     */
+    private void putGroup(KeyMatcher matcher, MessageListenerGroup group) {
+        if(matcher instanceof ExactKeyMatcher) {
+            MessageKey key = ((ExactKeyMatcher) matcher).getKey();
+            Map<MessageKey, MessageListenerGroup> listeners =
+                    new HashMap<>(mExactKeyListeners);
+            if(group.isEmpty()) {
+                listeners.remove(key);
+            } else {
+                listeners.put(key, group);
+            }
+            mExactKeyListeners = Collections.unmodifiableMap(listeners);
+        } else {
+            List<MessageListenerGroup> listeners = new ArrayList<>();
+            boolean replaced = false;
+            for(MessageListenerGroup existing : mMatcherListeners) {
+                if(existing.mMatcher.equals(matcher)) {
+                    replaced = true;
+                    if(!group.isEmpty()) {
+                        listeners.add(group);
+                    }
+                } else {
+                    listeners.add(existing);
+                }
+            }
+            if(!replaced && !group.isEmpty()) {
+                listeners.add(group);
+            }
+            mMatcherListeners = Collections.unmodifiableList(listeners);
         }
     }
 
+    /**
+     * Must be called while holding the lock on this sink.
+     */
+    private void putMeasurementThrottle(
+            Class<? extends Measurement> measurementType,
+            Measurement.Listener listener, MessageThrottle throttle) {
+        Table<Class<? extends Measurement>, Measurement.Listener,
+                MessageThrottle> throttles =
+                        HashBasedTable.create(mMeasurementThrottles);
+        if(throttle != null) {
+            throttles.put(measurementType, listener, throttle);
+        } else {
+            throttles.remove(measurementType, listener);
+        }
+        mMeasurementThrottles = ImmutableTable.copyOf(throttles);
+        updateLatestValueWins();
+    }
+
+    /**
+     * Must be called while holding the lock on this sink.
+     */
+    private void updateLatestValueWins() {
+        boolean latestValueWins = false;
+        for(MessageThrottle throttle : mMeasurementThrottles.values()) {
+            latestValueWins |= throttle.isLatestValueWins();
+        }
+        for(MessageListenerGroup group : mExactKeyListeners.values()) {
+            latestValueWins |= group.isLatestValueWins();
+        }
+        for(MessageListenerGroup group : mMatcherListeners) {
+            latestValueWins |= group.isLatestValueWins();
+        }
+        mLatestValueWins = latestValueWins;
+    }
+
+    /**
+     * @return true if the matcher's group had no listeners left and was
+     *      removed.
+     */
+    private synchronized boolean removeNotifiedListeners(
+            MessageListenerGroup notified) {
+        MessageListenerGroup group = getGroup(notified.mMatcher);
+        if(group != null) {
+            group = group.removeNotified(notified.mListeners);
+            putGroup(notified.mMatcher, group);
+            return group.isEmpty();
+        }
+        return false;
+    }
+
+    private void notifyGroup(MessageListenerGroup group,
+            VehicleMessage message, boolean superseded) {
+        group.receive(message, superseded);
+        if(!group.mListeners.isEmpty() && removeNotifiedListeners(group)) {
+            FilterListener filterListener = mFilterListener;
+            if(filterListener != null) {
+                filterListener.onFilterChanged();
+            }
+        }
+    }
+
+    @Override
+    protected void propagateMessages(List<VehicleMessage> messages) {
+        boolean latestValueWins = mLatestValueWins;
+        if(latestValueWins) {
+            MessageThrottle.findSuperseded(messages, mSeenKeys, mSuperseded);
+        }
+
+        for(int i = 0; i < messages.size(); i++) {
+            VehicleMessage message = messages.get(i);
+            try {
+                propagateMessage(message,
+                        latestValueWins && mSuperseded.get(i));
+            } catch(RuntimeException e) {
+                Log.w(TAG, "Unable to propagate message " + message, e);
+            }
+        }
+        recordLatency(mLatency, messages);
+    }
+
     @Override
-    protected synchronized void propagateMessage(VehicleMessage message) {
-        if (message instanceof KeyedMessage) {
-
-            Set<KeyMatcher> matchedKeys = new HashSet<>();
-            for (KeyMatcher matcher : mMessageListeners.keySet()) {
-                if (matcher.matches(message.asKeyedMessage())) {
-                    MessageListenerGroup group = mMessageListeners.get(matcher);
-                    group.receive(message);
-                    matchedKeys.add(matcher);
+    protected void propagateMessage(VehicleMessage message) {
+        propagateMessage(message, false);
+    }
+
+    /**
+     * @param superseded true if a newer message with the same key is waiting
+     *      to be propagated.
+     */
+    private void propagateMessage(VehicleMessage message,
+            boolean superseded) {
+        if(message instanceof KeyedMessage) {
+            KeyedMessage keyedMessage = message.asKeyedMessage();
+            if(!mExactKeyListeners.isEmpty()) {
+                MessageListenerGroup group = mExactKeyListeners.get(
+                        keyedMessage.getKey());
+                if(group != null) {
+                    notifyGroup(group, message, superseded);
                 }
             }
 
-            for (KeyMatcher matcher : matchedKeys) {
-                pruneListeners(matcher);
+            for(MessageListenerGroup group : mMatcherListeners) {
+                if(group.mMatcher.matches(keyedMessage)) {
+                    notifyGroup(group, message, superseded);
+                }
             }
-            
-            if (message instanceof SimpleVehicleMessage) {
-                propagateMeasurementFromMessage(message.asSimpleMessage());
+
+            if(message instanceof SimpleVehicleMessage &&
+                    !mMeasurementTypeListeners.isEmpty()) {
+                propagateMeasurementFromMessage(message.asSimpleMessage(),
+                        superseded);
             }
         }
 
-        if(mMessageTypeListeners.containsKey(message.getClass())) {
+        ImmutableSetMultimap<Class<? extends VehicleMessage>,
+                VehicleMessage.Listener> typeListeners = mMessageTypeListeners;
+        if(typeListeners.containsKey(message.getClass())) {
             for(VehicleMessage.Listener listener :
-                    mMessageTypeListeners.get(message.getClass())) {
+                    typeListeners.get(message.getClass())) {
                 listener.receive(message);
             }
         }
     }
 
-    private synchronized void propagateMeasurementFromMessage(
-            SimpleVehicleMessage message) {
+    private void propagateMeasurementFromMessage(
+            SimpleVehicleMessage message, boolean superseded) {
+        ImmutableTable<Class<? extends Measurement>, Measurement.Listener,
+                MessageThrottle> throttles = mMeasurementThrottles;
         try {
-            Measurement measurement =
-                BaseMeasurement.getMeasurementFromMessage(message);
-            if(mMeasurementTypeListeners.containsKey(measurement.getClass())) {
-                for(Measurement.Listener listener :
-                        mMeasurementTypeListeners.get(measurement.getClass())) {
-                    listener.receive(measurement);
+            Class<? extends Measurement> measurementType =
+                BaseMeasurement.getClassForId(message.getName());
+            ImmutableSetMultimap<Class<? extends Measurement>,
+                    Measurement.Listener> listeners = mMeasurementTypeListeners;
+            if(!listeners.containsKey(measurementType)) {
+                return;
+            }
+
+            Measurement measurement = null;
+            for(Measurement.Listener listener :
+                    listeners.get(measurementType)) {
+                MessageThrottle throttle = throttles.isEmpty() ? null :
+                        throttles.get(measurementType, listener);
+                if(throttle != null &&
+                        !throttle.shouldDeliver(message, superseded)) {
+                    continue;
+                }
+
+                if(measurement == null) {
+                    measurement = BaseMeasurement.getMeasurementFromMessage(
+                            measurementType, message);
                 }
+                listener.receive(measurement);
             }
         } catch(UnrecognizedMeasurementTypeException e) {
             // The message is not a recognized Measurement, we don't propagate
@@ -0,0 +1,152 @@
+package com.openxc.sinks;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.openxc.messages.EventedSimpleVehicleMessage;
+import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.SubscriptionOptions;
+import com.openxc.messages.VehicleMessage;
+
+/**
+ * Applies one listener's {@link SubscriptionOptions}, keeping track of the
+ * last update delivered for each signal.
+ *
+ * If a signal's timestamp goes backwards the throttle starts over for that
+ * signal, like the first update, instead of skipping updates until the
+ * timestamps catch up with the last one delivered.
+ *
+ * A throttle is only used from a sink's notification thread, so it isn't
+ * thread-safe.
+ */
+class MessageThrottle {
+    private final SubscriptionOptions mOptions;
+    private final Map<MessageKey, Delivered> mDelivered = new HashMap<>();
+
+    private static class Delivered {
+        long mTimestamp;
+        // Numeric values are kept unboxed in mNumericValue
+        boolean mNumeric;
+        double mNumericValue;
+        Object mValue;
+        Object mEvent;
+    }
+
+    MessageThrottle(SubscriptionOptions options) {
+        mOptions = options;
+    }
+
+    SubscriptionOptions getOptions() {
+        return mOptions;
+    }
+
+    boolean isLatestValueWins() {
+        return mOptions.isLatestValueWins();
+    }
+
+    /**
+     * Return true if the message should be delivered to the listener, and if
+     * so remember it as the last update of its signal.
+     *
+     * @param superseded true if a newer message with the same key is waiting
+     *      to be delivered.
+     */
+    boolean shouldDeliver(VehicleMessage message, boolean superseded) {
+        return !(superseded && mOptions.isLatestValueWins()) &&
+                shouldDeliver(message);
+    }
+
+    /**
+     * Return true if the message should be delivered to the listener, and if
+     * so remember it as the last update of its signal.
+     */
+    boolean shouldDeliver(VehicleMessage message) {
+        if(!(message instanceof KeyedMessage)) {
+            return true;
+        }
+
+        long timestamp = message.isTimestamped() ? message.getTimestamp()
+                : System.currentTimeMillis();
+        MessageKey key = ((KeyedMessage) message).getKey();
+        Delivered last = mDelivered.get(key);
+        if(last == null) {
+            last = new Delivered();
+            mDelivered.put(key, last);
+        } else if(timestamp >= last.mTimestamp) {
+            if(timestamp - last.mTimestamp <
+                    mOptions.getMinIntervalMillis()) {
+                return false;
+            }
+
+            if(mOptions.isOnChange() && !hasChanged(last, message)) {
+                return false;
+            }
+        }
+
+        last.mTimestamp = timestamp;
+        if(message instanceof SimpleVehicleMessage) {
+            SimpleVehicleMessage simpleMessage = (SimpleVehicleMessage) message;
+            last.mNumeric = simpleMessage.isNumeric();
+            if(last.mNumeric) {
+                last.mNumericValue = simpleMessage.getNumericValue();
+                last.mValue = null;
+            } else {
+                last.mValue = simpleMessage.getValue();
+            }
+        }
+        if(message instanceof EventedSimpleVehicleMessage) {
+            last.mEvent = ((EventedSimpleVehicleMessage) message).getEvent();
+        }
+        return true;
+    }
+
+    private boolean hasChanged(Delivered last, VehicleMessage message) {
+        if(!(message instanceof SimpleVehicleMessage)) {
+            return true;
+        }
+
+        if(message instanceof EventedSimpleVehicleMessage && !Objects.equal(
+                    last.mEvent,
+                    ((EventedSimpleVehicleMessage) message).getEvent())) {
+            return true;
+        }
+
+        SimpleVehicleMessage simpleMessage = (SimpleVehicleMessage) message;
+        if(simpleMessage.isNumeric()) {
+            if(!last.mNumeric) {
+                return true;
+            }
+            double change = Math.abs(simpleMessage.getNumericValue() -
+                    last.mNumericValue);
+            return change > mOptions.getDeadband();
+        }
+        return last.mNumeric ||
+                !Objects.equal(last.mValue, simpleMessage.getValue());
+    }
+
+    /**
+     * Mark the messages in a batch that have a newer message with the same
+     * key later in the batch.
+     *
+     * @param seenKeys an empty set to use while scanning, left empty again.
+     * @param superseded set to the indexes of the superseded messages.
+     */
+    static void findSuperseded(List<VehicleMessage> messages,
+            Set<MessageKey> seenKeys, BitSet superseded) {
+        superseded.clear();
+        for(int i = messages.size() - 1; i >= 0; i--) {
+            VehicleMessage message = messages.get(i);
+            if(message instanceof KeyedMessage &&
+                    !seenKeys.add(((KeyedMessage) message).getKey())) {
+                superseded.set(i);
+            }
+        }
+        seenKeys.clear();
+    }
+}
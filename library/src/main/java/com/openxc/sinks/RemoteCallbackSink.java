@@ -1,12 +1,31 @@
 package com.openxc.sinks;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.os.IBinder;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
 import android.util.Log;
 
 import com.google.common.base.MoreObjects;
+import com.openxc.messages.KeyedMessage;
+import com.openxc.messages.MessageFilter;
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.SubscriptionOptions;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.VehicleMessageBatch;
 import com.openxc.remote.VehicleServiceListener;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+import com.openxc.util.LatencyHistogram;
+import com.openxc.util.MetricsRegistry;
 
 /**
  * A data sink that sends new messages through an AIDL interface.
@@ -14,19 +33,168 @@ import com.openxc.remote.VehicleServiceListener;
  * This sink is used to send all new messages over an AIDL interface in
  * Android to applications using {@link com.openxc.VehicleManager}. Once
  * registered, a receiver gets all messages regardless of their type or
- * value.
+ * value, unless it sets a {@link MessageFilter} - then it only gets the
+ * messages that match. If the filter has {@link SubscriptionOptions} for a
+ * signal, updates the receiver doesn't need are skipped before they are
+ * parceled.
+ *
+ * Receivers registered for batches get every message taken from the queue
+ * together in a single {@link VehicleServiceListener#receiveBatch(VehicleMessageBatch)}
+ * call, which saves a Binder transaction per message. Others get one
+ * {@link VehicleServiceListener#receive(VehicleMessage)} call per message.
+ *
+ * The time from reading each message to delivering it to every receiver is
+ * recorded in the "latency.remote_delivery" histogram of the
+ * {@link MetricsRegistry}.
  */
 public class RemoteCallbackSink extends AbstractQueuedCallbackSink {
     private final static String TAG = "RemoteCallbackSink";
+    // While any receiver takes batches, wait this long after the first
+    // message for others to arrive, so at high data rates each Binder call
+    // carries many messages.
+    private final static long BATCH_WINDOW_MS = 5;
 
     private int mListenerCount;
+    private volatile boolean mHasBatchListeners = false;
+    private final Map<IBinder, ListenerState> mListenerStates =
+            new ConcurrentHashMap<>();
+    private final List<VehicleMessage> mFilteredMessages = new ArrayList<>();
+    private final Set<MessageKey> mSeenKeys = new HashSet<>();
+    private final BitSet mSuperseded = new BitSet();
+    private final LatencyHistogram mLatency =
+            MetricsRegistry.getDefault().histogram("latency.remote_delivery");
     private final RemoteCallbackList<VehicleServiceListener> mListeners =
-            new RemoteCallbackList<>();
+            new RemoteCallbackList<VehicleServiceListener>() {
+        @Override
+        public void onCallbackDied(VehicleServiceListener listener,
+                Object cookie) {
+            mListenerStates.remove(listener.asBinder());
+        }
+    };
+
+    /**
+     * How to deliver messages to one receiver. This is the receiver's cookie
+     * in the callback list.
+     */
+    private static class ListenerState {
+        final boolean mBatches;
+        volatile Subscription mSubscription;
+
+        ListenerState(boolean batches) {
+            mBatches = batches;
+        }
+    }
+
+    /**
+     * A receiver's filter and the state of its subscription options, which is
+     * only used from the notification thread.
+     *
+     * When a receiver's filter changes, the throttles of the signals whose
+     * options didn't change are carried over from the previous subscription,
+     * so those signals aren't sent early just because another signal was
+     * added or removed.
+     */
+    private static class Subscription {
+        final MessageFilter mFilter;
+        final boolean mLatestValueWins;
+        private final Map<MessageKey, MessageThrottle> mThrottles =
+                new HashMap<>();
+        private Subscription mPrevious;
+        private boolean mActive;
+
+        /**
+         * @param previous the receiver's subscription before this one, or
+         *      null. Its throttles are only read once this one is first used
+         *      on the notification thread.
+         */
+        Subscription(MessageFilter filter, Subscription previous) {
+            mFilter = filter;
+            mPrevious = previous;
+            boolean latestValueWins = false;
+            for(SubscriptionOptions options : filter.getOptions().values()) {
+                latestValueWins |= options.isLatestValueWins();
+            }
+            mLatestValueWins = latestValueWins;
+        }
+
+        /**
+         * @return the throttle for a message that matches the filter, or
+         *      null if it should always be sent.
+         */
+        MessageThrottle getThrottle(VehicleMessage message) {
+            if(!mActive) {
+                inheritThrottles();
+            }
+
+            SubscriptionOptions options = mFilter.getOptions(message);
+            if(options == null) {
+                return null;
+            }
+
+            MessageKey key = ((KeyedMessage) message).getKey();
+            MessageThrottle throttle = mThrottles.get(key);
+            if(throttle == null) {
+                throttle = new MessageThrottle(options);
+                mThrottles.put(key, throttle);
+            }
+            return throttle;
+        }
+
+        private void inheritThrottles() {
+            // Subscriptions replaced before any message was sent with them
+            // have no throttles of their own
+            Subscription previous = mPrevious;
+            while(previous != null && !previous.mActive) {
+                previous = previous.mPrevious;
+            }
+
+            if(previous != null) {
+                Map<MessageKey, SubscriptionOptions> options =
+                        mFilter.getOptions();
+                for(Map.Entry<MessageKey, MessageThrottle> entry :
+                        previous.mThrottles.entrySet()) {
+                    MessageThrottle throttle = entry.getValue();
+                    if(throttle.getOptions().equals(
+                                options.get(entry.getKey()))) {
+                        mThrottles.put(entry.getKey(), throttle);
+                    }
+                }
+            }
+            mPrevious = null;
+            mActive = true;
+        }
+    }
+
+    public RemoteCallbackSink() {
+        super();
+    }
+
+    public RemoteCallbackSink(int queueCapacity,
+            OverflowPolicy overflowPolicy) {
+        super(queueCapacity, overflowPolicy);
+    }
 
     public synchronized void register(VehicleServiceListener listener) {
+        register(listener, false);
+    }
+
+    /**
+     * Register a receiver for all new messages.
+     *
+     * @param batches true if the receiver should get messages with
+     *      {@link VehicleServiceListener#receiveBatch(VehicleMessageBatch)}. Only older
+     *      receivers that don't implement it should pass false.
+     */
+    public synchronized void register(VehicleServiceListener listener,
+            boolean batches) {
         synchronized(mListeners) {
-            if(mListeners.register(listener)) {
+            ListenerState state = new ListenerState(batches);
+            if(mListeners.register(listener, state)) {
+                mListenerStates.put(listener.asBinder(), state);
                 ++mListenerCount;
+                if(batches) {
+                    mHasBatchListeners = true;
+                }
             }
         }
     }
@@ -36,7 +204,26 @@ public class RemoteCallbackSink extends AbstractQueuedCallbackSink {
             if(mListeners.unregister(listener)) {
                 --mListenerCount;
             }
+            mListenerStates.remove(listener.asBinder());
+        }
+    }
+
+    /**
+     * Only send a registered receiver the messages that match a filter.
+     *
+     * @param filter the messages to send the receiver, or null to send it
+     *      every message.
+     * @return false if the receiver isn't registered.
+     */
+    public boolean setFilter(VehicleServiceListener listener,
+            MessageFilter filter) {
+        ListenerState state = mListenerStates.get(listener.asBinder());
+        if(state == null) {
+            return false;
         }
+        state.mSubscription = filter != null ?
+                new Subscription(filter, state.mSubscription) : null;
+        return true;
     }
 
     public int getListenerCount() {
@@ -47,23 +234,84 @@ public class RemoteCallbackSink extends AbstractQueuedCallbackSink {
     public String toString() {
         return MoreObjects.toStringHelper(this)
             .add("numListeners", getListenerCount())
+            .add("queueDepth", getQueueDepth())
+            .add("droppedMessages", getDroppedCount())
             .toString();
     }
 
     @Override
     protected void propagateMessage(VehicleMessage message) {
+        propagateMessages(Collections.singletonList(message));
+    }
+
+    @Override
+    protected void propagateMessages(List<VehicleMessage> messages) {
         synchronized(mListeners) {
+            boolean hasBatchListeners = false;
+            boolean foundSuperseded = false;
             int i = mListeners.beginBroadcast();
             while(i > 0) {
                 i--;
+                VehicleServiceListener listener = mListeners.getBroadcastItem(i);
+                ListenerState state =
+                        (ListenerState) mListeners.getBroadcastCookie(i);
+                boolean batches = state != null && state.mBatches;
+                hasBatchListeners |= batches;
+
+                List<VehicleMessage> selected = messages;
+                Subscription subscription =
+                        state != null ? state.mSubscription : null;
+                if(subscription != null) {
+                    if(subscription.mLatestValueWins && !foundSuperseded) {
+                        MessageThrottle.findSuperseded(messages, mSeenKeys,
+                                mSuperseded);
+                        foundSuperseded = true;
+                    }
+
+                    selected = mFilteredMessages;
+                    selected.clear();
+                    for(int j = 0; j < messages.size(); j++) {
+                        VehicleMessage message = messages.get(j);
+                        if(!subscription.mFilter.matches(message)) {
+                            continue;
+                        }
+
+                        MessageThrottle throttle =
+                                subscription.getThrottle(message);
+                        if(throttle == null || throttle.shouldDeliver(message,
+                                    foundSuperseded && mSuperseded.get(j))) {
+                            selected.add(message);
+                        }
+                    }
+                }
+
+                if(selected.isEmpty()) {
+                    continue;
+                }
+
                 try {
-                    mListeners.getBroadcastItem(i).receive(message);
+                    if(batches) {
+                        listener.receiveBatch(
+                                new VehicleMessageBatch(selected));
+                    } else {
+                        for(VehicleMessage message : selected) {
+                            listener.receive(message);
+                        }
+                    }
                 } catch(RemoteException e) {
                     Log.w(TAG, "Couldn't notify application " +
                             "listener -- did it crash?", e);
                 }
             }
             mListeners.finishBroadcast();
+            mFilteredMessages.clear();
+            mHasBatchListeners = hasBatchListeners;
         }
+        recordLatency(mLatency, messages);
+    }
+
+    @Override
+    protected long getBatchWindowMillis() {
+        return mHasBatchListeners ? BATCH_WINDOW_MS : 0;
     }
 }
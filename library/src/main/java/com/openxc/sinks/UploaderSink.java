@@ -1,23 +1,37 @@
 package com.openxc.sinks;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
@@ -25,9 +39,11 @@ import org.apache.http.params.HttpParams;
 import android.content.Context;
 import android.util.Log;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.MoreObjects;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.messages.formatters.JsonFormatter;
+import com.openxc.util.SegmentedFileQueue;
 
 /**
  * Upload a stream of all incoming vehicle data to a remote HTTP server.
@@ -38,32 +54,86 @@ import com.openxc.messages.formatters.JsonFormatter;
  *      [{"name": "steering_wheel_angle", "value": 42},
  *          {"name": "parking_brake_status", "value": false}]
  *
- * The UploaderSink has a small buffer to preserve records across short network
- * outages, but do not expect it to be especially reliable. No guarantee is
- * provided about the preservation of records - to do that, a subclass would
- * need to write the data to a file when no network connection is available.
+ * Request bodies are compressed with gzip and sent with a
+ * "Content-Encoding: gzip" header. If the server responds with 415
+ * (Unsupported Media Type), the uploader switches to uncompressed bodies.
+ *
+ * Records are serialized to JSON as they arrive and queued on disk in a
+ * {@link SegmentedFileQueue}, so they are kept through network outages and
+ * restarts of the app. They are only removed from the queue once the server
+ * has accepted them. If the queue grows past {@link #MAXIMUM_QUEUE_SIZE}
+ * bytes, the oldest records are discarded.
+ *
+ * Up to {@link #MAXIMUM_IN_FLIGHT_REQUESTS} batches are uploaded at once over
+ * reused keep-alive connections. The size of a batch adapts to the measured
+ * upload throughput, so that each request takes a couple of seconds. Failed
+ * uploads are retried with exponential backoff and random jitter. If the
+ * server says a request is too large, the batch is sent again in smaller
+ * pieces and later batches are kept below that size.
  */
 public class UploaderSink extends ContextualVehicleDataSink {
     private final static String TAG = "UploaderSink";
     private final static int UPLOAD_BATCH_SIZE = 25;
-    private final static int MAXIMUM_QUEUED_RECORDS = 5000;
+    public final static int MAXIMUM_IN_FLIGHT_REQUESTS = 3;
+    private final static int MAXIMUM_BATCH_RECORDS = 10000;
+    private final static int MINIMUM_BATCH_BYTES = 16 * 1024;
+    private final static int INITIAL_BATCH_BYTES = 64 * 1024;
+    private final static int MAXIMUM_BATCH_BYTES = 2 * 1024 * 1024;
+    private final static long TARGET_REQUEST_MILLIS = 2000;
+    public final static long MAXIMUM_QUEUE_SIZE = 64 * 1024 * 1024;
+    private final static String QUEUE_DIRECTORY = "uploader";
     private final static int HTTP_TIMEOUT = 5000;
+    private final static int SOCKET_TIMEOUT = 30000;
+    private final static long INITIAL_RETRY_DELAY = 1000;
+    private final static long MAXIMUM_RETRY_DELAY = 60000;
 
     private URI mUri;
-    private BlockingQueue<VehicleMessage> mRecordQueue =
-            new LinkedBlockingQueue<>(MAXIMUM_QUEUED_RECORDS);
+    private SegmentedFileQueue mRecordQueue;
     private Lock mQueueLock = new ReentrantLock();
     private Condition mRecordsQueued = mQueueLock.newCondition();
-    private UploaderThread mUploader = new UploaderThread();
+    // Batches being uploaded, in the order they were read from the queue
+    private final Deque<Upload> mInFlight = new ArrayDeque<>();
+    private Lock mInFlightLock = new ReentrantLock();
+    private Condition mUploadFinished = mInFlightLock.newCondition();
+    private final HttpClient mClient;
+    private final ExecutorService mRequestExecutor =
+            Executors.newFixedThreadPool(MAXIMUM_IN_FLIGHT_REQUESTS);
+    private final Random mRandom = new Random();
+    private volatile int mBatchBytes = INITIAL_BATCH_BYTES;
+    private volatile int mMaximumBatchBytes = MAXIMUM_BATCH_BYTES;
+    private volatile boolean mCompress = true;
+    private volatile boolean mRunning = true;
+    private UploaderThread mUploader;
 
     /**
-     * Initialize and start a new UploaderSink immediately.
+     * Initialize and start a new UploaderSink immediately, queueing records in
+     * the app's private files directory.
      *
      * @param uri the URI to send HTTP POST requests to with the JSON data.
+     * @throws DataSinkException if the queue couldn't be opened.
      */
-    public UploaderSink(Context context, URI uri) {
+    public UploaderSink(Context context, URI uri) throws DataSinkException {
+        this(context, uri, new File(context.getFilesDir(), QUEUE_DIRECTORY));
+    }
+
+    /**
+     * @param queueDirectory where to keep records that haven't been uploaded.
+     *      Anything left there by an earlier uploader is uploaded first.
+     * @throws DataSinkException if the queue couldn't be opened.
+     */
+    public UploaderSink(Context context, URI uri, File queueDirectory)
+            throws DataSinkException {
         super(context);
         mUri = uri;
+        try {
+            mRecordQueue = new SegmentedFileQueue(queueDirectory,
+                    SegmentedFileQueue.DEFAULT_SEGMENT_SIZE,
+                    MAXIMUM_QUEUE_SIZE);
+        } catch(IOException e) {
+            throw new UploaderException("Unable to open the upload queue", e);
+        }
+        mClient = createClient();
+        mUploader = new UploaderThread();
     }
 
     public UploaderSink(Context context, String path) throws DataSinkException {
@@ -72,12 +142,32 @@ public class UploaderSink extends ContextualVehicleDataSink {
 
     @Override
     public void stop() {
-        mUploader.done();
+        mRunning = false;
+        mUploader.interrupt();
+        mRequestExecutor.shutdownNow();
+        try {
+            mUploader.join(HTTP_TIMEOUT);
+            mRequestExecutor.awaitTermination(HTTP_TIMEOUT,
+                    TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) { }
+        mClient.getConnectionManager().shutdown();
+
+        try {
+            mRecordQueue.close();
+        } catch(IOException e) {
+            Log.w(TAG, "Unable to close the upload queue", e);
+        }
     }
 
     @Override
-    public void receive(VehicleMessage message) {
-        mRecordQueue.offer(message);
+    public void receive(VehicleMessage message) throws DataSinkException {
+        try {
+            mRecordQueue.append(JsonFormatter.serialize(message).getBytes(
+                        Charsets.UTF_8));
+        } catch(IOException e) {
+            throw new UploaderException("Unable to queue record", e);
+        }
+
         if(mRecordQueue.size() >= UPLOAD_BATCH_SIZE) {
             try {
                 mQueueLock.lock();
@@ -88,6 +178,14 @@ public class UploaderSink extends ContextualVehicleDataSink {
         }
     }
 
+    /**
+     * @return the current target size of a batch in bytes of uncompressed
+     *      JSON, adapted to the upload throughput.
+     */
+    public int getBatchBytes() {
+        return mBatchBytes;
+    }
+
     /**
      * Returns true if the path is not null and if it is a valid URI.
      *
@@ -114,6 +212,8 @@ public class UploaderSink extends ContextualVehicleDataSink {
         return MoreObjects.toStringHelper(this)
             .add("uri", mUri)
             .add("queuedRecords", mRecordQueue.size())
+            .add("batchBytes", mBatchBytes)
+            .add("compress", mCompress)
             .toString();
     }
 
@@ -126,6 +226,29 @@ public class UploaderSink extends ContextualVehicleDataSink {
         }
     }
 
+    /**
+     * Create a client that keeps a connection open for each request that can
+     * be in flight, and reuses them.
+     */
+    private static HttpClient createClient() {
+        HttpParams parameters = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(parameters, HTTP_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(parameters, SOCKET_TIMEOUT);
+        ConnManagerParams.setMaxTotalConnections(parameters,
+                MAXIMUM_IN_FLIGHT_REQUESTS);
+        ConnManagerParams.setMaxConnectionsPerRoute(parameters,
+                new ConnPerRouteBean(MAXIMUM_IN_FLIGHT_REQUESTS));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http",
+                    PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https",
+                    SSLSocketFactory.getSocketFactory(), 443));
+        return new DefaultHttpClient(
+                new ThreadSafeClientConnManager(parameters, registry),
+                parameters);
+    }
+
     private static class UploaderException extends DataSinkException {
         private static final long serialVersionUID = 7436279598279767619L;
 
@@ -134,11 +257,17 @@ public class UploaderSink extends ContextualVehicleDataSink {
         public UploaderException(String message) {
             super(message);
         }
+
+        public UploaderException(String message, Throwable cause) {
+            super(message, cause);
+        }
     }
 
+    /**
+     * Reads batches from the queue and hands them to the request threads,
+     * keeping up to {@link #MAXIMUM_IN_FLIGHT_REQUESTS} in flight.
+     */
     private class UploaderThread extends Thread {
-        private boolean mRunning = true;
-
         public UploaderThread() {
             start();
         }
@@ -147,77 +276,279 @@ public class UploaderSink extends ContextualVehicleDataSink {
         public void run() {
             while(mRunning) {
                 try {
-                    ArrayList<VehicleMessage> records = getRecords();
-                    String data = JsonFormatter.serialize(records);
-                    HttpPost request = constructRequest(data);
-                    makeRequest(request);
-                } catch(UploaderException e) {
-                    Log.w(TAG, "Problem uploading the record", e);
+                    Upload previous = waitForRequestSlot();
+                    SegmentedFileQueue.Batch batch = mRecordQueue.peek(
+                            previous != null ? previous.mBatch : null,
+                            MAXIMUM_BATCH_RECORDS, mBatchBytes);
+                    if(batch.isEmpty()) {
+                        waitForRecords();
+                        continue;
+                    }
+
+                    Upload upload = new Upload(batch);
+                    try {
+                        mInFlightLock.lock();
+                        mInFlight.addLast(upload);
+                    } finally {
+                        mInFlightLock.unlock();
+                    }
+                    mRequestExecutor.execute(upload);
+                } catch(IOException e) {
+                    if(mRunning) {
+                        Log.w(TAG, "Unable to read from the upload queue", e);
+                    }
+                    break;
                 } catch(InterruptedException e) {
-                    Log.w(TAG, "Uploader was interrupted", e);
+                    if(mRunning) {
+                        Log.w(TAG, "Uploader was interrupted", e);
+                    }
+                    break;
+                } catch(RejectedExecutionException e) {
+                    // Stopped while handing off a batch
                     break;
                 }
             }
         }
 
-        public void done() {
-            mRunning = false;
+        /**
+         * @return the last batch in flight, which the next batch follows, or
+         *      null if there isn't one.
+         */
+        private Upload waitForRequestSlot() throws InterruptedException {
+            try {
+                mInFlightLock.lock();
+                while(mInFlight.size() >= MAXIMUM_IN_FLIGHT_REQUESTS) {
+                    mUploadFinished.await();
+                }
+                return mInFlight.peekLast();
+            } finally {
+                mInFlightLock.unlock();
+            }
         }
 
-        private HttpPost constructRequest(String data)
-                throws UploaderException {
-            HttpPost request = new HttpPost(mUri);
+        private void waitForRecords() throws InterruptedException {
             try {
-                ByteArrayEntity entity = new ByteArrayEntity(
-                        data.getBytes("UTF8"));
-                entity.setContentEncoding(
-                        new BasicHeader("Content-Type", "application/json"));
-                request.setEntity(entity);
-            } catch(UnsupportedEncodingException e) {
-                Log.w(TAG, "Couldn't encode records for uploading", e);
-                throw new UploaderException();
+                mQueueLock.lock();
+                // the queue is already thread safe, but we use this lock to get
+                // a condition variable we can use to signal when a batch has
+                // been queued.
+                mRecordsQueued.await(5, TimeUnit.SECONDS);
+            } finally {
+                mQueueLock.unlock();
             }
-            return request;
         }
+    }
 
-        private void makeRequest(HttpPost request) throws InterruptedException {
-            HttpParams parameters = new BasicHttpParams();
-            HttpConnectionParams.setConnectionTimeout(parameters, HTTP_TIMEOUT);
-            HttpConnectionParams.setSoTimeout(parameters, HTTP_TIMEOUT);
-            final HttpClient client = new DefaultHttpClient(parameters);
-            try {
-                HttpResponse response = client.execute(request);
-                final int statusCode = response.getStatusLine().getStatusCode();
-                if(statusCode != HttpStatus.SC_CREATED) {
-                    Log.w(TAG, "Got unexpected status code: " + statusCode);
+    /**
+     * Uploads one batch, retrying until it succeeds or the sink is stopped.
+     *
+     * The batch is sent in one request unless the server rejects it as too
+     * large, in which case it's split into smaller requests. The batch is
+     * only acknowledged once every one of them is finished.
+     */
+    private class Upload implements Runnable {
+        private final SegmentedFileQueue.Batch mBatch;
+        private boolean mFinished = false;
+
+        Upload(SegmentedFileQueue.Batch batch) {
+            mBatch = batch;
+        }
+
+        @Override
+        public void run() {
+            List<byte[]> records = mBatch.getRecords();
+            int sent = 0;
+            int pieceBytes = Integer.MAX_VALUE;
+            long retryDelay = INITIAL_RETRY_DELAY;
+            while(mRunning) {
+                int end = sent;
+                int bytes = 0;
+                while(end < records.size() && (end == sent ||
+                            bytes + records.get(end).length <= pieceBytes)) {
+                    bytes += records.get(end).length;
+                    end++;
                 }
-            } catch(IOException e) {
-                Log.w(TAG, "Problem uploading the record", e);
+
+                boolean compressed = mCompress;
+                long started = System.nanoTime();
+                int status = makeRequest(constructRequest(
+                            records.subList(sent, end), bytes, compressed));
+                if(status == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE &&
+                        compressed) {
+                    Log.w(TAG, "Server doesn't accept compressed uploads, " +
+                            "sending them uncompressed");
+                    mCompress = false;
+                    continue;
+                }
+
+                if(status == HttpStatus.SC_REQUEST_TOO_LONG) {
+                    if(end - sent > 1) {
+                        Log.w(TAG, "Server rejected " + bytes + " bytes of " +
+                                "records as too large, sending smaller " +
+                                "batches");
+                        pieceBytes = bytes / 2;
+                        limitBatchSize(pieceBytes);
+                        continue;
+                    }
+                    Log.w(TAG, "Server rejected a single record of " + bytes +
+                            " bytes as too large, discarding it");
+                    status = HttpStatus.SC_BAD_REQUEST;
+                }
+
+                if(isFinished(status)) {
+                    adaptBatchSize(bytes, System.nanoTime() - started);
+                    sent = end;
+                    if(sent >= records.size()) {
+                        finished(this);
+                        return;
+                    }
+                    retryDelay = INITIAL_RETRY_DELAY;
+                    continue;
+                }
+
                 try {
-                    Thread.sleep(5000);
-                } catch(InterruptedException e2) {
-                    Log.w(TAG, "Uploader interrupted after an error", e2);
-                    throw e2;
+                    Thread.sleep(jitter(retryDelay));
+                } catch(InterruptedException e) {
+                    return;
                 }
+                retryDelay = Math.min(retryDelay * 2, MAXIMUM_RETRY_DELAY);
             }
         }
+    }
 
-        private ArrayList<VehicleMessage> getRecords() throws InterruptedException {
-            try {
-                mQueueLock.lock();
-                while(mRecordQueue.isEmpty()) {
-                    // the queue is already thread safe, but we use this lock to get
-                    // a condition variable we can use to signal when a batch has
-                    // been queued.
-                    mRecordsQueued.await(5, TimeUnit.SECONDS);
+    /**
+     * Build a JSON array from records that are already serialized.
+     */
+    private HttpPost constructRequest(List<byte[]> records, int bytes,
+            boolean compressed) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(
+                compressed ? bytes / 4 : bytes + records.size() + 1);
+        try {
+            OutputStream output = compressed ? new GZIPOutputStream(data)
+                    : data;
+            output.write('[');
+            for(int i = 0; i < records.size(); i++) {
+                if(i > 0) {
+                    output.write(',');
                 }
+                output.write(records.get(i));
+            }
+            output.write(']');
+            output.close();
+        } catch(IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
 
-                ArrayList<VehicleMessage> records = new ArrayList<>();
-                mRecordQueue.drainTo(records, UPLOAD_BATCH_SIZE);
-                return records;
-            } finally {
-                mQueueLock.unlock();
+        HttpPost request = new HttpPost(mUri);
+        ByteArrayEntity entity = new ByteArrayEntity(data.toByteArray());
+        entity.setContentType("application/json");
+        if(compressed) {
+            entity.setContentEncoding("gzip");
+        }
+        request.setEntity(entity);
+        return request;
+    }
+
+    /**
+     * @return the response status code, or -1 if the request failed.
+     */
+    private int makeRequest(HttpPost request) {
+        try {
+            HttpResponse response = mClient.execute(request);
+            HttpEntity entity = response.getEntity();
+            if(entity != null) {
+                // Read the whole response so the connection can be reused
+                entity.consumeContent();
+            }
+            return response.getStatusLine().getStatusCode();
+        } catch(IOException e) {
+            if(mRunning) {
+                Log.w(TAG, "Problem uploading the record", e);
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * @return true if the records can be removed from the queue - they were
+     *      accepted, or the server rejected the records themselves so
+     *      retrying won't help. Any other error, e.g. a missing endpoint or
+     *      expired credentials, may be fixed later so the records are kept.
+     */
+    private static boolean isFinished(int status) {
+        if(status >= 200 && status < 300) {
+            if(status != HttpStatus.SC_CREATED) {
+                Log.w(TAG, "Got unexpected status code: " + status);
+            }
+            return true;
+        } else if(status == HttpStatus.SC_BAD_REQUEST ||
+                status == HttpStatus.SC_UNPROCESSABLE_ENTITY) {
+            Log.w(TAG, "Server rejected the records with status " + status +
+                    ", discarding them");
+            return true;
+        } else if(status != -1) {
+            Log.w(TAG, "Got status code " + status + ", will retry the upload");
+        }
+        return false;
+    }
+
+    /**
+     * @return a random delay between half and all of the backoff delay, so
+     *      uploaders that failed together don't all retry together.
+     */
+    private long jitter(long delay) {
+        synchronized(mRandom) {
+            return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+        }
+    }
+
+    /**
+     * Move the batch size towards what can be uploaded in the target request
+     * time at the throughput of the last request.
+     */
+    private void adaptBatchSize(int bytes, long elapsedNanos) {
+        if(bytes < mBatchBytes / 2 || elapsedNanos <= 0) {
+            // Small batches are mostly latency, not throughput
+            return;
+        }
+
+        double bytesPerMilli = bytes / (elapsedNanos / 1e6);
+        long target = (long) (bytesPerMilli * TARGET_REQUEST_MILLIS);
+        long adapted = (mBatchBytes + target) / 2;
+        mBatchBytes = (int) Math.max(MINIMUM_BATCH_BYTES,
+                Math.min(mMaximumBatchBytes, adapted));
+    }
+
+    /**
+     * Keep batches below a size the server rejected as too large from now on.
+     */
+    private void limitBatchSize(int bytes) {
+        mMaximumBatchBytes = Math.max(MINIMUM_BATCH_BYTES,
+                Math.min(mMaximumBatchBytes, bytes));
+        mBatchBytes = Math.min(mBatchBytes, mMaximumBatchBytes);
+    }
+
+    /**
+     * Acknowledge every finished batch at the front of the in-flight list, so
+     * the queue is only advanced past batches that were all uploaded.
+     */
+    private void finished(Upload upload) {
+        try {
+            mInFlightLock.lock();
+            upload.mFinished = true;
+            while(!mInFlight.isEmpty() && mInFlight.peekFirst().mFinished) {
+                try {
+                    mRecordQueue.acknowledge(mInFlight.peekFirst().mBatch);
+                } catch(IOException e) {
+                    Log.w(TAG, "Unable to remove uploaded records from the " +
+                            "queue", e);
+                }
+                mInFlight.removeFirst();
             }
+            mUploadFinished.signalAll();
+        } finally {
+            mInFlightLock.unlock();
         }
     }
 }
@@ -1,10 +1,12 @@
 package com.openxc.sources;
 
+import java.util.List;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.openxc.messages.VehicleMessage;
+import com.openxc.util.MetricsRegistry;
 
 /**
  * A common parent for all vehicle data sources.
@@ -20,6 +22,10 @@ public abstract class BaseVehicleDataSource implements VehicleDataSource {
     private SourceCallback mCallback;
     private final Lock mCallbackLock = new ReentrantLock();
     private final Condition mCallbackChanged = mCallbackLock.newCondition();
+    private final String mMetricsPrefix =
+            MetricsRegistry.getInstanceName("source", this);
+    private final MetricsRegistry.Counter mMessageCounter =
+            MetricsRegistry.getDefault().counter(mMetricsPrefix + ".messages");
 
     public BaseVehicleDataSource() { }
 
@@ -75,6 +81,26 @@ public abstract class BaseVehicleDataSource implements VehicleDataSource {
     public void stop() {
         disconnected();
         setCallback(null);
+        unregisterMetrics();
+    }
+
+    /**
+     * Remove this source's metrics from the registry once it's stopped.
+     *
+     * Subclasses that add their own metrics should remove them here too and
+     * call super.unregisterMetrics().
+     */
+    protected void unregisterMetrics() {
+        MetricsRegistry.getDefault().removeCounter(
+                mMetricsPrefix + ".messages", mMessageCounter);
+    }
+
+    /**
+     * @return the prefix of this source's metric names, e.g.
+     *      "source.UsbVehicleInterface#1".
+     */
+    protected String getMetricsPrefix() {
+        return mMetricsPrefix;
     }
 
     /**
@@ -85,12 +111,39 @@ public abstract class BaseVehicleDataSource implements VehicleDataSource {
     protected void handleMessage(VehicleMessage message) {
         if(message != null) {
             message.timestamp();
+            message.markReceived();
+            mMessageCounter.increment();
             if(mCallback != null) {
                 mCallback.receive(message);
             }
         }
     }
 
+    /**
+     * Pass several new messages to the callback, if set.
+     *
+     * If the callback is a {@link BatchSourceCallback} they are all passed in
+     * one call, otherwise one at a time.
+     *
+     * @param messages the new messages, which the callback must not keep.
+     */
+    protected void handleMessages(List<VehicleMessage> messages) {
+        for(VehicleMessage message : messages) {
+            message.timestamp();
+            message.markReceived();
+        }
+        mMessageCounter.add(messages.size());
+
+        SourceCallback callback = mCallback;
+        if(callback instanceof BatchSourceCallback) {
+            ((BatchSourceCallback) callback).receive(messages);
+        } else if(callback != null) {
+            for(VehicleMessage message : messages) {
+                callback.receive(message);
+            }
+        }
+    }
+
     protected void waitForCallback() {
         try {
             mCallbackLock.lock();
@@ -0,0 +1,25 @@
+package com.openxc.sources;
+
+import java.util.List;
+
+import com.openxc.messages.VehicleMessage;
+
+/**
+ * A SourceCallback that can receive several messages at once.
+ *
+ * Sources that parse many messages from a single read, like the
+ * {@link BytestreamDataSource}, hand them all to callbacks that implement this
+ * interface in one call instead of calling
+ * {@link SourceCallback#receive(VehicleMessage)} for each.
+ */
+public interface BatchSourceCallback extends SourceCallback {
+    /**
+     * Receive new messages from a source, in the order they arrived.
+     *
+     * The list is reused by the source for the next batch, so it must not be
+     * kept after this method returns - only the messages in it.
+     *
+     * @param messages the new messages.
+     */
+    public void receive(List<VehicleMessage> messages);
+}
@@ -1,6 +1,8 @@
 package com.openxc.sources;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Timer;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
@@ -16,14 +18,21 @@ import com.openxc.messages.streamers.BinaryStreamer;
 import com.openxc.messages.streamers.JsonStreamer;
 import com.openxc.messages.streamers.VehicleMessageStreamer;
 import com.openxc.sinks.DataSinkException;
+import com.openxc.util.MetricsRegistry;
 
 /**
  * Common functionality for data sources that read a stream of newline-separated
  * messages in a separate thread from the main activity.
+ *
+ * The reading thread reuses one buffer for every read. It starts at the size
+ * given by {@link #getReadBufferSize()}, which subclasses can override to
+ * match their transport, and grows whenever a read fills it completely. All
+ * messages parsed from one read are passed to the callback together.
  */
 public abstract class BytestreamDataSource extends ContextualVehicleDataSource
         implements Runnable {
-    private final static int READ_BATCH_SIZE = 512;
+    protected final static int DEFAULT_READ_BUFFER_SIZE = 512;
+    private final static int MAX_READ_BUFFER_SIZE = 16384;
     private static final int MAX_FAST_RECONNECTION_ATTEMPTS = 6;
     protected static final int RECONNECTION_ATTEMPT_WAIT_TIME_S = 10;
     protected static final int SLOW_RECONNECTION_ATTEMPT_WAIT_TIME_S = 60;
@@ -36,6 +45,9 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
     private Timer mTimer;
     private BytestreamConnectingTask mConnectionCheckTask;
     private VehicleMessageStreamer mStreamHandler = null;
+    private final MetricsRegistry.Counter mByteCounter =
+            MetricsRegistry.getDefault().counter(
+                    getMetricsPrefix() + ".bytes");
     private boolean mFastPolling = true;
 
     public BytestreamDataSource(SourceCallback callback, Context context) {
@@ -56,6 +68,14 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
             Log.d(getTag(), "Stopping " + getTag() + " source");
             mThread.interrupt();
         }
+        unregisterMetrics();
+    }
+
+    @Override
+    protected void unregisterMetrics() {
+        super.unregisterMetrics();
+        MetricsRegistry.getDefault().removeCounter(
+                getMetricsPrefix() + ".bytes", mByteCounter);
     }
 
     protected void setFastPolling(boolean enabled) {
@@ -122,6 +142,9 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
 
     @Override
     public void run() {
+        byte[] bytes = new byte[Math.max(1, Math.min(getReadBufferSize(),
+                    MAX_READ_BUFFER_SIZE))];
+        List<VehicleMessage> messages = new ArrayList<>();
         while(isRunning()) {
             try {
                 waitForConnection();
@@ -132,7 +155,6 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
             }
 
             int received;
-            byte[] bytes = new byte[READ_BATCH_SIZE];
             try {
                 received = read(bytes);
             } catch(IOException e) {
@@ -148,22 +170,27 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
             }
 
             if(received > 0) {
-                synchronized(this) {
-                    if(mStreamHandler == null) {
-                        if(JsonStreamer.containsJson(new String(bytes))) {
-                            mStreamHandler = new JsonStreamer();
-                            Log.i(getTag(), "Source is sending JSON");
-                        } else {
-                            mStreamHandler = new BinaryStreamer();
-                            Log.i(getTag(), "Source is sending protocol buffers");
-                        }
-                    }
+                mByteCounter.add(received);
+                VehicleMessageStreamer streamer = getStreamHandler(bytes,
+                        received);
+                streamer.receive(bytes, received);
+                VehicleMessage message;
+                while((message = streamer.parseNextMessage()) != null) {
+                    messages.add(message);
                 }
 
-                mStreamHandler.receive(bytes, received);
-                VehicleMessage message;
-                while((message = mStreamHandler.parseNextMessage()) != null) {
-                    handleMessage(message);
+                if(!messages.isEmpty()) {
+                    handleMessages(messages);
+                    messages.clear();
+                }
+
+                // The streamer copies what it needs, so if more data was
+                // waiting than fit in the buffer it's safe to replace it with a
+                // bigger one for the next read.
+                if(received == bytes.length &&
+                        bytes.length < MAX_READ_BUFFER_SIZE) {
+                    bytes = new byte[Math.min(bytes.length * 2,
+                                MAX_READ_BUFFER_SIZE)];
                 }
             }
         }
@@ -171,6 +198,24 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
         Log.d(getTag(), "Stopped " + getTag());
     }
 
+    /**
+     * Return the streamer for the payload format, picking it from the first
+     * bytes received from the source.
+     */
+    private synchronized VehicleMessageStreamer getStreamHandler(byte[] bytes,
+            int length) {
+        if(mStreamHandler == null) {
+            if(JsonStreamer.containsJson(bytes, length)) {
+                mStreamHandler = new JsonStreamer();
+                Log.i(getTag(), "Source is sending JSON");
+            } else {
+                mStreamHandler = new BinaryStreamer();
+                Log.i(getTag(), "Source is sending protocol buffers");
+            }
+        }
+        return mStreamHandler;
+    }
+
     public void receive(VehicleMessage command) throws DataSinkException {
         if(isConnected()) {
             VehicleMessageStreamer streamer;
@@ -242,6 +287,17 @@ public abstract class BytestreamDataSource extends ContextualVehicleDataSource
      */
     protected abstract int read(byte[] bytes) throws IOException;
 
+    /**
+     * Return how many bytes to ask for in the first call to
+     * {@link #read(byte[])}.
+     *
+     * Override this to match the transport - e.g. a multiple of the USB
+     * endpoint's packet size. The buffer still grows if reads fill it.
+     */
+    protected int getReadBufferSize() {
+        return DEFAULT_READ_BUFFER_SIZE;
+    }
+
     protected abstract boolean write(byte[] bytes);
 
     /**
@@ -4,7 +4,11 @@ import android.os.RemoteException;
 import android.util.Log;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.openxc.messages.MessageFilter;
+import com.openxc.messages.MessageKey;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.VehicleMessageBatch;
 import com.openxc.remote.VehicleServiceInterface;
 import com.openxc.remote.VehicleServiceListener;
 
@@ -22,16 +26,23 @@ import com.openxc.remote.VehicleServiceListener;
 public class RemoteListenerSource extends BaseVehicleDataSource {
     private final static String TAG = "RemoteListenerSource";
     private VehicleServiceInterface mService;
+    private MessageFilter mFilter;
+    private boolean mFiltered = false;
 
     /**
      * Registers a message listener with the remote service.
+     *
+     * The listener asks for messages in batches, and falls back to one message
+     * at a time if the service is an older version that doesn't support them.
      */
     public RemoteListenerSource(VehicleServiceInterface service) {
         mService = service;
 
         if(mService != null) {
             try {
-                mService.register(mRemoteListener);
+                if(!mService.registerForBatches(mRemoteListener)) {
+                    mService.register(mRemoteListener);
+                }
             } catch(RemoteException e) {
                 Log.w(TAG, "Unable to register to receive " +
                         "message callbacks", e);
@@ -52,6 +63,45 @@ public class RemoteListenerSource extends BaseVehicleDataSource {
         }
     }
 
+    /**
+     * Ask the remote service to only send messages that match a filter.
+     *
+     * Older services ignore this and keep sending every message.
+     *
+     * @param filter the messages to receive, or null for all of them.
+     */
+    public synchronized void setMessageFilter(MessageFilter filter) {
+        if(mService == null ||
+                (mFiltered && Objects.equal(filter, mFilter))) {
+            return;
+        }
+
+        try {
+            mService.setMessageFilter(mRemoteListener, filter);
+            mFilter = filter;
+            mFiltered = true;
+        } catch(RemoteException e) {
+            Log.w(TAG, "Unable to set message filter", e);
+        }
+    }
+
+    /**
+     * Ask the remote service to keep the recent values of a signal until
+     * they're disabled or this source stops.
+     */
+    public void enableHistory(MessageKey key, int capacity)
+            throws RemoteException {
+        mService.enableHistory(mRemoteListener, key, capacity);
+    }
+
+    /**
+     * Tell the remote service this source no longer needs the recent values
+     * of a signal.
+     */
+    public void disableHistory(MessageKey key) throws RemoteException {
+        mService.disableHistory(mRemoteListener, key);
+    }
+
     @Override
     public boolean isConnected() {
         return false;
@@ -68,5 +118,10 @@ public class RemoteListenerSource extends BaseVehicleDataSource {
             public void receive(VehicleMessage message) {
                 handleMessage(message);
             }
+
+            @Override
+            public void receiveBatch(VehicleMessageBatch batch) {
+                handleMessages(batch.getMessages());
+            }
         };
 }
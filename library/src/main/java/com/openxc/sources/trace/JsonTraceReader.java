@@ -0,0 +1,102 @@
+package com.openxc.sources.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.util.Log;
+
+import com.google.common.base.Charsets;
+import com.openxc.messages.UnrecognizedMessageTypeException;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.JsonFormatter;
+
+/**
+ * Reads a trace with one JSON message per line, skipping lines that aren't
+ * valid messages.
+ *
+ * Lines are read either from a stream or straight from a memory-mapped file.
+ */
+class JsonTraceReader implements TraceReader {
+    private static final String TAG = "JsonTraceReader";
+
+    private final BufferedReader mReader;
+    private final ByteBuffer mBuffer;
+    private byte[] mLine = new byte[256];
+
+    JsonTraceReader(BufferedReader reader) {
+        mReader = reader;
+        mBuffer = null;
+    }
+
+    /**
+     * @param buffer the contents of a trace file, read from its position.
+     */
+    JsonTraceReader(ByteBuffer buffer) {
+        mReader = null;
+        mBuffer = buffer;
+    }
+
+    @Override
+    public VehicleMessage next() throws IOException {
+        String line;
+        while((line = readLine()) != null) {
+            VehicleMessage message;
+            try {
+                message = JsonFormatter.deserialize(line);
+            } catch(UnrecognizedMessageTypeException e) {
+                Log.w(TAG, "A trace line was not in the expected " +
+                        "format: " + line);
+                continue;
+            }
+
+            if(message == null) {
+                continue;
+            }
+
+            if(!message.isTimestamped()) {
+                Log.w(TAG, "A trace line was missing a timestamp: " + line);
+                continue;
+            }
+            return message;
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(mReader != null) {
+            mReader.close();
+        }
+    }
+
+    private String readLine() throws IOException {
+        if(mReader != null) {
+            return mReader.readLine();
+        }
+
+        if(!mBuffer.hasRemaining()) {
+            return null;
+        }
+
+        int length = 0;
+        while(mBuffer.hasRemaining()) {
+            byte next = mBuffer.get();
+            if(next == '\n') {
+                break;
+            }
+
+            if(length == mLine.length) {
+                byte[] longer = new byte[mLine.length * 2];
+                System.arraycopy(mLine, 0, longer, 0, length);
+                mLine = longer;
+            }
+            mLine[length++] = next;
+        }
+
+        if(length > 0 && mLine[length - 1] == '\r') {
+            length--;
+        }
+        return new String(mLine, 0, length, Charsets.UTF_8);
+    }
+}
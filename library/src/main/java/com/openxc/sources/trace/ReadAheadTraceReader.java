@@ -0,0 +1,116 @@
+package com.openxc.sources.trace;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.openxc.messages.VehicleMessage;
+import com.openxc.util.BoundedQueue;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+
+/**
+ * Reads and parses a trace on its own thread, ahead of playback.
+ *
+ * Decoded messages wait in a bounded queue, so the playback thread only has
+ * to wait for each message's time and send it - a slow line to parse doesn't
+ * make it late. When the queue is full the parser waits for playback to catch
+ * up.
+ */
+class ReadAheadTraceReader implements TraceReader {
+    private static final String TAG = "ReadAheadTraceReader";
+    static final int DEFAULT_CAPACITY = 1024;
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final TraceReader mReader;
+    private final BoundedQueue<VehicleMessage> mQueue;
+    private final Thread mParserThread;
+    private volatile IOException mError;
+
+    ReadAheadTraceReader(TraceReader reader) {
+        this(reader, DEFAULT_CAPACITY);
+    }
+
+    ReadAheadTraceReader(TraceReader reader, int capacity) {
+        mReader = reader;
+        mQueue = new BoundedQueue<>(capacity, OverflowPolicy.BLOCK);
+        mParserThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parse();
+            }
+        }, "TraceParser");
+        mParserThread.start();
+    }
+
+    /**
+     * @return the next message, waiting for the parser if it hasn't got to
+     *      it yet, or null at the end of the trace.
+     * @throws IOException if the parser couldn't read the trace.
+     */
+    @Override
+    public VehicleMessage next() throws IOException {
+        while(true) {
+            VehicleMessage message = mQueue.poll();
+            if(message != null) {
+                return message;
+            }
+
+            if(mQueue.isClosed()) {
+                // The parser may have queued a last message before closing
+                message = mQueue.poll();
+                if(message != null) {
+                    return message;
+                }
+
+                if(mError != null) {
+                    throw mError;
+                }
+                return null;
+            }
+
+            try {
+                mQueue.awaitNotEmpty(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of parsed messages waiting to be played.
+     */
+    int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Stop the parser and close the trace.
+     */
+    @Override
+    public void close() throws IOException {
+        mQueue.close();
+        mParserThread.interrupt();
+        try {
+            mParserThread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mReader.close();
+    }
+
+    private void parse() {
+        try {
+            VehicleMessage message;
+            while(!mQueue.isClosed() && (message = mReader.next()) != null) {
+                mQueue.offer(message);
+            }
+        } catch(IOException e) {
+            Log.w(TAG, "Unable to read ahead in the trace", e);
+            mError = e;
+        } finally {
+            mQueue.close();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.openxc.sources.trace;
+
+import java.io.IOException;
+
+import com.openxc.messages.VehicleMessage;
+
+/**
+ * Reads the messages in a trace file in order, whatever its format.
+ */
+interface TraceReader {
+    /**
+     * @return the next message in the trace, or null at the end.
+     */
+    VehicleMessage next() throws IOException;
+
+    void close() throws IOException;
+}
@@ -1,22 +1,28 @@
 package com.openxc.sources.trace;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
 import android.content.Context;
 import android.content.res.Resources;
 import android.util.Log;
 
 import com.google.common.base.MoreObjects;
-import com.openxc.messages.UnrecognizedMessageTypeException;
 import com.openxc.messages.VehicleMessage;
-import com.openxc.messages.formatters.JsonFormatter;
+import com.openxc.messages.formatters.binary.BinaryTraceReader;
 import com.openxc.sources.ContextualVehicleDataSource;
 import com.openxc.sources.DataSourceException;
 import com.openxc.sources.SourceCallback;
@@ -32,6 +38,11 @@ import com.openxc.sources.SourceCallback;
  * The trace file format is defined in the OpenXC message format specification:
  * https://github.com/openxc/openxc-message-format
  *
+ * Binary traces written by
+ * {@link com.openxc.messages.formatters.binary.BinaryTraceWriter} (e.g. by
+ * {@link com.openxc.sinks.BinaryTraceRecorderSink}) are also supported - the
+ * format is detected from the start of the file.
+ *
  * The trace file to use is specified via the constructor as an Android-style
  * resource URI, e.g. "resource://42", "file:///storage/traces/trace.json" or a
  * plain file path (e.g. "/sdcard/com.openxc/trace.json" ). When using
@@ -48,6 +59,16 @@ import com.openxc.sources.SourceCallback;
  *
  * The trace file is played back in a continuous loop at roughly the same speed
  * as the original recording (at least according to the timestamps in the file).
+ * Regular files are memory-mapped, and messages are parsed ahead of playback
+ * on a separate thread, so parsing doesn't throw off the timing.
+ *
+ * The playback speed can be changed with {@link #setSpeed(double)}, e.g. to
+ * replay a long trace 10 times faster, or set to {@link #UNTHROTTLED} to send
+ * messages as fast as the pipeline accepts them - useful for load testing sinks
+ * and apps. Playback can also be paused and stepped one message at a time, and
+ * moved to any time in the trace with {@link #seek(long)}. The achieved rate
+ * is available from {@link #getMessagesPerSecond()} and is logged at the end of
+ * each pass through the trace.
  *
  * Playback will not begin until a callback is set, either via a constructor or
  * the
@@ -58,9 +79,26 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
             implements Runnable {
     private static final String TAG = "TraceVehicleDataSource";
 
+    /**
+     * A playback speed that sends messages as fast as possible, ignoring their
+     * timestamps.
+     */
+    public static final double UNTHROTTLED = Double.POSITIVE_INFINITY;
+
+    private final Object mPlaybackLock = new Object();
     private boolean mTraceValid = false;
-    private long mFirstTimestamp = 0;
-    private boolean mRunning = true;
+    private volatile boolean mRunning = true;
+    private double mSpeed = 1;
+    private boolean mPaused = false;
+    private int mPendingSteps = 0;
+    private Long mSeekTimestamp;
+    // Playback is timed relative to a point in wall clock and trace time, which
+    // is moved whenever the speed changes or playback resumes
+    private boolean mRebase = true;
+    private long mWallClockBase;
+    private long mTraceTimeBase;
+    private volatile long mMessageCount;
+    private volatile long mPassStartTime;
     private boolean mLoop = true;
     private URI mFilename;
 
@@ -130,7 +168,118 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
     public void stop() {
         super.stop();
         Log.d(TAG, "Stopping trace playback");
-        mRunning = false;
+        synchronized(mPlaybackLock) {
+            mRunning = false;
+            mPlaybackLock.notifyAll();
+        }
+    }
+
+    /**
+     * Change the playback speed, taking effect immediately.
+     *
+     * @param speed a multiple of the original recording speed, e.g. 2 or 10
+     *      to play back faster than real time, or {@link #UNTHROTTLED}.
+     */
+    public void setSpeed(double speed) {
+        if(!(speed > 0)) {
+            throw new IllegalArgumentException(
+                    "Playback speed must be positive, not " + speed);
+        }
+
+        synchronized(mPlaybackLock) {
+            if(!mRebase && !Double.isInfinite(mSpeed)) {
+                // Continue from the current position in the trace at the new
+                // speed
+                long now = System.currentTimeMillis();
+                mTraceTimeBase += (long) ((now - mWallClockBase) * mSpeed);
+                mWallClockBase = now;
+            } else {
+                mRebase = true;
+            }
+            mSpeed = speed;
+            mPlaybackLock.notifyAll();
+        }
+        Log.d(TAG, "Playback speed set to " + speed);
+    }
+
+    public double getSpeed() {
+        synchronized(mPlaybackLock) {
+            return mSpeed;
+        }
+    }
+
+    /**
+     * Pause playback after the current message. Use {@link #step()} to send
+     * one message at a time while paused.
+     */
+    public void pause() {
+        synchronized(mPlaybackLock) {
+            mPaused = true;
+            mPendingSteps = 0;
+            mPlaybackLock.notifyAll();
+        }
+    }
+
+    /**
+     * Continue playback at the current speed, from the next message.
+     */
+    public void resume() {
+        synchronized(mPlaybackLock) {
+            mPaused = false;
+            mRebase = true;
+            mPlaybackLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized(mPlaybackLock) {
+            return mPaused;
+        }
+    }
+
+    /**
+     * Send the next message immediately while playback is paused.
+     */
+    public void step() {
+        synchronized(mPlaybackLock) {
+            if(mPaused) {
+                mPendingSteps++;
+                mPlaybackLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Move playback to the first message at or after a time in the trace.
+     *
+     * Binary traces with an index jump straight to the right block, other
+     * traces are read from the start and the earlier messages skipped. If
+     * playback is paused it stays paused at the new position.
+     *
+     * @param timestamp a time in the trace, in milliseconds since the epoch.
+     */
+    public void seek(long timestamp) {
+        synchronized(mPlaybackLock) {
+            mSeekTimestamp = timestamp;
+            mPlaybackLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of messages sent during the current pass through the
+     *      trace.
+     */
+    public long getMessageCount() {
+        return mMessageCount;
+    }
+
+    /**
+     * @return the average rate messages have been sent at during the current
+     *      pass through the trace (including any time paused).
+     */
+    public double getMessagesPerSecond() {
+        long elapsed = System.currentTimeMillis() - mPassStartTime;
+        return elapsed > 0 ? mMessageCount * 1000.0 / elapsed : 0;
     }
 
     /**
@@ -145,44 +294,33 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
         while(mRunning) {
             waitForCallback();
             Log.d(TAG, "Starting trace playback from beginning of " + mFilename);
-            BufferedReader reader;
+            Long seekTimestamp;
+            synchronized(mPlaybackLock) {
+                seekTimestamp = mSeekTimestamp;
+                mSeekTimestamp = null;
+                mRebase = true;
+            }
+
+            TraceReader reader;
             try {
-                reader = openFile(mFilename);
+                reader = openTrace(mFilename, seekTimestamp);
             } catch(DataSourceException e) {
                 Log.w(TAG, "Couldn't open the trace file " + mFilename, e);
                 break;
             }
 
-            String line;
-            long startingTime = System.currentTimeMillis();
-            // In the future may want to support binary traces
+            mMessageCount = 0;
+            mPassStartTime = System.currentTimeMillis();
             try {
-                while(mRunning && (line = reader.readLine()) != null) {
-                    VehicleMessage measurement;
-                    try {
-                        measurement = JsonFormatter.deserialize(line);
-                    } catch(UnrecognizedMessageTypeException e) {
-                        Log.w(TAG, "A trace line was not in the expected " +
-                                "format: " + line);
+                VehicleMessage measurement;
+                while(mRunning && (measurement = reader.next()) != null) {
+                    long timestamp = measurement.getTimestamp();
+                    if(seekTimestamp != null && timestamp < seekTimestamp) {
                         continue;
                     }
 
-                    if(measurement == null) {
-                        continue;
-                    }
-
-                    if(measurement != null && !measurement.isTimestamped()) {
-                        Log.w(TAG, "A trace line was missing a timestamp: " +
-                                line);
-                        continue;
-                    }
-
-                    try {
-                        waitForNextRecord(startingTime, measurement.getTimestamp());
-                    } catch(NumberFormatException e) {
-                        Log.w(TAG, "A trace line was not in the expected " +
-                                "format: " + line);
-                        continue;
+                    if(!waitForNextRecord(timestamp)) {
+                        break;
                     }
                     measurement.untimestamp();
                     if(!mTraceValid) {
@@ -190,6 +328,7 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
                         mTraceValid = true;
                     }
                     handleMessage(measurement);
+                    mMessageCount++;
                 }
             } catch(IOException e) {
                 Log.w(TAG, "An exception occurred when reading the trace " +
@@ -201,6 +340,12 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
                 } catch(IOException e) {
                     Log.w(TAG, "Couldn't even close the trace file", e);
                 }
+                logStatistics();
+            }
+
+            if(isSeekPending()) {
+                Log.d(TAG, "Seeking in trace " + mFilename);
+                continue;
             }
 
             if(!mLoop) {
@@ -265,28 +410,191 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
         return TAG;
     }
 
+    private boolean isSeekPending() {
+        synchronized(mPlaybackLock) {
+            return mSeekTimestamp != null;
+        }
+    }
+
+    private void logStatistics() {
+        long elapsed = System.currentTimeMillis() - mPassStartTime;
+        Log.i(TAG, "Played " + mMessageCount + " messages from " + mFilename +
+                " in " + elapsed + "ms (" +
+                String.format(Locale.US, "%.1f",
+                    getMessagesPerSecond()) + " messages/s)");
+    }
+
     /**
-     * Using the startingTime as the relative starting point, sleep this thread
-     * until the next timestamp would occur.
+     * Block until the message with a timestamp should be sent, according to
+     * the playback speed, or until the next step if playback is paused.
+     *
+     * The first message after playback starts, resumes or changes from
+     * unthrottled is sent immediately, and the following ones are timed
+     * relative to it.
      *
-     * @param startingTime the relative starting time in milliseconds
      * @param timestamp the timestamp to wait for in milliseconds since the
      * epoch
+     * @return false if playback was stopped or a seek was requested instead.
      */
-    private void waitForNextRecord(long startingTime, long timestamp) {
-        if(mFirstTimestamp == 0) {
-            mFirstTimestamp = timestamp;
-            Log.d(TAG, "Storing " + timestamp + " as the first " +
-                    "timestamp of the trace file");
+    private boolean waitForNextRecord(long timestamp) {
+        synchronized(mPlaybackLock) {
+            while(mRunning && mSeekTimestamp == null) {
+                if(mPaused) {
+                    if(mPendingSteps > 0) {
+                        mPendingSteps--;
+                        return true;
+                    }
+                    waitForPlaybackChange(0);
+                    continue;
+                }
+
+                if(mRebase) {
+                    mWallClockBase = System.currentTimeMillis();
+                    mTraceTimeBase = timestamp;
+                    mRebase = false;
+                }
+
+                if(Double.isInfinite(mSpeed)) {
+                    return true;
+                }
+
+                long targetTime = mWallClockBase +
+                        (long) ((timestamp - mTraceTimeBase) / mSpeed);
+                long remaining = targetTime - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    return true;
+                }
+                waitForPlaybackChange(remaining);
+            }
+            return false;
         }
-        long targetTime = startingTime + (timestamp - mFirstTimestamp);
-        long sleepDuration = Math.max(targetTime - System.currentTimeMillis(), 0);
+    }
+
+    private void waitForPlaybackChange(long timeout) {
         try {
-            Thread.sleep(sleepDuration);
+            mPlaybackLock.wait(timeout);
         } catch(InterruptedException e) {}
     }
 
-    private BufferedReader openResourceFile(URI filename) {
+    /**
+     * @param seekTimestamp a time to start from, if the trace can be seeked.
+     *      Otherwise playback skips the messages before it.
+     */
+    private static TraceReader binaryTraceReader(
+            final BinaryTraceReader reader, Long seekTimestamp)
+            throws IOException {
+        if(seekTimestamp != null) {
+            reader.seek(seekTimestamp);
+        }
+        return new TraceReader() {
+            @Override
+            public VehicleMessage next() throws IOException {
+                return reader.next();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Open a trace file, detecting whether it's a binary trace or has one JSON
+     * message per line, and start parsing it ahead of playback.
+     *
+     * @param seekTimestamp a time to start the trace from, or null.
+     */
+    private TraceReader openTrace(URI filename, Long seekTimestamp)
+            throws DataSourceException {
+        TraceReader reader = null;
+        if(!isResource(filename)) {
+            reader = openMappedTrace(new File(filename.getPath()),
+                    seekTimestamp);
+        }
+
+        if(reader == null) {
+            reader = openStreamTrace(filename, seekTimestamp);
+        }
+        return new ReadAheadTraceReader(reader);
+    }
+
+    /**
+     * @return a reader for the memory-mapped file, or null if it can't be
+     *      mapped and should be read as a stream instead.
+     */
+    private TraceReader openMappedTrace(File file, Long seekTimestamp)
+            throws DataSourceException {
+        ByteBuffer buffer;
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                if(channel.size() > Integer.MAX_VALUE) {
+                    return null;
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch(FileNotFoundException e) {
+            throw new DataSourceException(
+                "Couldn't open the trace file " + file, e);
+        } catch(IOException e) {
+            Log.w(TAG, "Unable to map trace " + file + " into memory", e);
+            return null;
+        }
+
+        byte[] header = new byte[BinaryTraceReader.getHeaderLength()];
+        int length = Math.min(header.length, buffer.remaining());
+        buffer.get(header, 0, length);
+        buffer.rewind();
+        if(!BinaryTraceReader.isBinaryTrace(header, length)) {
+            return new JsonTraceReader(buffer);
+        }
+
+        Log.d(TAG, "Trace " + file + " is in the binary format");
+        try {
+            return binaryTraceReader(new BinaryTraceReader(buffer),
+                    seekTimestamp);
+        } catch(IOException e) {
+            throw new DataSourceException(
+                    "Couldn't read the trace file " + file, e);
+        }
+    }
+
+    private TraceReader openStreamTrace(URI filename, Long seekTimestamp)
+            throws DataSourceException {
+        InputStream stream = new BufferedInputStream(openFile(filename));
+        try {
+            byte[] header = new byte[BinaryTraceReader.getHeaderLength()];
+            stream.mark(header.length);
+            int length = 0;
+            int count;
+            while(length < header.length && (count = stream.read(header,
+                            length, header.length - length)) != -1) {
+                length += count;
+            }
+            stream.reset();
+
+            if(!BinaryTraceReader.isBinaryTrace(header, length)) {
+                return new JsonTraceReader(readerForStream(stream));
+            }
+
+            Log.d(TAG, "Trace " + filename + " is in the binary format");
+            return binaryTraceReader(new BinaryTraceReader(stream),
+                    seekTimestamp);
+        } catch(IOException e) {
+            try {
+                stream.close();
+            } catch(IOException e2) { }
+            throw new DataSourceException(
+                    "Couldn't read the trace file " + filename, e);
+        }
+    }
+
+    private InputStream openResourceFile(URI filename) {
         InputStream stream;
         try {
             stream = getContext().getResources().openRawResource(
@@ -296,20 +604,17 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
                     + " -- returning an empty buffer");
             stream = new ByteArrayInputStream(new byte[0]);
         }
-        return readerForStream(stream);
+        return stream;
     }
 
-    private BufferedReader openRegularFile(URI filename)
+    private InputStream openRegularFile(URI filename)
             throws DataSourceException {
-        FileInputStream stream;
         try {
-            stream = new FileInputStream(filename.getPath());
+            return new FileInputStream(filename.getPath());
         } catch(FileNotFoundException e) {
             throw new DataSourceException(
                 "Couldn't open the trace file " + filename, e);
         }
-
-        return readerForStream(stream);
     }
 
     private BufferedReader readerForStream(InputStream stream) {
@@ -317,10 +622,14 @@ public class TraceVehicleDataSource extends ContextualVehicleDataSource
         return new BufferedReader(new InputStreamReader(dataStream));
     }
 
-    private BufferedReader openFile(URI filename)
-            throws DataSourceException {
+    private static boolean isResource(URI filename) {
         String scheme = filename.getScheme();
-        if(scheme != null && scheme.equals("resource")) {
+        return scheme != null && scheme.equals("resource");
+    }
+
+    private InputStream openFile(URI filename)
+            throws DataSourceException {
+        if(isResource(filename)) {
             return openResourceFile(filename);
         } else {
             return openRegularFile(filename);
@@ -0,0 +1,358 @@
+package com.openxc.util;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A fixed-capacity queue for handing items from many producer threads to a
+ * single consumer thread.
+ *
+ * Items are stored in a ring of slots, each with a sequence number that tells
+ * producers and the consumer whose turn it is to use the slot. Adding and
+ * removing items only needs a compare-and-set on the head or tail position,
+ * so producers never wait on each other or on the consumer while it is
+ * handling a batch. A lock is only taken to park a thread when the queue is
+ * empty (the consumer) or full with the {@link OverflowPolicy#BLOCK} policy
+ * (producers), and to wake it up again.
+ *
+ * What happens when the queue is full is controlled by the
+ * {@link OverflowPolicy} - every item discarded because of it is counted in
+ * {@link #getDroppedCount()}.
+ */
+public class BoundedQueue<E> {
+    /**
+     * What to do with a new item when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait for the consumer to make room. */
+        BLOCK,
+        /** Discard the oldest queued item to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new item. */
+        DROP_NEWEST
+    }
+
+    private final AtomicReferenceArray<E> mItems;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private final AtomicInteger mWaitingConsumers = new AtomicInteger();
+    private final AtomicInteger mWaitingProducers = new AtomicInteger();
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param capacity the maximum number of items in the queue. It is rounded
+     *      up to the next power of two, and is at least two.
+     * @param policy what to do with new items when the queue is full.
+     */
+    public BoundedQueue(int capacity, OverflowPolicy policy) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Queue capacity must be positive, not " + capacity);
+        }
+        if(policy == null) {
+            throw new IllegalArgumentException("Overflow policy is required");
+        }
+
+        // A slot's sequence number must be able to tell "published at this
+        // position" apart from "free for the next lap", so at least two slots
+        // are needed.
+        int slots = Integer.highestOneBit(Math.max(capacity, 2));
+        if(slots < capacity) {
+            slots <<= 1;
+        }
+        mCapacity = slots;
+        mMask = slots - 1;
+        mPolicy = policy;
+        mItems = new AtomicReferenceArray<>(slots);
+        mSequences = new AtomicLongArray(slots);
+        for(int i = 0; i < slots; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an item to the queue, applying the overflow policy if it's full.
+     *
+     * With the {@link OverflowPolicy#BLOCK} policy this waits until there is
+     * room. If the thread is interrupted while waiting the item is dropped
+     * and the thread's interrupt status is restored.
+     *
+     * @return true if the item was queued, false if it was dropped.
+     */
+    public boolean offer(E item) {
+        return offer(item, true);
+    }
+
+    /**
+     * Add an item to the queue like {@link #offer(Object)}, but never wait for
+     * room - with the {@link OverflowPolicy#BLOCK} policy the item is dropped
+     * if the queue is full. The consumer thread must use this, since it would
+     * otherwise wait for itself.
+     *
+     * @return true if the item was queued, false if it was dropped.
+     */
+    public boolean offerWithoutWaiting(E item) {
+        return offer(item, false);
+    }
+
+    private boolean offer(E item, boolean wait) {
+        if(item == null) {
+            throw new NullPointerException("Can't queue a null item");
+        }
+
+        boolean queued;
+        switch(mPolicy) {
+        case BLOCK:
+            queued = wait ? offerOrWait(item) : tryOffer(item);
+            break;
+        case DROP_OLDEST:
+            queued = offerOrEvict(item);
+            break;
+        default:
+            queued = tryOffer(item);
+            break;
+        }
+
+        if(queued) {
+            if(mWaitingConsumers.get() > 0) {
+                signal(mNotEmpty);
+            }
+        } else {
+            mDropped.incrementAndGet();
+        }
+        return queued;
+    }
+
+    /**
+     * Remove the item at the head of the queue without waiting.
+     *
+     * @return the item, or null if the queue is empty.
+     */
+    public E poll() {
+        E item = tryPoll();
+        if(item != null && mWaitingProducers.get() > 0) {
+            signal(mNotFull);
+        }
+        return item;
+    }
+
+    /**
+     * Move as many items as are available, up to a limit, into a collection
+     * without waiting.
+     *
+     * @return the number of items moved.
+     */
+    public int drainTo(Collection<? super E> target, int maxItems) {
+        int count = 0;
+        E item;
+        while(count < maxItems && (item = tryPoll()) != null) {
+            target.add(item);
+            count++;
+        }
+
+        if(count > 0 && mWaitingProducers.get() > 0) {
+            signal(mNotFull);
+        }
+        return count;
+    }
+
+    /**
+     * Wait until there is at least one item in the queue or it is closed.
+     *
+     * @return false if the timeout elapsed while the queue was still empty.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitNotEmpty(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        mLock.lock();
+        mWaitingConsumers.incrementAndGet();
+        try {
+            while(!hasPublishedItem() && !mClosed) {
+                if(remaining <= 0) {
+                    return false;
+                }
+                remaining = mNotEmpty.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            mWaitingConsumers.decrementAndGet();
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting items and wake up any threads waiting on the queue.
+     *
+     * Items offered after the queue is closed are counted as dropped. Items
+     * already in the queue can still be removed.
+     */
+    public void close() {
+        mClosed = true;
+        mLock.lock();
+        try {
+            mNotEmpty.signalAll();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of items in the queue. When producers or the consumer
+     *      are active at the same time this is only an estimate.
+     */
+    public int size() {
+        long head = mHead.get();
+        long size = mTail.get() - head;
+        return (int) Math.max(0, Math.min(size, mCapacity));
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return the total number of items that were not delivered because the
+     *      queue was full or closed.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("size", size())
+            .add("capacity", getCapacity())
+            .add("policy", getOverflowPolicy())
+            .add("dropped", getDroppedCount())
+            .toString();
+    }
+
+    private boolean tryOffer(E item) {
+        if(mClosed) {
+            return false;
+        }
+
+        long position = mTail.get();
+        while(true) {
+            int index = (int) position & mMask;
+            long difference = mSequences.get(index) - position;
+            if(difference == 0) {
+                if(mTail.compareAndSet(position, position + 1)) {
+                    mItems.lazySet(index, item);
+                    mSequences.set(index, position + 1);
+                    return true;
+                }
+                position = mTail.get();
+            } else if(difference < 0) {
+                return false;
+            } else {
+                position = mTail.get();
+            }
+        }
+    }
+
+    private E tryPoll() {
+        long position = mHead.get();
+        while(true) {
+            int index = (int) position & mMask;
+            long difference = mSequences.get(index) - (position + 1);
+            if(difference == 0) {
+                if(mHead.compareAndSet(position, position + 1)) {
+                    E item = mItems.get(index);
+                    mItems.lazySet(index, null);
+                    mSequences.set(index, position + mCapacity);
+                    return item;
+                }
+                position = mHead.get();
+            } else if(difference < 0) {
+                return null;
+            } else {
+                position = mHead.get();
+            }
+        }
+    }
+
+    private boolean offerOrEvict(E item) {
+        while(!tryOffer(item)) {
+            if(mClosed) {
+                return false;
+            }
+            if(tryPoll() != null) {
+                mDropped.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private boolean offerOrWait(E item) {
+        if(tryOffer(item)) {
+            return true;
+        }
+
+        mLock.lock();
+        mWaitingProducers.incrementAndGet();
+        try {
+            while(!tryOffer(item)) {
+                if(mClosed) {
+                    return false;
+                }
+                mNotFull.await();
+            }
+            return true;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mWaitingProducers.decrementAndGet();
+            mLock.unlock();
+        }
+    }
+
+    private boolean hasPublishedItem() {
+        long position = mHead.get();
+        return mSequences.get((int) position & mMask) == position + 1;
+    }
+
+    private void signal(Condition condition) {
+        mLock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
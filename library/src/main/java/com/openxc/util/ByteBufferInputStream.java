@@ -0,0 +1,54 @@
+package com.openxc.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads from a ByteBuffer, e.g. a memory-mapped file.
+ *
+ * Reads start at the buffer's position and move it forward, so the stream can
+ * be repositioned by setting the position of the buffer. The stream doesn't
+ * buffer anything itself.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer mBuffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if(!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if(length == 0) {
+            return 0;
+        }
+
+        if(!mBuffer.hasRemaining()) {
+            return -1;
+        }
+
+        length = Math.min(length, mBuffer.remaining());
+        mBuffer.get(bytes, offset, length);
+        return length;
+    }
+
+    @Override
+    public long skip(long count) {
+        int skipped = (int) Math.max(0, Math.min(count, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+}
@@ -0,0 +1,87 @@
+package com.openxc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A histogram of latencies, cheap enough to record every message.
+ *
+ * Latencies are counted in buckets that double in size, so bucket 0 holds
+ * latencies under 1 microsecond, bucket 1 those under 2, bucket 2 those under
+ * 4 and so on, up to the last bucket that holds everything longer. Recording
+ * a latency doesn't lock or allocate.
+ */
+public class LatencyHistogram {
+    public static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSumMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /**
+     * Record a latency measured with {@link System#nanoTime()}.
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mBuckets.incrementAndGet(getBucket(micros));
+        mSumMicros.addAndGet(micros);
+
+        long max = mMaxMicros.get();
+        while(micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    /**
+     * Record the latency from a time measured with {@link System#nanoTime()}
+     * until now.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the upper bound of a bucket in microseconds, exclusive - or
+     *      Long.MAX_VALUE for the last bucket.
+     */
+    public static long getBucketLimitMicros(int bucket) {
+        if(bucket >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return 1L << bucket;
+    }
+
+    static int getBucket(long micros) {
+        return Math.min(BUCKET_COUNT - 1,
+                64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return the number of latencies in each bucket.
+     */
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    public long getSumMicros() {
+        return mSumMicros.get();
+    }
+
+    public long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("sumMicros", getSumMicros())
+            .add("maxMicros", getMaxMicros())
+            .toString();
+    }
+}
@@ -0,0 +1,198 @@
+package com.openxc.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Named counters, gauges and latency histograms describing how data moves
+ * through the library, e.g. the bytes and messages read from each source or
+ * how many messages each sink had to drop.
+ *
+ * Each process has a default registry that the library's sources, streamers
+ * and sinks report to - read it with {@link #snapshot()}. Names are dotted
+ * paths, e.g. "source.UsbVehicleInterface#1.bytes" - the number tells apart
+ * instances of the same class, see {@link #getInstanceName(String, Object)}.
+ *
+ * Counters are only updated with atomic operations, so they are cheap enough
+ * to update for every message. They aren't striped: each source's counters
+ * are only updated from its own reading thread, so there's little contention
+ * to spread out.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry sDefault = new MetricsRegistry();
+    private static final ConcurrentMap<String, AtomicInteger> sInstanceCounts =
+            new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> mCounters =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges =
+            new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> mHistograms =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A count of something that happened, which only goes up.
+     */
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            mValue.addAndGet(amount);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(get());
+        }
+    }
+
+    /**
+     * A value that is read when a snapshot is taken, e.g. the depth of a
+     * queue.
+     */
+    public interface Gauge {
+        public long getValue();
+    }
+
+    /**
+     * @return the registry for this process.
+     */
+    public static MetricsRegistry getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @return a short name for a component's class to use in metric names.
+     */
+    public static String getComponentName(Class<?> type) {
+        String name = type.getSimpleName();
+        return name.isEmpty() ? type.getName() : name;
+    }
+
+    /**
+     * Return a prefix for the metrics of one component, numbering the
+     * instances of each class so two of them never share a name, e.g.
+     * "lane.FileRecorderSink#2".
+     *
+     * Each call returns a new number, so a component should call this once
+     * and keep the result.
+     *
+     * @param kind the kind of component, e.g. "source" or "sink".
+     * @param component the instance, named after its class.
+     */
+    public static String getInstanceName(String kind, Object component) {
+        String name = kind + "." + getComponentName(component.getClass());
+        AtomicInteger count = sInstanceCounts.get(name);
+        if(count == null) {
+            sInstanceCounts.putIfAbsent(name, new AtomicInteger());
+            count = sInstanceCounts.get(name);
+        }
+        return name + "#" + count.incrementAndGet();
+    }
+
+    /**
+     * Return the counter with a name, creating it if it doesn't exist yet.
+     *
+     * Callers should keep the counter instead of looking it up each time
+     * they update it.
+     */
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if(counter == null) {
+            synchronized(mCounters) {
+                counter = mCounters.get(name);
+                if(counter == null) {
+                    counter = new Counter();
+                    mCounters.put(name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Remove a counter, if it's still the one registered with the name, e.g.
+     * when the component it counts for is stopped.
+     */
+    public void removeCounter(String name, Counter counter) {
+        mCounters.remove(name, counter);
+    }
+
+    /**
+     * Return the latency histogram with a name, creating it if it doesn't
+     * exist yet.
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if(histogram == null) {
+            synchronized(mHistograms) {
+                histogram = mHistograms.get(name);
+                if(histogram == null) {
+                    histogram = new LatencyHistogram();
+                    mHistograms.put(name, histogram);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Add a gauge, replacing any other gauge with the same name.
+     */
+    public void addGauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    /**
+     * Remove a gauge, if it's still the one registered with the name.
+     */
+    public void removeGauge(String name, Gauge gauge) {
+        mGauges.remove(name, gauge);
+    }
+
+    /**
+     * @return the current value of every counter, gauge and histogram.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> values = new HashMap<>();
+        for(Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for(Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+
+        Map<String, MetricsSnapshot.Histogram> histograms = new HashMap<>();
+        for(Map.Entry<String, LatencyHistogram> entry :
+                mHistograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            histograms.put(entry.getKey(), new MetricsSnapshot.Histogram(
+                        histogram.getBuckets(), histogram.getSumMicros(),
+                        histogram.getMaxMicros()));
+        }
+        return new MetricsSnapshot(values, histograms);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("counters", mCounters.keySet())
+            .add("gauges", mGauges.keySet())
+            .add("histograms", mHistograms.keySet())
+            .toString();
+    }
+}
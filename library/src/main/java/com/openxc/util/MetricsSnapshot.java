@@ -0,0 +1,206 @@
+package com.openxc.util;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The values of the metrics in a {@link MetricsRegistry} at one point in
+ * time, which can be passed between processes.
+ *
+ * Counters and gauges are both plain values, looked up by name with
+ * {@link #getValue(String)}. Latency histograms are summarized with
+ * {@link Histogram}.
+ */
+public class MetricsSnapshot implements Parcelable {
+    private final Map<String, Long> mValues;
+    private final Map<String, Histogram> mHistograms;
+
+    /**
+     * A latency histogram's buckets (see {@link LatencyHistogram}), with
+     * summaries of them.
+     */
+    public static class Histogram {
+        private final long[] mBuckets;
+        private final long mSumMicros;
+        private final long mMaxMicros;
+        private final long mCount;
+
+        Histogram(long[] buckets, long sumMicros, long maxMicros) {
+            mBuckets = buckets;
+            mSumMicros = sumMicros;
+            mMaxMicros = maxMicros;
+            long count = 0;
+            for(long bucket : buckets) {
+                count += bucket;
+            }
+            mCount = count;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMaxMicros() {
+            return mMaxMicros;
+        }
+
+        public long getMeanMicros() {
+            return mCount > 0 ? mSumMicros / mCount : 0;
+        }
+
+        /**
+         * Return the latency that a fraction of the values are less than, to
+         * the precision of the buckets.
+         *
+         * @param fraction the fraction of values, e.g. 0.99 for the 99th
+         *      percentile.
+         * @return the upper limit of the bucket the percentile falls in (but
+         *      no more than the maximum), in microseconds - or 0 if nothing
+         *      was recorded.
+         */
+        public long getPercentileMicros(double fraction) {
+            long rank = (long) Math.ceil(fraction * mCount);
+            long seen = 0;
+            for(int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if(seen >= rank && seen > 0) {
+                    return Math.min(LatencyHistogram.getBucketLimitMicros(i),
+                            mMaxMicros);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the number of latencies in each bucket - don't modify the
+         *      array.
+         */
+        public long[] getBuckets() {
+            return mBuckets;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                .add("count", getCount())
+                .add("meanMicros", getMeanMicros())
+                .add("p50Micros", getPercentileMicros(0.5))
+                .add("p99Micros", getPercentileMicros(0.99))
+                .add("maxMicros", getMaxMicros())
+                .toString();
+        }
+    }
+
+    public MetricsSnapshot() {
+        this(new TreeMap<String, Long>(), new TreeMap<String, Histogram>());
+    }
+
+    MetricsSnapshot(Map<String, Long> values,
+            Map<String, Histogram> histograms) {
+        mValues = Collections.unmodifiableMap(new TreeMap<>(values));
+        mHistograms = Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * @return the value of a counter or gauge, or 0 if there isn't one with
+     *      that name.
+     */
+    public long getValue(String name) {
+        Long value = mValues.get(name);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * @return every counter and gauge, sorted by name.
+     */
+    public Map<String, Long> getValues() {
+        return mValues;
+    }
+
+    /**
+     * @return the histogram with a name, or null if there isn't one.
+     */
+    public Histogram getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return mHistograms;
+    }
+
+    /**
+     * Write every metric, one per line, e.g. for a dumpsys report.
+     */
+    public void dump(PrintWriter writer) {
+        for(Map.Entry<String, Long> entry : mValues.entrySet()) {
+            writer.println(entry.getKey() + ": " + entry.getValue());
+        }
+        for(Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            writer.println(entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("values", mValues)
+            .add("histograms", mHistograms)
+            .toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeInt(mValues.size());
+        for(Map.Entry<String, Long> entry : mValues.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+
+        out.writeInt(mHistograms.size());
+        for(Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.writeString(entry.getKey());
+            out.writeLongArray(histogram.mBuckets);
+            out.writeLong(histogram.mSumMicros);
+            out.writeLong(histogram.mMaxMicros);
+        }
+    }
+
+    public static final Parcelable.Creator<MetricsSnapshot> CREATOR =
+            new Parcelable.Creator<MetricsSnapshot>() {
+        @Override
+        public MetricsSnapshot createFromParcel(Parcel in) {
+            Map<String, Long> values = new TreeMap<>();
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                values.put(in.readString(), in.readLong());
+            }
+
+            Map<String, Histogram> histograms = new TreeMap<>();
+            count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String name = in.readString();
+                histograms.put(name, new Histogram(in.createLongArray(),
+                            in.readLong(), in.readLong()));
+            }
+            return new MetricsSnapshot(values, histograms);
+        }
+
+        @Override
+        public MetricsSnapshot[] newArray(int size) {
+            return new MetricsSnapshot[size];
+        }
+    };
+}
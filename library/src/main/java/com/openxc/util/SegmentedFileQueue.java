@@ -0,0 +1,610 @@
+package com.openxc.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A durable first-in, first-out queue of records, stored in a directory of
+ * append-only segment files.
+ *
+ * Records are appended to the newest segment, and a new segment is started
+ * once it reaches the segment size. The consumer reads a batch of records with
+ * {@link #peek(int, int)} and, once it's done with them (e.g. they were
+ * uploaded), calls {@link #acknowledge(Batch)} to move the read position past
+ * them. The read position is checkpointed to a file, and a segment is deleted
+ * once all of its records are acknowledged, so records that weren't
+ * acknowledged are read again after the process restarts.
+ *
+ * Each record is stored with its length and a CRC32 checksum. If the process
+ * died in the middle of an append, the partial record is discarded when the
+ * queue is opened again.
+ *
+ * Appends are buffered and written to the segment file when the buffer fills,
+ * before records are read, and on {@link #flush()}, so a crash can lose the
+ * last few records but appending a record doesn't need a system call.
+ *
+ * When the segments grow larger than the maximum size, the oldest segment is
+ * discarded and its records are counted in {@link #getDroppedCount()}.
+ */
+public class SegmentedFileQueue implements Closeable {
+    private final static String TAG = "SegmentedFileQueue";
+    public final static int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private final static String SEGMENT_EXTENSION = ".segment";
+    private final static String CHECKPOINT_FILENAME = "checkpoint";
+    private final static long CHECKPOINT_MAGIC = 0x4f5843515545554cL;
+    // Length and checksum
+    private final static int RECORD_HEADER_LENGTH = 8;
+    private final static int WRITE_BUFFER_SIZE = 8192;
+
+    private final File mDirectory;
+    private final long mSegmentSize;
+    private final long mMaximumSize;
+    // IDs of the segments on disk, oldest first. The first is being read and
+    // the last is being written, and there is always at least one.
+    private final LinkedList<Long> mSegments = new LinkedList<>();
+    private final CRC32 mChecksum = new CRC32();
+    private DataOutputStream mWriter;
+    private long mWriteOffset;
+    private long mReadOffset;
+    private long mTotalBytes;
+    private long mCount;
+    private long mDropped;
+    private boolean mClosed = false;
+
+    /**
+     * A batch of records read from the front of the queue, which stay in the
+     * queue until the batch is acknowledged.
+     */
+    public static class Batch {
+        private final List<byte[]> mRecords;
+        private final long mStartSegment;
+        private final long mStartOffset;
+        private final long mEndSegment;
+        private final long mEndOffset;
+        private final int mBytes;
+
+        private Batch(List<byte[]> records, int bytes, long startSegment,
+                long startOffset, long endSegment, long endOffset) {
+            mRecords = records;
+            mBytes = bytes;
+            mStartSegment = startSegment;
+            mStartOffset = startOffset;
+            mEndSegment = endSegment;
+            mEndOffset = endOffset;
+        }
+
+        public List<byte[]> getRecords() {
+            return mRecords;
+        }
+
+        /**
+         * @return the total length of the records, not including their headers.
+         */
+        public int getBytes() {
+            return mBytes;
+        }
+
+        public boolean isEmpty() {
+            return mRecords.isEmpty();
+        }
+    }
+
+    /**
+     * Open the queue in a directory, creating it if it doesn't exist, and pick
+     * up from the last checkpoint of any records already there.
+     *
+     * @param segmentSize start a new segment file once the current one is at
+     *      least this many bytes.
+     * @param maximumSize the most bytes of segments to keep before
+     *      discarding the oldest one.
+     */
+    public SegmentedFileQueue(File directory, long segmentSize,
+            long maximumSize) throws IOException {
+        if(segmentSize <= 0 || maximumSize < segmentSize) {
+            throw new IllegalArgumentException("Segment size " + segmentSize +
+                    " must be positive and no more than the maximum size " +
+                    maximumSize);
+        }
+
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaximumSize = maximumSize;
+        if(!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create queue directory " +
+                    mDirectory);
+        }
+        open();
+    }
+
+    /**
+     * Add a record to the end of the queue.
+     */
+    public synchronized void append(byte[] record) throws IOException {
+        checkOpen();
+        if(mWriteOffset >= mSegmentSize) {
+            startSegment(mSegments.getLast() + 1);
+        }
+
+        mChecksum.reset();
+        mChecksum.update(record, 0, record.length);
+        mWriter.writeInt(record.length);
+        mWriter.writeInt((int) mChecksum.getValue());
+        mWriter.write(record);
+        mWriteOffset += RECORD_HEADER_LENGTH + record.length;
+        mTotalBytes += RECORD_HEADER_LENGTH + record.length;
+        mCount++;
+
+        while(mTotalBytes > mMaximumSize && mSegments.size() > 1) {
+            dropOldestSegment();
+        }
+    }
+
+    /**
+     * Read records from the front of the queue without removing them.
+     *
+     * At least one record is returned if the queue isn't empty, even if it's
+     * larger than the byte limit.
+     *
+     * @param maximumRecords the most records to return.
+     * @param maximumBytes stop adding records once their total length would
+     *      be more than this.
+     */
+    public synchronized Batch peek(int maximumRecords, int maximumBytes)
+            throws IOException {
+        return peek(null, maximumRecords, maximumBytes);
+    }
+
+    /**
+     * Read the records after a batch that hasn't been acknowledged yet, so
+     * several batches can be handled at once.
+     *
+     * @param previous the last batch read, or null to read from the front of
+     *      the queue.
+     * @see #peek(int, int)
+     */
+    public synchronized Batch peek(Batch previous, int maximumRecords,
+            int maximumBytes) throws IOException {
+        checkOpen();
+        mWriter.flush();
+
+        long startSegment = mSegments.getFirst();
+        long startOffset = mReadOffset;
+        if(previous != null && (previous.mEndSegment > startSegment ||
+                    (previous.mEndSegment == startSegment &&
+                        previous.mEndOffset > startOffset))) {
+            startSegment = previous.mEndSegment;
+            startOffset = previous.mEndOffset;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        int bytes = 0;
+        long segment = startSegment;
+        long offset = startOffset;
+        int segmentIndex = mSegments.indexOf(startSegment);
+        while(records.size() < maximumRecords) {
+            SegmentReader reader = new SegmentReader(segmentFile(segment),
+                    offset);
+            try {
+                byte[] record;
+                while(records.size() < maximumRecords &&
+                        (records.isEmpty() ||
+                            bytes + reader.peekLength() <= maximumBytes) &&
+                        (record = reader.next()) != null) {
+                    records.add(record);
+                    bytes += record.length;
+                }
+                offset = reader.getOffset();
+                if(reader.hasNext()) {
+                    break;
+                }
+            } finally {
+                reader.close();
+            }
+
+            if(++segmentIndex >= mSegments.size()) {
+                break;
+            }
+            segment = mSegments.get(segmentIndex);
+            offset = 0;
+        }
+        return new Batch(records, bytes, startSegment, startOffset, segment,
+                offset);
+    }
+
+    /**
+     * Remove the records in a batch from the queue, and checkpoint the new
+     * read position.
+     *
+     * Batches must be acknowledged in the order they were read.
+     */
+    public synchronized void acknowledge(Batch batch) throws IOException {
+        checkOpen();
+        long readSegment = mSegments.getFirst();
+        if(batch.mEndSegment < readSegment || (batch.mEndSegment == readSegment
+                    && batch.mEndOffset <= mReadOffset)) {
+            // These records were already dropped to make room
+            return;
+        }
+
+        if(batch.mStartSegment == readSegment &&
+                batch.mStartOffset == mReadOffset) {
+            mCount -= batch.mRecords.size();
+        } else {
+            // Some of the batch was dropped since it was read
+            mCount -= countRecords(readSegment, mReadOffset,
+                    batch.mEndSegment, batch.mEndOffset);
+        }
+
+        while(mSegments.getFirst() < batch.mEndSegment) {
+            deleteSegment(mSegments.removeFirst());
+        }
+        mReadOffset = batch.mEndOffset;
+        writeCheckpoint();
+    }
+
+    /**
+     * @return the number of records in the queue.
+     */
+    public synchronized long size() {
+        return mCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * @return the number of records discarded because the queue was full.
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return the total size of the segment files, including records that
+     *      were already acknowledged but are in a segment that's still in use.
+     */
+    public synchronized long getSizeOnDisk() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Write any buffered records to the segment file.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        mWriter.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(!mClosed) {
+            mClosed = true;
+            mWriter.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+            .add("directory", mDirectory)
+            .add("records", mCount)
+            .add("segments", mSegments.size())
+            .add("bytes", mTotalBytes)
+            .add("dropped", mDropped)
+            .toString();
+    }
+
+    private void checkOpen() throws IOException {
+        if(mClosed) {
+            throw new IOException("Queue in " + mDirectory + " is closed");
+        }
+    }
+
+    private void open() throws IOException {
+        File[] files = mDirectory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                String name = file.getName();
+                if(name.endsWith(SEGMENT_EXTENSION)) {
+                    try {
+                        mSegments.add(Long.valueOf(name.substring(0,
+                                        name.length() -
+                                        SEGMENT_EXTENSION.length())));
+                    } catch(NumberFormatException e) {
+                        Log.w(TAG, "Ignoring unexpected file " + file);
+                    }
+                }
+            }
+        }
+        Collections.sort(mSegments);
+
+        long[] checkpoint = readCheckpoint();
+        if(checkpoint != null) {
+            while(!mSegments.isEmpty() &&
+                    mSegments.getFirst() < checkpoint[0]) {
+                deleteSegment(mSegments.removeFirst());
+            }
+            if(!mSegments.isEmpty() && mSegments.getFirst() == checkpoint[0]) {
+                mReadOffset = checkpoint[1];
+            }
+        }
+
+        if(mSegments.isEmpty()) {
+            long segment = checkpoint != null ? checkpoint[0] : 0L;
+            segmentFile(segment).createNewFile();
+            mSegments.add(segment);
+        }
+
+        mTotalBytes = 0;
+        for(int i = 0; i < mSegments.size(); i++) {
+            File file = segmentFile(mSegments.get(i));
+            long start = i == 0 ? mReadOffset : 0;
+            SegmentReader reader = new SegmentReader(file, start);
+            try {
+                while(reader.skip()) {
+                    mCount++;
+                }
+            } finally {
+                reader.close();
+            }
+
+            if(i == mSegments.size() - 1 && reader.getOffset() < file.length()) {
+                Log.w(TAG, "Discarding a partial record at the end of " + file);
+                RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+                try {
+                    truncated.setLength(reader.getOffset());
+                } finally {
+                    truncated.close();
+                }
+            }
+            mTotalBytes += file.length();
+        }
+
+        File last = segmentFile(mSegments.getLast());
+        mWriteOffset = last.length();
+        mWriter = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(last, true), WRITE_BUFFER_SIZE));
+        if(mCount > 0) {
+            Log.i(TAG, "Resuming queue in " + mDirectory + " with " + mCount +
+                    " records");
+        }
+    }
+
+    private void startSegment(long segment) throws IOException {
+        mWriter.close();
+        mSegments.add(segment);
+        mWriteOffset = 0;
+        mWriter = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(segmentFile(segment)),
+                    WRITE_BUFFER_SIZE));
+    }
+
+    private void dropOldestSegment() throws IOException {
+        long segment = mSegments.getFirst();
+        long dropped = countRecords(segment, mReadOffset, segment,
+                Long.MAX_VALUE);
+        mDropped += dropped;
+        mCount -= dropped;
+        deleteSegment(mSegments.removeFirst());
+        mReadOffset = 0;
+        writeCheckpoint();
+        Log.w(TAG, "Queue in " + mDirectory + " is full, dropped " +
+                dropped + " records");
+    }
+
+    private void deleteSegment(long segment) {
+        File file = segmentFile(segment);
+        mTotalBytes -= file.length();
+        if(file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Count the valid records between two positions in the queue.
+     */
+    private long countRecords(long fromSegment, long fromOffset,
+            long toSegment, long toOffset) throws IOException {
+        long count = 0;
+        for(long segment : mSegments) {
+            if(segment < fromSegment || segment > toSegment) {
+                continue;
+            }
+
+            SegmentReader reader = new SegmentReader(segmentFile(segment),
+                    segment == fromSegment ? fromOffset : 0);
+            try {
+                while((segment < toSegment || reader.getOffset() < toOffset)
+                        && reader.skip()) {
+                    count++;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return count;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(mDirectory, segment + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * @return the segment and offset of the read position, or null if there
+     *      is no valid checkpoint.
+     */
+    private long[] readCheckpoint() {
+        File file = new File(mDirectory, CHECKPOINT_FILENAME);
+        if(!file.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(
+                    new FileInputStream(file));
+            try {
+                long segment = input.readLong();
+                long offset = input.readLong();
+                if(input.readLong() != (segment ^ offset ^ CHECKPOINT_MAGIC) ||
+                        segment < 0 || offset < 0) {
+                    throw new IOException("Checksum doesn't match");
+                }
+                return new long[] {segment, offset};
+            } finally {
+                input.close();
+            }
+        } catch(IOException e) {
+            Log.w(TAG, "Ignoring invalid checkpoint in " + mDirectory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the read position to a temporary file and rename it over the
+     * checkpoint, so there's always one complete checkpoint on disk.
+     */
+    private void writeCheckpoint() throws IOException {
+        long segment = mSegments.getFirst();
+        File temporary = new File(mDirectory, CHECKPOINT_FILENAME + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream output = new DataOutputStream(stream);
+            output.writeLong(segment);
+            output.writeLong(mReadOffset);
+            output.writeLong(segment ^ mReadOffset ^ CHECKPOINT_MAGIC);
+            output.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+
+        if(!temporary.renameTo(new File(mDirectory, CHECKPOINT_FILENAME))) {
+            throw new IOException("Unable to write checkpoint in " +
+                    mDirectory);
+        }
+    }
+
+    /**
+     * Reads records from one segment file, stopping at the end of the file or
+     * the first record that is incomplete or fails its checksum.
+     */
+    private static class SegmentReader {
+        private final DataInputStream mInput;
+        private final long mLength;
+        private final CRC32 mChecksum = new CRC32();
+        private long mOffset;
+        private int mNextLength = -1;
+        private int mNextChecksum;
+        private boolean mInvalid = false;
+
+        SegmentReader(File file, long offset) throws IOException {
+            mLength = file.length();
+            mOffset = offset;
+            FileInputStream stream = new FileInputStream(file);
+            long skipped = 0;
+            while(skipped < offset) {
+                long count = stream.skip(offset - skipped);
+                if(count <= 0) {
+                    break;
+                }
+                skipped += count;
+            }
+            mInput = new DataInputStream(new BufferedInputStream(stream));
+        }
+
+        long getOffset() {
+            return mOffset;
+        }
+
+        /**
+         * @return true if there's another valid record in the file.
+         */
+        boolean hasNext() throws IOException {
+            return readHeader();
+        }
+
+        /**
+         * @return the length of the next record, or 0 at the end.
+         */
+        int peekLength() throws IOException {
+            return readHeader() ? mNextLength : 0;
+        }
+
+        /**
+         * @return the next record, or null at the end of the segment.
+         */
+        byte[] next() throws IOException {
+            if(!readHeader()) {
+                return null;
+            }
+
+            byte[] record = new byte[mNextLength];
+            try {
+                mInput.readFully(record);
+            } catch(EOFException e) {
+                mInvalid = true;
+                return null;
+            }
+
+            mChecksum.reset();
+            mChecksum.update(record, 0, record.length);
+            if((int) mChecksum.getValue() != mNextChecksum) {
+                mInvalid = true;
+                return null;
+            }
+
+            mOffset += RECORD_HEADER_LENGTH + record.length;
+            mNextLength = -1;
+            return record;
+        }
+
+        /**
+         * Move past the next record, checking that it's valid.
+         */
+        boolean skip() throws IOException {
+            return next() != null;
+        }
+
+        void close() throws IOException {
+            mInput.close();
+        }
+
+        private boolean readHeader() throws IOException {
+            if(mNextLength >= 0) {
+                return true;
+            }
+            if(mInvalid || mOffset + RECORD_HEADER_LENGTH > mLength) {
+                return false;
+            }
+
+            mNextLength = mInput.readInt();
+            mNextChecksum = mInput.readInt();
+            if(mNextLength < 0 ||
+                    mOffset + RECORD_HEADER_LENGTH + mNextLength > mLength) {
+                mInvalid = true;
+                mNextLength = -1;
+                return false;
+            }
+            return true;
+        }
+    }
+}
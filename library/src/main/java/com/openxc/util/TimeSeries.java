@@ -0,0 +1,135 @@
+package com.openxc.util;
+
+import java.util.Arrays;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A series of numeric values of a signal, with the timestamp of each value.
+ *
+ * The values are packed into two parallel arrays instead of a list of
+ * messages, so a long series is cheap to build, to pass through the AIDL
+ * interface and to read. Values are in order of their timestamps, oldest
+ * first.
+ *
+ * Boolean values are stored as 1 for true and 0 for false.
+ */
+public class TimeSeries implements Parcelable {
+    private static final long[] EMPTY_TIMESTAMPS = new long[0];
+    private static final double[] EMPTY_VALUES = new double[0];
+
+    private final long[] mTimestamps;
+    private final double[] mValues;
+
+    /**
+     * An empty series.
+     */
+    public TimeSeries() {
+        this(EMPTY_TIMESTAMPS, EMPTY_VALUES);
+    }
+
+    /**
+     * @param timestamps the timestamps of the values, as milliseconds since
+     *      the UNIX epoch. The series takes ownership of the array.
+     * @param values the values, in the same order as the timestamps. The
+     *      series takes ownership of the array.
+     */
+    public TimeSeries(long[] timestamps, double[] values) {
+        if(timestamps.length != values.length) {
+            throw new IllegalArgumentException("Series has " +
+                    timestamps.length + " timestamps but " + values.length +
+                    " values");
+        }
+        mTimestamps = timestamps;
+        mValues = values;
+    }
+
+    public int size() {
+        return mTimestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return mTimestamps.length == 0;
+    }
+
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    public double getValue(int index) {
+        return mValues[index];
+    }
+
+    /**
+     * @return the timestamps of the series - don't modify the array.
+     */
+    public long[] getTimestamps() {
+        return mTimestamps;
+    }
+
+    /**
+     * @return the values of the series - don't modify the array.
+     */
+    public double[] getValues() {
+        return mValues;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+
+        if(!(obj instanceof TimeSeries)) {
+            return false;
+        }
+
+        final TimeSeries other = (TimeSeries) obj;
+        return Arrays.equals(mTimestamps, other.mTimestamps) &&
+                Arrays.equals(mValues, other.mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(mTimestamps) + Arrays.hashCode(mValues);
+    }
+
+    @Override
+    public String toString() {
+        MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this)
+            .add("size", size());
+        if(!isEmpty()) {
+            helper.add("first", mTimestamps[0])
+                .add("last", mTimestamps[mTimestamps.length - 1]);
+        }
+        return helper.toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeLongArray(mTimestamps);
+        out.writeDoubleArray(mValues);
+    }
+
+    public static final Parcelable.Creator<TimeSeries> CREATOR =
+            new Parcelable.Creator<TimeSeries>() {
+        @Override
+        public TimeSeries createFromParcel(Parcel in) {
+            return new TimeSeries(in.createLongArray(),
+                    in.createDoubleArray());
+        }
+
+        @Override
+        public TimeSeries[] newArray(int size) {
+            return new TimeSeries[size];
+        }
+    };
+}
@@ -13,6 +13,7 @@ import org.robolectric.annotation.Config;
 
 import com.openxc.measurements.BaseMeasurement;
 import com.openxc.measurements.Measurement;
+import com.openxc.measurements.MeasurementFactory;
 import com.openxc.measurements.UnrecognizedMeasurementTypeException;
 import com.openxc.measurements.VehicleSpeed;
 import com.openxc.measurements.EngineSpeed;
@@ -137,6 +138,83 @@ public class BaseMeasurementTest {
         BaseMeasurement.getMeasurementFromMessage(message);
     }
 
+    @Test(expected=UnrecognizedMeasurementTypeException.class)
+    public void buildFromMessageWithWrongValueType()
+            throws NoValueException, UnrecognizedMeasurementTypeException {
+        message = new SimpleVehicleMessage(VehicleSpeed.ID, "fast");
+        BaseMeasurement.getMeasurementFromMessage(message);
+    }
+
+    public static class ReflectedMeasurement extends BaseMeasurement<Meter> {
+        public final static String ID = "reflected_measurement";
+
+        public ReflectedMeasurement(Number value) {
+            super(new Meter(value.doubleValue()));
+        }
+
+        public String getGenericName() {
+            return ID;
+        }
+    }
+
+    @Test
+    public void buildUnregisteredTypeByReflection()
+            throws UnrecognizedMeasurementTypeException, NoValueException {
+        message = new SimpleVehicleMessage(ReflectedMeasurement.ID, value);
+        Measurement measurement = BaseMeasurement.getMeasurementFromMessage(
+                ReflectedMeasurement.class, message);
+        assertThat(measurement, equalTo(
+                (Measurement) new ReflectedMeasurement(value)));
+
+        // The cached constructor is used for later messages
+        message = new SimpleVehicleMessage(ReflectedMeasurement.ID, 7);
+        measurement = BaseMeasurement.getMeasurementFromMessage(
+                ReflectedMeasurement.class, message);
+        assertThat(measurement, equalTo(
+                (Measurement) new ReflectedMeasurement(7)));
+    }
+
+    @Test(expected=UnrecognizedMeasurementTypeException.class)
+    public void buildByReflectionWithoutMatchingConstructor()
+            throws UnrecognizedMeasurementTypeException, NoValueException {
+        message = new SimpleVehicleMessage(ReflectedMeasurement.ID, "bar");
+        BaseMeasurement.getMeasurementFromMessage(
+                ReflectedMeasurement.class, message);
+    }
+
+    public static class FactoryMeasurement extends BaseMeasurement<Meter> {
+        public final static String ID = "factory_measurement";
+
+        public FactoryMeasurement(double value) {
+            super(new Meter(value));
+        }
+
+        public String getGenericName() {
+            return ID;
+        }
+    }
+
+    @Test
+    public void buildFromRegisteredFactory()
+            throws UnrecognizedMeasurementTypeException, NoValueException {
+        BaseMeasurement.registerFactory(FactoryMeasurement.class,
+                new MeasurementFactory() {
+            @Override
+            public Measurement create(SimpleVehicleMessage message) {
+                return new FactoryMeasurement(
+                        ((Number) message.getValue()).doubleValue());
+            }
+        });
+
+        message = new SimpleVehicleMessage(1000L, FactoryMeasurement.ID, value);
+        Measurement measurement = BaseMeasurement.getMeasurementFromMessage(
+                message);
+        assertThat(measurement, instanceOf(FactoryMeasurement.class));
+        assertThat(measurement, equalTo(
+                (Measurement) new FactoryMeasurement(value)));
+        assertEquals(1000, measurement.getBirthtime());
+    }
+
     @Test
     public void getBirthtime() {
         VehicleSpeed measurement = new VehicleSpeed(value);
@@ -4,11 +4,15 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import com.openxc.messages.KeyedMessage;
 import com.openxc.messages.DiagnosticRequest;
+import com.openxc.messages.MessageKey;
 import com.openxc.messages.SimpleVehicleMessage;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.sources.TestSource;
@@ -78,6 +82,18 @@ public class DataPipelineTest {
         assertTrue(sink.received);
     }
 
+    @Test
+    public void receiveBatch() {
+        pipeline.addSink(sink);
+        SimpleVehicleMessage first = new SimpleVehicleMessage("foo", "value");
+        SimpleVehicleMessage second = new SimpleVehicleMessage("bar", "value");
+        pipeline.receive(Arrays.<VehicleMessage>asList(first, null, second));
+        assertTrue(sink.received);
+        assertThat(pipeline.getMessageCount(), equalTo(2));
+        assertThat(pipeline.get(first.getKey()), notNullValue());
+        assertThat(pipeline.get(second.getKey()), notNullValue());
+    }
+
     @Test
     public void connectsSourceCallback() {
         pipeline.addSink(sink);
@@ -126,4 +142,64 @@ public class DataPipelineTest {
         assertThat(message, notNullValue());
         assertEquals(message, request);
     }
+
+    @Test
+    public void getAll() {
+        SimpleVehicleMessage first = new SimpleVehicleMessage("foo", "value");
+        DiagnosticRequest second = new DiagnosticRequest(42, 1, 2, 4);
+        MessageKey missing = new SimpleVehicleMessage("bar", "value").getKey();
+        pipeline.receive(first);
+        pipeline.receive(second);
+
+        Map<MessageKey, KeyedMessage> messages = pipeline.getAll(
+                Arrays.asList(first.getKey(), second.getKey(), missing));
+        assertThat(messages.size(), equalTo(2));
+        assertEquals(first, messages.get(first.getKey()));
+        assertEquals(second, messages.get(second.getKey()));
+        assertFalse(messages.containsKey(missing));
+    }
+
+    @Test
+    public void getAllSeesWholeBatches() throws InterruptedException {
+        final SimpleVehicleMessage foo = new SimpleVehicleMessage("foo", 0);
+        final SimpleVehicleMessage bar = new SimpleVehicleMessage("bar", 0);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for(int i = 0; i < 20000; i++) {
+                    pipeline.receive(Arrays.asList(
+                            (VehicleMessage) new SimpleVehicleMessage("foo", i),
+                            new SimpleVehicleMessage("bar", i)));
+                }
+            }
+        };
+        writer.start();
+
+        while(writer.isAlive()) {
+            Map<MessageKey, KeyedMessage> messages = pipeline.getAll(
+                    Arrays.asList(foo.getKey(), bar.getKey()));
+            if(messages.size() == 2) {
+                assertEquals(
+                        messages.get(foo.getKey()).asSimpleMessage()
+                            .getNumericValue(),
+                        messages.get(bar.getKey()).asSimpleMessage()
+                            .getNumericValue(), 0);
+            }
+        }
+        writer.join();
+    }
+
+    @Test
+    public void history() {
+        KeyedMessage message = new SimpleVehicleMessage(1L, "foo", 1);
+        pipeline.enableHistory(message.getKey(), 10);
+        pipeline.receive(message);
+        pipeline.receive(Arrays.asList(
+                    (VehicleMessage) new SimpleVehicleMessage(2L, "foo", 2),
+                    new SimpleVehicleMessage(3L, "bar", 3),
+                    new SimpleVehicleMessage(4L, "foo", 4)));
+
+        assertArrayEquals(new double[] {1, 2, 4},
+                pipeline.getHistory(message.getKey(), 0, 10).getValues(), 0);
+    }
 }
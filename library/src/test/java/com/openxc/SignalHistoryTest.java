@@ -0,0 +1,209 @@
+package com.openxc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.os.Parcel;
+
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.NamedVehicleMessage;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.util.TimeSeries;
+
+@RunWith(RobolectricTestRunner.class)
+public class SignalHistoryTest {
+    SignalHistory history;
+    MessageKey key = new SimpleVehicleMessage("speed", 0).getKey();
+
+    @Before
+    public void setUp() {
+        history = new SignalHistory();
+    }
+
+    private void record(long timestamp, Object value) {
+        history.record(new SimpleVehicleMessage(timestamp, "speed", value));
+    }
+
+    @Test
+    public void notRecordedUnlessEnabled() {
+        record(1, 42);
+        assertTrue(history.get(key, 0, 100).isEmpty());
+        assertTrue(history.isEmpty());
+    }
+
+    @Test
+    public void rangeIsInclusive() {
+        history.enable(key, 10);
+        for(int i = 0; i < 5; i++) {
+            record(i * 10, i);
+        }
+
+        TimeSeries series = history.get(key, 10, 30);
+        assertEquals(3, series.size());
+        assertEquals(10, series.getTimestamp(0));
+        assertEquals(1.0, series.getValue(0), 0);
+        assertEquals(30, series.getTimestamp(2));
+        assertEquals(3.0, series.getValue(2), 0);
+
+        assertEquals(5, history.get(key, Long.MIN_VALUE,
+                    Long.MAX_VALUE).size());
+        assertTrue(history.get(key, 11, 19).isEmpty());
+        assertTrue(history.get(key, 30, 10).isEmpty());
+    }
+
+    @Test
+    public void oldestValuesOverwritten() {
+        history.enable(key, 4);
+        for(int i = 0; i < 10; i++) {
+            record(i, i);
+        }
+
+        TimeSeries series = history.get(key, 0, 100);
+        assertArrayEquals(new long[] {6, 7, 8, 9}, series.getTimestamps());
+        assertArrayEquals(new double[] {6, 7, 8, 9}, series.getValues(), 0);
+        assertEquals(2, history.get(key, 7, 8).size());
+    }
+
+    @Test
+    public void growKeepsValues() {
+        history.enable(key, 3);
+        for(int i = 0; i < 5; i++) {
+            record(i, i);
+        }
+        history.enable(key, 6);
+        history.enable(key, 2);
+        for(int i = 5; i < 9; i++) {
+            record(i, i);
+        }
+
+        assertArrayEquals(new long[] {3, 4, 5, 6, 7, 8},
+                history.get(key, 0, 100).getTimestamps());
+    }
+
+    @Test
+    public void booleanAndNonNumericValues() {
+        history.enable(key, 10);
+        record(1, true);
+        record(2, "not a number");
+        record(3, false);
+
+        assertArrayEquals(new double[] {1, 0},
+                history.get(key, 0, 100).getValues(), 0);
+    }
+
+    @Test
+    public void timeGoingBackwardsDropsHistory() {
+        history.enable(key, 10);
+        record(100, 1);
+        record(200, 2);
+        record(50, 3);
+
+        assertArrayEquals(new long[] {50},
+                history.get(key, 0, 1000).getTimestamps());
+    }
+
+    @Test
+    public void disable() {
+        history.enable(key, 10);
+        record(1, 1);
+        history.disable(key);
+        assertFalse(history.isEnabled(key));
+        assertTrue(history.get(key, 0, 100).isEmpty());
+    }
+
+    @Test
+    public void keptWhileAnyOwnerEnabled() {
+        Object first = new Object();
+        Object second = new Object();
+        history.enable(first, key, 10);
+        history.enable(second, key, 4);
+        history.enable(first, key, 10);
+        record(1, 1);
+
+        history.disable(first, key);
+        assertTrue(history.isEnabled(key));
+        assertEquals(4, history.getTotalCapacity());
+        history.disable(first, key);
+        assertTrue(history.isEnabled(key));
+
+        history.disable(second, key);
+        assertFalse(history.isEnabled(key));
+        assertEquals(0, history.getTotalCapacity());
+    }
+
+    @Test
+    public void shrinkKeepsNewestValues() {
+        Object first = new Object();
+        Object second = new Object();
+        history.enable(first, key, 6);
+        history.enable(second, key, 2);
+        for(int i = 0; i < 5; i++) {
+            record(i, i);
+        }
+
+        history.disable(first, key);
+        assertArrayEquals(new long[] {3, 4},
+                history.get(key, 0, 100).getTimestamps());
+        record(5, 5);
+        assertArrayEquals(new long[] {4, 5},
+                history.get(key, 0, 100).getTimestamps());
+    }
+
+    @Test
+    public void releaseDropsEveryKeyOfOwner() {
+        Object owner = new Object();
+        MessageKey otherKey = new NamedVehicleMessage("bar").getKey();
+        history.enable(owner, key, 10);
+        history.enable(owner, otherKey, 10);
+        history.enable(otherKey, 5);
+
+        history.release(owner);
+        assertFalse(history.isEnabled(key));
+        assertTrue(history.isEnabled(otherKey));
+        assertEquals(5, history.getTotalCapacity());
+    }
+
+    @Test
+    public void totalCapacityLimited() {
+        int perKey = SignalHistory.MAXIMUM_CAPACITY;
+        int keys = SignalHistory.MAXIMUM_TOTAL_CAPACITY / perKey;
+        for(int i = 0; i < keys; i++) {
+            history.enable(new NamedVehicleMessage("signal" + i).getKey(),
+                    perKey);
+        }
+
+        try {
+            history.enable(key, perKey);
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException e) {
+        }
+        assertFalse(history.isEnabled(key));
+
+        history.disable(new NamedVehicleMessage("signal0").getKey());
+        history.enable(key, perKey);
+        assertTrue(history.isEnabled(key));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void capacityTooLarge() {
+        history.enable(key, SignalHistory.MAXIMUM_CAPACITY + 1);
+    }
+
+    @Test
+    public void seriesParcelable() {
+        history.enable(key, 10);
+        record(1, 1.5);
+        record(2, 2.5);
+        TimeSeries series = history.get(key, 0, 100);
+
+        Parcel parcel = Parcel.obtain();
+        series.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        assertEquals(series, TimeSeries.CREATOR.createFromParcel(parcel));
+        parcel.recycle();
+    }
+}
@@ -0,0 +1,177 @@
+package com.openxc;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.openxc.messages.NamedVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.sinks.DataSinkException;
+import com.openxc.sinks.TestSink;
+import com.openxc.sinks.VehicleDataSink;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+
+@RunWith(RobolectricTestRunner.class)
+public class SinkLaneTest {
+    DataPipeline pipeline;
+    BlockingSink slowSink;
+
+    private class BlockingSink implements VehicleDataSink {
+        List<VehicleMessage> received = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch receiving = new CountDownLatch(1);
+        boolean stopped = false;
+
+        @Override
+        public void receive(VehicleMessage message) {
+            receiving.countDown();
+            try {
+                release.await();
+            } catch(InterruptedException e) { }
+            received.add(message);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        pipeline = new DataPipeline();
+        slowSink = new BlockingSink();
+    }
+
+    @After
+    public void tearDown() {
+        slowSink.release.countDown();
+        pipeline.stop();
+    }
+
+    private void waitForDelivery(SinkLane lane, long count)
+            throws InterruptedException {
+        for(int i = 0; i < 500 && lane.getDeliveredCount() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void inlineSinkHasNoLane() {
+        TestSink sink = new TestSink();
+        pipeline.addSink(sink);
+        assertThat(pipeline.getLane(sink), nullValue());
+    }
+
+    @Test
+    public void slowSinkDoesntBlockOthers() throws InterruptedException {
+        TestSink fastSink = new TestSink();
+        pipeline.addAsynchronousSink(slowSink);
+        pipeline.addSink(fastSink);
+
+        pipeline.receive(new NamedVehicleMessage("foo"));
+        assertThat(fastSink.received, equalTo(true));
+        assertThat(slowSink.receiving.await(5, TimeUnit.SECONDS),
+                equalTo(true));
+        assertThat(slowSink.received, empty());
+
+        pipeline.receive(new NamedVehicleMessage("bar"));
+        assertThat(pipeline.getLane(slowSink).getQueueDepth(), equalTo(1));
+
+        slowSink.release.countDown();
+        waitForDelivery(pipeline.getLane(slowSink), 2);
+        assertThat(slowSink.received, hasSize(2));
+        assertThat(pipeline.getLane(slowSink).getQueueDepth(), equalTo(0));
+    }
+
+    @Test
+    public void fullLaneDropsAndCounts() throws InterruptedException {
+        pipeline.addAsynchronousSink(slowSink, 2, OverflowPolicy.DROP_OLDEST);
+        pipeline.receive(new NamedVehicleMessage("first"));
+        assertThat(slowSink.receiving.await(5, TimeUnit.SECONDS),
+                equalTo(true));
+
+        pipeline.receive(new NamedVehicleMessage("second"));
+        pipeline.receive(new NamedVehicleMessage("third"));
+        pipeline.receive(new NamedVehicleMessage("fourth"));
+        SinkLane lane = pipeline.getLane(slowSink);
+        assertThat(lane.getDroppedCount(), equalTo(1L));
+
+        slowSink.release.countDown();
+        waitForDelivery(lane, 3);
+        assertThat(slowSink.received, contains(
+                    (VehicleMessage) new NamedVehicleMessage("first"),
+                    new NamedVehicleMessage("third"),
+                    new NamedVehicleMessage("fourth")));
+        assertThat(lane.getMaxLagMillis(), greaterThanOrEqualTo(
+                    lane.getLagMillis()));
+    }
+
+    @Test
+    public void removeSinkStopsLane() {
+        pipeline.addAsynchronousSink(slowSink);
+        SinkLane lane = pipeline.getLane(slowSink);
+        pipeline.removeSink(slowSink);
+        assertThat(pipeline.getLane(slowSink), nullValue());
+        assertThat(pipeline.getSinks(), empty());
+        assertThat(slowSink.stopped, equalTo(true));
+
+        pipeline.receive(new NamedVehicleMessage("foo"));
+        assertThat(lane.getQueueDepth(), equalTo(0));
+    }
+
+    @Test
+    public void removeSinkDeliversQueuedBeforeStop()
+            throws InterruptedException {
+        pipeline.addAsynchronousSink(slowSink);
+        pipeline.receive(new NamedVehicleMessage("first"));
+        assertThat(slowSink.receiving.await(5, TimeUnit.SECONDS),
+                equalTo(true));
+        pipeline.receive(new NamedVehicleMessage("second"));
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch(InterruptedException e) { }
+                slowSink.release.countDown();
+            }
+        }.start();
+        pipeline.removeSink(slowSink);
+        assertThat(slowSink.received, hasSize(2));
+        assertThat(slowSink.stopped, equalTo(true));
+    }
+
+    @Test
+    public void explodingSinkRemoved() throws InterruptedException {
+        VehicleDataSink explodingSink = new VehicleDataSink() {
+            @Override
+            public void receive(VehicleMessage message)
+                    throws DataSinkException {
+                throw new DataSinkException("boom");
+            }
+
+            @Override
+            public void stop() { }
+        };
+        pipeline.addAsynchronousSink(explodingSink);
+        pipeline.receive(new NamedVehicleMessage("foo"));
+
+        for(int i = 0; i < 500 && !pipeline.getSinks().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(pipeline.getSinks(), empty());
+        assertThat(pipeline.getLane(explodingSink), nullValue());
+    }
+}
@@ -1,12 +1,20 @@
 package com.openxc;
 
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.NamedVehicleMessage;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.remote.VehicleServiceException;
 
 @RunWith(RobolectricTestRunner.class)
 public class VehicleManagerJvmTest {
@@ -22,4 +30,23 @@ public class VehicleManagerJvmTest {
     public void doesntDereferenceNullIfNotConectedToRemote() {
         manager.send(new VehicleMessage());
     }
+
+    @Test(expected=VehicleServiceException.class)
+    public void getAllRequiresRemote() throws VehicleServiceException {
+        manager.getAll(Arrays.asList(
+                    new NamedVehicleMessage("foo").getKey()));
+    }
+
+    @Test(expected=NoValueException.class)
+    public void localCacheMissWithoutRemote() throws NoValueException {
+        MessageKey key = new NamedVehicleMessage("foo").getKey();
+        manager.enableLocalCache(Arrays.asList(key));
+        try {
+            manager.get(key);
+        } finally {
+            assertEquals(-1, manager.getLocalCacheAge(key,
+                        TimeUnit.MILLISECONDS));
+            manager.disableLocalCache();
+        }
+    }
 }
@@ -128,4 +128,21 @@ public class KeyMatcherTest {
             return new MessageKey(key);
         }
     }
+
+    @Test
+    public void partialMatcherMatchesKeysWithParts() {
+        KeyMatcher matcher = PartialKeyMatcher.buildPartialMatcher(
+                MessageKey.intern("bus", 1));
+        assertTrue(matcher.matches(new CanMessage(1, 2, new byte[8])));
+        assertFalse(matcher.matches(new CanMessage(2, 2, new byte[8])));
+        assertFalse(matcher.matches(keyed));
+    }
+
+    @Test
+    public void partialMatchersWithSamePartsEqual() {
+        assertThat(PartialKeyMatcher.buildPartialMatcher(
+                    MessageKey.intern("bus", 1)),
+                equalTo(PartialKeyMatcher.buildPartialMatcher(
+                    MessageKey.intern("bus", 1))));
+    }
 }
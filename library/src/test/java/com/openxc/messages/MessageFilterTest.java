@@ -0,0 +1,129 @@
+package com.openxc.messages;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.os.Parcel;
+
+@RunWith(RobolectricTestRunner.class)
+public class MessageFilterTest {
+    MessageFilter filter;
+    NamedVehicleMessage named = new NamedVehicleMessage("foo");
+
+    @Before
+    public void setup() {
+        filter = new MessageFilter(Arrays.asList(named.getKey()),
+                Arrays.asList(MessageKey.intern("bus", 1)),
+                Arrays.<Class<? extends VehicleMessage>>asList(
+                    CommandResponse.class));
+    }
+
+    @Test
+    public void matchesExactKey() {
+        assertTrue(filter.matches(named));
+        assertTrue(filter.matches(new SimpleVehicleMessage("foo", 42)));
+        assertFalse(filter.matches(new NamedVehicleMessage("bar")));
+    }
+
+    @Test
+    public void matchesPartialKey() {
+        assertTrue(filter.matches(new CanMessage(1, 2, new byte[8])));
+        assertFalse(filter.matches(new CanMessage(2, 2, new byte[8])));
+    }
+
+    @Test
+    public void matchesMessageType() {
+        assertTrue(filter.matches(new CommandResponse(
+                    Command.CommandType.VERSION, true)));
+        assertFalse(filter.matches(new Command(Command.CommandType.VERSION)));
+        assertFalse(filter.matches(new VehicleMessage()));
+    }
+
+    @Test
+    public void emptyMatchesNothing() {
+        MessageFilter empty = new MessageFilter(
+                Collections.<MessageKey>emptyList(),
+                Collections.<MessageKey>emptyList(),
+                Collections.<Class<? extends VehicleMessage>>emptyList());
+        assertFalse(empty.matches(named));
+    }
+
+    @Test
+    public void writeAndReadFromParcel() {
+        Parcel parcel = Parcel.obtain();
+        filter.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        MessageFilter createdFromParcel =
+                MessageFilter.CREATOR.createFromParcel(parcel);
+        assertEquals(filter, createdFromParcel);
+        assertTrue(createdFromParcel.matches(named));
+        assertTrue(createdFromParcel.matches(new CanMessage(1, 2, new byte[8])));
+    }
+
+    @Test
+    public void optionsOnlyForExactMatches() {
+        SubscriptionOptions options = new SubscriptionOptions().withMaxRate(10);
+        Map<MessageKey, SubscriptionOptions> keyOptions = new HashMap<>();
+        CanMessage canMessage = new CanMessage(1, 2, new byte[8]);
+        keyOptions.put(named.getKey(), options);
+        keyOptions.put(canMessage.getKey(), options);
+        filter = new MessageFilter(
+                Arrays.asList(named.getKey(), canMessage.getKey()),
+                Arrays.asList(MessageKey.intern("bus", 1)),
+                Collections.<Class<? extends VehicleMessage>>emptyList(),
+                keyOptions);
+
+        assertEquals(options, filter.getOptions(named));
+        // Also matches the partial key, which has no options
+        assertNull(filter.getOptions(canMessage));
+        assertNull(filter.getOptions(new NamedVehicleMessage("bar")));
+    }
+
+    @Test
+    public void withKeysDropsTheirOptions() {
+        NamedVehicleMessage other = new NamedVehicleMessage("bar");
+        filter = new MessageFilter(Arrays.asList(named.getKey()),
+                Collections.<MessageKey>emptyList(),
+                Collections.<Class<? extends VehicleMessage>>emptyList(),
+                Collections.singletonMap(named.getKey(),
+                    new SubscriptionOptions().withMaxRate(10)));
+        assertFalse(filter.matches(other));
+
+        MessageFilter widened = filter.withKeys(Arrays.asList(
+                    named.getKey(), other.getKey()));
+        assertTrue(widened.matches(named));
+        assertTrue(widened.matches(other));
+        assertNull(widened.getOptions(named));
+        assertNotNull(filter.getOptions(named));
+    }
+
+    @Test
+    public void writeAndReadOptionsFromParcel() {
+        Map<MessageKey, SubscriptionOptions> keyOptions = new HashMap<>();
+        keyOptions.put(named.getKey(), new SubscriptionOptions()
+                .withMaxRate(5).withOnChange(0.5).withLatestValueWins());
+        filter = new MessageFilter(Arrays.asList(named.getKey()),
+                Collections.<MessageKey>emptyList(),
+                Collections.<Class<? extends VehicleMessage>>emptyList(),
+                keyOptions);
+
+        Parcel parcel = Parcel.obtain();
+        filter.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        MessageFilter createdFromParcel =
+                MessageFilter.CREATOR.createFromParcel(parcel);
+        assertEquals(filter, createdFromParcel);
+        assertEquals(keyOptions, createdFromParcel.getOptions());
+    }
+}
@@ -39,4 +39,77 @@ public class MessageKeyTest {
         assertThat(createdFromParcel, instanceOf(MessageKey.class));
         assertEquals(key, createdFromParcel);
     }
+
+    @Test
+    public void sameParts() {
+        Map<String, Object> otherParts = new HashMap<>();
+        otherParts.put("foo", "bar");
+        assertEquals(key, new MessageKey(otherParts));
+        assertEquals(key.hashCode(), new MessageKey(otherParts).hashCode());
+    }
+
+    @Test
+    public void collidingHashCodesNotEqual() {
+        // "Aa" and "BB" have the same hash code
+        Map<String, Object> first = new HashMap<>();
+        first.put("name", "Aa");
+        Map<String, Object> second = new HashMap<>();
+        second.put("name", "BB");
+
+        MessageKey firstKey = new MessageKey(first);
+        MessageKey secondKey = new MessageKey(second);
+        assertEquals(firstKey.hashCode(), secondKey.hashCode());
+        assertThat(firstKey, not(equalTo(secondKey)));
+        assertThat(new NamedVehicleMessage("Aa").getKey(),
+                not(equalTo(new NamedVehicleMessage("BB").getKey())));
+    }
+
+    @Test
+    public void notEqualToOtherTypes() {
+        assertThat(key.equals(parts), equalTo(false));
+        assertThat(key.equals(null), equalTo(false));
+    }
+
+    @Test
+    public void changingSourceMapDoesntChangeKey() {
+        parts.put("foo", "baz");
+        assertThat(key.getParts().get("foo"), equalTo((Object) "bar"));
+    }
+
+    @Test
+    public void messagesShareKey() {
+        assertThat(new NamedVehicleMessage("foo").getKey(),
+                sameInstance(new NamedVehicleMessage("foo").getKey()));
+        assertThat(new CanMessage(1, 2, new byte[]{1}).getKey(),
+                sameInstance(new CanMessage(1, 2, new byte[]{2}).getKey()));
+    }
+
+    @Test
+    public void sharedKeyEqualsBuiltKey() {
+        Map<String, Object> nameParts = new HashMap<>();
+        nameParts.put(NamedVehicleMessage.NAME_KEY, "foo");
+        assertEquals(new MessageKey(nameParts),
+                new NamedVehicleMessage("foo").getKey());
+    }
+
+    @Test
+    public void diagnosticKeyWithoutPid() {
+        DiagnosticRequest request = new DiagnosticRequest(1, 2, 3);
+        DiagnosticResponse response = new DiagnosticResponse(1, 2, 3);
+        assertEquals(request.getKey(), response.getKey());
+        assertThat(request.getKey(), not(equalTo(
+                new DiagnosticRequest(1, 2, 3, 4).getKey())));
+    }
+
+    @Test
+    public void sharedKeyFromParcelEqual() {
+        MessageKey shared = new CanMessage(1, 2, new byte[]{1}).getKey();
+        Parcel parcel = Parcel.obtain();
+        shared.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        MessageKey createdFromParcel =
+                MessageKey.CREATOR.createFromParcel(parcel);
+        assertEquals(shared, createdFromParcel);
+    }
 }
@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -88,4 +89,39 @@ public class SimpleVehicleMessageTest {
     public void keyNotNull() {
         assertThat(message.getKey(), notNullValue());
     }
+
+    @Test
+    public void numericValue() {
+        message = SimpleVehicleMessage.numeric(name, 42.5);
+        assertTrue(message.isNumeric());
+        assertEquals(42.5, message.getNumericValue(), 0);
+        assertEquals(Double.valueOf(42.5), message.getValue());
+    }
+
+    @Test
+    public void boxedNumericValue() {
+        assertTrue(message.isNumeric());
+        assertEquals(42, message.getNumericValue(), 0);
+        assertFalse(new SimpleVehicleMessage(name, "foo").isNumeric());
+    }
+
+    @Test
+    public void numericEqualsBoxed() {
+        assertEquals(message, SimpleVehicleMessage.numeric(name, 42.0));
+        assertEquals(SimpleVehicleMessage.numeric(name, 42.0), message);
+        assertFalse(message.equals(SimpleVehicleMessage.numeric(name, 24.0)));
+    }
+
+    @Test
+    public void numericWriteAndReadFromParcel() {
+        message = SimpleVehicleMessage.numeric(name, 42.5);
+        Parcel parcel = Parcel.obtain();
+        message.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        SimpleVehicleMessage createdFromParcel = (SimpleVehicleMessage)
+                VehicleMessage.CREATOR.createFromParcel(parcel);
+        assertTrue(createdFromParcel.isNumeric());
+        assertEquals(message, createdFromParcel);
+    }
 }
@@ -0,0 +1,65 @@
+package com.openxc.messages;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.os.Parcel;
+
+@RunWith(RobolectricTestRunner.class)
+public class VehicleMessageBatchTest {
+    private VehicleMessageBatch parcelAndRead(List<VehicleMessage> messages) {
+        Parcel parcel = Parcel.obtain();
+        new VehicleMessageBatch(messages).writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        VehicleMessageBatch batch =
+                VehicleMessageBatch.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        return batch;
+    }
+
+    @Test
+    public void everyBuiltInType() {
+        HashMap<String, Object> extras = new HashMap<>();
+        extras.put("foo", "bar");
+        DiagnosticRequest request = new DiagnosticRequest(1, 2, 3, 4);
+        List<VehicleMessage> messages = Arrays.asList(
+                new VehicleMessage(Long.valueOf(1000), extras),
+                new NamedVehicleMessage("foo"),
+                new SimpleVehicleMessage("foo", 42.0),
+                new SimpleVehicleMessage("foo", "bar"),
+                new EventedSimpleVehicleMessage("foo", "bar", "baz"),
+                new CanMessage(1, 2, new byte[] {1, 2, 3}),
+                request,
+                new DiagnosticResponse(1, 2, 3, 4, new byte[] {1, 2}, null,
+                    12.0),
+                new Command(request, "add"),
+                new CommandResponse(Command.CommandType.VERSION, true, "1.0"));
+
+        assertEquals(messages, parcelAndRead(messages).getMessages());
+    }
+
+    @Test
+    public void nullEntriesKept() {
+        VehicleMessage message = new NamedVehicleMessage("foo");
+        List<VehicleMessage> messages = Arrays.asList(null, message, null);
+        assertEquals(messages, parcelAndRead(messages).getMessages());
+    }
+
+    @Test
+    public void customMessageBetweenBuiltIns() {
+        HashMap<String, Object> extras = new HashMap<>();
+        extras.put("foo", "bar");
+        List<VehicleMessage> messages = Arrays.asList(
+                new NamedVehicleMessage("foo"),
+                new VehicleMessageTest.CustomMessage(extras),
+                new NamedVehicleMessage("bar"));
+        assertEquals(messages, parcelAndRead(messages).getMessages());
+    }
+}
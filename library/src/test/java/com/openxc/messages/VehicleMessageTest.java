@@ -13,8 +13,11 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import android.os.BadParcelableException;
 import android.os.Parcel;
 
+import com.openxc.messages.Command.CommandType;
+
 @RunWith(RobolectricTestRunner.class)
 public class VehicleMessageTest {
     VehicleMessage message;
@@ -148,4 +151,130 @@ public class VehicleMessageTest {
                 VehicleMessage.CREATOR.createFromParcel(parcel);
         assertEquals(message, createdFromParcel);
     }
+
+    @Test
+    public void writeAndReadWithoutExtrasFromParcel() {
+        message = new VehicleMessage(Long.valueOf(1000));
+        Parcel parcel = Parcel.obtain();
+        message.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        VehicleMessage createdFromParcel =
+                VehicleMessage.CREATOR.createFromParcel(parcel);
+        assertEquals(message, createdFromParcel);
+        assertFalse(createdFromParcel.hasExtras());
+        assertThat(createdFromParcel.getTimestamp(), equalTo(1000L));
+    }
+
+    @Test
+    public void extrasOnlyWrittenWhenPresent() {
+        Parcel withExtras = Parcel.obtain();
+        message.writeToParcel(withExtras, 0);
+        Parcel withoutExtras = Parcel.obtain();
+        new VehicleMessage().writeToParcel(withoutExtras, 0);
+        assertThat(withoutExtras.dataSize(), lessThan(withExtras.dataSize()));
+    }
+
+    @Test
+    public void writeAndReadCustomMessageFromParcel() {
+        CustomMessage custom = new CustomMessage(extras);
+        Parcel parcel = Parcel.obtain();
+        custom.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+
+        VehicleMessage createdFromParcel =
+                VehicleMessage.CREATOR.createFromParcel(parcel);
+        assertThat(createdFromParcel, instanceOf(CustomMessage.class));
+        assertEquals(custom, createdFromParcel);
+    }
+
+    @Test
+    public void singleMessageStartsWithClassName() {
+        // The layout apps built against older versions of the library read
+        Parcel parcel = Parcel.obtain();
+        new SimpleVehicleMessage("foo", 42.0).writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        assertEquals(SimpleVehicleMessage.class.getName(),
+                parcel.readString());
+    }
+
+    @Test
+    public void writeAndReadCompact() {
+        message = new VehicleMessage(Long.valueOf(1000), extras);
+        Parcel parcel = Parcel.obtain();
+        VehicleMessage.writeCompact(parcel, message);
+        parcel.setDataPosition(0);
+
+        assertEquals(message, VehicleMessage.CREATOR.createFromParcel(parcel));
+    }
+
+    @Test
+    public void compactSmallerThanClassName() {
+        message = new SimpleVehicleMessage(Long.valueOf(1000), "foo", "bar");
+        Parcel compact = Parcel.obtain();
+        VehicleMessage.writeCompact(compact, message);
+        Parcel full = Parcel.obtain();
+        message.writeToParcel(full, 0);
+        assertThat(compact.dataSize(), lessThan(full.dataSize()));
+    }
+
+    @Test
+    public void writeCompactCustomMessageWithClassName() {
+        CustomMessage custom = new CustomMessage(extras);
+        Parcel parcel = Parcel.obtain();
+        VehicleMessage.writeCompact(parcel, custom);
+        parcel.setDataPosition(0);
+
+        VehicleMessage createdFromParcel =
+                VehicleMessage.CREATOR.createFromParcel(parcel);
+        assertThat(createdFromParcel, instanceOf(CustomMessage.class));
+        assertEquals(custom, createdFromParcel);
+    }
+
+    @Test(expected=BadParcelableException.class)
+    public void unrecognizedCompactTypeThrows() {
+        Parcel parcel = Parcel.obtain();
+        parcel.writeString(null);
+        parcel.writeInt(1000);
+        parcel.setDataPosition(0);
+        VehicleMessage.CREATOR.createFromParcel(parcel);
+    }
+
+    @Test(expected=BadParcelableException.class)
+    public void unrecognizedClassNameThrows() {
+        Parcel parcel = Parcel.obtain();
+        parcel.writeString("com.example.NotAMessage");
+        parcel.setDataPosition(0);
+        VehicleMessage.CREATOR.createFromParcel(parcel);
+    }
+
+    @Test
+    public void enumReadByName() {
+        Parcel parcel = Parcel.obtain();
+        VehicleMessage.writeEnum(parcel, CommandType.PLATFORM);
+        VehicleMessage.writeEnum(parcel, null);
+        parcel.setDataPosition(0);
+        assertThat(VehicleMessage.readEnum(parcel, CommandType.class),
+                equalTo(CommandType.PLATFORM));
+        assertThat(VehicleMessage.readEnum(parcel, CommandType.class),
+                nullValue());
+    }
+
+    @Test(expected=BadParcelableException.class)
+    public void unrecognizedEnumThrows() {
+        Parcel parcel = Parcel.obtain();
+        parcel.writeString("NOT_A_COMMAND");
+        parcel.setDataPosition(0);
+        VehicleMessage.readEnum(parcel, CommandType.class);
+    }
+
+    public static class CustomMessage extends VehicleMessage {
+        public CustomMessage(HashMap<String, Object> extras) {
+            super(extras);
+        }
+
+        protected CustomMessage(Parcel in) {
+            super(in);
+        }
+    }
 }
@@ -5,6 +5,7 @@ import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -12,6 +13,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import com.openxc.messages.CanMessage;
 import com.openxc.messages.Command;
 import com.openxc.messages.CommandResponse;
 import com.openxc.messages.DiagnosticRequest;
@@ -78,6 +80,102 @@ public class JsonFormatterTest extends AbstractFormatterTestBase {
         assertEquals(simpleMessage.getValue(), value);
     }
 
+    @Test
+    public void testNumericValueSerialized()
+            throws UnrecognizedMessageTypeException {
+        SimpleVehicleMessage message = SimpleVehicleMessage.numeric(
+                messageName, 42.5);
+        String serialized = JsonFormatter.serialize(message);
+        assertThat(serialized, containsString("42.5"));
+        SimpleVehicleMessage deserialized = (SimpleVehicleMessage)
+                JsonFormatter.deserialize(serialized);
+        assertTrue(deserialized.isNumeric());
+        assertEquals(42.5, deserialized.getNumericValue(), 0);
+    }
+
+    @Test
+    public void testDeserializeCanMessageFromJsonString()
+            throws UnrecognizedMessageTypeException {
+        VehicleMessage message = JsonFormatter.deserialize(
+                "{\"bus\": 1, \"id\": 42, \"data\": \"0x1234\", " +
+                "\"timestamp\": 1332432977.835}");
+        assertThat(message, instanceOf(CanMessage.class));
+        CanMessage canMessage = (CanMessage) message;
+        assertEquals(1, canMessage.getBusId());
+        assertEquals(42, canMessage.getId());
+        assertEquals(0x12, canMessage.getData()[0]);
+        assertEquals(0x34, canMessage.getData()[1]);
+        assertEquals(Long.valueOf(1332432977835L), canMessage.getTimestamp());
+    }
+
+    @Test
+    public void testDeserializeCommandFromJsonString()
+            throws UnrecognizedMessageTypeException {
+        VehicleMessage message = JsonFormatter.deserialize(
+                "{\"command\": \"diagnostic_request\", \"action\": \"add\", " +
+                "\"request\": {\"bus\": 1, \"id\": 2, \"mode\": 3}}");
+        assertThat(message, instanceOf(Command.class));
+        Command command = (Command) message;
+        assertEquals(Command.CommandType.DIAGNOSTIC_REQUEST,
+                command.getCommand());
+        assertEquals("add", command.getAction());
+        assertEquals(new DiagnosticRequest(1, 2, 3),
+                command.getDiagnosticRequest());
+    }
+
+    @Test
+    public void testDeserializeIgnoresUnknownFields()
+            throws UnrecognizedMessageTypeException {
+        VehicleMessage message = JsonFormatter.deserialize(
+                "{\"name\": \"foo\", \"unknown\": [1, {\"a\": 2}], " +
+                "\"value\": true}");
+        assertEquals(new SimpleVehicleMessage("foo", true), message);
+    }
+
+    @Test
+    public void testDeserializeNestedValue()
+            throws UnrecognizedMessageTypeException {
+        SimpleVehicleMessage message = (SimpleVehicleMessage)
+                JsonFormatter.deserialize(
+                    "{\"name\": \"foo\", \"value\": {\"bar\": 42}}");
+        assertThat(message.getValue(), instanceOf(Map.class));
+        assertEquals(42.0, ((Map<?, ?>) message.getValue()).get("bar"));
+    }
+
+    @Test
+    public void testDeserializeSuccessfulResponseKeepsSuccessFlag()
+            throws UnrecognizedMessageTypeException {
+        String data = "{\"bus\":1,\"id\":2028,\"mode\":1,\"success\":true}";
+        String serialized = JsonFormatter.serialize(
+                JsonFormatter.deserialize(data));
+        assertThat(serialized, containsString("\"success\":true"));
+    }
+
+    @Test(expected=UnrecognizedMessageTypeException.class)
+    public void testDeserializeWrongFieldType()
+            throws UnrecognizedMessageTypeException {
+        JsonFormatter.deserialize(
+                "{\"bus\": \"one\", \"id\": 42, \"data\": \"0x12\"}");
+    }
+
+    @Test(expected=UnrecognizedMessageTypeException.class)
+    public void testDeserializeNotAnObject()
+            throws UnrecognizedMessageTypeException {
+        JsonFormatter.deserialize("[\"name\", \"foo\"]");
+    }
+
+    @Test(expected=UnrecognizedMessageTypeException.class)
+    public void testDeserializeTrailingData()
+            throws UnrecognizedMessageTypeException {
+        JsonFormatter.deserialize("{\"name\": \"foo\"} {\"name\": \"bar\"}");
+    }
+
+    @Test(expected=UnrecognizedMessageTypeException.class)
+    public void testDeserializeUnrecognizedFields()
+            throws UnrecognizedMessageTypeException {
+        JsonFormatter.deserialize("{\"foo\": \"bar\"}");
+    }
+
     @Test
     public void testDeserializeInvalidJson() {
         try {
@@ -98,6 +196,17 @@ public class JsonFormatterTest extends AbstractFormatterTestBase {
         assertTrue(serialized.contains("1332432977.835"));
     }
 
+    @Test
+    public void testSubMillisecondTimestampKept()
+            throws UnrecognizedMessageTypeException {
+        VehicleMessage message = JsonFormatter.deserialize(
+                "{\"name\": \"" + messageName + "\", \"value\": 1, " +
+                "\"timestamp\": 1351176963.426318}");
+        assertEquals(Long.valueOf(1351176963426L), message.getTimestamp());
+        String serialized = new String(JsonFormatter.serialize(message));
+        assertTrue(serialized.contains("1351176963.426318"));
+    }
+
     @Test
     public void testSerializeWithoutTimestamp() {
         VehicleMessage message = new SimpleVehicleMessage(messageName, value);
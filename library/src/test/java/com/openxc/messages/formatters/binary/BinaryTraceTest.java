@@ -0,0 +1,163 @@
+package com.openxc.messages.formatters.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.openxc.messages.CanMessage;
+import com.openxc.messages.SerializationException;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.JsonFormatter;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryTraceTest {
+    File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("binary", ".trace");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private List<VehicleMessage> buildMessages(int count) {
+        List<VehicleMessage> messages = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            long timestamp = 1400000000000L + i * 10;
+            if(i % 2 == 0) {
+                messages.add(new SimpleVehicleMessage(timestamp,
+                            "vehicle_speed", i * 1.5));
+            } else {
+                CanMessage message = new CanMessage(1, 0x42,
+                        new byte[] {1, 2, 3, (byte) i});
+                message.setTimestamp(timestamp);
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private void writeTrace(List<VehicleMessage> messages, int blockSize,
+            boolean close) throws IOException, SerializationException {
+        BinaryTraceWriter writer = new BinaryTraceWriter(
+                new FileOutputStream(file), blockSize);
+        for(VehicleMessage message : messages) {
+            writer.write(message);
+        }
+        if(close) {
+            writer.close();
+        } else {
+            writer.flush();
+        }
+    }
+
+    private List<VehicleMessage> readAll(BinaryTraceReader reader)
+            throws IOException {
+        List<VehicleMessage> messages = new ArrayList<>();
+        VehicleMessage message;
+        while((message = reader.next()) != null) {
+            messages.add(message);
+        }
+        reader.close();
+        return messages;
+    }
+
+    @Test
+    public void roundTripFromStream() throws Exception {
+        List<VehicleMessage> messages = buildMessages(10);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryTraceWriter writer = new BinaryTraceWriter(output);
+        for(VehicleMessage message : messages) {
+            writer.write(message);
+        }
+        writer.close();
+
+        BinaryTraceReader reader = new BinaryTraceReader(
+                new ByteArrayInputStream(output.toByteArray()));
+        assertFalse(reader.isSeekable());
+        assertEquals(messages, readAll(reader));
+    }
+
+    @Test
+    public void roundTripManyBlocks() throws Exception {
+        List<VehicleMessage> messages = buildMessages(1000);
+        writeTrace(messages, 256, true);
+
+        BinaryTraceReader reader = new BinaryTraceReader(file);
+        assertTrue(reader.isSeekable());
+        assertEquals(messages, readAll(reader));
+    }
+
+    @Test
+    public void seekToTimestamp() throws Exception {
+        List<VehicleMessage> messages = buildMessages(1000);
+        writeTrace(messages, 256, true);
+
+        BinaryTraceReader reader = new BinaryTraceReader(file);
+        assertTrue(reader.seek(messages.get(555).getTimestamp() - 5));
+        assertEquals(messages.get(555), reader.next());
+        assertEquals(messages.get(556), reader.next());
+
+        assertTrue(reader.seek(0));
+        assertEquals(messages.get(0), reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void unclosedTraceReadable() throws Exception {
+        List<VehicleMessage> messages = buildMessages(100);
+        writeTrace(messages, 256, false);
+
+        BinaryTraceReader reader = new BinaryTraceReader(file);
+        assertFalse(reader.isSeekable());
+        assertFalse(reader.seek(0));
+        assertEquals(messages, readAll(reader));
+    }
+
+    @Test
+    public void detectsFormat() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new BinaryTraceWriter(output).close();
+        byte[] header = output.toByteArray();
+        assertTrue(BinaryTraceReader.isBinaryTrace(header, header.length));
+
+        byte[] json = "{\"name\": \"foo\", \"value\": 1}".getBytes();
+        assertFalse(BinaryTraceReader.isBinaryTrace(json, json.length));
+        assertFalse(BinaryTraceReader.isBinaryTrace(header, 2));
+    }
+
+    @Test(expected=IOException.class)
+    public void notBinaryTrace() throws IOException {
+        new BinaryTraceReader(new ByteArrayInputStream(
+                    "{\"name\": \"foo\"}".getBytes()));
+    }
+
+    @Test
+    public void smallerThanJson() throws Exception {
+        List<VehicleMessage> messages = buildMessages(1000);
+        writeTrace(messages, 64 * 1024, true);
+
+        long jsonLength = 0;
+        for(VehicleMessage message : messages) {
+            jsonLength += JsonFormatter.serialize(message).length() + 1;
+        }
+        assertTrue(file.length() * 5 < jsonLength);
+    }
+}
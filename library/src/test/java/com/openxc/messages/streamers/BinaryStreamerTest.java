@@ -138,6 +138,30 @@ public class BinaryStreamerTest {
         assertEquals(message, deserialized);
     }
 
+    @Test
+    public void readManyFromOneReceive() throws SerializationException {
+        byte[] data = streamer.serializeForStream(message);
+        byte[] batch = new byte[data.length * 50];
+        for(int i = 0; i < 50; i++) {
+            System.arraycopy(data, 0, batch, i * data.length, data.length);
+        }
+        streamer.receive(batch, batch.length);
+
+        for(int i = 0; i < 50; i++) {
+            assertEquals(message, streamer.parseNextMessage());
+        }
+        assertThat(streamer.parseNextMessage(), nullValue());
+    }
+
+    @Test
+    public void skipsEmptyFrame() throws SerializationException {
+        byte[] data = streamer.serializeForStream(message);
+        byte[] withEmptyFrame = new byte[data.length + 1];
+        System.arraycopy(data, 0, withEmptyFrame, 1, data.length);
+        streamer.receive(withEmptyFrame, withEmptyFrame.length);
+        assertEquals(message, streamer.parseNextMessage());
+    }
+
     // @Test
     // TODO the binary deserialization can get in a really messed up state if it
     // gets too far off, but i can't seem to reliably trip it in a test. it's
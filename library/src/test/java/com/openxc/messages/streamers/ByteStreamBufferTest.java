@@ -0,0 +1,78 @@
+package com.openxc.messages.streamers;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ByteStreamBufferTest {
+    ByteStreamBuffer buffer;
+
+    @Before
+    public void setup() {
+        buffer = new ByteStreamBuffer(4);
+    }
+
+    @Test
+    public void emptyHasNoBytes() {
+        assertThat(buffer.size(), equalTo(0));
+        assertThat(buffer.indexOf((byte) 0), equalTo(-1));
+    }
+
+    @Test
+    public void appendPartialArray() {
+        buffer.append(new byte[]{1, 2, 3}, 2);
+        assertThat(buffer.size(), equalTo(2));
+        assertThat(buffer.indexOf((byte) 3), equalTo(-1));
+    }
+
+    @Test
+    public void consumeMovesPosition() {
+        buffer.append(new byte[]{1, 2, 3}, 3);
+        buffer.consume(2);
+        assertThat(buffer.size(), equalTo(1));
+        assertThat(buffer.array()[buffer.position()], equalTo((byte) 3));
+    }
+
+    @Test
+    public void consumeMoreThanAvailable() {
+        buffer.append(new byte[]{1, 2, 3}, 3);
+        buffer.consume(10);
+        assertThat(buffer.size(), equalTo(0));
+    }
+
+    @Test
+    public void growKeepsUnreadBytes() {
+        buffer.append(new byte[]{1, 2, 3}, 3);
+        buffer.consume(1);
+        buffer.append(new byte[]{4, 5, 6, 7, 8}, 5);
+        assertThat(buffer.size(), equalTo(7));
+        for(int i = 0; i < buffer.size(); i++) {
+            assertThat(buffer.array()[buffer.position() + i],
+                    equalTo((byte) (i + 2)));
+        }
+    }
+
+    @Test
+    public void compactBeforeGrowing() {
+        buffer.append(new byte[]{1, 2, 3, 4}, 4);
+        buffer.consume(3);
+        buffer.append(new byte[]{5, 6}, 2);
+        assertThat(buffer.array().length, equalTo(4));
+        assertThat(buffer.position(), equalTo(0));
+        assertThat(buffer.indexOf((byte) 6), equalTo(2));
+    }
+
+    @Test
+    public void indexOfResumesAfterAppend() {
+        buffer.append(new byte[]{1, 2, 3}, 3);
+        assertThat(buffer.indexOf((byte) 0), equalTo(-1));
+        buffer.append(new byte[]{4, 0, 5, 0}, 4);
+        assertThat(buffer.indexOf((byte) 0), equalTo(4));
+        buffer.consume(5);
+        assertThat(buffer.indexOf((byte) 0), equalTo(6));
+        assertThat(buffer.indexOf((byte) 2), equalTo(-1));
+        assertThat(buffer.indexOf((byte) 5), equalTo(5));
+    }
+}
@@ -4,6 +4,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.UnsupportedEncodingException;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,6 +15,7 @@ import org.robolectric.annotation.Config;
 import com.openxc.messages.NamedVehicleMessage;
 import com.openxc.messages.SimpleVehicleMessage;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.util.MetricsRegistry;
 
 @RunWith(RobolectricTestRunner.class)
 public class JsonStreamerTest {
@@ -39,6 +42,24 @@ public class JsonStreamerTest {
         assertFalse(JsonStreamer.containsJson("\u0000\u0001\u0002"));
     }
 
+    @Test
+    public void jsonBytesContainJson() {
+        byte[] bytes = "{\"name\": \"foo\"}\u0000".getBytes();
+        assertTrue(JsonStreamer.containsJson(bytes, bytes.length));
+    }
+
+    @Test
+    public void onlyCheckedLengthOfBytes() {
+        byte[] bytes = "{\"name\": \"foo\"}\u0000\u0001\u0002".getBytes();
+        assertFalse(JsonStreamer.containsJson(bytes, bytes.length));
+        assertTrue(JsonStreamer.containsJson(bytes, bytes.length - 2));
+    }
+
+    @Test
+    public void nonAsciiBytesDontContainJson() {
+        assertFalse(JsonStreamer.containsJson(new byte[] {0x7b, (byte) 0x80}, 2));
+    }
+
     @Test
     public void emptyHasNoMessages() {
         assertThat(streamer.parseNextMessage(), nullValue());
@@ -82,6 +103,17 @@ public class JsonStreamerTest {
         assertThat(streamer.parseNextMessage(), nullValue());
     }
 
+    @Test
+    public void unrecognizedFieldsCountedAsParseError() {
+        MetricsRegistry.Counter errors = MetricsRegistry.getDefault().counter(
+                "streamer.JsonStreamer.parse_errors");
+        long before = errors.get();
+        byte[] bytes = new String("{\"foo\": \"bar\"}\u0000").getBytes();
+        streamer.receive(bytes, bytes.length);
+        streamer.parseNextMessage();
+        assertEquals(before + 1, errors.get());
+    }
+
     @Test
     public void readingGenericThenSpecific() {
         byte[] bytes = new String("{\"name\": \"bar\"}\u0000").getBytes();
@@ -151,6 +183,24 @@ public class JsonStreamerTest {
         assertThat(streamer.parseNextMessage(), nullValue());
     }
 
+    @Test
+    public void completeMultibyteCharacterSplitAcrossReceives() throws
+            UnsupportedEncodingException {
+        byte[] bytes = "{\"name\": \"caf\u00e9\"}\u0000".getBytes("UTF-8");
+        int split = bytes.length - 5;
+        streamer.receive(bytes, split);
+        assertThat(streamer.parseNextMessage(), nullValue());
+
+        byte[] remainder = new byte[bytes.length - split];
+        System.arraycopy(bytes, split, remainder, 0, remainder.length);
+        streamer.receive(remainder, remainder.length);
+
+        VehicleMessage message = streamer.parseNextMessage();
+        assertThat(message, instanceOf(NamedVehicleMessage.class));
+        assertThat(((NamedVehicleMessage) message).getName(),
+                equalTo("caf\u00e9"));
+    }
+
     @Test
     public void deserializeSerialized() {
         byte[] data = streamer.serializeForStream(message);
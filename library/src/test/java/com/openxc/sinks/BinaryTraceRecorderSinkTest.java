@@ -0,0 +1,60 @@
+package com.openxc.sinks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.google.common.io.Files;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.binary.BinaryTraceReader;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryTraceRecorderSinkTest {
+    File directory;
+    BinaryTraceRecorderSink sink;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+        sink = new BinaryTraceRecorderSink(directory);
+    }
+
+    @After
+    public void tearDown() {
+        sink.stop();
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recordsReadableTrace() throws DataSinkException, IOException {
+        SimpleVehicleMessage message = new SimpleVehicleMessage(
+                1400000000000L, "foo", 42.0);
+        sink.receive(message);
+        File file = sink.getFile();
+        assertTrue(file.getName().endsWith(
+                    BinaryTraceRecorderSink.FILE_EXTENSION));
+        sink.stop();
+
+        BinaryTraceReader reader = new BinaryTraceReader(file);
+        assertEquals(message, reader.next());
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void nothingRecordedBeforeFirstMessage() {
+        assertNull(sink.getFile());
+        assertEquals(0, directory.listFiles().length);
+    }
+}
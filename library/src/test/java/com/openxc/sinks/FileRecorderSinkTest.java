@@ -7,13 +7,23 @@ import static org.junit.Assert.*;
 
 import org.robolectric.annotation.Config;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.os.Environment;
+
 import com.openxc.messages.KeyedMessage;
 import com.openxc.messages.SimpleVehicleMessage;
 import com.openxc.messages.VehicleMessage;
@@ -111,6 +121,40 @@ public class FileRecorderSinkTest {
         assertTrue(records[1].indexOf("second") != -1);
     }
 
+    @Test
+    public void testCompressedWhileRecording()
+            throws DataSinkException, IOException {
+        File directory = new File(Environment.getExternalStorageDirectory(),
+                "compressed-test");
+        try {
+            sink = new FileRecorderSink(opener, RuntimeEnvironment.application,
+                    "compressed-test", "device", "5");
+            sink.receive(new SimpleVehicleMessage("first", true));
+            sink.receive(new SimpleVehicleMessage("second", false));
+            sink.stop();
+
+            File[] files = directory.listFiles();
+            assertEquals(1, files.length);
+            assertTrue(files[0].getName().endsWith(".json.zip"));
+
+            ZipInputStream zip = new ZipInputStream(
+                    new FileInputStream(files[0]));
+            try {
+                ZipEntry entry = zip.getNextEntry();
+                assertTrue(files[0].getName().startsWith(entry.getName()));
+                String[] records = IOUtils.toString(zip, "UTF-8").split("\n");
+                assertEquals(2, records.length);
+                assertTrue(records[0].indexOf("first") != -1);
+                assertTrue(records[1].indexOf("second") != -1);
+                assertNull(zip.getNextEntry());
+            } finally {
+                zip.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
     private class MockFileOpener implements FileOpener {
         @Override
         public BufferedWriter openForWriting(String path) throws IOException {
@@ -0,0 +1,91 @@
+package com.openxc.sinks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.openxc.messages.MessageKey;
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+
+@RunWith(RobolectricTestRunner.class)
+public class LastValueCacheSinkTest {
+    LastValueCacheSink sink;
+    SimpleVehicleMessage message = new SimpleVehicleMessage("foo", 42.0);
+    MessageKey key = message.getKey();
+
+    @Before
+    public void setUp() {
+        sink = new LastValueCacheSink(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void untrackedKeysNotKept() {
+        sink.receive(message);
+        assertThat(sink.get(key), nullValue());
+        assertEquals(-1, sink.getAge(key, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void trackedKeysKept() {
+        assertTrue(sink.track(Arrays.asList(key)));
+        assertFalse(sink.track(Arrays.asList(key)));
+        sink.receive(message);
+        assertEquals(message, sink.get(key));
+        assertThat(sink.getAge(key, TimeUnit.MILLISECONDS),
+                greaterThanOrEqualTo(0L));
+    }
+
+    @Test
+    public void updateKeepsNewerValue() {
+        sink.track(Arrays.asList(key));
+        long requestedNanos = System.nanoTime();
+        sink.receive(message);
+
+        sink.update(key, new SimpleVehicleMessage("foo", 1.0),
+                requestedNanos);
+        assertEquals(message, sink.get(key));
+
+        VehicleMessage newer = new SimpleVehicleMessage("foo", 2.0);
+        sink.update(key, newer, System.nanoTime());
+        assertEquals(newer, sink.get(key));
+    }
+
+    @Test
+    public void updateIgnoresUntrackedKeys() {
+        sink.update(key, message, System.nanoTime());
+        assertThat(sink.get(key), nullValue());
+    }
+
+    @Test
+    public void staleValueNotReturned() {
+        sink.setMaxAge(1, TimeUnit.MILLISECONDS);
+        sink.track(Arrays.asList(key));
+        sink.update(key, message, System.nanoTime() -
+                TimeUnit.SECONDS.toNanos(1));
+        assertThat(sink.get(key), nullValue());
+
+        sink.receive(message);
+        assertEquals(message, sink.get(key));
+    }
+
+    @Test
+    public void clearKeepsKeys() {
+        sink.track(Arrays.asList(key));
+        sink.receive(message);
+        sink.clear();
+        assertThat(sink.get(key), nullValue());
+        assertTrue(sink.isTracked(key));
+
+        sink.stop();
+        assertFalse(sink.isTracked(key));
+    }
+}
@@ -4,6 +4,12 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.robolectric.annotation.Config;
 import org.robolectric.RobolectricTestRunner;
 import org.junit.runner.RunWith;
@@ -18,11 +24,16 @@ import com.openxc.messages.DiagnosticResponse;
 import com.openxc.messages.VehicleMessage;
 import com.openxc.messages.KeyedMessage;
 import com.openxc.messages.ExactKeyMatcher;
+import com.openxc.messages.KeyMatcher;
+import com.openxc.messages.MessageFilter;
+import com.openxc.messages.PartialKeyMatcher;
+import com.openxc.messages.SubscriptionOptions;
 import com.openxc.measurements.UnrecognizedMeasurementTypeException;
 import com.openxc.measurements.VehicleSpeed;
 import com.openxc.measurements.SteeringWheelAngle;
 import com.openxc.measurements.Measurement;
 import com.openxc.measurements.BaseMeasurement;
+import com.openxc.util.BoundedQueue.OverflowPolicy;
 
 @RunWith(RobolectricTestRunner.class)
 public class MessageListenerSinkTest {
@@ -206,6 +217,162 @@ public class MessageListenerSinkTest {
         assertThat(listener.received, nullValue());
     }
 
+    @Test
+    public void receivesManyMessagesInOrder() throws DataSinkException {
+        final List<VehicleMessage> received = new ArrayList<>();
+        sink.register(NamedVehicleMessage.class, new VehicleMessage.Listener() {
+            @Override
+            public void receive(VehicleMessage message) {
+                received.add(message);
+            }
+        });
+
+        List<VehicleMessage> sent = new ArrayList<>();
+        for(int i = 0; i < 500; i++) {
+            NamedVehicleMessage message = new NamedVehicleMessage("foo" + i);
+            sent.add(message);
+            sink.receive(message);
+        }
+        sink.clearQueue();
+        assertThat(received, equalTo(sent));
+        assertThat(sink.getQueueDepth(), equalTo(0));
+        assertThat(sink.getDroppedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void defaultQueueNeverDrops() throws DataSinkException {
+        final List<VehicleMessage> received = new ArrayList<>();
+        sink.register(NamedVehicleMessage.class, new VehicleMessage.Listener() {
+            @Override
+            public void receive(VehicleMessage message) {
+                received.add(message);
+            }
+        });
+
+        int count = AbstractQueuedCallbackSink.DEFAULT_QUEUE_CAPACITY * 2;
+        for(int i = 0; i < count; i++) {
+            sink.receive(new NamedVehicleMessage("foo" + i));
+        }
+        sink.clearQueue();
+        assertThat(received.size(), equalTo(count));
+        assertThat(sink.getDroppedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void fullQueueDropsAndCounts() throws DataSinkException,
+            InterruptedException {
+        sink.stop();
+        sink = new MessageListenerSink(2, OverflowPolicy.DROP_NEWEST);
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        sink.register(NamedVehicleMessage.class, new VehicleMessage.Listener() {
+            @Override
+            public void receive(VehicleMessage message) {
+                delivering.countDown();
+                try {
+                    release.await();
+                } catch(InterruptedException e) { }
+            }
+        });
+
+        try {
+            sink.receive(new NamedVehicleMessage("first"));
+            assertThat(delivering.await(5, TimeUnit.SECONDS), equalTo(true));
+            sink.receive(new NamedVehicleMessage("second"));
+            sink.receive(new NamedVehicleMessage("third"));
+            sink.receive(new NamedVehicleMessage("fourth"));
+            assertThat(sink.getQueueDepth(), equalTo(2));
+            assertThat(sink.getDroppedCount(), equalTo(1L));
+        } finally {
+            release.countDown();
+        }
+        sink.clearQueue();
+        assertThat(sink.getQueueDepth(), equalTo(0));
+    }
+
+    @Test
+    public void onlyMatchingExactListenerReceives() throws DataSinkException {
+        List<SpyListener> listeners = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            SpyListener spy = new SpyListener();
+            listeners.add(spy);
+            sink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage("signal" + i)), spy);
+        }
+
+        NamedVehicleMessage message = new NamedVehicleMessage("signal42");
+        sink.receive(message);
+        sink.clearQueue();
+        for(int i = 0; i < listeners.size(); i++) {
+            if(i == 42) {
+                assertThat(listeners.get(i).received,
+                        equalTo((VehicleMessage) message));
+            } else {
+                assertThat(listeners.get(i).received, nullValue());
+            }
+        }
+    }
+
+    @Test
+    public void wildcardListenerReceivesAllKeyed() throws DataSinkException {
+        final List<VehicleMessage> received = new ArrayList<>();
+        sink.register(KeyMatcher.getWildcardMatcher(),
+                new VehicleMessage.Listener() {
+            @Override
+            public void receive(VehicleMessage message) {
+                received.add(message);
+            }
+        });
+
+        sink.receive(new NamedVehicleMessage("foo"));
+        sink.receive(new NamedVehicleMessage("bar"));
+        sink.receive(new VehicleMessage());
+        sink.clearQueue();
+        assertThat(received, hasSize(2));
+    }
+
+    @Test
+    public void exactAndWildcardBothReceive() throws DataSinkException {
+        NamedVehicleMessage message = new NamedVehicleMessage("foo");
+        SpyListener wildcardListener = new SpyListener();
+        sink.register(ExactKeyMatcher.buildExactMatcher(message), listener);
+        sink.register(KeyMatcher.getWildcardMatcher(), wildcardListener);
+        sink.receive(message);
+        sink.clearQueue();
+        assertThat(listener.received, notNullValue());
+        assertThat(wildcardListener.received, notNullValue());
+    }
+
+    @Test
+    public void removeWildcardListener() throws DataSinkException {
+        sink.register(KeyMatcher.getWildcardMatcher(), listener);
+        sink.unregister(KeyMatcher.getWildcardMatcher(), listener);
+        sink.receive(new NamedVehicleMessage("foo"));
+        sink.clearQueue();
+        assertThat(listener.received, nullValue());
+    }
+
+    @Test
+    public void registerFromListener() throws DataSinkException {
+        final NamedVehicleMessage message = new NamedVehicleMessage("foo");
+        sink.register(ExactKeyMatcher.buildExactMatcher(message),
+                new VehicleMessage.Listener() {
+            @Override
+            public void receive(VehicleMessage received) {
+                sink.register(ExactKeyMatcher.buildExactMatcher(message),
+                        listener);
+            }
+        });
+
+        sink.receive(message);
+        sink.clearQueue();
+        assertThat(listener.received, nullValue());
+
+        sink.receive(message);
+        sink.clearQueue();
+        assertThat(listener.received, notNullValue());
+    }
+
     private VehicleSpeed.Listener speedListener = new VehicleSpeed.Listener() {
         @Override
         public void receive(Measurement measurement) {
@@ -228,4 +395,165 @@ public class MessageListenerSinkTest {
             received = message;
         }
     };
+
+    @Test
+    public void filterDescribesListeners() {
+        NamedVehicleMessage named = new NamedVehicleMessage("foo");
+        sink.register(ExactKeyMatcher.buildExactMatcher(named), listener);
+        sink.register(PartialKeyMatcher.buildPartialMatcher(
+                    new CanMessage(1, 2, new byte[8]).getKey()), listener);
+        sink.register(VehicleSpeed.class, speedListener);
+        sink.register(CanMessage.class, messageListener);
+
+        MessageFilter filter = sink.getFilter();
+        assertThat(filter, notNullValue());
+        assertThat(filter.matches(named), equalTo(true));
+        assertThat(filter.matches(new VehicleSpeed(42.0).toVehicleMessage()),
+                equalTo(true));
+        assertThat(filter.matches(new CanMessage(5, 6, new byte[8])),
+                equalTo(true));
+        assertThat(filter.matches(new NamedVehicleMessage("bar")),
+                equalTo(false));
+    }
+
+    @Test
+    public void filterListenerCalledWhenOneShotRemoved()
+            throws DataSinkException {
+        final int[] changes = {0};
+        sink.setFilterListener(new MessageListenerSink.FilterListener() {
+            @Override
+            public void onFilterChanged() {
+                changes[0]++;
+            }
+        });
+        NamedVehicleMessage message = new NamedVehicleMessage("foo");
+        sink.register(ExactKeyMatcher.buildExactMatcher(message), listener,
+                false);
+        assertThat(sink.getFilter().matches(message), equalTo(true));
+
+        sink.receive(message);
+        sink.clearQueue();
+        assertEquals(1, changes[0]);
+        assertThat(sink.getFilter().matches(message), equalTo(false));
+    }
+
+    @Test
+    public void filterListenerNotCalledWhilePersistentRemains()
+            throws DataSinkException {
+        final int[] changes = {0};
+        sink.setFilterListener(new MessageListenerSink.FilterListener() {
+            @Override
+            public void onFilterChanged() {
+                changes[0]++;
+            }
+        });
+        NamedVehicleMessage message = new NamedVehicleMessage("foo");
+        sink.register(ExactKeyMatcher.buildExactMatcher(message), listener);
+        sink.register(ExactKeyMatcher.buildExactMatcher(message),
+                messageListener, false);
+
+        sink.receive(message);
+        sink.clearQueue();
+        assertEquals(0, changes[0]);
+    }
+
+    @Test
+    public void customMatcherNeedsEverything() {
+        sink.register(KeyMatcher.getWildcardMatcher(), listener);
+        assertThat(sink.getFilter(), nullValue());
+    }
+
+    private class RecordingListener implements VehicleMessage.Listener {
+        public List<Object> values = new ArrayList<>();
+
+        @Override
+        public void receive(VehicleMessage message) {
+            values.add(message.asSimpleMessage().getValue());
+        }
+    };
+
+    @Test
+    public void maxRateSkipsFrequentUpdates() throws DataSinkException {
+        RecordingListener recorder = new RecordingListener();
+        sink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage("foo")), recorder,
+                new SubscriptionOptions().withMaxRate(10));
+
+        long[] timestamps = {1000, 1050, 1100, 1150, 1250};
+        for(int i = 0; i < timestamps.length; i++) {
+            sink.receive(new SimpleVehicleMessage(timestamps[i], "foo", i));
+        }
+        sink.clearQueue();
+        assertThat(recorder.values, contains((Object) 0, 2, 4));
+    }
+
+    @Test
+    public void maxRateStartsOverWhenTimestampGoesBack()
+            throws DataSinkException {
+        RecordingListener recorder = new RecordingListener();
+        sink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage("foo")), recorder,
+                new SubscriptionOptions().withMaxRate(10));
+
+        long[] timestamps = {1000, 1050, 500, 520, 600};
+        for(int i = 0; i < timestamps.length; i++) {
+            sink.receive(new SimpleVehicleMessage(timestamps[i], "foo", i));
+        }
+        sink.clearQueue();
+        assertThat(recorder.values, contains((Object) 0, 2, 4));
+    }
+
+    @Test
+    public void onChangeSkipsChangesInDeadband() throws DataSinkException {
+        RecordingListener recorder = new RecordingListener();
+        sink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage("foo")), recorder,
+                new SubscriptionOptions().withOnChange(1.0));
+
+        double[] values = {10, 10.5, 11.5, 11.5, 12};
+        for(double value : values) {
+            sink.receive(new SimpleVehicleMessage("foo", value));
+        }
+        sink.clearQueue();
+        assertThat(recorder.values, contains((Object) 10.0, 11.5));
+    }
+
+    @Test
+    public void latestValueWinsSkipsOlderQueuedUpdates() {
+        final List<VehicleSpeed> speeds = new ArrayList<>();
+        sink.register(VehicleSpeed.class, new Measurement.Listener() {
+            @Override
+            public void receive(Measurement measurement) {
+                speeds.add((VehicleSpeed) measurement);
+            }
+        }, new SubscriptionOptions().withLatestValueWins());
+        RecordingListener recorder = new RecordingListener();
+        sink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage(VehicleSpeed.ID)), recorder);
+
+        sink.propagateMessages(Arrays.<VehicleMessage>asList(
+                    new SimpleVehicleMessage(VehicleSpeed.ID, 10),
+                    new SimpleVehicleMessage(VehicleSpeed.ID, 20)));
+        assertThat(speeds, hasSize(1));
+        assertThat(speeds.get(0).getValue().doubleValue(), equalTo(20.0));
+        // Listeners without options still get every update
+        assertThat(recorder.values, hasSize(2));
+    }
+
+    @Test
+    public void filterHasLoosestOptions() {
+        NamedVehicleMessage named = new NamedVehicleMessage("foo");
+        sink.register(ExactKeyMatcher.buildExactMatcher(named), listener,
+                new SubscriptionOptions().withMaxRate(10).withOnChange(1));
+        sink.register(ExactKeyMatcher.buildExactMatcher(named),
+                new RecordingListener(),
+                new SubscriptionOptions().withMaxRate(20));
+        sink.register(ExactKeyMatcher.buildExactMatcher(
+                    new NamedVehicleMessage("bar")), listener);
+
+        MessageFilter filter = sink.getFilter();
+        assertThat(filter.getOptions().keySet(), contains(named.getKey()));
+        assertThat(filter.getOptions().get(named.getKey()),
+                equalTo(new SubscriptionOptions().withMaxRate(20)));
+    }
 }
@@ -1,5 +1,13 @@
 package com.openxc.sinks;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.junit.Test;
 import org.junit.Before;
 import static org.junit.Assert.*;
@@ -7,9 +15,13 @@ import org.junit.runner.RunWith;
 
 import org.robolectric.annotation.Config;
 import org.robolectric.RobolectricTestRunner;
+import com.openxc.messages.MessageFilter;
+import com.openxc.messages.MessageKey;
 import com.openxc.messages.NamedVehicleMessage;
 import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.SubscriptionOptions;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.VehicleMessageBatch;
 import com.openxc.remote.VehicleServiceListener;
 
 @RunWith(RobolectricTestRunner.class)
@@ -27,9 +39,28 @@ public class RemoteCallbackSinkTest {
             public void receive(VehicleMessage value) {
                 receivedId = ((NamedVehicleMessage)value).getName();
             }
+
+            @Override
+            public void receiveBatch(VehicleMessageBatch values) {
+                fail("Listener wasn't registered for batches");
+            }
         };
     }
 
+    private class BatchListener extends VehicleServiceListener.Stub {
+        List<List<VehicleMessage>> batches = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void receive(VehicleMessage value) {
+            fail("Batch listener shouldn't receive single messages");
+        }
+
+        @Override
+        public void receiveBatch(VehicleMessageBatch values) {
+            batches.add(new ArrayList<>(values.getMessages()));
+        }
+    }
+
     @Test
     public void testRegister() {
         assertEquals(0, notifier.getListenerCount());
@@ -66,4 +97,143 @@ public class RemoteCallbackSinkTest {
         assertNotNull(receivedId);
         assertEquals(receivedId, messageId);
     }
+
+    @Test
+    public void batchListenerReceivesQueuedMessagesTogether()
+            throws DataSinkException {
+        BatchListener batchListener = new BatchListener();
+        notifier.register(batchListener, true);
+        notifier.receive(new SimpleVehicleMessage("first", 1));
+        notifier.receive(new SimpleVehicleMessage("second", 2));
+        notifier.clearQueue();
+
+        int count = 0;
+        for(List<VehicleMessage> batch : batchListener.batches) {
+            for(VehicleMessage message : batch) {
+                count++;
+                assertEquals(count == 1 ? "first" : "second",
+                        ((NamedVehicleMessage) message).getName());
+            }
+        }
+        assertEquals(2, count);
+        assertTrue(batchListener.batches.size() <= 2);
+    }
+
+    @Test
+    public void batchAndSingleListenersBothReceive() throws DataSinkException {
+        BatchListener batchListener = new BatchListener();
+        notifier.register(batchListener, true);
+        notifier.register(listener);
+        assertEquals(2, notifier.getListenerCount());
+
+        notifier.receive(new SimpleVehicleMessage(messageId, 1));
+        notifier.clearQueue();
+        assertEquals(messageId, receivedId);
+        assertEquals(1, batchListener.batches.size());
+        assertEquals(1, batchListener.batches.get(0).size());
+    }
+
+    @Test
+    public void filteredListenerOnlyReceivesMatches() throws DataSinkException {
+        BatchListener batchListener = new BatchListener();
+        notifier.register(batchListener, true);
+        SimpleVehicleMessage wanted = new SimpleVehicleMessage(messageId, 1);
+        assertTrue(notifier.setFilter(batchListener, new MessageFilter(
+                    Arrays.asList(wanted.getKey()),
+                    Collections.<MessageKey>emptyList(),
+                    Collections.<Class<? extends VehicleMessage>>emptyList())));
+
+        notifier.receive(new SimpleVehicleMessage("other", 2));
+        notifier.receive(wanted);
+        notifier.receive(new SimpleVehicleMessage("another", 3));
+        notifier.clearQueue();
+
+        List<VehicleMessage> received = new ArrayList<>();
+        for(List<VehicleMessage> batch : batchListener.batches) {
+            received.addAll(batch);
+        }
+        assertEquals(1, received.size());
+        assertEquals(wanted, received.get(0));
+    }
+
+    @Test
+    public void clearingFilterReceivesEverything() throws DataSinkException {
+        notifier.register(listener);
+        notifier.setFilter(listener, new MessageFilter(
+                    Collections.<MessageKey>emptyList(),
+                    Collections.<MessageKey>emptyList(),
+                    Collections.<Class<? extends VehicleMessage>>emptyList()));
+        notifier.receive(new SimpleVehicleMessage(messageId, 1));
+        notifier.clearQueue();
+        assertNull(receivedId);
+
+        notifier.setFilter(listener, null);
+        notifier.receive(new SimpleVehicleMessage(messageId, 1));
+        notifier.clearQueue();
+        assertEquals(messageId, receivedId);
+    }
+
+    @Test
+    public void filterForUnregisteredListenerIgnored() {
+        assertFalse(notifier.setFilter(listener, null));
+    }
+
+    @Test
+    public void filterOptionsLimitRate() throws DataSinkException {
+        BatchListener batchListener = new BatchListener();
+        notifier.register(batchListener, true);
+        MessageKey key = new SimpleVehicleMessage(messageId, 1).getKey();
+        Map<MessageKey, SubscriptionOptions> options = new HashMap<>();
+        options.put(key, new SubscriptionOptions().withMaxRate(10));
+        notifier.setFilter(batchListener, new MessageFilter(
+                    Arrays.asList(key), Collections.<MessageKey>emptyList(),
+                    Collections.<Class<? extends VehicleMessage>>emptyList(),
+                    options));
+
+        notifier.receive(new SimpleVehicleMessage(1000L, messageId, 1));
+        notifier.receive(new SimpleVehicleMessage(1010L, messageId, 2));
+        notifier.receive(new SimpleVehicleMessage(1200L, messageId, 3));
+        notifier.clearQueue();
+
+        List<VehicleMessage> received = new ArrayList<>();
+        for(List<VehicleMessage> batch : batchListener.batches) {
+            received.addAll(batch);
+        }
+        assertEquals(2, received.size());
+        assertEquals(3, received.get(1).asSimpleMessage().getValue());
+    }
+
+    @Test
+    public void filterChangeKeepsUnchangedThrottles()
+            throws DataSinkException {
+        BatchListener batchListener = new BatchListener();
+        notifier.register(batchListener, true);
+        MessageKey key = new SimpleVehicleMessage(messageId, 1).getKey();
+        MessageKey otherKey = new SimpleVehicleMessage("other", 1).getKey();
+        Map<MessageKey, SubscriptionOptions> options = new HashMap<>();
+        options.put(key, new SubscriptionOptions().withMaxRate(10));
+        notifier.setFilter(batchListener, new MessageFilter(
+                    Arrays.asList(key), Collections.<MessageKey>emptyList(),
+                    Collections.<Class<? extends VehicleMessage>>emptyList(),
+                    options));
+        notifier.receive(new SimpleVehicleMessage(1000L, messageId, 1));
+        notifier.clearQueue();
+
+        options.put(otherKey, new SubscriptionOptions().withMaxRate(1));
+        notifier.setFilter(batchListener, new MessageFilter(
+                    Arrays.asList(key, otherKey),
+                    Collections.<MessageKey>emptyList(),
+                    Collections.<Class<? extends VehicleMessage>>emptyList(),
+                    options));
+        notifier.receive(new SimpleVehicleMessage(1010L, messageId, 2));
+        notifier.receive(new SimpleVehicleMessage(1200L, messageId, 3));
+        notifier.clearQueue();
+
+        List<VehicleMessage> received = new ArrayList<>();
+        for(List<VehicleMessage> batch : batchListener.batches) {
+            received.addAll(batch);
+        }
+        assertEquals(2, received.size());
+        assertEquals(3, received.get(1).asSimpleMessage().getValue());
+    }
 }
@@ -4,12 +4,21 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.HttpPost;
 import org.junit.After;
 import org.junit.Before;
@@ -21,11 +30,16 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.FakeHttp;
 
+import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.openxc.TestUtils;
 import com.openxc.messages.SimpleVehicleMessage;
 import com.openxc.messages.VehicleMessage;
+import com.openxc.util.SegmentedFileQueue;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 @RunWith(RobolectricTestRunner.class)
 public class UploaderSinkTest {
@@ -35,7 +49,9 @@ public class UploaderSinkTest {
 
     @Before
     public void setUp() throws IOException, DataSinkException {
-        FakeHttp.getFakeHttpLayer().interceptHttpRequests(false);
+        // Respond to uploads with the default response, so they aren't
+        // retried
+        FakeHttp.getFakeHttpLayer().interceptHttpRequests(true);
         FakeHttp.setDefaultHttpResponse(200, "dummy");
         sink = new UploaderSink(RuntimeEnvironment.application, "http://localhost");
         gson = new Gson();
@@ -51,6 +67,25 @@ public class UploaderSinkTest {
         assertFalse(FakeHttp.httpRequestWasMade());
     }
 
+    private ArrayList<SimpleVehicleMessage> getUploadedMessages()
+            throws IOException {
+        Type listType = new TypeToken<List<SimpleVehicleMessage>>() {}.getType();
+        ArrayList<SimpleVehicleMessage> messages = new ArrayList<>();
+        HttpPost request;
+        while((request = (HttpPost) FakeHttp.getNextSentHttpRequest()) != null) {
+            InputStream payload = request.getEntity().getContent();
+            if(request.getEntity().getContentEncoding() != null &&
+                    request.getEntity().getContentEncoding().getValue()
+                        .equals("gzip")) {
+                payload = new GZIPInputStream(payload);
+            }
+            String body = IOUtils.toString(payload, "UTF-8");
+
+            messages.addAll((List<SimpleVehicleMessage>)gson.fromJson(body, listType));
+        }
+        return messages;
+    }
+
     @Test
     public void testUploadBatch() throws DataSinkException, IOException {
         TestUtils.pause(50);
@@ -60,20 +95,175 @@ public class UploaderSinkTest {
         TestUtils.pause(1000);
         assertTrue(FakeHttp.httpRequestWasMade());
 
-        Type listType = new TypeToken<List<SimpleVehicleMessage>>() {}.getType();
-        ArrayList<SimpleVehicleMessage> messages = new ArrayList<>();
-        HttpPost request;
-        while((request = (HttpPost) FakeHttp.getNextSentHttpRequest()) != null) {
-            InputStream payload = request.getEntity().getContent();
-            int length = payload.available();
-            byte[] buffer = new byte[length];
-            payload.read(buffer);
-
-            messages.addAll((List<SimpleVehicleMessage>)gson.fromJson(new String(buffer), listType));
-        }
+        ArrayList<SimpleVehicleMessage> messages = getUploadedMessages();
         assertThat(messages, hasSize(25));
         for(SimpleVehicleMessage deserializedMessage : messages) {
             assertThat(message, equalTo((VehicleMessage) deserializedMessage));
         }
     }
+
+    @Test
+    public void testFailedUploadKeptAcrossRestart()
+            throws DataSinkException, IOException {
+        File directory = Files.createTempDir();
+        URI uri = URI.create("http://localhost");
+        try {
+            FakeHttp.setDefaultHttpResponse(500, "error");
+            UploaderSink failing = new UploaderSink(
+                    RuntimeEnvironment.application, uri, directory);
+            TestUtils.pause(50);
+            for(int i = 0; i < 25; i++) {
+                failing.receive(message);
+            }
+            TestUtils.pause(1000);
+            failing.stop();
+            assertTrue(FakeHttp.httpRequestWasMade());
+
+            FakeHttp.getFakeHttpLayer().clearRequestInfos();
+            FakeHttp.setDefaultHttpResponse(201, "created");
+            UploaderSink restarted = new UploaderSink(
+                    RuntimeEnvironment.application, uri, directory);
+            TestUtils.pause(1000);
+            restarted.stop();
+            assertThat(getUploadedMessages(), hasSize(25));
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testUploadToServer() throws Exception {
+        FakeHttp.getFakeHttpLayer().interceptHttpRequests(false);
+        final Set<Integer> received = new ConcurrentSkipListSet<>();
+        final Set<Integer> clientPorts = new ConcurrentSkipListSet<>();
+        final AtomicInteger failures = new AtomicInteger(1);
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst(
+                            "Content-Encoding"));
+                String body = IOUtils.toString(new GZIPInputStream(
+                            exchange.getRequestBody()), "UTF-8");
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                if(failures.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(503, 4);
+                    exchange.getResponseBody().write("busy".getBytes());
+                } else {
+                    List<SimpleVehicleMessage> messages = gson.fromJson(body,
+                            new TypeToken<List<SimpleVehicleMessage>>() {}
+                                .getType());
+                    for(SimpleVehicleMessage message : messages) {
+                        received.add(((Number) message.getValue()).intValue());
+                    }
+                    exchange.sendResponseHeaders(201, 2);
+                    exchange.getResponseBody().write("ok".getBytes());
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        File directory = Files.createTempDir();
+        try {
+            UploaderSink uploader = new UploaderSink(
+                    RuntimeEnvironment.application,
+                    URI.create("http://127.0.0.1:" +
+                        server.getAddress().getPort() + "/"), directory);
+            for(int i = 0; i < 5000; i++) {
+                uploader.receive(new SimpleVehicleMessage("foo", i));
+            }
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while(received.size() < 5000 &&
+                    System.currentTimeMillis() < deadline) {
+                TestUtils.pause(50);
+            }
+            // Let the last acknowledgement finish
+            TestUtils.pause(100);
+            uploader.stop();
+
+            assertEquals(5000, received.size());
+            // The failed request was retried, over reused connections
+            assertThat(failures.get(), lessThan(0));
+            assertThat(clientPorts.size(), lessThanOrEqualTo(
+                        UploaderSink.MAXIMUM_IN_FLIGHT_REQUESTS));
+
+            SegmentedFileQueue queue = new SegmentedFileQueue(directory,
+                    SegmentedFileQueue.DEFAULT_SEGMENT_SIZE,
+                    UploaderSink.MAXIMUM_QUEUE_SIZE);
+            assertTrue(queue.isEmpty());
+            queue.close();
+        } finally {
+            server.stop(0);
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testTooLargeUploadSplit() throws Exception {
+        FakeHttp.getFakeHttpLayer().interceptHttpRequests(false);
+        final int limit = 20000;
+        final Set<Integer> received = new ConcurrentSkipListSet<>();
+        final AtomicInteger rejected = new AtomicInteger();
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = IOUtils.toString(new GZIPInputStream(
+                            exchange.getRequestBody()), "UTF-8");
+                if(body.length() > limit) {
+                    rejected.incrementAndGet();
+                    exchange.sendResponseHeaders(413, 5);
+                    exchange.getResponseBody().write("large".getBytes());
+                } else {
+                    List<SimpleVehicleMessage> messages = gson.fromJson(body,
+                            new TypeToken<List<SimpleVehicleMessage>>() {}
+                                .getType());
+                    for(SimpleVehicleMessage message : messages) {
+                        received.add(((Number) message.getValue()).intValue());
+                    }
+                    exchange.sendResponseHeaders(201, 2);
+                    exchange.getResponseBody().write("ok".getBytes());
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        File directory = Files.createTempDir();
+        try {
+            UploaderSink uploader = new UploaderSink(
+                    RuntimeEnvironment.application,
+                    URI.create("http://127.0.0.1:" +
+                        server.getAddress().getPort() + "/"), directory);
+            for(int i = 0; i < 5000; i++) {
+                uploader.receive(new SimpleVehicleMessage("foo", i));
+            }
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while(received.size() < 5000 &&
+                    System.currentTimeMillis() < deadline) {
+                TestUtils.pause(50);
+            }
+            // Let the last acknowledgement finish
+            TestUtils.pause(100);
+            uploader.stop();
+
+            assertEquals(5000, received.size());
+            assertThat(rejected.get(), greaterThan(0));
+            assertThat(uploader.getBatchBytes(), lessThanOrEqualTo(limit));
+
+            SegmentedFileQueue queue = new SegmentedFileQueue(directory,
+                    SegmentedFileQueue.DEFAULT_SEGMENT_SIZE,
+                    UploaderSink.MAXIMUM_QUEUE_SIZE);
+            assertTrue(queue.isEmpty());
+            queue.close();
+        } finally {
+            server.stop(0);
+            FileUtils.deleteDirectory(directory);
+        }
+    }
 }
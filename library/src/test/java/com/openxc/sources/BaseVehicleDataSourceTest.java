@@ -14,6 +14,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import com.openxc.messages.VehicleMessage;
+import com.openxc.util.MetricsRegistry;
 
 @RunWith(RobolectricTestRunner.class)
 public class BaseVehicleDataSourceTest {
@@ -59,6 +60,17 @@ public class BaseVehicleDataSourceTest {
         verify(mCallback, times(1)).sourceDisconnected(mSource);
     }
 
+    @Test
+    public void stopRemovesMetrics() {
+        String name = mSource.getMetricsPrefix() + ".messages";
+        mSource.inject(new VehicleMessage());
+        assertTrue(MetricsRegistry.getDefault().snapshot().getValues()
+                .containsKey(name));
+        mSource.stop();
+        assertFalse(MetricsRegistry.getDefault().snapshot().getValues()
+                .containsKey(name));
+    }
+
     @Test
     public void receivedMessagesAreTimestampped() {
         mSource.inject(new VehicleMessage());
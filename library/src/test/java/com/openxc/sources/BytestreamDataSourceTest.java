@@ -9,6 +9,7 @@ import static org.mockito.Mockito.verify;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -160,9 +161,79 @@ public class BytestreamDataSourceTest {
         }
     }
 
+    @Test
+    public void batchCallbackReceivesReadAtOnce() {
+        RecordingBatchCallback batchCallback = new RecordingBatchCallback();
+        source.stop();
+        source = new TestBytestreamSource(batchCallback);
+        source.start();
+        source.connect();
+        List<SimpleVehicleMessage> messages = new ArrayList<>();
+        messages.add(new SimpleVehicleMessage("1", "foo"));
+        messages.add(new SimpleVehicleMessage("2", "bar"));
+        messages.add(new SimpleVehicleMessage("3", "baz"));
+        byte[] bytes = new byte[0];
+        for(SimpleVehicleMessage message : messages) {
+            byte[] serialized = new JsonStreamer().serializeForStream(message);
+            byte[] combined = new byte[bytes.length + serialized.length];
+            System.arraycopy(bytes, 0, combined, 0, bytes.length);
+            System.arraycopy(serialized, 0, combined, bytes.length,
+                    serialized.length);
+            bytes = combined;
+        }
+        source.inject(bytes);
+
+        TestUtils.pause(100);
+        assertEquals(1, batchCallback.batches.size());
+        List<VehicleMessage> batch = batchCallback.batches.get(0);
+        assertEquals(messages.size(), batch.size());
+        for(int i = 0; i < messages.size(); i++) {
+            VehicleMessage received = batch.get(i);
+            assertTrue(received.isTimestamped());
+            received.untimestamp();
+            assertEquals(received, messages.get(i));
+        }
+    }
+
+    @Test
+    public void fullReadGrowsBuffer() {
+        source.start();
+        source.connect();
+        source.inject(new byte[BytestreamDataSource.DEFAULT_READ_BUFFER_SIZE]);
+        source.inject(new byte[] {1,2,3,4});
+        TestUtils.pause(100);
+        assertEquals(2, source.readSizes.size());
+        assertEquals(BytestreamDataSource.DEFAULT_READ_BUFFER_SIZE,
+                (int) source.readSizes.get(0));
+        assertEquals(BytestreamDataSource.DEFAULT_READ_BUFFER_SIZE * 2,
+                (int) source.readSizes.get(1));
+    }
+
+    private class RecordingBatchCallback implements BatchSourceCallback {
+        public List<List<VehicleMessage>> batches =
+                new CopyOnWriteArrayList<>();
+
+        @Override
+        public void receive(List<VehicleMessage> messages) {
+            batches.add(new ArrayList<>(messages));
+        }
+
+        @Override
+        public void receive(VehicleMessage message) {
+            fail("Batch callback shouldn't receive single messages");
+        }
+
+        @Override
+        public void sourceConnected(VehicleDataSource source) { }
+
+        @Override
+        public void sourceDisconnected(VehicleDataSource source) { }
+    }
+
     private class TestBytestreamSource extends BytestreamDataSource {
         public boolean connected = false;
         public ArrayList<byte[]> packets = new ArrayList<>();
+        public List<Integer> readSizes = new CopyOnWriteArrayList<>();
         private Lock mPacketLock = new ReentrantLock();
         private Condition mPacketReceived = mPacketLock.newCondition();
         public boolean nextReadIsError = false;
@@ -209,6 +280,7 @@ public class BytestreamDataSourceTest {
                 while(packets.isEmpty()) {
                     mPacketReceived.await();
                 }
+                readSizes.add(bytes.length);
                 if(nextReadIsError) {
                     return -1;
                 } else if(nextReadThrowsException) {
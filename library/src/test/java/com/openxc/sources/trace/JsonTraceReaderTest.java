@@ -0,0 +1,57 @@
+package com.openxc.sources.trace;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.google.common.base.Charsets;
+import com.openxc.messages.VehicleMessage;
+
+@RunWith(RobolectricTestRunner.class)
+public class JsonTraceReaderTest {
+    private JsonTraceReader mapped(String contents) {
+        return new JsonTraceReader(ByteBuffer.wrap(
+                    contents.getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void readsLinesFromBuffer() throws IOException {
+        JsonTraceReader reader = mapped(
+                "{\"name\": \"foo\", \"value\": 1, \"timestamp\": 1.5}\r\n" +
+                "not json\n" +
+                "{\"name\": \"untimestamped\", \"value\": 2}\n" +
+                "{\"name\": \"bär\", \"value\": \"ü\", " +
+                    "\"timestamp\": 2}");
+
+        VehicleMessage message = reader.next();
+        assertEquals("foo", message.asSimpleMessage().getName());
+        assertEquals(Long.valueOf(1500), message.getTimestamp());
+
+        message = reader.next();
+        assertEquals("bär", message.asSimpleMessage().getName());
+        assertEquals("ü", message.asSimpleMessage().getValue());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void longLines() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for(int i = 0; i < 1000; i++) {
+            value.append("x");
+        }
+        JsonTraceReader reader = mapped("{\"name\": \"foo\", \"value\": \"" +
+                value + "\", \"timestamp\": 1}\n");
+        assertEquals(value.toString(),
+                reader.next().asSimpleMessage().getValue());
+    }
+
+    @Test
+    public void emptyBuffer() throws IOException {
+        assertNull(mapped("").next());
+    }
+}
@@ -0,0 +1,93 @@
+package com.openxc.sources.trace;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReadAheadTraceReaderTest {
+    private static class CountingReader implements TraceReader {
+        final int mCount;
+        int mRead;
+        IOException mError;
+        AtomicBoolean mClosed = new AtomicBoolean(false);
+
+        CountingReader(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public VehicleMessage next() throws IOException {
+            if(mRead == mCount) {
+                if(mError != null) {
+                    throw mError;
+                }
+                return null;
+            }
+            return new SimpleVehicleMessage(1000L + mRead, "foo", mRead++);
+        }
+
+        @Override
+        public void close() {
+            mClosed.set(true);
+        }
+    }
+
+    @Test
+    public void readsEverythingInOrder() throws IOException {
+        CountingReader source = new CountingReader(5000);
+        ReadAheadTraceReader reader = new ReadAheadTraceReader(source, 16);
+        for(int i = 0; i < 5000; i++) {
+            VehicleMessage message = reader.next();
+            assertEquals(i, message.asSimpleMessage().getValue());
+        }
+        assertNull(reader.next());
+        reader.close();
+        assertTrue(source.mClosed.get());
+    }
+
+    @Test
+    public void parsesAhead() throws Exception {
+        ReadAheadTraceReader reader = new ReadAheadTraceReader(
+                new CountingReader(100), 16);
+        long deadline = System.currentTimeMillis() + 5000;
+        while(reader.getQueueDepth() < 16 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(16, reader.getQueueDepth());
+        reader.close();
+    }
+
+    @Test
+    public void closeStopsWaitingParser() throws IOException {
+        CountingReader source = new CountingReader(Integer.MAX_VALUE);
+        ReadAheadTraceReader reader = new ReadAheadTraceReader(source, 4);
+        reader.next();
+        reader.close();
+        assertTrue(source.mClosed.get());
+    }
+
+    @Test
+    public void errorReportedAfterMessages() {
+        CountingReader source = new CountingReader(2);
+        source.mError = new IOException("Truncated");
+        ReadAheadTraceReader reader = new ReadAheadTraceReader(source, 16);
+        try {
+            assertNotNull(reader.next());
+            assertNotNull(reader.next());
+            reader.next();
+            fail("Expected the parser's error");
+        } catch(IOException e) {
+            assertEquals("Truncated", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.openxc.sources.trace;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.openxc.messages.SimpleVehicleMessage;
+import com.openxc.messages.VehicleMessage;
+import com.openxc.messages.formatters.JsonFormatter;
+import com.openxc.messages.formatters.binary.BinaryTraceWriter;
+import com.openxc.sources.SourceCallback;
+import com.openxc.sources.VehicleDataSource;
+
+@RunWith(RobolectricTestRunner.class)
+public class TraceVehicleDataSourceTest {
+    File file;
+    TraceVehicleDataSource source;
+    List<VehicleMessage> received = new CopyOnWriteArrayList<>();
+    CountDownLatch finished = new CountDownLatch(1);
+    SimpleVehicleMessage first = new SimpleVehicleMessage(1400000000000L,
+            "vehicle_speed", 42.0);
+    SimpleVehicleMessage second = new SimpleVehicleMessage(1400000000010L,
+            "brake_pedal_status", true);
+
+    SourceCallback callback = new SourceCallback() {
+        @Override
+        public void receive(VehicleMessage message) {
+            received.add(message);
+        }
+
+        @Override
+        public void sourceConnected(VehicleDataSource source) { }
+
+        @Override
+        public void sourceDisconnected(VehicleDataSource source) {
+            finished.countDown();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("trace", ".trace");
+    }
+
+    @After
+    public void tearDown() {
+        if(source != null) {
+            source.stop();
+        }
+        file.delete();
+    }
+
+    private void play() throws Exception {
+        source = new TraceVehicleDataSource(callback, null, file.toURI(),
+                false);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, received.size());
+        assertEquals(first.getName(),
+                received.get(0).asSimpleMessage().getName());
+        assertEquals(second.getValue(),
+                received.get(1).asSimpleMessage().getValue());
+    }
+
+    @Test
+    public void playJsonTrace() throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(JsonFormatter.serialize(first) + "\n");
+        writer.write(JsonFormatter.serialize(second) + "\n");
+        writer.close();
+        play();
+    }
+
+    @Test
+    public void playBinaryTrace() throws Exception {
+        BinaryTraceWriter writer = new BinaryTraceWriter(
+                new FileOutputStream(file));
+        writer.write(first);
+        writer.write(second);
+        writer.close();
+        play();
+    }
+
+    private void writeLongTrace(int count, long interval) throws Exception {
+        BinaryTraceWriter writer = new BinaryTraceWriter(
+                new FileOutputStream(file), 64);
+        for(int i = 0; i < count; i++) {
+            writer.write(new SimpleVehicleMessage(
+                        first.getTimestamp() + i * interval, "foo", i));
+        }
+        writer.close();
+    }
+
+    private int valueAt(int index) {
+        return ((Number) received.get(index).asSimpleMessage().getValue())
+                .intValue();
+    }
+
+    @Test
+    public void unthrottled() throws Exception {
+        // An hour between messages
+        writeLongTrace(10, TimeUnit.HOURS.toMillis(1));
+        source = new TraceVehicleDataSource(null, file.toURI(), false);
+        source.setSpeed(TraceVehicleDataSource.UNTHROTTLED);
+        source.setCallback(callback);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(10, received.size());
+        assertEquals(10, source.getMessageCount());
+        assertTrue(source.getMessagesPerSecond() > 0);
+    }
+
+    @Test
+    public void speedMultiplier() throws Exception {
+        // 20 seconds of trace
+        writeLongTrace(21, 1000);
+        source = new TraceVehicleDataSource(null, file.toURI(), false);
+        source.setSpeed(100);
+        source.setCallback(callback);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(21, received.size());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidSpeed() throws Exception {
+        writeLongTrace(1, 0);
+        source = new TraceVehicleDataSource(null, file.toURI(), false);
+        source.setSpeed(0);
+    }
+
+    @Test
+    public void pauseAndStep() throws Exception {
+        writeLongTrace(10, 1);
+        source = new TraceVehicleDataSource(null, file.toURI(), false);
+        source.pause();
+        source.setCallback(callback);
+        Thread.sleep(100);
+        assertEquals(0, received.size());
+
+        source.step();
+        source.step();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(received.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(2, received.size());
+        assertEquals(1, valueAt(1));
+
+        source.resume();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(10, received.size());
+    }
+
+    private void seek() throws Exception {
+        source = new TraceVehicleDataSource(null, file.toURI(), false);
+        source.setSpeed(TraceVehicleDataSource.UNTHROTTLED);
+        source.seek(first.getTimestamp() + 50 * 10 - 5);
+        source.setCallback(callback);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(50, received.size());
+        assertEquals(50, valueAt(0));
+    }
+
+    @Test
+    public void seekBinaryTrace() throws Exception {
+        writeLongTrace(100, 10);
+        seek();
+    }
+
+    @Test
+    public void seekJsonTrace() throws Exception {
+        FileWriter writer = new FileWriter(file);
+        for(int i = 0; i < 100; i++) {
+            writer.write(JsonFormatter.serialize(new SimpleVehicleMessage(
+                        first.getTimestamp() + i * 10, "foo", i)) + "\n");
+        }
+        writer.close();
+        seek();
+    }
+}
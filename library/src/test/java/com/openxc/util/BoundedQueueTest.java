@@ -0,0 +1,210 @@
+package com.openxc.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.openxc.util.BoundedQueue.OverflowPolicy;
+
+public class BoundedQueueTest {
+    BoundedQueue<Integer> queue;
+
+    @Test
+    public void capacityRoundedToPowerOfTwo() {
+        queue = new BoundedQueue<>(5, OverflowPolicy.DROP_NEWEST);
+        assertThat(queue.getCapacity(), equalTo(8));
+    }
+
+    @Test
+    public void capacityAtLeastTwo() {
+        queue = new BoundedQueue<>(1, OverflowPolicy.DROP_NEWEST);
+        assertThat(queue.getCapacity(), equalTo(2));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void zeroCapacityRejected() {
+        new BoundedQueue<Integer>(0, OverflowPolicy.BLOCK);
+    }
+
+    @Test
+    public void pollInOrder() {
+        queue = new BoundedQueue<>(4, OverflowPolicy.DROP_NEWEST);
+        queue.offer(1);
+        queue.offer(2);
+        assertThat(queue.size(), equalTo(2));
+        assertThat(queue.poll(), equalTo(1));
+        assertThat(queue.poll(), equalTo(2));
+        assertThat(queue.poll(), nullValue());
+        assertThat(queue.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void offerWithoutWaitingDropsWhenFull() {
+        queue = new BoundedQueue<>(2, OverflowPolicy.BLOCK);
+        assertThat(queue.offerWithoutWaiting(1), equalTo(true));
+        assertThat(queue.offerWithoutWaiting(2), equalTo(true));
+        assertThat(queue.offerWithoutWaiting(3), equalTo(false));
+        assertThat(queue.getDroppedCount(), equalTo(1L));
+        assertThat(queue.poll(), equalTo(1));
+    }
+
+    @Test
+    public void wrapsAround() {
+        queue = new BoundedQueue<>(2, OverflowPolicy.DROP_NEWEST);
+        for(int i = 0; i < 10; i++) {
+            assertThat(queue.offer(i), equalTo(true));
+            assertThat(queue.poll(), equalTo(i));
+        }
+        assertThat(queue.getDroppedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void drainLimitedToMaxItems() {
+        queue = new BoundedQueue<>(8, OverflowPolicy.DROP_NEWEST);
+        for(int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+
+        List<Integer> batch = new ArrayList<>();
+        assertThat(queue.drainTo(batch, 3), equalTo(3));
+        assertThat(batch, contains(0, 1, 2));
+        assertThat(queue.drainTo(batch, 3), equalTo(2));
+        assertThat(batch, contains(0, 1, 2, 3, 4));
+        assertThat(queue.drainTo(batch, 3), equalTo(0));
+    }
+
+    @Test
+    public void dropNewestWhenFull() {
+        queue = new BoundedQueue<>(2, OverflowPolicy.DROP_NEWEST);
+        queue.offer(1);
+        queue.offer(2);
+        assertThat(queue.offer(3), equalTo(false));
+        assertThat(queue.getDroppedCount(), equalTo(1L));
+        assertThat(queue.poll(), equalTo(1));
+        assertThat(queue.poll(), equalTo(2));
+    }
+
+    @Test
+    public void dropOldestWhenFull() {
+        queue = new BoundedQueue<>(2, OverflowPolicy.DROP_OLDEST);
+        queue.offer(1);
+        queue.offer(2);
+        assertThat(queue.offer(3), equalTo(true));
+        assertThat(queue.getDroppedCount(), equalTo(1L));
+        assertThat(queue.poll(), equalTo(2));
+        assertThat(queue.poll(), equalTo(3));
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        queue = new BoundedQueue<>(2, OverflowPolicy.BLOCK);
+        queue.offer(1);
+        queue.offer(1);
+
+        final CountDownLatch offered = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queue.offer(2);
+                offered.countDown();
+            }
+        };
+        producer.start();
+
+        assertThat(offered.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+        assertThat(queue.poll(), equalTo(1));
+        assertThat(offered.await(5, TimeUnit.SECONDS), equalTo(true));
+        assertThat(queue.poll(), equalTo(1));
+        assertThat(queue.poll(), equalTo(2));
+        assertThat(queue.getDroppedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void closeReleasesBlockedProducer() throws InterruptedException {
+        queue = new BoundedQueue<>(2, OverflowPolicy.BLOCK);
+        queue.offer(1);
+        queue.offer(1);
+
+        final CountDownLatch offered = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queue.offer(2);
+                offered.countDown();
+            }
+        };
+        producer.start();
+        Thread.sleep(50);
+        queue.close();
+
+        assertThat(offered.await(5, TimeUnit.SECONDS), equalTo(true));
+        assertThat(queue.getDroppedCount(), equalTo(1L));
+        assertThat(queue.offer(3), equalTo(false));
+    }
+
+    @Test
+    public void awaitNotEmptyTimesOut() throws InterruptedException {
+        queue = new BoundedQueue<>(1, OverflowPolicy.BLOCK);
+        assertThat(queue.awaitNotEmpty(10, TimeUnit.MILLISECONDS),
+                equalTo(false));
+        queue.offer(1);
+        assertThat(queue.awaitNotEmpty(10, TimeUnit.MILLISECONDS),
+                equalTo(true));
+    }
+
+    @Test
+    public void manyProducersOneConsumer() throws InterruptedException {
+        final int producerCount = 4;
+        final int perProducer = 10000;
+        queue = new BoundedQueue<>(64, OverflowPolicy.BLOCK);
+
+        List<Thread> producers = new ArrayList<>();
+        for(int p = 0; p < producerCount; p++) {
+            final int base = p * perProducer;
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < perProducer; i++) {
+                        queue.offer(base + i);
+                    }
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+
+        int[] lastSeen = new int[producerCount];
+        Arrays.fill(lastSeen, -1);
+        List<Integer> batch = new ArrayList<>();
+        int received = 0;
+        while(received < producerCount * perProducer) {
+            if(queue.drainTo(batch, 16) == 0) {
+                queue.awaitNotEmpty(100, TimeUnit.MILLISECONDS);
+                continue;
+            }
+            for(Integer value : batch) {
+                int producer = value / perProducer;
+                // Each producer's items must arrive in the order they were
+                // offered.
+                assertThat(value % perProducer,
+                        greaterThan(lastSeen[producer]));
+                lastSeen[producer] = value % perProducer;
+            }
+            received += batch.size();
+            batch.clear();
+        }
+
+        for(Thread producer : producers) {
+            producer.join();
+        }
+        assertThat(queue.isEmpty(), equalTo(true));
+        assertThat(queue.getDroppedCount(), equalTo(0L));
+    }
+}
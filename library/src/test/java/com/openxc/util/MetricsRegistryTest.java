@@ -0,0 +1,150 @@
+package com.openxc.util;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.os.Parcel;
+
+@RunWith(RobolectricTestRunner.class)
+public class MetricsRegistryTest {
+    MetricsRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new MetricsRegistry();
+    }
+
+    @Test
+    public void counters() {
+        registry.counter("source.bytes").add(100);
+        registry.counter("source.bytes").add(28);
+        registry.counter("source.messages").increment();
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(128, snapshot.getValue("source.bytes"));
+        assertEquals(1, snapshot.getValue("source.messages"));
+        assertEquals(0, snapshot.getValue("missing"));
+    }
+
+    @Test
+    public void removeCounter() {
+        MetricsRegistry.Counter counter = registry.counter("source.bytes");
+        counter.add(100);
+        registry.removeCounter("source.bytes", new MetricsRegistry.Counter());
+        assertEquals(100, registry.snapshot().getValue("source.bytes"));
+        registry.removeCounter("source.bytes", counter);
+        assertFalse(registry.snapshot().getValues().containsKey(
+                    "source.bytes"));
+    }
+
+    @Test
+    public void gauges() {
+        final long[] depth = {3};
+        MetricsRegistry.Gauge gauge = new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return depth[0];
+            }
+        };
+        registry.addGauge("sink.queue_depth", gauge);
+        assertEquals(3, registry.snapshot().getValue("sink.queue_depth"));
+        depth[0] = 7;
+        assertEquals(7, registry.snapshot().getValue("sink.queue_depth"));
+
+        registry.removeGauge("sink.queue_depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return 0;
+            }
+        });
+        assertEquals(7, registry.snapshot().getValue("sink.queue_depth"));
+        registry.removeGauge("sink.queue_depth", gauge);
+        assertFalse(registry.snapshot().getValues().containsKey(
+                    "sink.queue_depth"));
+    }
+
+    @Test
+    public void instanceNamesUnique() {
+        Object first = new Object();
+        String firstName = MetricsRegistry.getInstanceName("sink", first);
+        String secondName = MetricsRegistry.getInstanceName("sink",
+                new Object());
+        assertTrue(firstName.startsWith("sink.Object#"));
+        assertTrue(secondName.startsWith("sink.Object#"));
+        assertFalse(firstName.equals(secondName));
+    }
+
+    @Test
+    public void histogramBuckets() {
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(1, LatencyHistogram.getBucket(1));
+        assertEquals(2, LatencyHistogram.getBucket(2));
+        assertEquals(2, LatencyHistogram.getBucket(3));
+        assertEquals(11, LatencyHistogram.getBucket(1500));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertTrue(1500 < LatencyHistogram.getBucketLimitMicros(11));
+    }
+
+    @Test
+    public void histogramSummary() {
+        LatencyHistogram histogram = registry.histogram("latency");
+        for(int i = 0; i < 99; i++) {
+            histogram.recordNanos(100 * 1000);
+        }
+        histogram.recordNanos(50 * 1000 * 1000);
+
+        MetricsSnapshot.Histogram summary =
+                registry.snapshot().getHistogram("latency");
+        assertEquals(100, summary.getCount());
+        assertEquals(50000, summary.getMaxMicros());
+        assertEquals((99 * 100 + 50000) / 100, summary.getMeanMicros());
+        assertEquals(128, summary.getPercentileMicros(0.5));
+        assertEquals(128, summary.getPercentileMicros(0.99));
+        assertEquals(50000, summary.getPercentileMicros(1));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        registry.histogram("latency");
+        MetricsSnapshot.Histogram summary =
+                registry.snapshot().getHistogram("latency");
+        assertEquals(0, summary.getCount());
+        assertEquals(0, summary.getMeanMicros());
+        assertEquals(0, summary.getPercentileMicros(0.99));
+    }
+
+    @Test
+    public void snapshotParcelable() {
+        registry.counter("source.bytes").add(42);
+        registry.histogram("latency").recordNanos(5000);
+        MetricsSnapshot snapshot = registry.snapshot();
+
+        Parcel parcel = Parcel.obtain();
+        snapshot.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        MetricsSnapshot unparceled =
+                MetricsSnapshot.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals(snapshot.getValues(), unparceled.getValues());
+        assertArrayEquals(snapshot.getHistogram("latency").getBuckets(),
+                unparceled.getHistogram("latency").getBuckets());
+        assertEquals(5, unparceled.getHistogram("latency").getMaxMicros());
+    }
+
+    @Test
+    public void dump() {
+        registry.counter("source.bytes").add(42);
+        StringWriter output = new StringWriter();
+        registry.snapshot().dump(new PrintWriter(output));
+        assertTrue(output.toString().contains("source.bytes: 42"));
+    }
+}
@@ -0,0 +1,198 @@
+package com.openxc.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+@RunWith(RobolectricTestRunner.class)
+public class SegmentedFileQueueTest {
+    File directory;
+    SegmentedFileQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDir();
+        queue = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queue.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private SegmentedFileQueue open() throws IOException {
+        return new SegmentedFileQueue(directory, 100, 1000);
+    }
+
+    private void append(int first, int count) throws IOException {
+        for(int i = first; i < first + count; i++) {
+            queue.append(("record " + i).getBytes(Charsets.UTF_8));
+        }
+    }
+
+    private String record(SegmentedFileQueue.Batch batch, int index) {
+        return new String(batch.getRecords().get(index), Charsets.UTF_8);
+    }
+
+    private int segmentCount() {
+        return directory.list().length - (new File(directory,
+                    "checkpoint").exists() ? 1 : 0);
+    }
+
+    @Test
+    public void emptyQueue() throws IOException {
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.peek(10, 1000).isEmpty());
+    }
+
+    @Test
+    public void peekDoesNotRemove() throws IOException {
+        append(0, 3);
+        assertEquals(3, queue.size());
+        SegmentedFileQueue.Batch batch = queue.peek(10, 1000);
+        assertEquals(3, batch.getRecords().size());
+        assertEquals("record 0", record(batch, 0));
+        assertEquals("record 2", record(batch, 2));
+        assertEquals(3, queue.peek(10, 1000).getRecords().size());
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void acknowledgeRemoves() throws IOException {
+        append(0, 5);
+        queue.acknowledge(queue.peek(2, 1000));
+        assertEquals(3, queue.size());
+        assertEquals("record 2", record(queue.peek(10, 1000), 0));
+    }
+
+    @Test
+    public void batchLimits() throws IOException {
+        append(0, 5);
+        assertEquals(2, queue.peek(2, 1000).getRecords().size());
+        // Each record is 8 bytes
+        assertEquals(3, queue.peek(10, 24).getRecords().size());
+        // Always at least one record
+        assertEquals(1, queue.peek(10, 1).getRecords().size());
+    }
+
+    @Test
+    public void readsAcrossSegments() throws IOException {
+        // 16 bytes per record with the header, so several segments
+        append(0, 30);
+        assertTrue(segmentCount() > 1);
+
+        int read = 0;
+        while(!queue.isEmpty()) {
+            SegmentedFileQueue.Batch batch = queue.peek(4, 1000);
+            for(int i = 0; i < batch.getRecords().size(); i++) {
+                assertEquals("record " + (read + i), record(batch, i));
+            }
+            read += batch.getRecords().size();
+            queue.acknowledge(batch);
+        }
+        assertEquals(30, read);
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws IOException {
+        append(0, 20);
+        queue.acknowledge(queue.peek(7, 1000));
+        queue.close();
+
+        queue = open();
+        assertEquals(13, queue.size());
+        assertEquals("record 7", record(queue.peek(1, 1000), 0));
+
+        append(20, 1);
+        assertEquals(14, queue.size());
+    }
+
+    @Test
+    public void unacknowledgedRecordsReadAgain() throws IOException {
+        append(0, 3);
+        queue.peek(10, 1000);
+        queue.close();
+
+        queue = open();
+        assertEquals(3, queue.size());
+        assertEquals("record 0", record(queue.peek(10, 1000), 0));
+    }
+
+    @Test
+    public void partialRecordDiscarded() throws IOException {
+        append(0, 3);
+        queue.close();
+
+        File segment = new File(directory, "0.segment");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        queue = open();
+        assertEquals(2, queue.size());
+        append(3, 1);
+        SegmentedFileQueue.Batch batch = queue.peek(10, 1000);
+        assertEquals(3, batch.getRecords().size());
+        assertEquals("record 3", record(batch, 2));
+    }
+
+    @Test
+    public void corruptCheckpointStartsFromOldestSegment() throws IOException {
+        append(0, 3);
+        queue.acknowledge(queue.peek(1, 1000));
+        queue.close();
+
+        FileOutputStream checkpoint = new FileOutputStream(
+                new File(directory, "checkpoint"));
+        checkpoint.write(new byte[] {1, 2, 3});
+        checkpoint.close();
+
+        queue = open();
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void dropsOldestSegmentWhenFull() throws IOException {
+        append(0, 100);
+        assertTrue(queue.getDroppedCount() > 0);
+        assertEquals(100, queue.size() + queue.getDroppedCount());
+        assertTrue(queue.getSizeOnDisk() <= 1000);
+
+        List<byte[]> records = queue.peek(1000, 100000).getRecords();
+        assertEquals(queue.size(), records.size());
+        assertEquals("record 99", new String(records.get(records.size() - 1),
+                    Charsets.UTF_8));
+    }
+
+    @Test
+    public void acknowledgeAfterDrop() throws IOException {
+        append(0, 5);
+        SegmentedFileQueue.Batch batch = queue.peek(5, 1000);
+        append(5, 95);
+        long size = queue.size();
+        queue.acknowledge(batch);
+        assertEquals(size, queue.size());
+    }
+
+    @Test(expected=IOException.class)
+    public void closed() throws IOException {
+        queue.close();
+        append(0, 1);
+    }
+}